@@ -0,0 +1,202 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration.TENANT_ALLNAMESPACES_PLACEHOLDER;
+import static io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration.TENANT_PLACEHOLDER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PREWARM_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PREWARM_PENDING_TOPICS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import io.streamnative.pulsar.handlers.kop.storage.ReplicaManager;
+import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.pulsar.common.naming.NamespaceName;
+import org.apache.pulsar.common.naming.TopicName;
+
+/**
+ * Pre-warm the topics of a namespace bundle when it's loaded by this broker.
+ *
+ * <p>Without pre-warming, the first request after a bundle is moved to this broker pays for opening the managed
+ * ledger, recovering the producer state and looking up the topic. For each loaded topic in the Kafka namespaces, the
+ * {@link io.streamnative.pulsar.handlers.kop.storage.PartitionLog} is created and initialized in background and the
+ * lookup result is cached. For the topics in the metadata namespace, the coordinators of the tenant are created so
+ * that the offsets and transaction partitions are loaded by their own listeners.
+ *
+ * <p>A bundle might have thousands of topics, so at most {@code kopPrewarmMaxInFlightTopics} topics are pre-warmed
+ * at the same time and the others wait in a queue, to avoid flooding the lookups and the topic loads when the broker
+ * takes the ownership.
+ */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP bundle pre-warm stats"
+)
+@Slf4j
+public class BundlePrewarmer implements TopicOwnershipListener {
+
+    private final KafkaServiceConfiguration kafkaConfig;
+    private final ReplicaManager replicaManager;
+    private final KopBrokerLookupManager kopBrokerLookupManager;
+    private final Consumer<String> coordinatorsBootstrap;
+    private final Executor executor;
+    private final AtomicInteger pendingTopics = new AtomicInteger(0);
+    // The topics that wait for an in-flight pre-warm to complete
+    private final Queue<TopicName> waitingTopics = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlightPermits;
+
+    @StatsDoc(
+            name = PREWARM_LATENCY,
+            help = "latency of pre-warming a topic partition after its bundle is loaded"
+    )
+    private final OpStatsLogger prewarmLatency;
+
+    public BundlePrewarmer(KafkaServiceConfiguration kafkaConfig,
+                           ReplicaManager replicaManager,
+                           KopBrokerLookupManager kopBrokerLookupManager,
+                           Consumer<String> coordinatorsBootstrap,
+                           Executor executor,
+                           StatsLogger statsLogger) {
+        this.kafkaConfig = kafkaConfig;
+        this.replicaManager = replicaManager;
+        this.kopBrokerLookupManager = kopBrokerLookupManager;
+        this.coordinatorsBootstrap = coordinatorsBootstrap;
+        this.executor = executor;
+        this.inFlightPermits = new Semaphore(Math.max(kafkaConfig.getKopPrewarmMaxInFlightTopics(), 1));
+        this.prewarmLatency = statsLogger.getOpStatsLogger(PREWARM_LATENCY);
+        statsLogger.registerGauge(PREWARM_PENDING_TOPICS, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return pendingTopics.get();
+            }
+        });
+    }
+
+    @Override
+    public void whenLoad(TopicName topicName) {
+        if (topicName.getNamespacePortion().equals(kafkaConfig.getKafkaMetadataNamespace())) {
+            if (KopTopic.isInternalTopic(topicName.toString(), kafkaConfig.getKafkaMetadataNamespace())) {
+                // The coordinator might be created synchronously, so don't block the bundle listener
+                executor.execute(() -> coordinatorsBootstrap.accept(topicName.getTenant()));
+            }
+            return;
+        }
+        pendingTopics.incrementAndGet();
+        waitingTopics.add(topicName);
+        prewarmWaitingTopics();
+    }
+
+    private void prewarmWaitingTopics() {
+        while (inFlightPermits.tryAcquire()) {
+            final TopicName topicName = waitingTopics.poll();
+            if (topicName == null) {
+                inFlightPermits.release();
+                // a topic might be added after the poll and before the release, it's pre-warmed in the next loop
+                if (waitingTopics.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            prewarmTopic(topicName).whenComplete((__, ___) -> {
+                pendingTopics.decrementAndGet();
+                inFlightPermits.release();
+                executor.execute(this::prewarmWaitingTopics);
+            });
+        }
+    }
+
+    private CompletableFuture<Void> prewarmTopic(TopicName topicName) {
+        // KoP treats a non-partitioned topic as the partition 0
+        final TopicPartition topicPartition = new TopicPartition(topicName.getPartitionedTopicName(),
+                Math.max(topicName.getPartitionIndex(), 0));
+        final String namespacePrefix = topicName.getNamespace();
+        final long startNanos = MathUtils.nowInNano();
+        final CompletableFuture<?> logFuture;
+        try {
+            logFuture = replicaManager.getPartitionLog(topicPartition, namespacePrefix).awaitInitialisation();
+        } catch (Throwable e) {
+            log.warn("Failed to pre-warm {}", topicName, e);
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<?> lookupFuture = kopBrokerLookupManager.findBroker(
+                KopTopic.toString(topicPartition, namespacePrefix), null);
+        return CompletableFuture.allOf(logFuture, lookupFuture).whenComplete((__, e) -> {
+            if (e == null) {
+                prewarmLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+                if (log.isDebugEnabled()) {
+                    log.debug("Pre-warmed {} in {} ms", topicName,
+                            TimeUnit.NANOSECONDS.toMillis(MathUtils.elapsedNanos(startNanos)));
+                }
+            } else {
+                prewarmLatency.registerFailedEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+                // The failed PartitionLog is removed and will be initialized again by the first request
+                log.warn("Failed to pre-warm {}: {}", topicName, e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public String name() {
+        return "BundlePrewarmer";
+    }
+
+    @Override
+    public boolean interestedInEvent(NamespaceName namespaceName, EventType event) {
+        if (event != EventType.LOAD) {
+            return false;
+        }
+        if (namespaceName.getLocalName().equals(kafkaConfig.getKafkaMetadataNamespace())) {
+            return kafkaConfig.isKafkaEnableMultiTenantMetadata();
+        }
+        return isKafkaNamespace(namespaceName, kafkaConfig.getKopAllowedNamespaces());
+    }
+
+    static boolean isKafkaNamespace(NamespaceName namespaceName, Set<String> allowedNamespaces) {
+        for (String namespaceTemplate : allowedNamespaces) {
+            final int slash = namespaceTemplate.indexOf('/');
+            if (slash < 0) {
+                continue;
+            }
+            final String tenant = namespaceTemplate.substring(0, slash);
+            final String namespace = namespaceTemplate.substring(slash + 1);
+            if ((tenant.equals(TENANT_PLACEHOLDER) || tenant.equals(namespaceName.getTenant()))
+                    && (namespace.equals(TENANT_ALLNAMESPACES_PLACEHOLDER)
+                        || namespace.equals(namespaceName.getLocalName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.COORDINATOR_BOOTSTRAP_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.COORDINATOR_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TENANT_SCOPE;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * Bootstrap the tenant level coordinators asynchronously.
+ *
+ * <p>Creating a coordinator creates the metadata namespace and topics if missing and starts the coordinator, which
+ * could take seconds. The creation runs on the given executor so that the callers (e.g. the Netty I/O threads) are
+ * not blocked, and the concurrent callers of the same tenant share the same in-flight future. A failed bootstrap is
+ * not cached, the next caller will retry it.
+ *
+ * @param <T> the coordinator type
+ */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP coordinator bootstrap stats"
+)
+@Slf4j
+public class CoordinatorBootstrapper<T> {
+
+    private final String coordinatorType;
+    private final Map<String, T> coordinators;
+    private final Map<String, CompletableFuture<T>> pendingBootstraps = new ConcurrentHashMap<>();
+    private final Function<String, T> creator;
+    private final OrderedExecutor executor;
+    // The COORDINATOR_BOOTSTRAP_LATENCY is labeled by the coordinator type and the tenant
+    private final StatsLogger statsLogger;
+
+    /**
+     * @param coordinatorType the coordinator type, which is used as the value of the coordinator label
+     * @param coordinators the map of the bootstrapped coordinators, which is updated by this bootstrapper
+     * @param creator the function to create and start the coordinator of a tenant
+     * @param executor the executor to run the creator, the bootstraps of the same tenant are ordered
+     * @param statsLogger the stats logger
+     */
+    public CoordinatorBootstrapper(String coordinatorType,
+                                   Map<String, T> coordinators,
+                                   Function<String, T> creator,
+                                   OrderedExecutor executor,
+                                   StatsLogger statsLogger) {
+        this.coordinatorType = coordinatorType;
+        this.coordinators = coordinators;
+        this.creator = creator;
+        this.executor = executor;
+        this.statsLogger = statsLogger.scopeLabel(COORDINATOR_SCOPE, coordinatorType);
+    }
+
+    /**
+     * Get the coordinator of the tenant, bootstrap it if it's not bootstrapped.
+     *
+     * @param tenant the tenant
+     * @return the future of the coordinator
+     */
+    public CompletableFuture<T> getAsync(String tenant) {
+        final T coordinator = coordinators.get(tenant);
+        if (coordinator != null) {
+            return CompletableFuture.completedFuture(coordinator);
+        }
+        final CompletableFuture<T> newFuture = new CompletableFuture<>();
+        final CompletableFuture<T> pendingFuture = pendingBootstraps.putIfAbsent(tenant, newFuture);
+        if (pendingFuture != null) {
+            return pendingFuture;
+        }
+        try {
+            executor.executeOrdered(tenant, () -> bootstrap(tenant, newFuture));
+        } catch (Throwable e) {
+            pendingBootstraps.remove(tenant, newFuture);
+            newFuture.completeExceptionally(e);
+        }
+        return newFuture;
+    }
+
+    /**
+     * Get the coordinator of the tenant synchronously, bootstrap it if it's not bootstrapped.
+     *
+     * <p>It should not be called in the thread of the executor.
+     *
+     * @param tenant the tenant
+     * @return the coordinator
+     */
+    public T get(String tenant) {
+        final T coordinator = coordinators.get(tenant);
+        if (coordinator != null) {
+            return coordinator;
+        }
+        try {
+            return getAsync(tenant).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void bootstrap(String tenant, CompletableFuture<T> future) {
+        final long startNanos = MathUtils.nowInNano();
+        try {
+            // The coordinator might have been bootstrapped after the previous pending future was removed
+            T coordinator = coordinators.get(tenant);
+            if (coordinator == null) {
+                coordinator = creator.apply(tenant);
+                final long elapsedNanos = MathUtils.elapsedNanos(startNanos);
+                statsLogger.scopeLabel(TENANT_SCOPE, tenant).getOpStatsLogger(COORDINATOR_BOOTSTRAP_LATENCY)
+                        .registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                log.info("Bootstrapped the {} coordinator of tenant {} in {} ms", coordinatorType, tenant,
+                        TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+                coordinators.put(tenant, coordinator);
+            }
+            pendingBootstraps.remove(tenant, future);
+            future.complete(coordinator);
+        } catch (Throwable e) {
+            statsLogger.scopeLabel(TENANT_SCOPE, tenant).getOpStatsLogger(COORDINATOR_BOOTSTRAP_LATENCY)
+                    .registerFailedEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            log.error("Failed to bootstrap the {} coordinator of tenant {}", coordinatorType, tenant, e);
+            pendingBootstraps.remove(tenant, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    @VisibleForTesting
+    int numPendingBootstraps() {
+        return pendingBootstraps.size();
+    }
+}
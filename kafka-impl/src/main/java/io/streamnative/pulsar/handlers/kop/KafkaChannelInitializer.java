@@ -52,6 +52,7 @@ public class KafkaChannelInitializer extends ChannelInitializer<SocketChannel> {
     private final KafkaTopicManagerSharedState kafkaTopicManagerSharedState;
     private final KafkaTopicLookupService kafkaTopicLookupService;
     private final LookupClient lookupClient;
+    private final MetadataResponseCache metadataResponseCache;
 
     private final AdminManager adminManager;
     private DelayedOperationPurgatory<DelayedOperation> producePurgatory;
@@ -84,7 +85,8 @@ public class KafkaChannelInitializer extends ChannelInitializer<SocketChannel> {
                                    OrderedScheduler sendResponseScheduler,
                                    KafkaTopicManagerSharedState kafkaTopicManagerSharedState,
                                    KafkaTopicLookupService kafkaTopicLookupService,
-                                   LookupClient lookupClient) {
+                                   LookupClient lookupClient,
+                                   MetadataResponseCache metadataResponseCache) {
         super();
         this.pulsarService = pulsarService;
         this.kafkaConfig = kafkaConfig;
@@ -108,6 +110,7 @@ public class KafkaChannelInitializer extends ChannelInitializer<SocketChannel> {
         this.kafkaTopicManagerSharedState = kafkaTopicManagerSharedState;
         this.lengthFieldPrepender = new LengthFieldPrepender(4);
         this.kafkaTopicLookupService = kafkaTopicLookupService;
+        this.metadataResponseCache = metadataResponseCache;
     }
 
     @Override
@@ -133,7 +136,7 @@ public class KafkaChannelInitializer extends ChannelInitializer<SocketChannel> {
                 tenantContextManager, replicaManager, kopBrokerLookupManager, adminManager,
                 producePurgatory, fetchPurgatory,
                 enableTls, advertisedEndPoint, skipMessagesWithoutIndex, requestStats, sendResponseScheduler,
-                kafkaTopicManagerSharedState, kafkaTopicLookupService, lookupClient);
+                kafkaTopicManagerSharedState, kafkaTopicLookupService, lookupClient, metadataResponseCache);
     }
 
     @VisibleForTesting
@@ -144,6 +147,6 @@ public class KafkaChannelInitializer extends ChannelInitializer<SocketChannel> {
                 enableTls, advertisedEndPoint, skipMessagesWithoutIndex,
                 requestStats,
                 sendResponseScheduler,
-                kafkaTopicManagerSharedState, kafkaTopicLookupService, lookupClient);
+                kafkaTopicManagerSharedState, kafkaTopicLookupService, lookupClient, metadataResponseCache);
     }
 }
@@ -26,6 +26,8 @@ import io.netty.util.ReferenceCountUtil;
 import java.io.Closeable;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -52,6 +54,7 @@ import org.apache.kafka.common.requests.ProduceRequest;
 import org.apache.kafka.common.requests.RequestHeader;
 import org.apache.kafka.common.requests.ResponseCallbackWrapper;
 import org.apache.kafka.common.requests.ResponseHeader;
+import org.apache.pulsar.common.util.FutureUtil;
 
 
 /**
@@ -59,6 +62,8 @@ import org.apache.kafka.common.requests.ResponseHeader;
  */
 @Slf4j
 public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
+    protected static final CompletableFuture<Void> PREPARED = CompletableFuture.completedFuture(null);
+
     protected ChannelHandlerContext ctx;
     @Getter
     protected SocketAddress remoteAddress;
@@ -73,6 +78,9 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
     protected final KafkaServiceConfiguration kafkaConfig;
 
     private final OrderedScheduler sendResponseScheduler;
+    // The requests that wait for the previous requests to be prepared, it's only accessed in the I/O thread of the
+    // channel
+    private final Queue<PendingDispatch> pendingDispatches = new ArrayDeque<>();
 
     public KafkaCommandDecoder(RequestStats requestStats,
                                KafkaServiceConfiguration kafkaConfig,
@@ -280,101 +288,15 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
             if (!isActive.get()) {
                 handleInactive(kafkaHeaderAndRequest, responseFuture);
             } else {
-                switch (kafkaHeaderAndRequest.getHeader().apiKey()) {
-                    case API_VERSIONS:
-                        handleApiVersionsRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case METADATA:
-                        handleTopicMetadataRequest(kafkaHeaderAndRequest, responseFuture);
-                        // this is special, wait Metadata command return, before execute other command?
-                        // responseFuture.get();
-                        break;
-                    case PRODUCE:
-                        handleProduceRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case FIND_COORDINATOR:
-                        handleFindCoordinatorRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case LIST_OFFSETS:
-                        handleListOffsetRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case OFFSET_FETCH:
-                        handleOffsetFetchRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case OFFSET_COMMIT:
-                        handleOffsetCommitRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case FETCH:
-                        handleFetchRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case JOIN_GROUP:
-                        handleJoinGroupRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case SYNC_GROUP:
-                        handleSyncGroupRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case HEARTBEAT:
-                        handleHeartbeatRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case LEAVE_GROUP:
-                        handleLeaveGroupRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case DESCRIBE_GROUPS:
-                        handleDescribeGroupRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case LIST_GROUPS:
-                        handleListGroupsRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case DELETE_GROUPS:
-                        handleDeleteGroupsRequest(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case SASL_HANDSHAKE:
-                        handleSaslHandshake(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case SASL_AUTHENTICATE:
-                        handleSaslAuthenticate(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case CREATE_TOPICS:
-                        handleCreateTopics(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case INIT_PRODUCER_ID:
-                        handleInitProducerId(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case ADD_PARTITIONS_TO_TXN:
-                        handleAddPartitionsToTxn(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case ADD_OFFSETS_TO_TXN:
-                        handleAddOffsetsToTxn(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case TXN_OFFSET_COMMIT:
-                        handleTxnOffsetCommit(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case END_TXN:
-                        handleEndTxn(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case WRITE_TXN_MARKERS:
-                        handleWriteTxnMarkers(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case DESCRIBE_CONFIGS:
-                        handleDescribeConfigs(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case ALTER_CONFIGS:
-                        handleAlterConfigs(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case DELETE_TOPICS:
-                        handleDeleteTopics(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case DELETE_RECORDS:
-                        handleDeleteRecords(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case CREATE_PARTITIONS:
-                        handleCreatePartitions(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    case DESCRIBE_CLUSTER:
-                        handleDescribeCluster(kafkaHeaderAndRequest, responseFuture);
-                        break;
-                    default:
-                        handleError(kafkaHeaderAndRequest, responseFuture);
+                final CompletableFuture<Void> prepareFuture = prepareRequest(kafkaHeaderAndRequest);
+                if (pendingDispatches.isEmpty() && prepareFuture.isDone()
+                        && !prepareFuture.isCompletedExceptionally()) {
+                    dispatchRequest(kafkaHeaderAndRequest, responseFuture);
+                } else {
+                    // Once a request is waiting to be prepared, the following requests of the channel wait behind it
+                    // so that the requests are still dispatched in the order they are received
+                    pendingDispatches.add(new PendingDispatch(kafkaHeaderAndRequest, responseFuture, prepareFuture));
+                    drainPendingDispatches();
                 }
             }
         } catch (Exception e) {
@@ -386,6 +308,156 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * Dispatch the pending requests in order until the first request that is not prepared. It's called in the I/O
+     * thread of the channel, and it's called again in the I/O thread after the first request is prepared.
+     */
+    private void drainPendingDispatches() {
+        PendingDispatch pendingDispatch;
+        while ((pendingDispatch = pendingDispatches.peek()) != null) {
+            final CompletableFuture<Void> prepareFuture = pendingDispatch.prepareFuture;
+            if (!prepareFuture.isDone()) {
+                if (!pendingDispatch.waiting) {
+                    pendingDispatch.waiting = true;
+                    prepareFuture.whenCompleteAsync((__, ___) -> drainPendingDispatches(), ctx.executor());
+                }
+                return;
+            }
+            pendingDispatches.poll();
+            final KafkaHeaderAndRequest kafkaHeaderAndRequest = pendingDispatch.kafkaHeaderAndRequest;
+            final CompletableFuture<AbstractResponse> responseFuture = pendingDispatch.responseFuture;
+            if (prepareFuture.isCompletedExceptionally()) {
+                final Throwable error = prepareFuture.handle((__, e) -> e).join();
+                responseFuture.complete(kafkaHeaderAndRequest.getRequest()
+                        .getErrorResponse(FutureUtil.unwrapCompletionException(error)));
+                continue;
+            }
+            try {
+                if (!isActive.get()) {
+                    handleInactive(kafkaHeaderAndRequest, responseFuture);
+                } else {
+                    dispatchRequest(kafkaHeaderAndRequest, responseFuture);
+                }
+            } catch (Exception e) {
+                log.error("error while handle command:", e);
+                close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prepare the request before it's dispatched to the handler, e.g. wait for the dependencies of the request to be
+     * ready. The request is dispatched after the returned future is completed. If the future fails, the request is
+     * responded with the error of the future.
+     *
+     * @param kafkaHeaderAndRequest the request
+     * @return the future that is completed when the request can be dispatched
+     */
+    protected CompletableFuture<Void> prepareRequest(KafkaHeaderAndRequest kafkaHeaderAndRequest) {
+        return PREPARED;
+    }
+
+    private void dispatchRequest(KafkaHeaderAndRequest kafkaHeaderAndRequest,
+                                 CompletableFuture<AbstractResponse> responseFuture) {
+        switch (kafkaHeaderAndRequest.getHeader().apiKey()) {
+            case API_VERSIONS:
+                handleApiVersionsRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case METADATA:
+                handleTopicMetadataRequest(kafkaHeaderAndRequest, responseFuture);
+                // this is special, wait Metadata command return, before execute other command?
+                // responseFuture.get();
+                break;
+            case PRODUCE:
+                handleProduceRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case FIND_COORDINATOR:
+                handleFindCoordinatorRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case LIST_OFFSETS:
+                handleListOffsetRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case OFFSET_FETCH:
+                handleOffsetFetchRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case OFFSET_COMMIT:
+                handleOffsetCommitRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case FETCH:
+                handleFetchRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case JOIN_GROUP:
+                handleJoinGroupRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case SYNC_GROUP:
+                handleSyncGroupRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case HEARTBEAT:
+                handleHeartbeatRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case LEAVE_GROUP:
+                handleLeaveGroupRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case DESCRIBE_GROUPS:
+                handleDescribeGroupRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case LIST_GROUPS:
+                handleListGroupsRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case DELETE_GROUPS:
+                handleDeleteGroupsRequest(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case SASL_HANDSHAKE:
+                handleSaslHandshake(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case SASL_AUTHENTICATE:
+                handleSaslAuthenticate(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case CREATE_TOPICS:
+                handleCreateTopics(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case INIT_PRODUCER_ID:
+                handleInitProducerId(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case ADD_PARTITIONS_TO_TXN:
+                handleAddPartitionsToTxn(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case ADD_OFFSETS_TO_TXN:
+                handleAddOffsetsToTxn(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case TXN_OFFSET_COMMIT:
+                handleTxnOffsetCommit(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case END_TXN:
+                handleEndTxn(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case WRITE_TXN_MARKERS:
+                handleWriteTxnMarkers(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case DESCRIBE_CONFIGS:
+                handleDescribeConfigs(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case ALTER_CONFIGS:
+                handleAlterConfigs(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case DELETE_TOPICS:
+                handleDeleteTopics(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case DELETE_RECORDS:
+                handleDeleteRecords(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case CREATE_PARTITIONS:
+                handleCreatePartitions(kafkaHeaderAndRequest, responseFuture);
+                break;
+            case DESCRIBE_CLUSTER:
+                handleDescribeCluster(kafkaHeaderAndRequest, responseFuture);
+                break;
+            default:
+                handleError(kafkaHeaderAndRequest, responseFuture);
+        }
+    }
+
     // Write and flush continuously completed request back through channel.
     // This is to make sure request get responseFuture in the same order.
     protected void writeAndFlushResponseToClient(Channel channel) {
@@ -749,6 +821,22 @@ public abstract class KafkaCommandDecoder extends ChannelInboundHandlerAdapter {
     /**
      * A class that stores Kafka request and its related responseFuture.
      */
+    private static class PendingDispatch {
+        private final KafkaHeaderAndRequest kafkaHeaderAndRequest;
+        private final CompletableFuture<AbstractResponse> responseFuture;
+        private final CompletableFuture<Void> prepareFuture;
+        // whether the drain is scheduled after the prepare future is completed
+        private boolean waiting = false;
+
+        PendingDispatch(KafkaHeaderAndRequest kafkaHeaderAndRequest,
+                        CompletableFuture<AbstractResponse> responseFuture,
+                        CompletableFuture<Void> prepareFuture) {
+            this.kafkaHeaderAndRequest = kafkaHeaderAndRequest;
+            this.responseFuture = responseFuture;
+            this.prepareFuture = prepareFuture;
+        }
+    }
+
     static class ResponseAndRequest {
         @Getter
         private final CompletableFuture<AbstractResponse> responseFuture;
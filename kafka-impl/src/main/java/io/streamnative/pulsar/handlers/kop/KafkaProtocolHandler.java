@@ -30,6 +30,7 @@ import io.streamnative.pulsar.handlers.kop.migration.MigrationManager;
 import io.streamnative.pulsar.handlers.kop.schemaregistry.SchemaRegistryChannelInitializer;
 import io.streamnative.pulsar.handlers.kop.stats.PrometheusMetricsProvider;
 import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import io.streamnative.pulsar.handlers.kop.storage.AppendRecordsContext;
 import io.streamnative.pulsar.handlers.kop.storage.MemoryProducerStateManagerSnapshotBuffer;
 import io.streamnative.pulsar.handlers.kop.storage.ProducerStateManagerSnapshotBuffer;
 import io.streamnative.pulsar.handlers.kop.storage.ReplicaManager;
@@ -59,6 +60,8 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.kafka.common.internals.Topic;
 import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
 import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.PulsarServerException;
 import org.apache.pulsar.broker.ServiceConfiguration;
@@ -105,6 +108,9 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
     private KafkaServiceConfiguration kafkaConfig;
     private BrokerService brokerService;
     private KafkaTopicManagerSharedState kafkaTopicManagerSharedState;
+    @VisibleForTesting
+    @Getter
+    private MetadataResponseCache metadataResponseCache;
 
     @Getter
     private KopEventManager kopEventManager;
@@ -119,6 +125,7 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
     private ReplicaManager replicaManager;
 
     private ScheduledFuture<?> txUpdatedPurgeAbortedTxOffsetsTimeHandle;
+    private ScheduledFuture<?> partitionLogEvictionTimeHandle;
 
     private final Map<String, GroupCoordinator> groupCoordinatorsByTenant = new ConcurrentHashMap<>();
     private final Map<String, TransactionCoordinator> transactionCoordinatorByTenant = new ConcurrentHashMap<>();
@@ -127,9 +134,18 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
     @Getter
     private OrderedExecutor recoveryExecutor;
 
+    private OrderedExecutor coordinatorBootstrapExecutor;
+    private CoordinatorBootstrapper<GroupCoordinator> groupCoordinatorBootstrapper;
+    private CoordinatorBootstrapper<TransactionCoordinator> transactionCoordinatorBootstrapper;
+
     @Override
     public GroupCoordinator getGroupCoordinator(String tenant) {
-        return groupCoordinatorsByTenant.computeIfAbsent(tenant, this::createAndBootGroupCoordinator);
+        return groupCoordinatorBootstrapper.get(tenant);
+    }
+
+    @Override
+    public CompletableFuture<GroupCoordinator> getGroupCoordinatorAsync(String tenant) {
+        return groupCoordinatorBootstrapper.getAsync(tenant);
     }
 
     @VisibleForTesting
@@ -139,7 +155,12 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
 
     @Override
     public TransactionCoordinator getTransactionCoordinator(String tenant) {
-        return transactionCoordinatorByTenant.computeIfAbsent(tenant, this::createAndBootTransactionCoordinator);
+        return transactionCoordinatorBootstrapper.get(tenant);
+    }
+
+    @Override
+    public CompletableFuture<TransactionCoordinator> getTransactionCoordinatorAsync(String tenant) {
+        return transactionCoordinatorBootstrapper.getAsync(tenant);
     }
 
     public ReplicaManager getReplicaManager() {
@@ -231,6 +252,7 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             throw new IllegalStateException(ex);
         }
         kafkaTopicManagerSharedState = new KafkaTopicManagerSharedState(brokerService, kopBrokerLookupManager);
+        metadataResponseCache = new MetadataResponseCache(kafkaConfig, requestStats.getStatsLogger());
 
         // Listener for invalidating the global Broker ownership cache
         bundleListener = new NamespaceBundleOwnershipListenerImpl(brokerService);
@@ -241,17 +263,27 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             public void whenUnload(TopicName topicName) {
                 invalidateBundleCache(topicName);
                 invalidatePartitionLog(topicName);
+                metadataResponseCache.invalidateTopic(topicName.getPartitionedTopicName());
             }
 
             @Override
             public void whenDelete(TopicName topicName) {
                 invalidateBundleCache(topicName);
                 invalidatePartitionLog(topicName);
+                metadataResponseCache.invalidateTopic(topicName.getPartitionedTopicName());
+            }
+
+            @Override
+            public void whenLoad(TopicName topicName) {
+                // The cached METADATA responses might point to the previous owner
+                metadataResponseCache.invalidateTopic(topicName.getPartitionedTopicName());
             }
 
             @Override
             public boolean interestedInEvent(NamespaceName namespaceName, EventType event) {
                 switch (event) {
+                    case LOAD:
+                        return metadataResponseCache.isEnabled();
                     case UNLOAD:
                     case DELETE:
                         return true;
@@ -287,6 +319,22 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                 .numThreads(kafkaConfig.getKafkaTransactionRecoveryNumThreads())
                 .build();
 
+        coordinatorBootstrapExecutor = OrderedExecutor
+                .newBuilder()
+                .name("kop-coordinator-bootstrap")
+                .numThreads(kafkaConfig.getKopCoordinatorBootstrapNumThreads())
+                .build();
+        groupCoordinatorBootstrapper = new CoordinatorBootstrapper<>("group",
+                groupCoordinatorsByTenant,
+                this::createAndBootGroupCoordinator,
+                coordinatorBootstrapExecutor,
+                requestStats.getStatsLogger());
+        transactionCoordinatorBootstrapper = new CoordinatorBootstrapper<>("transaction",
+                transactionCoordinatorByTenant,
+                this::createAndBootTransactionCoordinator,
+                coordinatorBootstrapExecutor,
+                requestStats.getStatsLogger());
+
         if (kafkaConfig.isKafkaManageSystemNamespaces()) {
             // initialize default Group Coordinator
             getGroupCoordinator(kafkaConfig.getKafkaMetadataTenant());
@@ -297,7 +345,8 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                 brokerService.getPulsar().getLocalMetadataStore(),
                 requestStats.getStatsLogger(),
                 kafkaConfig,
-                groupCoordinatorsByTenant);
+                groupCoordinatorsByTenant,
+                metadataResponseCache);
         kopEventManager.start();
 
         if (kafkaConfig.isKafkaTransactionCoordinatorEnabled() && kafkaConfig.isKafkaManageSystemNamespaces()) {
@@ -323,6 +372,24 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                     kafkaConfig.getKafkaTxnPurgeAbortedTxnIntervalSeconds(),
                     TimeUnit.SECONDS);
         }
+
+        if ((kafkaConfig.getKafkaPartitionLogIdleTimeoutMs() > 0 || kafkaConfig.getKafkaPartitionLogMaxCount() > 0)
+                && kafkaConfig.getKafkaPartitionLogEvictionIntervalMs() > 0) {
+            partitionLogEvictionTimeHandle = service.getPulsar().getExecutor().scheduleWithFixedDelay(() -> {
+                        getReplicaManager().evictPartitionLogs();
+                    },
+                    kafkaConfig.getKafkaPartitionLogEvictionIntervalMs(),
+                    kafkaConfig.getKafkaPartitionLogEvictionIntervalMs(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void bootstrapCoordinators(String tenant) {
+        // The failures are logged by the bootstrappers and the next callers will retry
+        getGroupCoordinatorAsync(tenant);
+        if (kafkaConfig.isKafkaTransactionCoordinatorEnabled()) {
+            getTransactionCoordinatorAsync(tenant);
+        }
     }
 
     private TransactionCoordinator createAndBootTransactionCoordinator(String tenant) {
@@ -463,7 +530,8 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                 sendResponseScheduler,
                 kafkaTopicManagerSharedState,
                 kafkaTopicLookupService,
-                lookupClient);
+                lookupClient,
+                metadataResponseCache);
     }
 
     class ProducerStateManagerSnapshotProvider implements Function<String, ProducerStateManagerSnapshotBuffer> {
@@ -528,6 +596,16 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                     registryChannelInitializer -> builder.put(schemaRegistryManager.getAddress(),
                             registryChannelInitializer));
             channelInitializerMap = builder.build();
+
+            if (kafkaConfig.isKopPrewarmOnBundleLoadEnable()) {
+                // The ReplicaManager is required, so the listener can only be added here
+                bundleListener.addTopicOwnershipListener(new BundlePrewarmer(kafkaConfig,
+                        replicaManager,
+                        kopBrokerLookupManager,
+                        this::bootstrapCoordinators,
+                        brokerService.getPulsar().getExecutor(),
+                        requestStats.getStatsLogger()));
+            }
             return channelInitializerMap;
         } catch (Exception e){
             log.error("KafkaProtocolHandler newChannelInitializers failed with ", e);
@@ -540,6 +618,9 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
         if (txUpdatedPurgeAbortedTxOffsetsTimeHandle != null) {
             txUpdatedPurgeAbortedTxOffsetsTimeHandle.cancel(false);
         }
+        if (partitionLogEvictionTimeHandle != null) {
+            partitionLogEvictionTimeHandle.cancel(false);
+        }
 
         if (producePurgatory != null) {
             producePurgatory.shutdown();
@@ -568,6 +649,7 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             adminManager.shutdown();
         }
         recoveryExecutor.shutdown();
+        coordinatorBootstrapExecutor.shutdown();
 
         List<CompletableFuture<?>> closeHandles = new ArrayList<>();
         if (offsetTopicClient != null) {
@@ -635,6 +717,9 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             .offsetsRetentionCheckIntervalMs(kafkaConfig.getOffsetsRetentionCheckIntervalMs())
             .offsetsRetentionMs(TimeUnit.MINUTES.toMillis(kafkaConfig.getOffsetsRetentionMinutes()))
             .offsetCommitTimeoutMs(kafkaConfig.getOffsetCommitTimeoutMs())
+            .offsetsLoadBatchSize(kafkaConfig.getOffsetsLoadBatchSize())
+            .offsetsLoadConcurrency(kafkaConfig.getOffsetsLoadConcurrency())
+            .offsetCommitCoalesceWindowMs(kafkaConfig.getOffsetCommitCoalesceWindowMs())
             .build();
 
         GroupCoordinator groupCoordinator = GroupCoordinator.of(
@@ -646,7 +731,9 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
             SystemTimer.builder()
                 .executorName("group-coordinator-timer")
                 .build(),
-            Time.SYSTEM
+            Time.SYSTEM,
+            requestStats.getStatsLogger().scopeLabel(KopServerStats.TENANT_SCOPE, tenant),
+            kafkaConfig.getGroupCoordinatorNumThreads()
         );
         // always enable metadata expiration
         groupCoordinator.startup(true);
@@ -659,10 +746,14 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
         TransactionConfig transactionConfig = TransactionConfig.builder()
                 .transactionLogNumPartitions(kafkaConfig.getKafkaTxnLogTopicNumPartitions())
                 .transactionMetadataTopicName(MetadataUtils.constructTxnLogTopicBaseName(tenant, kafkaConfig))
+                .transactionLogLoadBatchSize(kafkaConfig.getKafkaTxnLogLoadBatchSize())
+                .transactionLogLoadConcurrency(kafkaConfig.getKafkaTxnLogLoadConcurrency())
                 .transactionProducerIdTopicName(MetadataUtils.constructTxnProducerIdTopicBaseName(tenant, kafkaConfig))
+                .producerIdBlockMaxSize(kafkaConfig.getKafkaTxnProducerIdBlockMaxSize())
                 .transactionProducerStateSnapshotTopicName(MetadataUtils.constructTxProducerStateTopicBaseName(tenant,
                         kafkaConfig))
                 .producerStateTopicNumPartitions(kafkaConfig.getKafkaTxnProducerStateTopicNumPartitions())
+                .producerStateSnapshotMaxDeltas(kafkaConfig.getKafkaTxnProducerStateTopicSnapshotMaxDeltas())
                 .abortTimedOutTransactionsIntervalMs(kafkaConfig.getKafkaTxnAbortTimedOutTransactionCleanupIntervalMs())
                 .transactionalIdExpirationMs(kafkaConfig.getKafkaTransactionalIdExpirationMs())
                 .removeExpiredTransactionalIdsIntervalMs(
@@ -685,10 +776,36 @@ public class KafkaProtocolHandler implements ProtocolHandler, TenantContextManag
                         .numThreads(1)
                         .build(),
                 Time.SYSTEM,
-                recoveryExecutor);
+                recoveryExecutor,
+                requestStats.getStatsLogger().scopeLabel(KopServerStats.TENANT_SCOPE, tenant),
+                newLocalTxnMarkerWriter(tenant));
 
         transactionCoordinator.startup(kafkaConfig.isKafkaTransactionalIdExpirationEnable()).get();
 
         return transactionCoordinator;
     }
+
+    /**
+     * Create the writer that appends the transaction markers to the partitions owned by this broker directly, so
+     * that the transaction coordinator of the tenant doesn't need to send the WriteTxnMarkers requests to itself.
+     */
+    private Function<List<TxnMarkerEntry>, CompletableFuture<WriteTxnMarkersResponse>> newLocalTxnMarkerWriter(
+            String tenant) {
+        final String namespacePrefix = MetadataUtils.constructUserTopicsNamespace(tenant, kafkaConfig);
+        // The context is created for each write, so that its pending topic futures are released with the write.
+        // The markers of different writes don't need to be ordered, because the coordinator waits for the markers of a
+        // transaction before the producer can start the next transaction.
+        return markers -> getGroupCoordinatorAsync(tenant).thenCompose(groupCoordinator ->
+                getReplicaManager().writeTxnMarkers(
+                        markers,
+                        kafkaConfig.getRequestTimeoutMs(),
+                        namespacePrefix,
+                        groupCoordinator,
+                        AppendRecordsContext.get(
+                                null,
+                                __ -> {},
+                                __ -> {},
+                                new ConcurrentHashMap<>(),
+                                null)));
+    }
 }
@@ -66,6 +66,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -99,6 +100,7 @@ import org.apache.kafka.common.acl.AclOperation;
 import org.apache.kafka.common.config.ConfigResource;
 import org.apache.kafka.common.errors.ApiException;
 import org.apache.kafka.common.errors.AuthenticationException;
+import org.apache.kafka.common.errors.CoordinatorNotAvailableException;
 import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.LeaderNotAvailableException;
 import org.apache.kafka.common.internals.Topic;
@@ -134,8 +136,6 @@ import org.apache.kafka.common.message.SyncGroupRequestData;
 import org.apache.kafka.common.message.TxnOffsetCommitRequestData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
-import org.apache.kafka.common.record.ControlRecordType;
-import org.apache.kafka.common.record.EndTransactionMarker;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.RecordBatch;
@@ -176,6 +176,7 @@ import org.apache.kafka.common.requests.ListOffsetRequestV0;
 import org.apache.kafka.common.requests.ListOffsetsRequest;
 import org.apache.kafka.common.requests.ListOffsetsResponse;
 import org.apache.kafka.common.requests.MetadataRequest;
+import org.apache.kafka.common.requests.MetadataResponse;
 import org.apache.kafka.common.requests.MetadataResponse.PartitionMetadata;
 import org.apache.kafka.common.requests.MetadataResponse.TopicMetadata;
 import org.apache.kafka.common.requests.OffsetCommitRequest;
@@ -193,7 +194,6 @@ import org.apache.kafka.common.requests.TransactionResult;
 import org.apache.kafka.common.requests.TxnOffsetCommitRequest;
 import org.apache.kafka.common.requests.TxnOffsetCommitResponse;
 import org.apache.kafka.common.requests.WriteTxnMarkersRequest;
-import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
 import org.apache.kafka.common.utils.SystemTime;
 import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.PulsarService;
@@ -217,6 +217,10 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
     private static final int THROTTLE_TIME_MS = 10;
     private static final String POLICY_ROOT = "/admin/policies/";
 
+    // The API_VERSIONS responses don't depend on the connection and the request version, so they are built only once
+    private static final ApiVersionsResponse API_VERSIONS_RESPONSE = newApiVersionsResponse(false);
+    private static final ApiVersionsResponse UNSUPPORTED_API_VERSIONS_RESPONSE = newApiVersionsResponse(true);
+
     private final PulsarService pulsarService;
     private final KafkaTopicManager topicManager;
     private final TenantContextManager tenantContextManager;
@@ -227,6 +231,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
     private final LookupClient lookupClient;
     @Getter
     private final KafkaTopicManagerSharedState kafkaTopicManagerSharedState;
+    private final MetadataResponseCache metadataResponseCache;
 
     private final String clusterName;
     private final ScheduledExecutorService executor;
@@ -311,6 +316,70 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         return tenantContextManager.getTransactionCoordinator(getCurrentTenant());
     }
 
+    /**
+     * Wait for the coordinators that the request depends on to be bootstrapped, so that the Netty I/O thread won't be
+     * blocked by the bootstrap of the coordinators.
+     */
+    @Override
+    protected CompletableFuture<Void> prepareRequest(KafkaHeaderAndRequest kafkaHeaderAndRequest) {
+        final boolean needGroupCoordinator;
+        final boolean needTransactionCoordinator;
+        switch (kafkaHeaderAndRequest.getHeader().apiKey()) {
+            case FIND_COORDINATOR:
+                final boolean isTransactionKey = ((FindCoordinatorRequest) kafkaHeaderAndRequest.getRequest())
+                        .data().keyType() == FindCoordinatorRequest.CoordinatorType.TRANSACTION.id();
+                needGroupCoordinator = !isTransactionKey;
+                needTransactionCoordinator = isTransactionKey;
+                break;
+            case OFFSET_FETCH:
+            case OFFSET_COMMIT:
+            case JOIN_GROUP:
+            case SYNC_GROUP:
+            case HEARTBEAT:
+            case LEAVE_GROUP:
+            case DESCRIBE_GROUPS:
+            case LIST_GROUPS:
+            case DELETE_GROUPS:
+                needGroupCoordinator = true;
+                needTransactionCoordinator = false;
+                break;
+            case INIT_PRODUCER_ID:
+            case ADD_PARTITIONS_TO_TXN:
+            case END_TXN:
+                needGroupCoordinator = false;
+                needTransactionCoordinator = true;
+                break;
+            case ADD_OFFSETS_TO_TXN:
+            case TXN_OFFSET_COMMIT:
+            case WRITE_TXN_MARKERS:
+                needGroupCoordinator = true;
+                needTransactionCoordinator = true;
+                break;
+            default:
+                return PREPARED;
+        }
+        final String tenant = getCurrentTenant();
+        final CompletableFuture<?> groupCoordinatorFuture = needGroupCoordinator
+                ? tenantContextManager.getGroupCoordinatorAsync(tenant)
+                : PREPARED;
+        // The disabled transaction coordinator is handled by the request handler
+        final CompletableFuture<?> transactionCoordinatorFuture =
+                (needTransactionCoordinator && kafkaConfig.isKafkaTransactionCoordinatorEnabled())
+                        ? tenantContextManager.getTransactionCoordinatorAsync(tenant)
+                        : PREPARED;
+        if (groupCoordinatorFuture.isDone() && !groupCoordinatorFuture.isCompletedExceptionally()
+                && transactionCoordinatorFuture.isDone()
+                && !transactionCoordinatorFuture.isCompletedExceptionally()) {
+            return PREPARED;
+        }
+        return CompletableFuture.allOf(groupCoordinatorFuture, transactionCoordinatorFuture).exceptionally(e -> {
+            log.warn("[{}] Failed to bootstrap the coordinators of tenant {} for {}", ctx.channel(), tenant,
+                    kafkaHeaderAndRequest.getHeader(), e);
+            throw new CompletionException(new CoordinatorNotAvailableException(
+                    "Failed to bootstrap the coordinator of tenant " + tenant));
+        });
+    }
+
 
     public KafkaRequestHandler(PulsarService pulsarService,
                                KafkaServiceConfiguration kafkaConfig,
@@ -327,7 +396,8 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                                OrderedScheduler sendResponseScheduler,
                                KafkaTopicManagerSharedState kafkaTopicManagerSharedState,
                                KafkaTopicLookupService kafkaTopicLookupService,
-                               LookupClient lookupClient) throws Exception {
+                               LookupClient lookupClient,
+                               MetadataResponseCache metadataResponseCache) throws Exception {
         super(requestStats, kafkaConfig, sendResponseScheduler);
         this.pulsarService = pulsarService;
         this.tenantContextManager = tenantContextManager;
@@ -363,6 +433,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         this.resumeThresholdPendingBytes = this.maxPendingBytes / 2;
         this.failedAuthenticationDelayMs = kafkaConfig.getFailedAuthenticationDelayMs();
         this.kafkaTopicManagerSharedState = kafkaTopicManagerSharedState;
+        this.metadataResponseCache = metadataResponseCache;
 
         // update alive channel count stats
         RequestStats.ALIVE_CHANNEL_COUNT_INSTANCE.incrementAndGet();
@@ -487,6 +558,10 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
     }
 
     protected ApiVersionsResponse overloadDefaultApiVersionsResponse(boolean unsupportedApiVersion) {
+        return unsupportedApiVersion ? UNSUPPORTED_API_VERSIONS_RESPONSE : API_VERSIONS_RESPONSE;
+    }
+
+    private static ApiVersionsResponse newApiVersionsResponse(boolean unsupportedApiVersion) {
         if (unsupportedApiVersion){
             return KafkaResponseUtils.newApiVersions(Errors.UNSUPPORTED_VERSION);
         } else {
@@ -724,6 +799,44 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
     @Override
     protected void handleTopicMetadataRequest(KafkaHeaderAndRequest metadataHar,
                                               CompletableFuture<AbstractResponse> resultFuture) {
+        final String namespacePrefix = currentNamespacePrefix();
+        final MetadataRequest request = (MetadataRequest) metadataHar.getRequest();
+        // This map is used to find the original topic name. Both key and value don't have the "-partition-" suffix.
+        final Map<String, String> fullTopicNameToOriginal = (request.topics() == null)
+                ? Collections.emptyMap()
+                : request.topics().stream().distinct().collect(
+                        Collectors.toMap(
+                                topic -> new KopTopic(topic, namespacePrefix).getFullName(),
+                                topic -> topic
+                        ));
+        // The implementation of MetadataRequest#isAllTopics() in kafka-clients 2.0 is wrong, see getTopicsAsync
+        final boolean allTopics = (request.topics() == null)
+                || (request.topics().isEmpty() && request.version() == 0);
+        // The authorized topics depend on the principal
+        final Session session = (authorizer != null) ? authenticator.session() : null;
+        final String principal = (session != null && session.getPrincipal() != null)
+                ? session.getPrincipal().getName() : null;
+        final MetadataResponseCache.Key key = new MetadataResponseCache.Key(
+                advertisedEndPoint.getListenerName(),
+                request.version(),
+                namespacePrefix,
+                principal,
+                request.allowAutoTopicCreation(),
+                allTopics ? null : fullTopicNameToOriginal.keySet(),
+                allTopics ? null : request.topics());
+        metadataResponseCache.getOrBuild(key, () -> buildMetadataResponse(metadataHar, fullTopicNameToOriginal))
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        resultFuture.completeExceptionally(e);
+                    } else {
+                        resultFuture.complete(response);
+                    }
+                });
+    }
+
+    private CompletableFuture<MetadataResponse> buildMetadataResponse(KafkaHeaderAndRequest metadataHar,
+                                                                      Map<String, String> fullTopicNameToOriginal) {
+        final CompletableFuture<MetadataResponse> resultFuture = new CompletableFuture<>();
         // Get all kop brokers in local cache
         List<Node> allNodes = Collections.synchronizedList(
                 new ArrayList<>(adminManager.getBrokers(advertisedEndPoint.getListenerName())));
@@ -735,14 +848,6 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
 
         final String namespacePrefix = currentNamespacePrefix();
         final MetadataRequest request = (MetadataRequest) metadataHar.getRequest();
-        // This map is used to find the original topic name. Both key and value don't have the "-partition-" suffix.
-        final Map<String, String> fullTopicNameToOriginal = (request.topics() == null)
-                ? Collections.emptyMap()
-                : request.topics().stream().distinct().collect(
-                        Collectors.toMap(
-                                topic -> new KopTopic(topic, namespacePrefix).getFullName(),
-                                topic -> topic
-                        ));
         // NOTE: for all topics METADATA request, remove the default namespace prefix just for backward compatibility.
         final Function<String, String> getOriginalTopic = fullTopicName -> fullTopicNameToOriginal.isEmpty()
                 ? KopTopic.removeDefaultNamespacePrefix(fullTopicName, namespacePrefix)
@@ -776,6 +881,17 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                 return null;
             });
         });
+        return resultFuture;
+    }
+
+    private void invalidateMetadataResponseCache(Collection<String> topics, String namespacePrefix) {
+        topics.forEach(topic -> {
+            try {
+                metadataResponseCache.invalidateTopic(new KopTopic(topic, namespacePrefix).getFullName());
+            } catch (KoPTopicException ignored) {
+                // The invalid topic names are never cached
+            }
+        });
     }
 
     private void disableCnxAutoRead() {
@@ -1670,6 +1786,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                     getGroupCoordinator().handleCommitOffsets(
                             data.groupId(),
                             data.memberId(),
+                            Optional.ofNullable(data.groupInstanceId()),
                             data.generationId(),
                             convertedPartitionData
                     ).thenAccept(offsetCommitResult -> {
@@ -1897,6 +2014,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         getGroupCoordinator().handleJoinGroup(
                 data.groupId(),
                 data.memberId(),
+                Optional.ofNullable(data.groupInstanceId()),
                 joinGroup.getHeader().clientId(),
                 joinGroup.getClientHost(),
                 data.rebalanceTimeoutMs(),
@@ -1915,6 +2033,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                 joinGroupResult.getMemberId(),
                 joinGroupResult.getLeaderId(),
                 members,
+                joinGroupResult.getGroupInstanceIds(),
                 request.version()
             );
             if (log.isTraceEnabled()) {
@@ -1943,6 +2062,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                 data.groupId(),
                 data.generationId(),
                 data.memberId(),
+                Optional.ofNullable(data.groupInstanceId()),
                 assignments
         ).thenAccept(syncGroupResult -> {
             SyncGroupResponse response = KafkaResponseUtils.newSyncGroup(
@@ -1966,6 +2086,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         getGroupCoordinator().handleHeartbeat(
             request.data().groupId(),
             request.data().memberId(),
+            Optional.ofNullable(request.data().groupInstanceId()),
             request.data().generationId()
         ).thenAccept(errors -> {
             HeartbeatResponse response = KafkaResponseUtils.newHeartbeat(errors);
@@ -1985,19 +2106,18 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
         checkArgument(leaveGroup.getRequest() instanceof LeaveGroupRequest);
         LeaveGroupRequest request = (LeaveGroupRequest) leaveGroup.getRequest();
         LeaveGroupRequestData data = request.data();
-        Set<String> members = data.members().stream()
-                .map(LeaveGroupRequestData.MemberIdentity::memberId)
-                .collect(Collectors.toSet());
+        List<LeaveGroupRequestData.MemberIdentity> members = new ArrayList<>(data.members());
         if (!data.memberId().isEmpty()) {
             // old clients
-            members.add(data.memberId());
+            members.add(new LeaveGroupRequestData.MemberIdentity().setMemberId(data.memberId()));
         }
 
         // let the coordinator to handle heartbeat
         getGroupCoordinator().handleLeaveGroup(
                 data.groupId(),
                 members
-        ).thenAccept(errors -> resultFuture.complete(KafkaResponseUtils.newLeaveGroup(errors)));
+        ).thenAccept(result -> resultFuture.complete(
+                KafkaResponseUtils.newLeaveGroup(result.getKey(), result.getValue(), request.version())));
     }
 
     @Override
@@ -2083,6 +2203,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
             // TODO: handle request.validateOnly()
             adminManager.createTopicsAsync(authorizedTopics, request.data().timeoutMs(), namespacePrefix)
                     .thenApply(validResult -> {
+                invalidateMetadataResponseCache(validResult.keySet(), namespacePrefix);
                 result.putAll(validResult);
                 resultFuture.complete(KafkaResponseUtils.newCreateTopics(result));
                 return null;
@@ -2540,107 +2661,19 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
     protected void handleWriteTxnMarkers(KafkaHeaderAndRequest kafkaHeaderAndRequest,
                                          CompletableFuture<AbstractResponse> response) {
         WriteTxnMarkersRequest request = (WriteTxnMarkersRequest) kafkaHeaderAndRequest.getRequest();
-
-        Map<Long, Map<TopicPartition, Errors>> errors = new ConcurrentHashMap<>();
-        List<WriteTxnMarkersRequest.TxnMarkerEntry> markers = request.markers();
-        AtomicInteger numAppends = new AtomicInteger(markers.size());
-
-        if (numAppends.get() == 0) {
-            response.complete(new WriteTxnMarkersResponse(errors));
-            return;
-        }
-        BiConsumer<Long, Map<TopicPartition, Errors>> updateErrors = (producerId, currentErrors) -> {
-            Map<TopicPartition, Errors> previousErrors = errors.putIfAbsent(producerId, currentErrors);
-            if (previousErrors != null) {
-                previousErrors.putAll(currentErrors);
-            }
-        };
-        Runnable completeOne = () -> {
-          if (numAppends.decrementAndGet() == 0) {
-              response.complete(new WriteTxnMarkersResponse(errors));
-          }
-        };
-
-        for (WriteTxnMarkersRequest.TxnMarkerEntry marker : markers) {
-            long producerId = marker.producerId();
-            TransactionResult transactionResult = marker.transactionResult();
-            Map<TopicPartition, MemoryRecords> controlRecords = generateTxnMarkerRecords(marker);
-            AppendRecordsContext appendRecordsContext = AppendRecordsContext.get(
-                    topicManager,
-                    this::startSendOperationForThrottling,
-                    this::completeSendOperationForThrottling,
-                    this.pendingTopicFuturesMap,
-                    ctx);
-            getReplicaManager().appendRecords(
-                    kafkaConfig.getRequestTimeoutMs(),
-                    (short) 1,
-                    true,
-                    currentNamespacePrefix(),
-                    controlRecords,
-                    PartitionLog.AppendOrigin.Coordinator,
-                    appendRecordsContext
-            ).whenComplete((result, ex) -> {
-                if (ex != null) {
-                    log.error("[{}] Append txn marker ({}) failed.", ctx.channel(), marker, ex);
-                    Map<TopicPartition, Errors> currentErrors = new HashMap<>();
-                    controlRecords.forEach(((topicPartition, partitionResponse) -> currentErrors.put(topicPartition,
-                            Errors.KAFKA_STORAGE_ERROR)));
-                    updateErrors.accept(producerId, currentErrors);
-                    completeOne.run();
-                    return;
-                }
-                Map<TopicPartition, Errors> currentErrors = new HashMap<>();
-                result.forEach(((topicPartition, partitionResponse) -> {
-                    if (log.isDebugEnabled()) {
-                        log.debug("[{}] Append txn marker to topic : [{}], response: [{}].",
-                                ctx.channel(), topicPartition, partitionResponse);
-                    }
-                    currentErrors.put(topicPartition, partitionResponse.error);
-                }));
-                updateErrors.accept(producerId, currentErrors);
-
-                final String metadataNamespace = kafkaConfig.getKafkaMetadataNamespace();
-                Set<TopicPartition> successfulOffsetsPartitions = result.keySet()
-                        .stream()
-                        .filter(topicPartition ->
-                                KopTopic.isGroupMetadataTopicName(topicPartition.topic(), metadataNamespace))
-                        .collect(Collectors.toSet());
-                if (!successfulOffsetsPartitions.isEmpty()) {
-                    getGroupCoordinator().scheduleHandleTxnCompletion(
-                            producerId,
-                            successfulOffsetsPartitions
-                                    .stream().map(TopicPartition::partition).collect(Collectors.toSet()),
-                            transactionResult).whenComplete((__, e) -> {
-                                if (e != null) {
-                                    log.error("Received an exception while trying to update the offsets cache on "
-                                            + "transaction marker append", e);
-                                    ConcurrentHashMap<TopicPartition, Errors> updatedErrors = new ConcurrentHashMap<>();
-                                    successfulOffsetsPartitions.forEach(partition ->
-                                            updatedErrors.put(partition, Errors.forException(e.getCause())));
-                                    updateErrors.accept(producerId, updatedErrors);
-                                }
-                        completeOne.run();
-                    });
-                    return;
-                }
-                completeOne.run();
-            });
-        }
-    }
-
-    private Map<TopicPartition, MemoryRecords> generateTxnMarkerRecords(WriteTxnMarkersRequest.TxnMarkerEntry marker) {
-        Map<TopicPartition, MemoryRecords> txnMarkerRecordsMap = Maps.newHashMap();
-
-        ControlRecordType controlRecordType = marker.transactionResult().equals(TransactionResult.COMMIT)
-                ? ControlRecordType.COMMIT : ControlRecordType.ABORT;
-        EndTransactionMarker endTransactionMarker = new EndTransactionMarker(
-                controlRecordType, marker.coordinatorEpoch());
-        for (TopicPartition topicPartition : marker.partitions()) {
-            MemoryRecords memoryRecords = MemoryRecords.withEndTransactionMarker(
-                    marker.producerId(), marker.producerEpoch(), endTransactionMarker);
-            txnMarkerRecordsMap.put(topicPartition, memoryRecords);
-        }
-        return txnMarkerRecordsMap;
+        AppendRecordsContext appendRecordsContext = AppendRecordsContext.get(
+                topicManager,
+                this::startSendOperationForThrottling,
+                this::completeSendOperationForThrottling,
+                this.pendingTopicFuturesMap,
+                ctx);
+        getReplicaManager().writeTxnMarkers(
+                request.markers(),
+                kafkaConfig.getRequestTimeoutMs(),
+                currentNamespacePrefix(),
+                getGroupCoordinator(),
+                appendRecordsContext
+        ).thenAccept(response::complete);
     }
 
     @Override
@@ -2694,7 +2727,10 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
                             return;
                         }
                         adminManager.deleteTopic(fullTopicName,
-                                __ -> completeOne.accept(topic, Errors.NONE),
+                                __ -> {
+                                    metadataResponseCache.invalidateTopic(fullTopicName);
+                                    completeOne.accept(topic, Errors.NONE);
+                                },
                                 __ -> completeOne.accept(topic, Errors.UNKNOWN_TOPIC_OR_PARTITION));
                     });
         });
@@ -2798,6 +2834,7 @@ public class KafkaRequestHandler extends KafkaCommandDecoder {
             }
             adminManager.createPartitionsAsync(authorizedTopics, request.data().timeoutMs(), namespacePrefix)
                     .thenApply(validResult -> {
+                invalidateMetadataResponseCache(validResult.keySet(), namespacePrefix);
                 result.putAll(validResult);
                 resultFuture.complete(KafkaResponseUtils.newCreatePartitions(result));
                 return null;
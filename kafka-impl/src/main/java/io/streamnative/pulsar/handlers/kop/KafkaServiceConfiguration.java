@@ -15,6 +15,7 @@ package io.streamnative.pulsar.handlers.kop;
 
 import com.google.common.collect.Sets;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.OffsetConfig;
+import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionConfig;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -160,6 +161,14 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private int groupInitialRebalanceDelayMs = GroupInitialRebalanceDelayMs;
 
+    @FieldContext(
+        category = CATEGORY_KOP,
+        doc = "The number of threads of a group coordinator to handle the group requests. The requests of the same"
+            + " group are always handled by the same thread. Each tenant has its own group coordinator, so the"
+            + " broker runs this number of threads for each tenant."
+    )
+    private int groupCoordinatorNumThreads = 2;
+
     @FieldContext(
         category = CATEGORY_KOP,
         doc = "Compression codec for the offsets topic - compression may be used to achieve \\\"atomic\\\" commits"
@@ -208,6 +217,28 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private int offsetCommitTimeoutMs = 5000;
 
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of messages to read in one batch when loading an offsets topic partition"
+    )
+    private int offsetsLoadBatchSize = OffsetConfig.DefaultOffsetsLoadBatchSize;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The number of threads of a group coordinator to process the messages of the offsets topic"
+                    + " partitions being loaded. The messages are processed while the next batch is being read."
+    )
+    private int offsetsLoadConcurrency = OffsetConfig.DefaultOffsetsLoadConcurrency;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The time window in milliseconds to coalesce the offset commits of the same group into a single"
+                    + " message of the offsets topic, only the latest offset of each partition is written. The"
+                    + " pending commits of all groups are sent together when the window expires. 0 means each"
+                    + " offset commit is written immediately."
+    )
+    private long offsetCommitCoalesceWindowMs = OffsetConfig.DefaultOffsetCommitCoalesceWindowMs;
+
     @FieldContext(
             category = CATEGORY_KOP,
             doc = "send queue size of system client to produce system topic."
@@ -293,6 +324,44 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private int brokerLookupTimeoutMs = 30_000;
 
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The time (in milliseconds) that a METADATA response is cached and shared by the connections"
+                    + " that send the same METADATA request. The cached responses are also invalidated when the"
+                    + " topics are deleted or unloaded, or the KoP brokers are changed. The ownership changes"
+                    + " between other brokers are not notified to this broker, so a cached response might point to"
+                    + " the previous owner of a topic for at most this time. 0 means disabled."
+    )
+    private long kopMetadataCacheTtlMs = 0;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of cached METADATA responses."
+    )
+    private int kopMetadataCacheMaxEntries = 1000;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "Whether to pre-warm the topics when a namespace bundle is loaded by this broker. The managed"
+                    + " ledgers are opened, the producer states are recovered and the lookup results are cached in"
+                    + " background, so that the first requests after a bundle ownership change are not delayed."
+    )
+    private boolean kopPrewarmOnBundleLoadEnable = false;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of topics that are pre-warmed at the same time after a namespace bundle is loaded."
+                    + " The other topics of the bundle wait until the in-flight topics are pre-warmed."
+    )
+    private int kopPrewarmMaxInFlightTopics = 16;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The number of threads to bootstrap the group and transaction coordinators of the tenants. The"
+                    + " requests that need a coordinator wait for its bootstrap without blocking the I/O threads."
+    )
+    private int kopCoordinatorBootstrapNumThreads = 4;
+
     // Kafka SSL configs
     @FieldContext(
         category = CATEGORY_KOP_SSL,
@@ -409,6 +478,29 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private String entryFormat = "pulsar";
 
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The time (in ms) that a partition log stays in memory without being accessed. An idle partition"
+                    + " log is released after its producer state is snapshotted. A non-positive value disables the"
+                    + " idle eviction."
+    )
+    private long kafkaPartitionLogIdleTimeoutMs = 0L;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The max number of partition logs in memory. When it's exceeded, the least recently accessed"
+                    + " partition logs are released after their producer states are snapshotted. A non-positive"
+                    + " value means no limit."
+    )
+    private int kafkaPartitionLogMaxCount = 0;
+
+    @FieldContext(
+            category = CATEGORY_KOP,
+            doc = "The interval (in ms) at which to release the idle partition logs and the partition logs that"
+                    + " exceed kafkaPartitionLogMaxCount."
+    )
+    private long kafkaPartitionLogEvictionIntervalMs = 60 * 1000L;
+
     @FieldContext(
         category = CATEGORY_KOP,
         doc = "The broker id, default is 1"
@@ -421,6 +513,14 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private boolean kafkaTransactionProducerIdsStoredOnPulsar = false;
 
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The max number of producer ids that a transaction coordinator claims at once. The next block of"
+                    + " producer ids is claimed in background before the current block is used up, and its size"
+                    + " adapts to the allocation rate between 1000 and this value."
+    )
+    private long kafkaTxnProducerIdBlockMaxSize = TransactionConfig.DefaultProducerIdBlockMaxSize;
+
     @FieldContext(
             category = CATEGORY_KOP_TRANSACTION,
             doc = "Flag to enable transaction coordinator"
@@ -433,6 +533,27 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private int kafkaTxnLogTopicNumPartitions = DefaultTxnLogTopicNumPartitions;
 
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The max number of messages to read in one batch when loading a transaction log topic partition"
+    )
+    private int kafkaTxnLogLoadBatchSize = TransactionConfig.DefaultTransactionLogLoadBatchSize;
+
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The number of threads of a transaction coordinator to decode the messages of the transaction log"
+                    + " topic partitions being loaded. The messages are decoded while the next batch is being read."
+    )
+    private int kafkaTxnLogLoadConcurrency = TransactionConfig.DefaultTransactionLogLoadConcurrency;
+
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "Whether to expose the lag of the last stable offset behind the high watermark of each partition,"
+                    + " which is labeled by the topic and the partition. The other transaction metrics are"
+                    + " aggregated over the partitions."
+    )
+    private boolean kafkaTxnLsoLagMetricsEnabled = false;
+
     @FieldContext(
             category = CATEGORY_KOP_TRANSACTION,
             doc = "Number of partitions for the transaction producer state topic"
@@ -445,6 +566,14 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     )
     private int kafkaTxnProducerStateTopicSnapshotIntervalSeconds = 300;
 
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The max number of delta snapshots of the status of pending transactions that are written after"
+                    + " a full snapshot. A delta snapshot only contains the changes since the full snapshot."
+                    + " 0 means that only full snapshots are written."
+    )
+    private int kafkaTxnProducerStateTopicSnapshotMaxDeltas = 10;
+
     @FieldContext(
             category = CATEGORY_KOP_TRANSACTION,
             doc = "Number of threads dedicated to transaction recovery"
@@ -483,6 +612,20 @@ public class KafkaServiceConfiguration extends ServiceConfiguration {
     private long kafkaTransactionsRemoveExpiredTransactionalIdCleanupIntervalMs =
             DefaultRemoveExpiredTransactionalIdsIntervalMs;
 
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The time (in ms) that a partition waits without receiving any write from a producer before"
+                    + " expiring the producer state. The state of a producer with an ongoing transaction never"
+                    + " expires. A non-positive value disables the expiration."
+    )
+    private long kafkaProducerIdExpirationMs = 24 * 60 * 60 * 1000L;
+
+    @FieldContext(
+            category = CATEGORY_KOP_TRANSACTION,
+            doc = "The interval (in ms) at which to remove the expired producer states of a partition."
+    )
+    private long kafkaProducerIdExpirationCheckIntervalMs = 10 * 60 * 1000L;
+
     @FieldContext(
             category = CATEGORY_KOP,
             doc = "The fully qualified name of a SASL server callback handler class that implements the "
@@ -17,16 +17,19 @@ import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.broker.resources.MetadataStoreCacheLoader;
+import org.apache.pulsar.common.naming.NamespaceBundle;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.policies.data.loadbalancer.LoadManagerReport;
 import org.apache.pulsar.policies.data.loadbalancer.ServiceLookupData;
@@ -51,6 +54,16 @@ public class KopBrokerLookupManager {
     private final ConcurrentHashMap<String, CompletableFuture<InetSocketAddress>>
             localBrokerTopics = new ConcurrentHashMap<>();
 
+    // All topics in the same bundle are owned by the same broker, so the concurrent lookups for the topics in the
+    // same bundle, e.g. the partitions of a topic in a METADATA request, share a single lookup request.
+    @VisibleForTesting
+    @Getter
+    private final ConcurrentHashMap<NamespaceBundle, CompletableFuture<InetSocketAddress>>
+            pendingBundleLookups = new ConcurrentHashMap<>();
+    // The pending lookups for topics whose bundle cannot be resolved
+    private final ConcurrentHashMap<String, CompletableFuture<InetSocketAddress>>
+            pendingTopicLookups = new ConcurrentHashMap<>();
+
     public KopBrokerLookupManager(KafkaServiceConfiguration conf, PulsarService pulsarService,
                                   LookupClient lookupClient) throws Exception {
         this.pulsar = pulsarService;
@@ -124,7 +137,36 @@ public class KopBrokerLookupManager {
             }
             return CompletableFuture.completedFuture(null);
         }
-        return lookupClient.getBrokerAddress(TopicName.get(topic));
+        final TopicName topicName = TopicName.get(topic);
+        return pulsar.getNamespaceService().getBundleAsync(topicName).handle((bundle, e) -> {
+            if (e != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to get the bundle of {}, lookup the topic directly: {}", topic, e.getMessage());
+                }
+                return lookupOnce(pendingTopicLookups, topic, () -> lookupClient.getBrokerAddress(topicName));
+            }
+            return lookupOnce(pendingBundleLookups, bundle, () -> lookupClient.getBrokerAddress(topicName));
+        }).thenCompose(future -> future);
+    }
+
+    private static <K> CompletableFuture<InetSocketAddress> lookupOnce(
+            Map<K, CompletableFuture<InetSocketAddress>> pendingLookups,
+            K key,
+            Supplier<CompletableFuture<InetSocketAddress>> lookup) {
+        final CompletableFuture<InetSocketAddress> future = new CompletableFuture<>();
+        final CompletableFuture<InetSocketAddress> pendingFuture = pendingLookups.putIfAbsent(key, future);
+        if (pendingFuture != null) {
+            return pendingFuture;
+        }
+        lookup.get().whenComplete((address, e) -> {
+            pendingLookups.remove(key, future);
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(address);
+            }
+        });
+        return future;
     }
 
     public CompletableFuture<Boolean> isTopicExists(final String topic) {
@@ -199,6 +241,13 @@ public class KopBrokerLookupManager {
                 || StringUtils.endsWith(data.getPulsarServiceUrlTls(), hostAndPort);
     }
 
+    /**
+     * Whether the last lookup of the topic found that it's owned by this broker.
+     */
+    public boolean isLocalBrokerTopic(String topicName) {
+        return localBrokerTopics.containsKey(topicName);
+    }
+
     public void removeTopicManagerCache(String topicName) {
         localBrokerTopics.remove(topicName);
     }
@@ -63,6 +63,7 @@ public class KopEventManager {
     private final DeletionTopicsHandler deletionTopicsHandler;
     private final BrokersChangeHandler brokersChangeHandler;
     private final MetadataStore metadataStore;
+    private final MetadataResponseCache metadataResponseCache;
     private KopEventManagerStats eventManagerStats;
     public BiConsumer<String, Long> registerEventLatency = (eventName, createdTime) -> {
         this.eventManagerStats.getStatsLogger()
@@ -76,7 +77,8 @@ public class KopEventManager {
                            MetadataStore metadataStore,
                            StatsLogger statsLogger,
                            KafkaServiceConfiguration kafkaConfig,
-                           Map<String, GroupCoordinator> groupCoordinatorsByTenant) {
+                           Map<String, GroupCoordinator> groupCoordinatorsByTenant,
+                           MetadataResponseCache metadataResponseCache) {
         this.adminManager = adminManager;
         this.deletionTopicsHandler = new DeletionTopicsHandler(this);
         this.brokersChangeHandler = new BrokersChangeHandler(this);
@@ -84,6 +86,7 @@ public class KopEventManager {
         this.kafkaConfig = kafkaConfig;
         this.eventManagerStats = new KopEventManagerStats(statsLogger, queue);
         this.groupCoordinatorsByTenant = groupCoordinatorsByTenant;
+        this.metadataResponseCache = metadataResponseCache;
     }
 
     public void start() {
@@ -217,6 +220,8 @@ public class KopEventManager {
                         if (pendingBrokers.decrementAndGet() == 0) {
                             Map<String, Set<Node>> oldKopBrokers = adminManager.getAllBrokers();
                             adminManager.setBrokers(kopBrokersMap);
+                            // The cached METADATA responses contain the brokers
+                            metadataResponseCache.invalidateAll();
                             if (registerEventLatency != null) {
                                 registerEventLatency.accept(name, startProcessTime);
                             }
@@ -292,6 +297,10 @@ public class KopEventManager {
                 if (log.isDebugEnabled()) {
                     log.debug("Delete topics listener fired for topics {} to be deleted", topicsDeletions);
                 }
+                // The deleted topics might be owned by other brokers, so their bundle unloads are not notified here
+                if (!topicsDeletions.isEmpty()) {
+                    metadataResponseCache.invalidateAll();
+                }
 
                 // Localize groupCoordinatorsByTenant to avoid multi-thread conflicts
                 final Map<String, GroupCoordinator> currentCoordinators = new HashMap<>(groupCoordinatorsByTenant);
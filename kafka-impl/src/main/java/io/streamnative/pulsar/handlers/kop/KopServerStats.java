@@ -27,6 +27,11 @@ public interface KopServerStats {
     String GROUP_SCOPE = "group";
 
     String KOP_EVENT_SCOPE = "kop_event";
+    String TENANT_SCOPE = "tenant";
+    String COORDINATOR_SCOPE = "coordinator";
+    String THREAD_SCOPE = "thread";
+    String SNAPSHOT_TYPE_SCOPE = "type";
+    String TXN_RESULT_SCOPE = "result";
 
     String WAITING_FETCHES_TRIGGERED = "WAITING_FETCHES_TRIGGERED";
 
@@ -96,6 +101,74 @@ public interface KopServerStats {
     String KOP_EVENT_QUEUED_LATENCY = "KOP_EVENT_QUEUED_LATENCY";
     String KOP_EVENT_LATENCY = "KOP_EVENT_LATENCY";
 
+    /**
+     * Metadata response cache stats.
+     */
+    String METADATA_CACHE_HITS = "METADATA_CACHE_HITS";
+    String METADATA_CACHE_MISSES = "METADATA_CACHE_MISSES";
+    String METADATA_CACHE_SIZE = "METADATA_CACHE_SIZE";
+    String METADATA_CACHE_BUILD_LATENCY = "METADATA_CACHE_BUILD_LATENCY";
+
+    /**
+     * Bundle pre-warm stats.
+     */
+    String PREWARM_LATENCY = "PREWARM_LATENCY";
+    String PREWARM_PENDING_TOPICS = "PREWARM_PENDING_TOPICS";
+
+    /**
+     * Coordinator bootstrap stats.
+     */
+    String COORDINATOR_BOOTSTRAP_LATENCY = "COORDINATOR_BOOTSTRAP_LATENCY";
+
+    /**
+     * Group coordinator stats.
+     */
+    String OFFSETS_LOAD_LATENCY = "OFFSETS_LOAD_LATENCY";
+    String OFFSETS_LOAD_MESSAGES = "OFFSETS_LOAD_MESSAGES";
+    String OFFSET_COMMITS_COALESCED = "OFFSET_COMMITS_COALESCED";
+    String GROUP_CLEANUP_LATENCY = "GROUP_CLEANUP_LATENCY";
+    String GROUP_CLEANUP_EXPIRED_OFFSETS = "GROUP_CLEANUP_EXPIRED_OFFSETS";
+    String GROUP_CLEANUP_EXPIRED_GROUPS = "GROUP_CLEANUP_EXPIRED_GROUPS";
+    String GROUP_REBALANCES = "GROUP_REBALANCES";
+    String GROUP_REBALANCE_LATENCY = "GROUP_REBALANCE_LATENCY";
+    String GROUP_REBALANCE_GENERATIONS = "GROUP_REBALANCE_GENERATIONS";
+    String GROUP_HEARTBEAT_LATENCY = "GROUP_HEARTBEAT_LATENCY";
+    String GROUP_EXECUTOR_QUEUE_SIZE = "GROUP_EXECUTOR_QUEUE_SIZE";
+    String GROUP_EXECUTOR_TASK_LATENCY = "GROUP_EXECUTOR_TASK_LATENCY";
+
+    /**
+     * Transaction stats.
+     */
+    String PRODUCER_STATE_SNAPSHOT_WRITES = "PRODUCER_STATE_SNAPSHOT_WRITES";
+    String PRODUCER_STATE_SNAPSHOT_SIZE = "PRODUCER_STATE_SNAPSHOT_SIZE";
+    String PRODUCER_STATE_RECOVERY_LATENCY = "PRODUCER_STATE_RECOVERY_LATENCY";
+    String PRODUCER_STATE_RECOVERY_ENTRIES = "PRODUCER_STATE_RECOVERY_ENTRIES";
+    String TXN_MARKER_QUEUE_LATENCY = "TXN_MARKER_QUEUE_LATENCY";
+    String TXN_MARKERS_PER_REQUEST = "TXN_MARKERS_PER_REQUEST";
+    String TXN_LOG_LOAD_LATENCY = "TXN_LOG_LOAD_LATENCY";
+    String TXN_LOG_LOAD_MESSAGES = "TXN_LOG_LOAD_MESSAGES";
+    String TXN_ABORT_CHECK_LATENCY = "TXN_ABORT_CHECK_LATENCY";
+    String TXN_ABORT_CHECK_TIMED_OUT = "TXN_ABORT_CHECK_TIMED_OUT";
+    String PRODUCER_ID_ALLOCATION_LATENCY = "PRODUCER_ID_ALLOCATION_LATENCY";
+    String PRODUCER_ID_BLOCK_FETCH_LATENCY = "PRODUCER_ID_BLOCK_FETCH_LATENCY";
+    String PRODUCER_ID_BLOCK_SIZE = "PRODUCER_ID_BLOCK_SIZE";
+    String TXN_ONGOING_COUNT = "TXN_ONGOING_COUNT";
+    String TXN_DURATION = "TXN_DURATION";
+    String TXN_MARKER_QUEUE_SIZE = "TXN_MARKER_QUEUE_SIZE";
+    String TXN_PENDING_MARKER_TXNS = "TXN_PENDING_MARKER_TXNS";
+    String PRODUCER_STATE_SNAPSHOT_LATENCY = "PRODUCER_STATE_SNAPSHOT_LATENCY";
+    String PRODUCER_STATE_PRODUCER_IDS = "PRODUCER_STATE_PRODUCER_IDS";
+    String PRODUCER_STATE_MAX_PARTITION_PRODUCER_IDS = "PRODUCER_STATE_MAX_PARTITION_PRODUCER_IDS";
+    String PRODUCER_STATE_ONGOING_TXNS = "PRODUCER_STATE_ONGOING_TXNS";
+    String PRODUCER_STATE_ABORTED_TXNS = "PRODUCER_STATE_ABORTED_TXNS";
+    String PARTITION_LSO_LAG = "PARTITION_LSO_LAG";
+
+    /**
+     * Partition log stats.
+     */
+    String PARTITION_LOG_LIVE_COUNT = "PARTITION_LOG_LIVE_COUNT";
+    String PARTITION_LOG_EVICTED_COUNT = "PARTITION_LOG_EVICTED_COUNT";
+
     /**
      * Network stats.
      */
@@ -0,0 +1,238 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.METADATA_CACHE_BUILD_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.METADATA_CACHE_HITS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.METADATA_CACHE_MISSES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.METADATA_CACHE_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.kafka.common.requests.MetadataResponse;
+
+/**
+ * A broker level cache of the METADATA responses, which is shared by all the connections.
+ *
+ * <p>Kafka clients refresh the metadata periodically and whenever an error happens, so the same METADATA request
+ * is usually received from many connections in a short time. The responses are cached by
+ * {@link Key}, concurrent requests with the same key share the same build. Only the responses without any error are
+ * cached. The cached responses are invalidated when the TTL is reached, the topics are deleted or unloaded or the
+ * KoP brokers are changed.
+ *
+ * <p>Only the ownership changes of the bundles that are loaded or unloaded by this broker are notified, so if a bundle
+ * moves between two other brokers, the cached responses still point to the previous owner until the TTL is reached.
+ * The TTL is the upper bound of this staleness.
+ */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP metadata response cache stats"
+)
+@Slf4j
+public class MetadataResponseCache {
+
+    private final long ttlMs;
+    private final int maxEntries;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    @StatsDoc(
+            name = METADATA_CACHE_HITS,
+            help = "number of METADATA requests served from the cache"
+    )
+    private final Counter hits;
+
+    @StatsDoc(
+            name = METADATA_CACHE_MISSES,
+            help = "number of METADATA requests that built a new response when the cache is enabled"
+    )
+    private final Counter misses;
+
+    @StatsDoc(
+            name = METADATA_CACHE_BUILD_LATENCY,
+            help = "latency of building a METADATA response"
+    )
+    private final OpStatsLogger buildLatency;
+
+    public MetadataResponseCache(KafkaServiceConfiguration kafkaConfig, StatsLogger statsLogger) {
+        this(kafkaConfig.getKopMetadataCacheTtlMs(), kafkaConfig.getKopMetadataCacheMaxEntries(), statsLogger);
+    }
+
+    @VisibleForTesting
+    MetadataResponseCache(long ttlMs, int maxEntries, StatsLogger statsLogger) {
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+        this.hits = statsLogger.getCounter(METADATA_CACHE_HITS);
+        this.misses = statsLogger.getCounter(METADATA_CACHE_MISSES);
+        this.buildLatency = statsLogger.getOpStatsLogger(METADATA_CACHE_BUILD_LATENCY);
+        statsLogger.registerGauge(METADATA_CACHE_SIZE, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return entries.size();
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return ttlMs > 0 && maxEntries > 0;
+    }
+
+    /**
+     * Get the cached METADATA response or build a new one.
+     *
+     * @param key the key that identifies the response
+     * @param builder the function to build the response, it's called only if there is no valid cached response
+     * @return the future of the response
+     */
+    public CompletableFuture<MetadataResponse> getOrBuild(Key key,
+                                                          Supplier<CompletableFuture<MetadataResponse>> builder) {
+        if (!isEnabled()) {
+            return build(builder);
+        }
+        final long nowMs = System.currentTimeMillis();
+        final Entry entry = entries.compute(key, (__, oldEntry) -> {
+            if (oldEntry != null && nowMs < oldEntry.expireTimeMs) {
+                return oldEntry;
+            }
+            return new Entry(nowMs + ttlMs);
+        });
+        if (entry.future != null) {
+            hits.inc();
+            return entry.future;
+        }
+        synchronized (entry) {
+            if (entry.future != null) {
+                hits.inc();
+                return entry.future;
+            }
+            misses.inc();
+            entry.future = build(builder);
+        }
+        if (entries.size() > maxEntries) {
+            // Don't keep the new entry if the cache is full, the concurrent requests still share the same build
+            entries.remove(key, entry);
+        }
+        entry.future.whenComplete((response, e) -> {
+            if (e != null || !response.errors().isEmpty()) {
+                entries.remove(key, entry);
+            }
+        });
+        return entry.future;
+    }
+
+    private CompletableFuture<MetadataResponse> build(Supplier<CompletableFuture<MetadataResponse>> builder) {
+        final long startNanos = MathUtils.nowInNano();
+        final CompletableFuture<MetadataResponse> future = builder.get();
+        future.whenComplete((__, e) -> {
+            if (e == null) {
+                buildLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            } else {
+                buildLatency.registerFailedEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Invalidate the responses that might contain the topic, including all the responses of all-topics requests.
+     *
+     * @param fullTopicName the full topic name without the partition suffix
+     */
+    public void invalidateTopic(String fullTopicName) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        entries.keySet().removeIf(key -> key.topics == null || key.topics.contains(fullTopicName));
+    }
+
+    public void invalidateAll() {
+        if (!entries.isEmpty()) {
+            log.info("Invalidate all {} cached METADATA responses", entries.size());
+            entries.clear();
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * The key of a METADATA response.
+     *
+     * <p>The principal is only needed when the authorization is enabled, because the unauthorized topics are
+     * filtered or marked with errors according to the principal.
+     */
+    @EqualsAndHashCode
+    @ToString
+    public static class Key {
+
+        private final String listenerName;
+        private final short apiVersion;
+        private final String namespacePrefix;
+        private final String principal;
+        private final boolean allowAutoTopicCreation;
+        // The full topic names, null means all topics
+        private final Set<String> topics;
+        // The original topic names are returned in the response, so they must be part of the key
+        private final Set<String> originalTopics;
+
+        public Key(String listenerName, short apiVersion, String namespacePrefix, String principal,
+                   boolean allowAutoTopicCreation, Collection<String> topics, List<String> originalTopics) {
+            this.listenerName = listenerName;
+            this.apiVersion = apiVersion;
+            this.namespacePrefix = namespacePrefix;
+            this.principal = principal;
+            this.allowAutoTopicCreation = allowAutoTopicCreation;
+            this.topics = (topics == null) ? null : Collections.unmodifiableSet(new TreeSet<>(topics));
+            this.originalTopics = (originalTopics == null)
+                    ? null : Collections.unmodifiableSet(new TreeSet<>(originalTopics));
+        }
+    }
+
+    private static class Entry {
+
+        private final long expireTimeMs;
+        private volatile CompletableFuture<MetadataResponse> future;
+
+        Entry(long expireTimeMs) {
+            this.expireTimeMs = expireTimeMs;
+        }
+    }
+}
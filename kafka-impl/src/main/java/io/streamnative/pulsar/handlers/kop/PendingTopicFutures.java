@@ -22,6 +22,7 @@ import java.util.function.Consumer;
 import lombok.Getter;
 import lombok.NonNull;
 import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.pulsar.common.util.FutureUtil;
 
 /**
  * Pending futures of PersistentTopic.
@@ -74,8 +75,16 @@ public class PendingTopicFutures {
             });
         } else {
             count++;
-            // The next pending future reuses the completed result of the previous topic future
-            currentTopicFuture = currentTopicFuture.thenApply(topicThrowablePair -> {
+            // The next pending future reuses the completed result of the previous topic future, but it might wait for
+            // a different topic future, e.g. the producer state recovery, which could complete later
+            currentTopicFuture = currentTopicFuture.thenCompose(topicThrowablePair -> {
+                if (topicThrowablePair.getThrowable() != null) {
+                    return CompletableFuture.completedFuture(topicThrowablePair);
+                }
+                return topicFuture.handle((persistentTopic, e) -> (e == null)
+                        ? TopicThrowablePair.withTopic(persistentTopic)
+                        : TopicThrowablePair.withThrowable(FutureUtil.unwrapCompletionException(e)));
+            }).thenApply(topicThrowablePair -> {
                 if (topicThrowablePair.getThrowable() == null) {
                     registerQueueLatency(true);
                     persistentTopicConsumer.accept(topicThrowablePair.getPersistentTopicOpt());
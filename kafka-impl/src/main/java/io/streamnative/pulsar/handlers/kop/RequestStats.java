@@ -27,6 +27,9 @@ import static io.streamnative.pulsar.handlers.kop.KopServerStats.NETWORK_TOTAL_B
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_SCOPE;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.PENDING_TOPIC_LATENCY;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.PREPARE_METADATA;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_RECOVERY_ENTRIES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_RECOVERY_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_SNAPSHOT_LATENCY;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCE_ENCODE;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.REQUEST_PARSE_LATENCY;
 import static io.streamnative.pulsar.handlers.kop.KopServerStats.REQUEST_QUEUE_SIZE;
@@ -143,6 +146,24 @@ public class RequestStats {
     )
     private final OpStatsLogger fetchDecodeStats;
 
+    @StatsDoc(
+            name = PRODUCER_STATE_RECOVERY_LATENCY,
+            help = "stats of recovering the producer state of a partition from the log"
+    )
+    private final OpStatsLogger producerStateRecoveryStats;
+
+    @StatsDoc(
+            name = PRODUCER_STATE_RECOVERY_ENTRIES,
+            help = "number of entries scanned while recovering the producer state"
+    )
+    private final Counter producerStateRecoveryEntries;
+
+    @StatsDoc(
+            name = PRODUCER_STATE_SNAPSHOT_LATENCY,
+            help = "stats of taking a snapshot of the producer state of a partition"
+    )
+    private final OpStatsLogger producerStateSnapshotStats;
+
     @StatsDoc(
             name = NETWORK_TOTAL_BYTES_IN,
             help = "total bytes received"
@@ -179,6 +200,9 @@ public class RequestStats {
         this.prepareMetadataStats = statsLogger.getOpStatsLogger(PREPARE_METADATA);
         this.messageReadStats = statsLogger.getOpStatsLogger(MESSAGE_READ);
         this.fetchDecodeStats  = statsLogger.getOpStatsLogger(FETCH_DECODE);
+        this.producerStateRecoveryStats = statsLogger.getOpStatsLogger(PRODUCER_STATE_RECOVERY_LATENCY);
+        this.producerStateRecoveryEntries = statsLogger.getCounter(PRODUCER_STATE_RECOVERY_ENTRIES);
+        this.producerStateSnapshotStats = statsLogger.getOpStatsLogger(PRODUCER_STATE_SNAPSHOT_LATENCY);
         this.waitingFetchesTriggered = statsLogger.getCounter(WAITING_FETCHES_TRIGGERED);
         this.networkTotalBytesIn = statsLogger.getCounter(NETWORK_TOTAL_BYTES_IN);
         this.networkTotalBytesOut = statsLogger.getCounter(NETWORK_TOTAL_BYTES_OUT);
@@ -266,6 +290,6 @@ public class RequestStats {
 
     public RequestStats forTenant(String tenant) {
         return cachedRequestStatsForTenants.computeIfAbsent(tenant,
-                __ -> new RequestStats(statsLogger.scopeLabel("tenant", tenant)));
+                __ -> new RequestStats(statsLogger.scopeLabel(KopServerStats.TENANT_SCOPE, tenant)));
     }
 }
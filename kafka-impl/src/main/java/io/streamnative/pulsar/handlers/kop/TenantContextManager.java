@@ -15,6 +15,7 @@ package io.streamnative.pulsar.handlers.kop;
 
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupCoordinator;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionCoordinator;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Access Tenant level coordinators.
@@ -29,6 +30,20 @@ public interface TenantContextManager {
      */
     GroupCoordinator getGroupCoordinator(String tenant);
 
+    /**
+     * Access the GroupCoordinator for the current Tenant without blocking the caller.
+     * Concurrent callers share the same bootstrap of the GroupCoordinator
+     * @param tenant
+     * @return the future of the GroupCoordinator
+     */
+    default CompletableFuture<GroupCoordinator> getGroupCoordinatorAsync(String tenant) {
+        try {
+            return CompletableFuture.completedFuture(getGroupCoordinator(tenant));
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * Access the TransactionCoordinator for the current Tenant.
      * This method bootstraps a new TransactionCoordinator if it is not started
@@ -37,4 +52,18 @@ public interface TenantContextManager {
      */
     TransactionCoordinator getTransactionCoordinator(String tenant);
 
+    /**
+     * Access the TransactionCoordinator for the current Tenant without blocking the caller.
+     * Concurrent callers share the same bootstrap of the TransactionCoordinator
+     * @param tenant
+     * @return the future of the TransactionCoordinator
+     */
+    default CompletableFuture<TransactionCoordinator> getTransactionCoordinatorAsync(String tenant) {
+        try {
+            return CompletableFuture.completedFuture(getTransactionCoordinator(tenant));
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
 }
@@ -17,8 +17,12 @@ import com.google.common.collect.Sets;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.OffsetConfig;
 import io.streamnative.pulsar.handlers.kop.utils.CoreUtils;
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -28,9 +32,11 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.Producer;
@@ -69,6 +75,11 @@ public class CompactedPartitionedTopic<T> implements Closeable {
 
     // Use a separated executor for the creation of producers and readers to avoid deadlock
     private final ExecutorService createAsyncExecutor;
+    // The max number of messages to read in one round, the messages are processed in batch
+    private final int readBatchSize;
+    // Process the messages in a separated executor so that the next batch is read while the current batch is being
+    // processed. The messages of the same partition are always processed in the same thread.
+    private final OrderedExecutor processExecutor;
 
     public CompactedPartitionedTopic(final PulsarClient client,
                                      final Schema<T> schema,
@@ -80,13 +91,19 @@ public class CompactedPartitionedTopic<T> implements Closeable {
                 .maxPendingMessages(maxPendingMessages)
                 .sendTimeout(offsetConfig.offsetCommitTimeoutMs(), TimeUnit.MILLISECONDS)
                 .blockIfQueueFull(true);
+        this.readBatchSize = Math.max(offsetConfig.offsetsLoadBatchSize(), 1);
         this.readerBuilder = client.newReader(schema)
                 .startMessageId(MessageId.earliest)
+                .receiverQueueSize(readBatchSize)
                 .readCompacted(true);
         this.topic = offsetConfig.offsetsTopicName();
         this.executor = executor;
         this.valueIsEmpty = valueIsEmpty;
         this.createAsyncExecutor = Executors.newSingleThreadExecutor();
+        this.processExecutor = OrderedExecutor.newBuilder()
+                .name("compacted-topic-processor")
+                .numThreads(Math.max(offsetConfig.offsetsLoadConcurrency(), 1))
+                .build();
     }
 
     /**
@@ -119,6 +136,9 @@ public class CompactedPartitionedTopic<T> implements Closeable {
     /**
      * Read to the latest message of the partition.
      *
+     * <p>The messages are read in batches of at most `offsetsLoadBatchSize` messages, and the next batch is read while
+     * the current batch is being processed by `messageConsumer`.
+     *
      * @param partition the partition of `topic` to read
      * @param messageConsumer the message callback that is guaranteed to be called in the same thread
      * @return the future of the read result
@@ -128,7 +148,8 @@ public class CompactedPartitionedTopic<T> implements Closeable {
         executor.execute(() -> {
             try {
                 final Reader<T> reader = getReader(partition);
-                readToLatest(reader, partition, messageConsumer, future, System.currentTimeMillis(), 0);
+                readToLatest(reader, partition, messageConsumer, future, System.currentTimeMillis(),
+                        new AtomicLong(0), CompletableFuture.completedFuture(null));
             } catch (ExceptionWrapper e) {
                 future.completeExceptionally(e.getCause());
             }
@@ -136,47 +157,97 @@ public class CompactedPartitionedTopic<T> implements Closeable {
         return future;
     }
 
+    /**
+     * @param numMessages the number of messages that have been processed, it's only updated in the process thread
+     * @param pendingProcess the future of processing the previous batch
+     */
     private void readToLatest(Reader<T> reader, int partition, Consumer<Message<T>> messageConsumer,
-                              CompletableFuture<ReadResult> future, long startTimeMs, long numMessages) {
+                              CompletableFuture<ReadResult> future, long startTimeMs, AtomicLong numMessages,
+                              CompletableFuture<Void> pendingProcess) {
         if (closed.get()) {
-            future.complete(new ReadResult(System.currentTimeMillis() - startTimeMs, numMessages));
+            pendingProcess.whenComplete((__, e) ->
+                    future.complete(new ReadResult(System.currentTimeMillis() - startTimeMs, numMessages.get())));
             return;
         }
-        reader.hasMessageAvailableAsync().thenComposeAsync(available -> {
-            if (available && !closed.get()) {
-                return reader.readNextAsync();
-            } else {
-                return CompletableFuture.completedFuture(null);
-            }
-        }, executor).thenAcceptAsync(msg -> {
-            if (msg == null) {
-                future.complete(new ReadResult(System.currentTimeMillis() - startTimeMs, numMessages));
+        readBatchAsync(reader).thenAcceptAsync(messages -> {
+            if (messages.isEmpty()) {
+                pendingProcess.whenCompleteAsync((__, e) -> {
+                    if (e == null) {
+                        future.complete(new ReadResult(System.currentTimeMillis() - startTimeMs, numMessages.get()));
+                    } else {
+                        handleReadFailure(partition, future, startTimeMs, numMessages, e);
+                    }
+                }, executor);
                 return;
             }
-            long numMessagesProcessed = numMessages;
-            if (!valueIsEmpty.apply(msg.getValue())) {
-                numMessagesProcessed++;
-                messageConsumer.accept(msg);
-            }
-            readToLatest(reader, partition, messageConsumer, future, startTimeMs, numMessagesProcessed);
+            final CompletableFuture<Void> process = pendingProcess.thenRunAsync(() -> messages.forEach(msg -> {
+                if (!valueIsEmpty.apply(msg.getValue())) {
+                    numMessages.incrementAndGet();
+                    messageConsumer.accept(msg);
+                }
+            }), processExecutor.chooseThread(partition));
+            // Read the next batch after the previous batch is processed, so that there are at most two batches in
+            // memory: the batch being processed and the batch being read
+            pendingProcess.whenCompleteAsync((__, e) -> {
+                if (e == null) {
+                    readToLatest(reader, partition, messageConsumer, future, startTimeMs, numMessages, process);
+                } else {
+                    handleReadFailure(partition, future, startTimeMs, numMessages, e);
+                }
+            }, executor);
         }, executor).exceptionallyAsync(e -> {
-            while (e.getCause() != null) {
-                e = e.getCause();
-            }
-            if (e instanceof PulsarClientException.AlreadyClosedException) {
-                // The producer is already closed, we don't need to close it again.
-                removeAndClose("reader", readers, partition, producer -> CompletableFuture.completedFuture(null));
-                log.warn("Failed to read {}-{} to latest since the reader is closed", topic, partition);
-                future.complete(new ReadResult(System.currentTimeMillis() - startTimeMs, numMessages));
-            } else {
-                removeAndClose("reader", readers, partition, Reader::closeAsync);
-                log.error("Failed to read {}-{} to latest", topic, partition, e);
-                future.completeExceptionally(e);
-            }
+            // Wait for the processing of the previous batch so that the number of messages in the result is final
+            pendingProcess.whenCompleteAsync((__, ignored) ->
+                    handleReadFailure(partition, future, startTimeMs, numMessages, e), executor);
             return null;
         }, executor);
     }
 
+    private CompletableFuture<List<Message<T>>> readBatchAsync(Reader<T> reader) {
+        return reader.hasMessageAvailableAsync().thenComposeAsync(available -> {
+            if (!available || closed.get()) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            return reader.readNextAsync().thenApplyAsync(msg -> {
+                final List<Message<T>> messages = new ArrayList<>();
+                messages.add(msg);
+                try {
+                    // Drain the messages that are already in the receiver queue without waiting
+                    while (messages.size() < readBatchSize) {
+                        final Message<T> nextMsg = reader.readNext(0, TimeUnit.MILLISECONDS);
+                        if (nextMsg == null) {
+                            break;
+                        }
+                        messages.add(nextMsg);
+                    }
+                } catch (PulsarClientException e) {
+                    throw new CompletionException(e);
+                }
+                return messages;
+            }, executor);
+        }, executor);
+    }
+
+    private void handleReadFailure(int partition, CompletableFuture<ReadResult> future, long startTimeMs,
+                                   AtomicLong numMessages, Throwable e) {
+        if (future.isDone()) {
+            return;
+        }
+        while (e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof PulsarClientException.AlreadyClosedException) {
+            // The producer is already closed, we don't need to close it again.
+            removeAndClose("reader", readers, partition, producer -> CompletableFuture.completedFuture(null));
+            log.warn("Failed to read {}-{} to latest since the reader is closed", topic, partition);
+            future.complete(new ReadResult(System.currentTimeMillis() - startTimeMs, numMessages.get()));
+        } else {
+            removeAndClose("reader", readers, partition, Reader::closeAsync);
+            log.error("Failed to read {}-{} to latest", topic, partition, e);
+            future.completeExceptionally(e);
+        }
+    }
+
     /**
      * Remove the cached producer and reader of the target partition.
      */
@@ -197,6 +268,7 @@ public class CompactedPartitionedTopic<T> implements Closeable {
             log.warn("Failed to close CompactedPartitionedTopic ({}) in 3 seconds", topic);
         }
         createAsyncExecutor.shutdown();
+        processExecutor.shutdown();
     }
 
     private static <T> CompletableFuture<Void> removeAndClose(String name, Map<Integer, Future<T>> cache, int index,
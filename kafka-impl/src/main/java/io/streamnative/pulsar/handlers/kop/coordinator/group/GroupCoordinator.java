@@ -15,6 +15,12 @@ package io.streamnative.pulsar.handlers.kop.coordinator.group;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_HEARTBEAT_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_REBALANCES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_REBALANCE_GENERATIONS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_REBALANCE_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupState.CompletingRebalance;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupState.Dead;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupState.Empty;
@@ -29,6 +35,8 @@ import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.GroupOverview;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.GroupSummary;
 import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.CoreUtils;
 import io.streamnative.pulsar.handlers.kop.utils.delayed.DelayedOperationKey.GroupKey;
 import io.streamnative.pulsar.handlers.kop.utils.delayed.DelayedOperationKey.MemberKey;
@@ -45,14 +53,23 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.CoordinatorNotAvailableException;
 import org.apache.kafka.common.internals.Topic;
+import org.apache.kafka.common.message.LeaveGroupRequestData.MemberIdentity;
+import org.apache.kafka.common.message.LeaveGroupResponseData.MemberResponse;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.requests.JoinGroupRequest;
@@ -65,6 +82,11 @@ import org.apache.pulsar.common.util.FutureUtil;
 /**
  * Group coordinator.
  */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP group coordinator stats"
+)
 @Slf4j
 public class GroupCoordinator {
 
@@ -75,7 +97,9 @@ public class GroupCoordinator {
         OffsetConfig offsetConfig,
         String namespacePrefixForMetadata,
         Timer timer,
-        Time time
+        Time time,
+        StatsLogger statsLogger,
+        int numThreads
     ) {
         ScheduledExecutorService coordinatorExecutor = OrderedScheduler.newSchedulerBuilder()
                 .name("group-coordinator-executor-" + tenant)
@@ -87,7 +111,8 @@ public class GroupCoordinator {
             client,
             coordinatorExecutor,
             namespacePrefixForMetadata,
-            time
+            time,
+            statsLogger
         );
 
         DelayedOperationPurgatory<DelayedJoin> joinPurgatory = DelayedOperationPurgatory.<DelayedJoin>builder()
@@ -106,7 +131,10 @@ public class GroupCoordinator {
                 metadataManager,
                 heartbeatPurgatory,
                 joinPurgatory,
-                time
+                time,
+                statsLogger,
+                OrderedGroupExecutor.create("group-coordinator-request-" + tenant, Math.max(numThreads, 1),
+                    statsLogger)
         );
     }
 
@@ -135,6 +163,28 @@ public class GroupCoordinator {
     private final DelayedOperationPurgatory<DelayedHeartbeat> heartbeatPurgatory;
     private final DelayedOperationPurgatory<DelayedJoin> joinPurgatory;
     private final Time time;
+    // the requests of a group are handled in order by the thread of the group
+    private final OrderedGroupExecutor groupExecutor;
+    @StatsDoc(
+            name = GROUP_REBALANCES,
+            help = "The number of completed group rebalances"
+    )
+    private final Counter rebalances;
+    @StatsDoc(
+            name = GROUP_REBALANCE_LATENCY,
+            help = "The time from the start of a group rebalance until the group becomes stable"
+    )
+    private final OpStatsLogger rebalanceLatency;
+    @StatsDoc(
+            name = GROUP_REBALANCE_GENERATIONS,
+            help = "The number of generations created by a group rebalance"
+    )
+    private final OpStatsLogger rebalanceGenerations;
+    @StatsDoc(
+            name = GROUP_HEARTBEAT_LATENCY,
+            help = "The latency of handling a heartbeat request"
+    )
+    private final OpStatsLogger heartbeatLatency;
 
     public GroupCoordinator(
         GroupConfig groupConfig,
@@ -143,11 +193,29 @@ public class GroupCoordinator {
         DelayedOperationPurgatory<DelayedJoin> joinPurgatory,
         Time time
         ) {
+        this(groupConfig, groupManager, heartbeatPurgatory, joinPurgatory, time, NullStatsLogger.INSTANCE,
+            OrderedGroupExecutor.direct());
+    }
+
+    GroupCoordinator(
+        GroupConfig groupConfig,
+        GroupMetadataManager groupManager,
+        DelayedOperationPurgatory<DelayedHeartbeat> heartbeatPurgatory,
+        DelayedOperationPurgatory<DelayedJoin> joinPurgatory,
+        Time time,
+        StatsLogger statsLogger,
+        OrderedGroupExecutor groupExecutor
+        ) {
         this.groupConfig = groupConfig;
         this.groupManager = groupManager;
         this.heartbeatPurgatory = heartbeatPurgatory;
         this.joinPurgatory = joinPurgatory;
         this.time = time;
+        this.groupExecutor = groupExecutor;
+        this.rebalances = statsLogger.getCounter(GROUP_REBALANCES);
+        this.rebalanceLatency = statsLogger.getOpStatsLogger(GROUP_REBALANCE_LATENCY);
+        this.rebalanceGenerations = statsLogger.getOpStatsLogger(GROUP_REBALANCE_GENERATIONS);
+        this.heartbeatLatency = statsLogger.getOpStatsLogger(GROUP_HEARTBEAT_LATENCY);
     }
 
     /**
@@ -168,6 +236,7 @@ public class GroupCoordinator {
         log.info("Shutting down group coordinator ...");
         isActive.set(false);
         groupManager.shutdown();
+        groupExecutor.shutdown();
         heartbeatPurgatory.shutdown();
         joinPurgatory.shutdown();
         log.info("Shutdown group coordinator completely.");
@@ -202,6 +271,21 @@ public class GroupCoordinator {
         int sessionTimeoutMs,
         String protocolType,
         Map<String, byte[]> protocols
+    ) {
+        return handleJoinGroup(groupId, memberId, Optional.empty(), clientId, clientHost, rebalanceTimeoutMs,
+            sessionTimeoutMs, protocolType, protocols);
+    }
+
+    public CompletableFuture<JoinGroupResult> handleJoinGroup(
+        String groupId,
+        String memberId,
+        Optional<String> groupInstanceId,
+        String clientId,
+        String clientHost,
+        int rebalanceTimeoutMs,
+        int sessionTimeoutMs,
+        String protocolType,
+        Map<String, byte[]> protocols
     ) {
         Optional<Errors> errors = validateGroupStatus(groupId, ApiKeys.JOIN_GROUP);
         if (errors.isPresent()) {
@@ -220,6 +304,7 @@ public class GroupCoordinator {
             return groupManager.getGroup(groupId).map(group -> doJoinGroup(
                 group,
                 memberId,
+                groupInstanceId,
                 clientId,
                 clientHost,
                 rebalanceTimeoutMs,
@@ -237,6 +322,7 @@ public class GroupCoordinator {
                     return doJoinGroup(
                         group,
                         memberId,
+                        groupInstanceId,
                         clientId,
                         clientHost,
                         rebalanceTimeoutMs,
@@ -252,6 +338,7 @@ public class GroupCoordinator {
     private CompletableFuture<JoinGroupResult> doJoinGroup(
         GroupMetadata group,
         String memberId,
+        Optional<String> groupInstanceId,
         String clientId,
         String clientHost,
         int rebalanceTimeoutMs,
@@ -259,21 +346,24 @@ public class GroupCoordinator {
         String protocolType,
         Map<String, byte[]> protocols
     ) {
-        return group.inLock(() -> unsafeJoinGroup(
-            group,
-            memberId,
-            clientId,
-            clientHost,
-            rebalanceTimeoutMs,
-            sessionTimeoutMs,
-            protocolType,
-            protocols
-        ));
+        return withCoordinatorNotAvailable(groupExecutor.submit(group.groupId(), () -> group.inLock(() ->
+            unsafeJoinGroup(
+                group,
+                memberId,
+                groupInstanceId,
+                clientId,
+                clientHost,
+                rebalanceTimeoutMs,
+                sessionTimeoutMs,
+                protocolType,
+                protocols
+            ))), error -> joinError(memberId, error));
     }
 
     private CompletableFuture<JoinGroupResult> unsafeJoinGroup(
         GroupMetadata group,
         String memberId,
+        Optional<String> groupInstanceId,
         String clientId,
         String clientHost,
         int rebalanceTimeoutMs,
@@ -293,6 +383,11 @@ public class GroupCoordinator {
             // reject if first member with empty group protocol or protocolType is empty
             return CompletableFuture.completedFuture(
                 joinError(memberId, Errors.INCONSISTENT_GROUP_PROTOCOL));
+        } else if (!JoinGroupRequest.UNKNOWN_MEMBER_ID.equals(memberId)
+            && group.isStaticMemberFenced(memberId, groupInstanceId)) {
+            // the static member has been replaced by another member with the same group instance id
+            return CompletableFuture.completedFuture(
+                joinError(memberId, Errors.FENCED_INSTANCE_ID));
         } else if (!JoinGroupRequest.UNKNOWN_MEMBER_ID.equals(memberId)
             && !group.has(memberId)) {
             // if the member trying to register with a un-recognized id, send the response to let
@@ -312,9 +407,10 @@ public class GroupCoordinator {
                     break;
                 case PreparingRebalance:
                     if (JoinGroupRequest.UNKNOWN_MEMBER_ID.equals(memberId)) {
-                        resultFuture = addMemberAndRebalance(
+                        resultFuture = addOrReplaceMember(
                             rebalanceTimeoutMs,
                             sessionTimeoutMs,
+                            groupInstanceId,
                             clientId,
                             clientHost,
                             protocolType,
@@ -328,9 +424,10 @@ public class GroupCoordinator {
                     break;
                 case CompletingRebalance:
                     if (JoinGroupRequest.UNKNOWN_MEMBER_ID.equals(memberId)) {
-                        resultFuture = addMemberAndRebalance(
+                        resultFuture = addOrReplaceMember(
                             rebalanceTimeoutMs,
                             sessionTimeoutMs,
+                            groupInstanceId,
                             clientId,
                             clientHost,
                             protocolType,
@@ -343,23 +440,7 @@ public class GroupCoordinator {
                             // member is joining with the same metadata (which could be because it failed to
                             // receive the initial JoinGroup response), so just return current group information
                             // for the current generation.
-                            Map<String, byte[]> members;
-                            if (group.isLeader(memberId)) {
-                                members = group.currentMemberMetadata();
-                            } else {
-                                members = Collections.emptyMap();
-                            }
-                            resultFuture = CompletableFuture.completedFuture(
-                                new JoinGroupResult(
-                                    members,
-                                    memberId,
-                                    group.generationId(),
-                                    group.protocolOrNull(),
-                                    group.protocolTypeOrNull(),
-                                    group.leaderOrNull(),
-                                    Errors.NONE
-                                )
-                            );
+                            resultFuture = CompletableFuture.completedFuture(joinResult(group, member));
                         } else {
                             resultFuture = updateMemberAndRebalance(
                                 group,
@@ -373,9 +454,10 @@ public class GroupCoordinator {
                 case Stable:
                     if (JoinGroupRequest.UNKNOWN_MEMBER_ID.equals(memberId)) {
                         // if the member id is unknown, register the member to the group
-                        resultFuture = addMemberAndRebalance(
+                        resultFuture = addOrReplaceMember(
                             rebalanceTimeoutMs,
                             sessionTimeoutMs,
+                            groupInstanceId,
                             clientId,
                             clientHost,
                             protocolType,
@@ -422,12 +504,23 @@ public class GroupCoordinator {
         int generation,
         String memberId,
         Map<String, byte[]> groupAssignment
+    ) {
+        return handleSyncGroup(groupId, generation, memberId, Optional.empty(), groupAssignment);
+    }
+
+    public CompletableFuture<KeyValue<Errors, byte[]>> handleSyncGroup(
+        String groupId,
+        int generation,
+        String memberId,
+        Optional<String> groupInstanceId,
+        Map<String, byte[]> groupAssignment
     ) {
         CompletableFuture<KeyValue<Errors, byte[]>> resultFuture = new CompletableFuture<>();
         handleSyncGroup(
             groupId,
             generation,
             memberId,
+            groupInstanceId,
             groupAssignment,
             (assignment, errors) -> resultFuture.complete(
                 new KeyValue<>(errors, assignment))
@@ -440,6 +533,15 @@ public class GroupCoordinator {
                                 String memberId,
                                 Map<String, byte[]> groupAssignment,
                                 BiConsumer<byte[], Errors> responseCallback) {
+        handleSyncGroup(groupId, generation, memberId, Optional.empty(), groupAssignment, responseCallback);
+    }
+
+    public void handleSyncGroup(String groupId,
+                                int generation,
+                                String memberId,
+                                Optional<String> groupInstanceId,
+                                Map<String, byte[]> groupAssignment,
+                                BiConsumer<byte[], Errors> responseCallback) {
         Optional<Errors> errorsOpt = validateGroupStatus(groupId, ApiKeys.SYNC_GROUP);
         if (errorsOpt.isPresent()) {
             Errors error = errorsOpt.get();
@@ -459,6 +561,7 @@ public class GroupCoordinator {
                     groupOpt.get(),
                     generation,
                     memberId,
+                    groupInstanceId,
                     groupAssignment,
                     responseCallback
                 );
@@ -471,10 +574,13 @@ public class GroupCoordinator {
     private void doSyncGroup(GroupMetadata group,
                              int generationId,
                              String memberId,
+                             Optional<String> groupInstanceId,
                              final Map<String, byte[]> groupAssignment,
                              BiConsumer<byte[], Errors> responseCallback) {
-        group.inLock(() -> {
-            if (!group.has(memberId)) {
+        groupExecutor.execute(group.groupId(), () -> group.inLock(() -> {
+            if (group.isStaticMemberFenced(memberId, groupInstanceId)) {
+                responseCallback.accept(new byte[0], Errors.FENCED_INSTANCE_ID);
+            } else if (!group.has(memberId)) {
                 responseCallback.accept(new byte[0], Errors.UNKNOWN_MEMBER_ID);
             } else if (generationId != group.generationId()) {
                 responseCallback.accept(new byte[0], Errors.ILLEGAL_GENERATION);
@@ -509,7 +615,8 @@ public class GroupCoordinator {
                                     ))
                             );
 
-                            groupManager.storeGroup(group, assignment).thenApply(error -> group.inLock(() -> {
+                            groupManager.storeGroup(group, assignment).thenAccept(error ->
+                                groupExecutor.execute(group.groupId(), () -> group.inLock(() -> {
                                 // another member may have joined the group while we were awaiting this callback,
                                 // so we must ensure we are still in the CompletingRebalance state and the same
                                 // generation when it gets invoked. if we have transitioned to another state,
@@ -521,10 +628,16 @@ public class GroupCoordinator {
                                     } else {
                                         setAndPropagateAssignment(group, assignment);
                                         group.transitionTo(Stable);
+                                        onCompleteRebalance(group);
                                     }
                                 }
                                 return null;
-                            }));
+                            }), () -> group.inLock(() -> {
+                                if (group.is(CompletingRebalance) && generationId == group.generationId()) {
+                                    resetAndPropagateAssignmentError(group, Errors.COORDINATOR_NOT_AVAILABLE);
+                                }
+                                return null;
+                            })));
                         }
                         break;
 
@@ -540,40 +653,96 @@ public class GroupCoordinator {
                 }
             }
             return null;
-        });
+        }), () -> responseCallback.accept(new byte[0], Errors.COORDINATOR_NOT_AVAILABLE));
     }
 
     public CompletableFuture<Errors> handleLeaveGroup(
         String groupId,
         Set<String> members
     ) {
-        return validateGroupStatus(groupId, ApiKeys.LEAVE_GROUP).map(CompletableFuture::completedFuture
-        ).orElseGet(() -> groupManager.getGroup(groupId).map(group -> group.inLock(() -> {
-            if (group.is(Dead)) {
-                return CompletableFuture.completedFuture(Errors.COORDINATOR_NOT_AVAILABLE);
-            } else if (!members.stream().allMatch(group::has)) {
-                return CompletableFuture.completedFuture(Errors.UNKNOWN_MEMBER_ID);
-            } else {
-                for (String memberId : members) {
-                    MemberMetadata member = group.get(memberId);
-                    removeHeartbeatForLeavingMember(member);
-                    if (log.isDebugEnabled()) {
-                        log.debug("Member {} in group {} has left, removing it from the group",
-                                member.memberId(), group.groupId());
-                    }
-                    removeMemberAndUpdateGroup(group, member);
-                }
-                return CompletableFuture.completedFuture(Errors.NONE);
+        List<MemberIdentity> identities = members.stream()
+            .map(memberId -> new MemberIdentity().setMemberId(memberId))
+            .collect(Collectors.toList());
+        return handleLeaveGroup(groupId, identities).thenApply(result -> {
+            if (result.getKey() != Errors.NONE) {
+                return result.getKey();
             }
-        })).orElseGet(() -> {
+            return result.getValue().stream()
+                .map(memberResponse -> Errors.forCode(memberResponse.errorCode()))
+                .filter(error -> error != Errors.NONE)
+                .findFirst()
+                .orElse(Errors.NONE);
+        });
+    }
+
+    /**
+     * Remove the members from the group. A static member can be removed by its group instance id without the member
+     * id, if the member id is also specified, it must be the current member id of the static member.
+     *
+     * @return the group level error and the error of each member
+     */
+    public CompletableFuture<KeyValue<Errors, List<MemberResponse>>> handleLeaveGroup(
+        String groupId,
+        List<MemberIdentity> leavingMembers
+    ) {
+        return validateGroupStatus(groupId, ApiKeys.LEAVE_GROUP).map(error ->
+            CompletableFuture.completedFuture(new KeyValue<>(error, Collections.<MemberResponse>emptyList()))
+        ).orElseGet(() -> groupManager.getGroup(groupId).map(group -> withCoordinatorNotAvailable(
+            groupExecutor.submit(groupId, () -> group.inLock(() -> unsafeLeaveGroup(group, leavingMembers))),
+            error -> new KeyValue<>(error, Collections.<MemberResponse>emptyList())
+        )).orElseGet(() -> {
             // if the group is marked as dead, it means some other thread has just removed the group
             // from the coordinator metadata; this is likely that the group has migrated to some other
             // coordinator OR the group is in a transient unstable phase. Let the consumer to retry
             // joining without specified consumer id,
-            return CompletableFuture.completedFuture(Errors.UNKNOWN_MEMBER_ID);
+            return CompletableFuture.completedFuture(new KeyValue<>(Errors.NONE, leavingMembers.stream()
+                .map(leavingMember -> new MemberResponse()
+                    .setMemberId(leavingMember.memberId())
+                    .setGroupInstanceId(leavingMember.groupInstanceId())
+                    .setErrorCode(Errors.UNKNOWN_MEMBER_ID.code()))
+                .collect(Collectors.toList())));
         }));
     }
 
+    private CompletableFuture<KeyValue<Errors, List<MemberResponse>>> unsafeLeaveGroup(
+        GroupMetadata group,
+        List<MemberIdentity> leavingMembers
+    ) {
+        if (group.is(Dead)) {
+            return CompletableFuture.completedFuture(new KeyValue<>(
+                Errors.COORDINATOR_NOT_AVAILABLE, Collections.<MemberResponse>emptyList()));
+        }
+        List<MemberResponse> memberResponses = new ArrayList<>();
+        for (MemberIdentity leavingMember : leavingMembers) {
+            Optional<String> groupInstanceId = Optional.ofNullable(leavingMember.groupInstanceId());
+            String memberId = groupInstanceId
+                .map(group::getStaticMemberId)
+                .orElse(leavingMember.memberId());
+            final Errors error;
+            if (memberId == null || !group.has(memberId)) {
+                error = Errors.UNKNOWN_MEMBER_ID;
+            } else if (groupInstanceId.isPresent()
+                && !JoinGroupRequest.UNKNOWN_MEMBER_ID.equals(leavingMember.memberId())
+                && !leavingMember.memberId().equals(memberId)) {
+                error = Errors.FENCED_INSTANCE_ID;
+            } else {
+                MemberMetadata member = group.get(memberId);
+                removeHeartbeatForLeavingMember(member);
+                if (log.isDebugEnabled()) {
+                    log.debug("Member {} in group {} has left, removing it from the group",
+                            member.memberId(), group.groupId());
+                }
+                removeMemberAndUpdateGroup(group, member);
+                error = Errors.NONE;
+            }
+            memberResponses.add(new MemberResponse()
+                .setMemberId(leavingMember.memberId())
+                .setGroupInstanceId(leavingMember.groupInstanceId())
+                .setErrorCode(error.code()));
+        }
+        return CompletableFuture.completedFuture(new KeyValue<>(Errors.NONE, memberResponses));
+    }
+
     public Map<String, Errors> handleDeleteGroups(Collection<String> groupIds) {
         Map<String, Errors> groupErrors = Collections.synchronizedMap(new HashMap<>());
         List<GroupMetadata> groupsEligibleForDeletion = new ArrayList<>();
@@ -639,6 +808,27 @@ public class GroupCoordinator {
     public CompletableFuture<Errors> handleHeartbeat(String groupId,
                                                      String memberId,
                                                      int generationId) {
+        return handleHeartbeat(groupId, memberId, Optional.empty(), generationId);
+    }
+
+    public CompletableFuture<Errors> handleHeartbeat(String groupId,
+                                                     String memberId,
+                                                     Optional<String> groupInstanceId,
+                                                     int generationId) {
+        final long startNanos = MathUtils.nowInNano();
+        return doHeartbeat(groupId, memberId, groupInstanceId, generationId).whenComplete((error, e) -> {
+            if (e == null && (error == Errors.NONE || error == Errors.REBALANCE_IN_PROGRESS)) {
+                heartbeatLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            } else {
+                heartbeatLatency.registerFailedEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    private CompletableFuture<Errors> doHeartbeat(String groupId,
+                                                  String memberId,
+                                                  Optional<String> groupInstanceId,
+                                                  int generationId) {
         return validateGroupStatus(groupId, ApiKeys.HEARTBEAT).map(error -> {
             if (error == Errors.COORDINATOR_LOAD_IN_PROGRESS) {
                 // the group is still loading, so respond just blindly
@@ -646,8 +836,14 @@ public class GroupCoordinator {
             } else {
                 return CompletableFuture.completedFuture(error);
             }
-        }).orElseGet(() -> groupManager.getGroup(groupId).map(group ->
-            group.inLock(() -> {
+        }).orElseGet(() -> groupManager.getGroup(groupId).map(group -> {
+            if (tryStableHeartbeat(group, memberId, groupInstanceId, generationId)) {
+                return CompletableFuture.completedFuture(Errors.NONE);
+            }
+            return withCoordinatorNotAvailable(groupExecutor.submit(groupId, () -> group.inLock(() -> {
+                if (group.isStaticMemberFenced(memberId, groupInstanceId)) {
+                    return CompletableFuture.completedFuture(Errors.FENCED_INSTANCE_ID);
+                }
                 switch(group.currentState()) {
                     case Dead:
                         // if the group is marked as dead, it means some other thread has just removed the group
@@ -691,12 +887,38 @@ public class GroupCoordinator {
                     default:
                         return CompletableFuture.completedFuture(Errors.NONE);
                 }
-            })
-        ).orElseGet(() ->
+            })), Function.identity());
+        }).orElseGet(() ->
             CompletableFuture.completedFuture(Errors.UNKNOWN_MEMBER_ID)
         ));
     }
 
+    /**
+     * The fast path of the heartbeats of a stable group, which only updates the heartbeat timestamp of the member
+     * without acquiring the group lock or rescheduling the {@link DelayedHeartbeat}. When the scheduled
+     * {@link DelayedHeartbeat} expires, it's rescheduled according to the latest heartbeat timestamp.
+     *
+     * <p>If the group changes concurrently, e.g. a rebalance starts, the member will be notified by its next heartbeat.
+     *
+     * @return false if the heartbeat must be handled by the slow path
+     */
+    private boolean tryStableHeartbeat(GroupMetadata group,
+                                       String memberId,
+                                       Optional<String> groupInstanceId,
+                                       int generationId) {
+        if (!group.is(Stable)
+            || generationId != group.generationId()
+            || group.isStaticMemberFenced(memberId, groupInstanceId)) {
+            return false;
+        }
+        MemberMetadata member = group.get(memberId);
+        if (member == null || member.isLeaving()) {
+            return false;
+        }
+        member.latestHeartbeat(time.milliseconds());
+        return true;
+    }
+
     public CompletableFuture<Map<TopicPartition, Errors>> handleTxnCommitOffsets(
         String groupId,
         long producerId,
@@ -717,6 +939,7 @@ public class GroupCoordinator {
             return doCommitOffsets(
                 group,
                 NoMemberId,
+                Optional.empty(),
                 NoGeneration,
                 producerId,
                 producerEpoch,
@@ -730,6 +953,16 @@ public class GroupCoordinator {
         String memberId,
         int generationId,
         Map<TopicPartition, OffsetAndMetadata> offsetMetadata
+    ) {
+        return handleCommitOffsets(groupId, memberId, Optional.empty(), generationId, offsetMetadata);
+    }
+
+    public CompletableFuture<Map<TopicPartition, Errors>> handleCommitOffsets(
+        String groupId,
+        String memberId,
+        Optional<String> groupInstanceId,
+        int generationId,
+        Map<TopicPartition, OffsetAndMetadata> offsetMetadata
     ) {
         return validateGroupStatus(groupId, ApiKeys.OFFSET_COMMIT)
             .map(error ->
@@ -742,15 +975,15 @@ public class GroupCoordinator {
             ).orElseGet(() -> groupManager.getGroup(groupId)
                 .map(group ->
                     doCommitOffsets(
-                        group, memberId, generationId, NO_PRODUCER_ID, NO_PRODUCER_EPOCH,
+                        group, memberId, groupInstanceId, generationId, NO_PRODUCER_ID, NO_PRODUCER_EPOCH,
                         offsetMetadata
                     )
                 ).orElseGet(() -> {
                     if (generationId < 0) {
                         // the group is not relying on Kafka for group management, so allow the commit
                         GroupMetadata group = groupManager.addGroup(new GroupMetadata(groupId, Empty));
-                        return doCommitOffsets(group, memberId, generationId, NO_PRODUCER_ID, NO_PRODUCER_EPOCH,
-                            offsetMetadata);
+                        return doCommitOffsets(group, memberId, groupInstanceId, generationId, NO_PRODUCER_ID,
+                            NO_PRODUCER_EPOCH, offsetMetadata);
                     } else {
                         return CompletableFuture.completedFuture(
                             CoreUtils.mapValue(
@@ -778,12 +1011,13 @@ public class GroupCoordinator {
     private CompletableFuture<Map<TopicPartition, Errors>> doCommitOffsets(
         GroupMetadata group,
         String memberId,
+        Optional<String> groupInstanceId,
         int generationId,
         long producerId,
         short producerEpoch,
         Map<TopicPartition, OffsetAndMetadata> offsetMetadata
     ) {
-        return group.inLock(() -> {
+        return withCoordinatorNotAvailable(groupExecutor.submit(group.groupId(), () -> group.inLock(() -> {
             if (group.is(Dead)) {
                 return CompletableFuture.completedFuture(
                     CoreUtils.mapValue(offsetMetadata, ignored ->
@@ -793,6 +1027,10 @@ public class GroupCoordinator {
                 // Also, for transactional offset commits we don't need to validate group membership
                 // and the generation.
                 return groupManager.storeOffsets(group, memberId, offsetMetadata, producerId, producerEpoch);
+            } else if (group.isStaticMemberFenced(memberId, groupInstanceId)) {
+                return CompletableFuture.completedFuture(
+                    CoreUtils.mapValue(offsetMetadata, ignored ->
+                        Errors.FENCED_INSTANCE_ID));
             } else if (group.is(CompletingRebalance)) {
                 return CompletableFuture.completedFuture(
                     CoreUtils.mapValue(offsetMetadata, ignored ->
@@ -812,7 +1050,7 @@ public class GroupCoordinator {
                     group, memberId, offsetMetadata
                 );
             }
-        });
+        })), error -> CoreUtils.mapValue(offsetMetadata, ignored -> error));
     }
 
     public KeyValue<Errors, Map<TopicPartition, PartitionData>> handleFetchOffsets(
@@ -1001,6 +1239,45 @@ public class GroupCoordinator {
         }
     }
 
+    private JoinGroupResult joinResult(GroupMetadata group, MemberMetadata member) {
+        final JoinGroupResult joinResult;
+        if (group.isLeader(member.memberId())) {
+            joinResult = new JoinGroupResult(
+                group.currentMemberMetadata(),
+                member.memberId(),
+                group.generationId(),
+                group.protocolOrNull(),
+                group.protocolTypeOrNull(),
+                group.leaderOrNull(),
+                Errors.NONE);
+            joinResult.setGroupInstanceIds(group.staticMemberInstanceIds());
+        } else {
+            joinResult = new JoinGroupResult(
+                Collections.emptyMap(),
+                member.memberId(),
+                group.generationId(),
+                group.protocolOrNull(),
+                group.protocolTypeOrNull(),
+                group.leaderOrNull(),
+                Errors.NONE);
+        }
+        return joinResult;
+    }
+
+    /**
+     * The group operations are rejected after the group executor is shut down, e.g. the coordinator is being closed,
+     * respond with COORDINATOR_NOT_AVAILABLE so that the client finds the coordinator again.
+     */
+    private static <T> CompletableFuture<T> withCoordinatorNotAvailable(CompletableFuture<T> future,
+                                                                       Function<Errors, T> errorResult) {
+        return future.exceptionally(e -> {
+            if (FutureUtil.unwrapCompletionException(e) instanceof CoordinatorNotAvailableException) {
+                return errorResult.apply(Errors.COORDINATOR_NOT_AVAILABLE);
+            }
+            throw FutureUtil.wrapToCompletionException(e);
+        });
+    }
+
     private JoinGroupResult joinError(String memberId, Errors error) {
         return new JoinGroupResult(
             Collections.emptyMap(),
@@ -1022,15 +1299,19 @@ public class GroupCoordinator {
         heartbeatPurgatory.checkAndComplete(memberKey);
 
         // reschedule the next heartbeat expiration deadline
-        long newHeartbeatDeadline = member.latestHeartbeat() + member.sessionTimeoutMs();
+        scheduleHeartbeatExpiration(group, member, member.latestHeartbeat());
+    }
+
+    private void scheduleHeartbeatExpiration(GroupMetadata group, MemberMetadata member, long latestHeartbeat) {
+        long newHeartbeatDeadline = latestHeartbeat + member.sessionTimeoutMs();
         DelayedHeartbeat delayedHeartbeat = new DelayedHeartbeat(
             this,
             group,
             member,
             newHeartbeatDeadline,
-            member.sessionTimeoutMs());
+            Math.max(newHeartbeatDeadline - time.milliseconds(), 0L));
         heartbeatPurgatory.tryCompleteElseWatch(
-            delayedHeartbeat, Lists.newArrayList(memberKey));
+            delayedHeartbeat, Lists.newArrayList(new MemberKey(member.groupId(), member.memberId())));
     }
 
     private void removeHeartbeatForLeavingMember(MemberMetadata member) {
@@ -1039,16 +1320,44 @@ public class GroupCoordinator {
         heartbeatPurgatory.checkAndComplete(memberKey);
     }
 
+    private CompletableFuture<JoinGroupResult> addOrReplaceMember(
+        int rebalanceTimeoutMs,
+        int sessionTimeoutMs,
+        Optional<String> groupInstanceId,
+        String clientId,
+        String clientHost,
+        String protocolType,
+        Map<String, byte[]> protocols,
+        GroupMetadata group
+    ) {
+        if (groupInstanceId.isPresent() && group.hasStaticMember(groupInstanceId.get())) {
+            return updateStaticMemberAndRebalance(group, groupInstanceId.get(), clientId, clientHost,
+                rebalanceTimeoutMs, sessionTimeoutMs, protocols);
+        } else {
+            return addMemberAndRebalance(
+                rebalanceTimeoutMs,
+                sessionTimeoutMs,
+                groupInstanceId,
+                clientId,
+                clientHost,
+                protocolType,
+                protocols,
+                group
+            );
+        }
+    }
+
     private CompletableFuture<JoinGroupResult> addMemberAndRebalance(
         int rebalanceTimeoutMs,
         int sessionTimeoutMs,
+        Optional<String> groupInstanceId,
         String clientId,
         String clientHost,
         String protocolType,
         Map<String, byte[]> protocols,
         GroupMetadata group
     ) {
-        String memberId = clientId + "-" + group.generateMemberIdSuffix();
+        String memberId = groupInstanceId.orElse(clientId) + "-" + group.generateMemberIdSuffix();
         MemberMetadata member = new MemberMetadata(
             memberId,
             group.groupId(),
@@ -1058,6 +1367,7 @@ public class GroupCoordinator {
             sessionTimeoutMs,
             protocolType,
             protocols);
+        member.groupInstanceId(groupInstanceId);
         CompletableFuture<JoinGroupResult> joinFuture = new CompletableFuture<>();
         member.awaitingJoinCallback(joinFuture);
         // update the newMemberAdded flag to indicate that the join group can be further delayed
@@ -1070,6 +1380,94 @@ public class GroupCoordinator {
         return joinFuture;
     }
 
+    /**
+     * A known static member rejoins with an unknown member id, e.g. after a restart. The member id is replaced so that
+     * the old member id is fenced. If the group is stable and the group protocol is not changed, the group is not
+     * rebalanced and the member keeps its assignment.
+     */
+    private CompletableFuture<JoinGroupResult> updateStaticMemberAndRebalance(
+        GroupMetadata group,
+        String groupInstanceId,
+        String clientId,
+        String clientHost,
+        int rebalanceTimeoutMs,
+        int sessionTimeoutMs,
+        Map<String, byte[]> protocols
+    ) {
+        String oldMemberId = group.getStaticMemberId(groupInstanceId);
+        String newMemberId = groupInstanceId + "-" + group.generateMemberIdSuffix();
+        String currentLeader = group.leaderOrNull();
+        MemberMetadata oldMember = group.get(oldMemberId);
+        // the rejoined member takes the client and the timeouts of the join request, e.g. a restarted instance with a
+        // new session timeout
+        MemberMetadata member = group.replaceStaticMember(groupInstanceId, oldMemberId, newMemberId,
+            clientId, clientHost, rebalanceTimeoutMs, sessionTimeoutMs);
+        // the heartbeat of the old member id is completed without effect, the next one is scheduled for the new id
+        removeHeartbeatForLeavingMember(oldMember);
+        completeAndScheduleNextHeartbeatExpiration(group, member);
+
+        Map<String, byte[]> oldProtocols = new HashMap<>(member.supportedProtocols());
+        CompletableFuture<JoinGroupResult> resultFuture = new CompletableFuture<>();
+        member.supportedProtocols(protocols);
+        member.awaitingJoinCallback(resultFuture);
+        switch (group.currentState()) {
+            case Stable:
+                if (Objects.equals(group.selectProtocol(), group.protocolOrNull())) {
+                    log.info("Static member {} of group {} rejoined with new member id {} without a rebalance",
+                        groupInstanceId, group.groupId(), newMemberId);
+                    Map<String, byte[]> assignment = group.allMemberMetadata().stream()
+                        .collect(Collectors.toMap(MemberMetadata::memberId, MemberMetadata::assignment));
+                    groupManager.storeGroup(group, assignment).thenAccept(error ->
+                        groupExecutor.execute(group.groupId(), () -> group.inLock(() -> {
+                        if (group.get(newMemberId) != member || member.awaitingJoinCallback() != resultFuture) {
+                            // the group has been rebalanced or the member has been replaced again
+                            return null;
+                        }
+                        member.awaitingJoinCallback(null);
+                        if (error != Errors.NONE) {
+                            log.warn("Failed to persist the new member id {} of static member {} in group {}: {}",
+                                newMemberId, groupInstanceId, group.groupId(), error.message());
+                            // revert the replacement so that the old member id is still valid
+                            member.supportedProtocols(oldProtocols);
+                            MemberMetadata revertedMember = group.replaceStaticMember(groupInstanceId,
+                                newMemberId, oldMemberId, oldMember.clientId(), oldMember.clientHost(),
+                                oldMember.rebalanceTimeoutMs(), oldMember.sessionTimeoutMs());
+                            removeHeartbeatForLeavingMember(member);
+                            completeAndScheduleNextHeartbeatExpiration(group, revertedMember);
+                            resultFuture.complete(joinError(JoinGroupRequest.UNKNOWN_MEMBER_ID, error));
+                        } else {
+                            // the old leader id is returned so that the rejoined leader won't compute a new
+                            // assignment, which would not be propagated by a stable group
+                            resultFuture.complete(new JoinGroupResult(
+                                Collections.emptyMap(),
+                                newMemberId,
+                                group.generationId(),
+                                group.protocolOrNull(),
+                                group.protocolTypeOrNull(),
+                                currentLeader,
+                                Errors.NONE));
+                        }
+                        return null;
+                    }), () -> resultFuture.complete(
+                        joinError(JoinGroupRequest.UNKNOWN_MEMBER_ID, Errors.COORDINATOR_NOT_AVAILABLE))));
+                } else {
+                    maybePrepareRebalance(group);
+                }
+                break;
+            case CompletingRebalance:
+                // the old member id might have been sent to the leader for assignment, so a rebalance is needed to
+                // make the new member id get an assignment
+                maybePrepareRebalance(group);
+                break;
+            case PreparingRebalance:
+                break;
+            default:
+                return FutureUtil.failedFuture(new IllegalStateException("Static member " + groupInstanceId
+                    + " of group " + group.groupId() + " rejoined in unexpected state " + group.currentState()));
+        }
+        return resultFuture;
+    }
+
     private CompletableFuture<JoinGroupResult> updateMemberAndRebalance(
         GroupMetadata group,
         MemberMetadata member,
@@ -1118,11 +1516,25 @@ public class GroupCoordinator {
             groupManager.partitionFor(group.groupId()));
 
         group.transitionTo(PreparingRebalance);
+        group.maybeStartRebalance(time.milliseconds());
 
         GroupKey groupKey = new GroupKey(group.groupId());
         joinPurgatory.tryCompleteElseWatch(delayedRebalance, Lists.newArrayList(groupKey));
     }
 
+    private void onCompleteRebalance(GroupMetadata group) {
+        final long startMs = group.rebalanceStartMs();
+        if (startMs >= 0) {
+            final long elapsedMs = time.milliseconds() - startMs;
+            rebalances.inc();
+            rebalanceLatency.registerSuccessfulEvent(elapsedMs, TimeUnit.MILLISECONDS);
+            rebalanceGenerations.registerSuccessfulValue(group.rebalanceGenerations());
+            log.info("Group {} completed the rebalance in {} ms with {} generation(s), the current generation is {}",
+                group.groupId(), elapsedMs, group.rebalanceGenerations(), group.generationId());
+        }
+        group.completeRebalance();
+    }
+
     private void removeMemberAndUpdateGroup(GroupMetadata group,
                                             MemberMetadata member) {
         group.remove(member.memberId());
@@ -1159,8 +1571,9 @@ public class GroupCoordinator {
 
     void onCompleteJoin(GroupMetadata group) {
         group.inLock(() -> {
-            // remove any members who haven't joined the group yet
-            group.notYetRejoinedMembers().forEach(failedMember -> {
+            // remove any dynamic members who haven't joined the group yet, the static members are kept so that they
+            // can rejoin without another rebalance
+            group.notYetRejoinedMembers().stream().filter(member -> !member.isStaticMember()).forEach(failedMember -> {
                 removeHeartbeatForLeavingMember(failedMember);
                 group.remove(failedMember.memberId());
                 // TODO: cut the socket connection to the client
@@ -1172,6 +1585,8 @@ public class GroupCoordinator {
                     log.info("Group {} with generation {} is now empty {}-{}",
                         group.groupId(), group.generationId(),
                         Topic.GROUP_METADATA_TOPIC_NAME, groupManager.partitionFor(group.groupId()));
+                    // the rebalance is not completed because there is no member to assign
+                    group.completeRebalance();
 
                     groupManager.storeGroup(group, Collections.emptyMap()).thenAccept(error -> {
                         if (error != Errors.NONE) {
@@ -1196,24 +1611,11 @@ public class GroupCoordinator {
 
                     // trigger the awaiting join group response callback for all the members after rebalancing
                     for (MemberMetadata member : group.allMemberMetadata()) {
-                        Objects.requireNonNull(member.awaitingJoinCallback());
-                        Map<String, byte[]> members;
-                        if (group.isLeader(member.memberId())) {
-                            members = group.currentMemberMetadata();
-                        } else {
-                            members = Collections.emptyMap();
+                        // the static members that haven't rejoined are not awaiting
+                        if (member.awaitingJoinCallback() != null) {
+                            member.awaitingJoinCallback().complete(joinResult(group, member));
+                            member.awaitingJoinCallback(null);
                         }
-                        JoinGroupResult joinResult = new JoinGroupResult(
-                            members,
-                            member.memberId(),
-                            group.generationId(),
-                            group.protocolOrNull(),
-                            group.protocolTypeOrNull(),
-                            group.leaderOrNull(),
-                            Errors.NONE);
-
-                        member.awaitingJoinCallback().complete(joinResult);
-                        member.awaitingJoinCallback(null);
                         completeAndScheduleNextHeartbeatExpiration(group, member);
                     }
                 }
@@ -1240,10 +1642,18 @@ public class GroupCoordinator {
                            MemberMetadata member,
                            long heartbeatDeadline) {
         group.inLock(() -> {
+            // the member might have been replaced by a static member with the same group instance id
+            if (group.get(member.memberId()) != member) {
+                return null;
+            }
             if (!shouldKeepMemberAlive(member, heartbeatDeadline)) {
                 log.info("Member {} in group {} has failed, removing it from the group",
                     member.memberId(), group.groupId());
                 removeMemberAndUpdateGroup(group, member);
+            } else if (!member.isLeaving()
+                && member.latestHeartbeat() + member.sessionTimeoutMs() > heartbeatDeadline) {
+                // the member has sent heartbeats through the fast path since this expiration was scheduled
+                scheduleHeartbeatExpiration(group, member, member.latestHeartbeat());
             }
             return null;
         });
@@ -0,0 +1,83 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A min-heap of groups ordered by the time when the group should be checked by the periodic cleanup.
+ *
+ * <p>The check time of a group is usually the earliest expire timestamp of its offsets. Each group has at most one
+ * valid check time, scheduling a group again only takes effect when the new time is earlier. The heap entries that
+ * are replaced or removed are discarded lazily when they are polled.
+ */
+class GroupExpirationQueue {
+
+    private record Entry(long deadline, String groupId) {
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(Entry::deadline));
+    private final Map<String, Long> deadlines = new HashMap<>();
+
+    /**
+     * Schedule a check of the group at `deadline` unless an earlier check is already scheduled.
+     */
+    synchronized void schedule(String groupId, long deadline) {
+        final Long currentDeadline = deadlines.get(groupId);
+        if (currentDeadline != null && currentDeadline <= deadline) {
+            return;
+        }
+        deadlines.put(groupId, deadline);
+        queue.add(new Entry(deadline, groupId));
+        if (queue.size() > 2 * deadlines.size() + 16) {
+            compact();
+        }
+    }
+
+    synchronized void remove(String groupId) {
+        deadlines.remove(groupId);
+    }
+
+    /**
+     * Remove the groups whose check time is not later than `now`.
+     *
+     * @return the ids of the removed groups, which should be scheduled again if they still have offsets
+     */
+    synchronized List<String> pollExpired(long now) {
+        final List<String> groupIds = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().deadline() <= now) {
+            final Entry entry = queue.poll();
+            final Long deadline = deadlines.get(entry.groupId());
+            if (deadline != null && deadline == entry.deadline()) {
+                deadlines.remove(entry.groupId());
+                groupIds.add(entry.groupId());
+            }
+        }
+        return groupIds;
+    }
+
+    synchronized int size() {
+        return deadlines.size();
+    }
+
+    private void compact() {
+        queue.clear();
+        deadlines.forEach((groupId, deadline) -> queue.add(new Entry(deadline, groupId)));
+    }
+}
@@ -41,6 +41,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -53,6 +54,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
 import org.apache.pulsar.common.schema.KeyValue;
 
 /**
@@ -178,24 +180,33 @@ public class GroupMetadata {
     private final String groupId;
     @Getter
     private final ReentrantLock lock = new ReentrantLock();
-    private GroupState state;
+    // It's volatile because the offsets can be read without holding the lock, see `offsets`
+    private volatile GroupState state;
 
     private Optional<String> protocolType = Optional.empty();
-    private int generationId = 0;
+    // It's volatile because the stable heartbeats are validated without holding the lock
+    private volatile int generationId = 0;
     private Optional<String> leaderId = Optional.empty();
     private Optional<String> protocol = Optional.empty();
     @Getter
     private boolean newMemberAdded = false;
+    // the time when the ongoing rebalance started, or -1 if the group is not rebalancing
+    private long rebalanceStartMs = -1L;
+    // the number of generations that have been created by the ongoing rebalance
+    private int rebalanceGenerations = 0;
 
     // state management
     private final Map<String, MemberMetadata> members =
         Collections.synchronizedMap(new HashMap<>());
-    private final Map<TopicPartition, CommitRecordMetadataAndOffset> offsets =
-        Collections.synchronizedMap(new HashMap<>());
-    private final Map<TopicPartition, OffsetAndMetadata> pendingOffsetCommits =
-        Collections.synchronizedMap(new HashMap<>());
+    // the member ids of the static members, keyed by group.instance.id, it's read by the heartbeats without the lock
+    private final Map<String, String> staticMembers = new ConcurrentHashMap<>();
+    // The offsets are concurrent maps so that OffsetFetch requests can read them without holding the group lock,
+    // which is held by the membership changes. Each value is immutable so that a reader never sees a partially
+    // updated offset.
+    private final Map<TopicPartition, CommitRecordMetadataAndOffset> offsets = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, OffsetAndMetadata> pendingOffsetCommits = new ConcurrentHashMap<>();
     private final Map<Long, Map<TopicPartition, CommitRecordMetadataAndOffset>> pendingTransactionalOffsetCommits =
-        Collections.synchronizedMap(new HashMap<>());
+        new ConcurrentHashMap<>();
     private boolean receivedTransactionalOffsetCommits = false;
     private boolean receivedConsumerOffsetCommits = false;
 
@@ -297,10 +308,36 @@ public class GroupMetadata {
             || !Sets.intersection(memberProtocols, candidateProtocols()).isEmpty();
     }
 
+    /**
+     * Start tracking a rebalance unless a rebalance is already ongoing, e.g. the rebalance is restarted because a
+     * member joined before all members received their assignments.
+     */
+    public void maybeStartRebalance(long nowMs) {
+        if (rebalanceStartMs < 0) {
+            rebalanceStartMs = nowMs;
+            rebalanceGenerations = 0;
+        }
+    }
+
+    public long rebalanceStartMs() {
+        return rebalanceStartMs;
+    }
+
+    public int rebalanceGenerations() {
+        return rebalanceGenerations;
+    }
+
+    public void completeRebalance() {
+        rebalanceStartMs = -1L;
+        rebalanceGenerations = 0;
+    }
+
     public void initNextGeneration() {
-        checkArgument(notYetRejoinedMembers().isEmpty());
+        // the static members are kept in the group even if they haven't rejoined
+        checkArgument(notYetRejoinedMembers().stream().allMatch(MemberMetadata::isStaticMember));
         if (!members.isEmpty()) {
             generationId += 1;
+            rebalanceGenerations += 1;
             protocol = Optional.ofNullable(selectProtocol());
             transitionTo(GroupState.CompletingRebalance);
         } else {
@@ -324,10 +361,14 @@ public class GroupMetadata {
         }
 
         members.put(member.memberId(), member);
+        member.groupInstanceId().ifPresent(groupInstanceId -> staticMembers.put(groupInstanceId, member.memberId()));
     }
 
     public void remove(String memberId) {
-        members.remove(memberId);
+        MemberMetadata member = members.remove(memberId);
+        if (member != null && member.isStaticMember()) {
+            staticMembers.remove(member.groupInstanceId().get(), memberId);
+        }
         if (isLeader(memberId)) {
             if (members.isEmpty()) {
                 leaderId = Optional.empty();
@@ -337,6 +378,78 @@ public class GroupMetadata {
         }
     }
 
+    public boolean hasStaticMember(String groupInstanceId) {
+        return staticMembers.containsKey(groupInstanceId);
+    }
+
+    /**
+     * @return the member id of the static member, or null if there is no static member with the group instance id
+     */
+    public String getStaticMemberId(String groupInstanceId) {
+        return staticMembers.get(groupInstanceId);
+    }
+
+    /**
+     * Check if the member is fenced by a newer member with the same group instance id.
+     */
+    public boolean isStaticMemberFenced(String memberId, Optional<String> groupInstanceId) {
+        return groupInstanceId
+            .map(staticMembers::get)
+            .map(staticMemberId -> !staticMemberId.equals(memberId))
+            .orElse(false);
+    }
+
+    /**
+     * @return the group instance ids of the static members, keyed by member id
+     */
+    public Map<String, String> staticMemberInstanceIds() {
+        return staticMembers.entrySet().stream()
+            .collect(Collectors.toMap(Entry::getValue, Entry::getKey));
+    }
+
+    /**
+     * Replace the member id of a static member. The pending JoinGroup and SyncGroup requests of the old member are
+     * completed with {@link Errors#FENCED_INSTANCE_ID}. The protocols, the assignment and the leadership are kept by
+     * the new member, while the client and the timeouts are the ones of the rejoin.
+     *
+     * @return the new member
+     */
+    public MemberMetadata replaceStaticMember(String groupInstanceId,
+                                              String oldMemberId,
+                                              String newMemberId,
+                                              String clientId,
+                                              String clientHost,
+                                              int rebalanceTimeoutMs,
+                                              int sessionTimeoutMs) {
+        MemberMetadata oldMember = members.remove(oldMemberId);
+        checkState(oldMember != null, "Cannot replace non-existing member %s in group %s", oldMemberId, groupId);
+
+        if (oldMember.awaitingJoinCallback() != null) {
+            oldMember.awaitingJoinCallback().complete(new JoinGroupResult(
+                Collections.emptyMap(),
+                oldMemberId,
+                generationId,
+                protocolOrNull(),
+                protocolTypeOrNull(),
+                leaderOrNull(),
+                Errors.FENCED_INSTANCE_ID));
+            oldMember.awaitingJoinCallback(null);
+        }
+        if (oldMember.awaitingSyncCallback() != null) {
+            oldMember.awaitingSyncCallback().accept(new byte[0], Errors.FENCED_INSTANCE_ID);
+            oldMember.awaitingSyncCallback(null);
+        }
+
+        MemberMetadata newMember =
+            oldMember.withMemberId(newMemberId, clientId, clientHost, rebalanceTimeoutMs, sessionTimeoutMs);
+        members.put(newMemberId, newMember);
+        if (isLeader(oldMemberId)) {
+            leaderId = Optional.of(newMemberId);
+        }
+        staticMembers.put(groupInstanceId, newMemberId);
+        return newMember;
+    }
+
     public boolean canRebalance() {
         return validPreviousStates.get(PreparingRebalance).contains(state);
     }
@@ -429,7 +542,8 @@ public class GroupMetadata {
     public void initializeOffsets(Map<TopicPartition, CommitRecordMetadataAndOffset> offsets,
                                   Map<Long, Map<TopicPartition, CommitRecordMetadataAndOffset>> pendingTxnOffsets) {
         this.offsets.putAll(offsets);
-        this.pendingTransactionalOffsetCommits.putAll(pendingTxnOffsets);
+        pendingTxnOffsets.forEach((producerId, producerOffsets) ->
+            this.pendingTransactionalOffsetCommits.put(producerId, new ConcurrentHashMap<>(producerOffsets)));
     }
 
     public void onOffsetCommitAppend(TopicPartition topicPartition,
@@ -439,10 +553,7 @@ public class GroupMetadata {
                 throw new IllegalStateException("Cannot complete offset commit write without providing the metadata"
                     + " of the record in the log.");
             }
-            if (!offsets.containsKey(topicPartition)
-                || offsets.get(topicPartition).olderThan(offsetWithCommitRecordMetadata)) {
-                offsets.put(topicPartition, offsetWithCommitRecordMetadata);
-            }
+            putIfNewer(topicPartition, offsetWithCommitRecordMetadata);
         }
 
         OffsetAndMetadata stagedOffset = pendingOffsetCommits.get(topicPartition);
@@ -475,7 +586,7 @@ public class GroupMetadata {
         }
         receivedTransactionalOffsetCommits = true;
         Map<TopicPartition, CommitRecordMetadataAndOffset> producerOffsets =
-            pendingTransactionalOffsetCommits.computeIfAbsent(producerId, pid -> new HashMap<>());
+            pendingTransactionalOffsetCommits.computeIfAbsent(producerId, pid -> new ConcurrentHashMap<>());
         offsets.forEach((tp, offsetsAndMetadata) -> producerOffsets.put(tp, new CommitRecordMetadataAndOffset(
             Optional.empty(),
             offsetsAndMetadata
@@ -542,14 +653,14 @@ public class GroupMetadata {
                                 + " itself hasn't been appended to the log.", producerId, groupId));
                     }
 
-                    CommitRecordMetadataAndOffset currentOffsetOpt = offsets.get(topicPartition);
-                    if (currentOffsetOpt == null || currentOffsetOpt.olderThan(commitRecordMetadataAndOffset)) {
+                    CommitRecordMetadataAndOffset currentOffsetOpt =
+                        putIfNewer(topicPartition, commitRecordMetadataAndOffset);
+                    if (currentOffsetOpt == commitRecordMetadataAndOffset) {
                         if (log.isTraceEnabled()) {
                             log.trace("TxnOffsetCommit for producer {} and group {} with offset {} "
                                             + "committed and loaded into the cache.",
                                     producerId, groupId, commitRecordMetadataAndOffset);
                         }
-                        offsets.put(topicPartition, commitRecordMetadataAndOffset);
                     } else {
                         if (log.isTraceEnabled()) {
                             log.trace("TxnOffsetCommit for producer {} and group {} with offset {} "
@@ -622,23 +733,28 @@ public class GroupMetadata {
     }
 
     public Map<TopicPartition, OffsetAndMetadata> removeExpiredOffsets(long startMs) {
-        Map<TopicPartition, OffsetAndMetadata> expiredOffsets = offsets.entrySet().stream()
-            .filter(e ->
-                e.getValue().offsetAndMetadata().expireTimestamp() < startMs
-                    && !pendingOffsetCommits.containsKey(e.getKey()))
-            .map(e -> new KeyValue<>(
-                e.getKey(),
-                e.getValue().offsetAndMetadata()
-            ))
-            .collect(Collectors.toMap(
-                    KeyValue::getKey,
-                    KeyValue::getValue
-            ));
-
-        expiredOffsets.keySet().forEach(offsets::remove);
+        Map<TopicPartition, OffsetAndMetadata> expiredOffsets = new HashMap<>();
+        offsets.forEach((topicPartition, commitRecordMetadataAndOffset) -> {
+            // the offset is only removed if it's not replaced by a concurrent commit
+            if (commitRecordMetadataAndOffset.offsetAndMetadata().expireTimestamp() < startMs
+                    && !pendingOffsetCommits.containsKey(topicPartition)
+                    && offsets.remove(topicPartition, commitRecordMetadataAndOffset)) {
+                expiredOffsets.put(topicPartition, commitRecordMetadataAndOffset.offsetAndMetadata());
+            }
+        });
         return expiredOffsets;
     }
 
+    /**
+     * @return the earliest expire timestamp of the committed offsets, or {@link Long#MAX_VALUE} if there is no offset
+     */
+    public long earliestExpireTimestamp() {
+        return offsets.values().stream()
+            .mapToLong(e -> e.offsetAndMetadata().expireTimestamp())
+            .min()
+            .orElse(Long.MAX_VALUE);
+    }
+
     public Map<TopicPartition, OffsetAndMetadata> allOffsets() {
         return offsets.entrySet().stream().collect(Collectors.toMap(
                 Entry::getKey,
@@ -647,6 +763,10 @@ public class GroupMetadata {
     }
 
     public Optional<OffsetAndMetadata> offset(TopicPartition topicPartition, String namespacePrefix) {
+        final CommitRecordMetadataAndOffset commitRecordMetadataAndOffset = offsets.get(topicPartition);
+        if (commitRecordMetadataAndOffset != null) {
+            return Optional.of(commitRecordMetadataAndOffset.offsetAndMetadata);
+        }
         return Optional
                 .ofNullable(offsets.computeIfAbsent(
                         topicPartition,
@@ -671,6 +791,19 @@ public class GroupMetadata {
         return Optional.ofNullable(offsets.get(topicPartition));
     }
 
+    /**
+     * Put the offset of a partition unless the cached offset was appended after it.
+     *
+     * @return the cached offset after the update
+     */
+    private CommitRecordMetadataAndOffset putIfNewer(TopicPartition topicPartition,
+                                                     CommitRecordMetadataAndOffset commitRecordMetadataAndOffset) {
+        return offsets.compute(topicPartition, (__, currentOffset) ->
+            (currentOffset == null || currentOffset.olderThan(commitRecordMetadataAndOffset))
+                ? commitRecordMetadataAndOffset
+                : currentOffset);
+    }
+
     public int numOffsets() {
         return offsets.size();
     }
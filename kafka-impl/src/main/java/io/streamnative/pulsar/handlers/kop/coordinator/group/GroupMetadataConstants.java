@@ -33,6 +33,7 @@ import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.KafkaException;
@@ -58,6 +59,10 @@ import org.apache.pulsar.common.schema.KeyValue;
  *
  * <p>key version 2:       group metadata
  *     -> value version 0:       [protocol_type, generation, protocol, leader, members]
+ *     -> value version 1:       [protocol_type, generation, protocol, leader, members], the members have
+ *                               rebalance_timeout
+ *     -> value version 2:       [protocol_type, generation, protocol, leader, members], the members have
+ *                               rebalance_timeout and group_instance_id
  */
 @Slf4j
 public final class GroupMetadataConstants {
@@ -100,6 +105,7 @@ public final class GroupMetadataConstants {
     static final BoundField GROUP_KEY_GROUP_FIELD = GROUP_METADATA_KEY_SCHEMA.get("group");
 
     static final String MEMBER_ID_KEY = "member_id";
+    static final String GROUP_INSTANCE_ID_KEY = "group_instance_id";
     static final String CLIENT_ID_KEY = "client_id";
     static final String CLIENT_HOST_KEY = "client_host";
     static final String REBALANCE_TIMEOUT_KEY = "rebalance_timeout";
@@ -124,6 +130,16 @@ public final class GroupMetadataConstants {
         new Field(SUBSCRIPTION_KEY, BYTES),
         new Field(ASSIGNMENT_KEY, BYTES));
 
+    static final Schema MEMBER_METADATA_V2 = new Schema(
+        new Field(MEMBER_ID_KEY, STRING),
+        new Field(GROUP_INSTANCE_ID_KEY, NULLABLE_STRING),
+        new Field(CLIENT_ID_KEY, STRING),
+        new Field(CLIENT_HOST_KEY, STRING),
+        new Field(REBALANCE_TIMEOUT_KEY, INT32),
+        new Field(SESSION_TIMEOUT_KEY, INT32),
+        new Field(SUBSCRIPTION_KEY, BYTES),
+        new Field(ASSIGNMENT_KEY, BYTES));
+
     static final String PROTOCOL_TYPE_KEY = "protocol_type";
     static final String GENERATION_KEY = "generation";
     static final String PROTOCOL_KEY = "protocol";
@@ -144,6 +160,13 @@ public final class GroupMetadataConstants {
         new Field(LEADER_KEY, NULLABLE_STRING),
         new Field(MEMBERS_KEY, new ArrayOf(MEMBER_METADATA_V1)));
 
+    static final Schema GROUP_METADATA_VALUE_SCHEMA_V2 = new Schema(
+        new Field(PROTOCOL_TYPE_KEY, STRING),
+        new Field(GENERATION_KEY, INT32),
+        new Field(PROTOCOL_KEY, NULLABLE_STRING),
+        new Field(LEADER_KEY, NULLABLE_STRING),
+        new Field(MEMBERS_KEY, new ArrayOf(MEMBER_METADATA_V2)));
+
     // map of versions to key schemas as data types
     static final Map<Integer, Schema> MESSAGE_TYPE_SCHEMAS = asMap(
         kv(0, OFFSET_COMMIT_KEY_SCHEMA),
@@ -161,9 +184,12 @@ public final class GroupMetadataConstants {
     // map of version of group metadata value schemas
     static final Map<Integer, Schema> GROUP_VALUE_SCHEMAS = asMap(
         kv(0, GROUP_METADATA_VALUE_SCHEMA_V0),
-        kv(1, GROUP_METADATA_VALUE_SCHEMA_V1)
+        kv(1, GROUP_METADATA_VALUE_SCHEMA_V1),
+        kv(2, GROUP_METADATA_VALUE_SCHEMA_V2)
     );
-    static final short CURRENT_GROUP_VALUE_SCHEMA_VERSION = 1;
+    static final short CURRENT_GROUP_VALUE_SCHEMA_VERSION = 2;
+    // the latest group metadata value version that doesn't support static members
+    static final short LEGACY_GROUP_VALUE_SCHEMA_VERSION = 1;
 
     static final Schema CURRENT_OFFSET_KEY_SCHEMA = schemaForKey(CURRENT_OFFSET_KEY_SCHEMA_VERSION);
     static final Schema CURRENT_GROUP_KEY_SCHEMA = schemaForKey(CURRENT_GROUP_KEY_SCHEMA_VERSION);
@@ -287,6 +313,18 @@ public final class GroupMetadataConstants {
         return groupMetadataValue(groupMetadata, assignment, (short) 0);
     }
 
+    /**
+     * Choose the version of the group metadata value to write for the group.
+     *
+     * <p>The version 2 is only used when the group has static members, so that the groups without static members
+     * can still be read by the brokers that only know the version 1.
+     */
+    static short groupValueSchemaVersion(GroupMetadata groupMetadata) {
+        return groupMetadata.allMemberMetadata().stream().anyMatch(MemberMetadata::isStaticMember)
+                ? CURRENT_GROUP_VALUE_SCHEMA_VERSION
+                : LEGACY_GROUP_VALUE_SCHEMA_VERSION;
+    }
+
     /**
      * Generates the payload for group metadata message from given offset and metadata
      * assuming the generation id, selected protocol, leader and member assignment are all available.
@@ -299,12 +337,7 @@ public final class GroupMetadataConstants {
     static byte[] groupMetadataValue(GroupMetadata groupMetadata,
                                      Map<String, byte[]> assignment,
                                      short version) {
-        Struct value;
-        if (version == 0) {
-            value = new Struct(GROUP_METADATA_VALUE_SCHEMA_V0);
-        } else {
-            value = new Struct(CURRENT_GROUP_VALUE_SCHEMA);
-        }
+        Struct value = new Struct(schemaForGroup(version));
 
         value.set(PROTOCOL_TYPE_KEY, groupMetadata.protocolType().orElse(""));
         value.set(GENERATION_KEY, groupMetadata.generationId());
@@ -321,6 +354,9 @@ public final class GroupMetadataConstants {
             if (version > 0) {
                 memberStruct.set(REBALANCE_TIMEOUT_KEY, memberMetadata.rebalanceTimeoutMs());
             }
+            if (version > 1) {
+                memberStruct.set(GROUP_INSTANCE_ID_KEY, memberMetadata.groupInstanceId().orElse(null));
+            }
 
             // The group is non-empty, so the current protocol must be defined
             String protocol = groupMetadata.protocolOrNull();
@@ -416,7 +452,7 @@ public final class GroupMetadataConstants {
         Schema valueSchema = schemaForGroup(version);
         Struct value = valueSchema.read(buffer);
 
-        if (version == 0 || version == 1) {
+        if (version >= 0 && version <= CURRENT_GROUP_VALUE_SCHEMA_VERSION) {
             int generationId = value.getInt(GENERATION_KEY);
             String protocolType = value.getString(PROTOCOL_TYPE_KEY);
             String protocol = value.getString(PROTOCOL_KEY);
@@ -448,7 +484,7 @@ public final class GroupMetadataConstants {
                     subscription.get(subscriptionData);
                     Map<String, byte[]> protocols = new HashMap<>();
                     protocols.put(protocol, subscriptionData);
-                    return new MemberMetadata(
+                    MemberMetadata member = new MemberMetadata(
                         memberId,
                         groupId,
                         clientId,
@@ -458,6 +494,11 @@ public final class GroupMetadataConstants {
                         protocolType,
                         protocols
                     );
+                    if (version > 1) {
+                        member.groupInstanceId(
+                            Optional.ofNullable(memberMetadata.getString(GROUP_INSTANCE_ID_KEY)));
+                    }
+                    return member;
                 }).collect(Collectors.toList());
 
             return GroupMetadata.loadGroup(
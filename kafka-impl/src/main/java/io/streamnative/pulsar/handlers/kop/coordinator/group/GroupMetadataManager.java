@@ -13,9 +13,18 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.group;
 
-import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.CURRENT_GROUP_VALUE_SCHEMA_VERSION;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_CLEANUP_EXPIRED_GROUPS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_CLEANUP_EXPIRED_OFFSETS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_CLEANUP_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.OFFSETS_LOAD_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.OFFSETS_LOAD_MESSAGES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.OFFSET_COMMITS_COALESCED;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.groupMetadataKey;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.groupMetadataValue;
+import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.groupValueSchemaVersion;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.offsetCommitKey;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.offsetCommitValue;
 import static io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadataConstants.readGroupMessageValue;
@@ -32,6 +41,8 @@ import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
 import io.streamnative.pulsar.handlers.kop.coordinator.CompactedPartitionedTopic;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.CommitRecordMetadataAndOffset;
 import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.CoreUtils;
 import io.streamnative.pulsar.handlers.kop.utils.KafkaResponseUtils;
 import java.nio.ByteBuffer;
@@ -42,6 +53,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -63,6 +75,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.commons.lang3.tuple.Triple;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.protocol.Errors;
@@ -88,6 +103,11 @@ import org.apache.pulsar.common.util.FutureUtil;
 /**
  * Manager to manage a coordination group.
  */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP group coordinator stats"
+)
 @Slf4j
 public class GroupMetadataManager {
 
@@ -97,6 +117,10 @@ public class GroupMetadataManager {
     private final OffsetConfig offsetConfig;
     private final String namespacePrefix;
     private final ConcurrentMap<String, GroupMetadata> groupMetadataCache = new ConcurrentHashMap<>();
+    /* the cached groups indexed by the offsets topic partition, it's updated with the group metadata cache */
+    private final ConcurrentMap<Integer, Set<GroupMetadata>> groupsByPartition = new ConcurrentHashMap<>();
+    /* the cached groups ordered by the time to be checked by the periodic cleanup */
+    private final GroupExpirationQueue expirationQueue = new GroupExpirationQueue();
     /* lock protecting access to loading and owned partition sets */
     private final ReentrantLock partitionLock = new ReentrantLock();
     /**
@@ -124,6 +148,26 @@ public class GroupMetadataManager {
     private final CompactedPartitionedTopic<ByteBuffer> offsetTopic;
     private final Time time;
 
+    // The OFFSETS_LOAD_LATENCY and OFFSETS_LOAD_MESSAGES are labeled by the offsets topic partition
+    private final StatsLogger statsLogger;
+    // It records the OFFSET_COMMITS_COALESCED
+    private final OffsetCommitCoalescer offsetCommitCoalescer;
+    @StatsDoc(
+            name = GROUP_CLEANUP_LATENCY,
+            help = "The latency of the periodic cleanup of the expired offsets and groups"
+    )
+    private final OpStatsLogger cleanupLatency;
+    @StatsDoc(
+            name = GROUP_CLEANUP_EXPIRED_OFFSETS,
+            help = "The number of the expired offsets that are removed by the periodic cleanup"
+    )
+    private final Counter cleanupExpiredOffsets;
+    @StatsDoc(
+            name = GROUP_CLEANUP_EXPIRED_GROUPS,
+            help = "The number of the dead groups that are removed by the periodic cleanup"
+    )
+    private final Counter cleanupExpiredGroups;
+
     /**
      * The key interface.
      */
@@ -214,6 +258,15 @@ public class GroupMetadataManager {
                                 ScheduledExecutorService scheduler,
                                 String namespacePrefixForMetadata,
                                 Time time) {
+        this(offsetConfig, client, scheduler, namespacePrefixForMetadata, time, NullStatsLogger.INSTANCE);
+    }
+
+    public GroupMetadataManager(OffsetConfig offsetConfig,
+                                SystemTopicClient client,
+                                ScheduledExecutorService scheduler,
+                                String namespacePrefixForMetadata,
+                                Time time,
+                                StatsLogger statsLogger) {
         this.offsetConfig = offsetConfig;
         this.compressionType = offsetConfig.offsetsTopicCompressionType();
         this.offsetTopic = new CompactedPartitionedTopic<>(client.getPulsarClient(), Schema.BYTEBUFFER,
@@ -222,6 +275,14 @@ public class GroupMetadataManager {
         this.scheduler = scheduler;
         this.namespacePrefix = namespacePrefixForMetadata;
         this.time = time;
+        this.statsLogger = statsLogger;
+        this.offsetCommitCoalescer = new OffsetCommitCoalescer(offsetConfig.offsetCommitCoalesceWindowMs(), scheduler,
+                (groupId, offsets, timestamp) -> writeOffsets(groupId, offsets, timestamp,
+                        RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH),
+                statsLogger.getCounter(OFFSET_COMMITS_COALESCED));
+        this.cleanupLatency = statsLogger.getOpStatsLogger(GROUP_CLEANUP_LATENCY);
+        this.cleanupExpiredOffsets = statsLogger.getCounter(GROUP_CLEANUP_EXPIRED_OFFSETS);
+        this.cleanupExpiredGroups = statsLogger.getCounter(GROUP_CLEANUP_EXPIRED_GROUPS);
     }
 
     public static int getPartitionId(String groupId, int offsetsTopicNumPartitions) {
@@ -317,18 +378,38 @@ public class GroupMetadataManager {
         if (null != oldGroup) {
             return oldGroup;
         } else {
+            groupsByPartition.computeIfAbsent(partitionFor(group.groupId()), __ -> ConcurrentHashMap.newKeySet())
+                .add(group);
+            // check the new group in the next cleanup in case it's an empty group that has no offsets
+            expirationQueue.schedule(group.groupId(), time.milliseconds());
             return group;
         }
     }
 
+    private boolean removeGroup(GroupMetadata group) {
+        if (!groupMetadataCache.remove(group.groupId(), group)) {
+            return false;
+        }
+        final Set<GroupMetadata> groups = groupsByPartition.get(partitionFor(group.groupId()));
+        if (groups != null) {
+            groups.remove(group);
+        }
+        expirationQueue.remove(group.groupId());
+        return true;
+    }
+
     public CompletableFuture<Errors> storeGroup(GroupMetadata group,
                                                 Map<String, byte[]> groupAssignment) {
+        if (group.is(GroupState.Empty)) {
+            // the group might become dead in the next cleanup if it has no offsets
+            expirationQueue.schedule(group.groupId(), time.milliseconds());
+        }
 
         TimestampType timestampType = TimestampType.CREATE_TIME;
         long timestamp = time.milliseconds();
         byte[] key = groupMetadataKey(group.groupId());
         byte[] value = groupMetadataValue(
-            group, groupAssignment, CURRENT_GROUP_VALUE_SCHEMA_VERSION);
+            group, groupAssignment, groupValueSchemaVersion(group));
 
         // construct the record
         ByteBuffer buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(
@@ -367,6 +448,45 @@ public class GroupMetadataManager {
         });
     }
 
+    private CompletableFuture<MessageId> writeOffsets(String groupId,
+                                                      Map<TopicPartition, OffsetAndMetadata> offsets,
+                                                      long timestamp,
+                                                      long producerId,
+                                                      short producerEpoch) {
+        boolean isTxnOffsetCommit = producerId != RecordBatch.NO_PRODUCER_ID;
+        List<SimpleRecord> records = offsets.entrySet().stream()
+            .map(e -> {
+                byte[] key = offsetCommitKey(groupId, e.getKey(), namespacePrefix);
+                byte[] value = offsetCommitValue(e.getValue());
+                return new SimpleRecord(timestamp, key, value);
+            })
+            .collect(Collectors.toList());
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+            AbstractRecords.estimateSizeInBytes(
+                magicValue, compressionType, records
+            )
+        );
+
+        MemoryRecordsBuilder builder = MemoryRecords.builder(
+            buffer, magicValue, compressionType,
+            TimestampType.CREATE_TIME, 0L, timestamp,
+            producerId,
+            producerEpoch,
+            0,
+            isTxnOffsetCommit,
+            RecordBatch.NO_PARTITION_LEADER_EPOCH
+        );
+        records.forEach(builder::append);
+
+        MemoryRecords entries = builder.build();
+
+        // dummy offset commit key
+        int partition = partitionFor(groupId);
+        byte[] key = offsetCommitKey(groupId, new TopicPartition("", -1), namespacePrefix);
+        return storeOffsetMessageAsync(partition, key, entries.buffer(), timestamp);
+    }
+
     // visible for mock
     CompletableFuture<MessageId> storeOffsetMessageAsync(
             int partition, byte[] key, ByteBuffer value, long timestamp) {
@@ -431,57 +551,34 @@ public class GroupMetadataManager {
             return CompletableFuture.completedFuture(commitStatus);
         }
 
-        TimestampType timestampType = TimestampType.CREATE_TIME;
         long timestamp = time.milliseconds();
-        List<SimpleRecord> records = filteredOffsetMetadata.entrySet().stream()
-            .map(e -> {
-                byte[] key = offsetCommitKey(group.groupId(), e.getKey(), namespacePrefix);
-                byte[] value = offsetCommitValue(e.getValue());
-                return new SimpleRecord(timestamp, key, value);
-            })
-            .collect(Collectors.toList());
-
-        ByteBuffer buffer = ByteBuffer.allocate(
-            AbstractRecords.estimateSizeInBytes(
-                magicValue, compressionType, records
-            )
-        );
-
-        MemoryRecordsBuilder builder = MemoryRecords.builder(
-            buffer, magicValue, compressionType,
-            timestampType, 0L, timestamp,
-            producerId,
-            producerEpoch,
-            0,
-            isTxnOffsetCommit,
-            RecordBatch.NO_PARTITION_LEADER_EPOCH
-        );
-        records.forEach(builder::append);
-
-        MemoryRecords entries = builder.build();
-
+        final CompletableFuture<OffsetCommitCoalescer.Result> writeFuture;
         if (isTxnOffsetCommit) {
             group.inLock(() -> {
                 addProducerGroup(producerId, group.groupId());
                 group.prepareTxnOffsetCommit(producerId, offsetMetadata);
                 return null;
             });
+            writeFuture = writeOffsets(group.groupId(), filteredOffsetMetadata, timestamp, producerId, producerEpoch)
+                .thenApply(messageId -> new OffsetCommitCoalescer.Result(messageId, filteredOffsetMetadata));
         } else {
             group.inLock(() -> {
                 group.prepareOffsetCommit(offsetMetadata);
                 return null;
             });
+            writeFuture = offsetCommitCoalescer.commit(group.groupId(), filteredOffsetMetadata, timestamp);
         }
 
-        // dummy offset commit key
-        String groupId = group.groupId();
-        int partition = partitionFor(groupId);
-        byte[] key = offsetCommitKey(groupId, new TopicPartition("", -1), namespacePrefix);
-        return storeOffsetMessageAsync(partition, key, entries.buffer(), timestamp)
-            .thenApply(messageId -> {
+        return writeFuture
+            .thenApply(result -> {
                 if (!group.is(GroupState.Dead)) {
-                    MessageIdImpl lastMessageId = (MessageIdImpl) messageId;
+                    MessageIdImpl lastMessageId = (MessageIdImpl) result.messageId();
                     filteredOffsetMetadata.forEach((tp, offsetAndMetadata) -> {
+                        if (result.writtenOffsets().get(tp) != offsetAndMetadata) {
+                            // It's overridden by a later commit of the same group that was coalesced into the same
+                            // message, the later commit will complete the pending offset commit
+                            return;
+                        }
                         CommitRecordMetadataAndOffset commitRecordMetadataAndOffset =
                             new CommitRecordMetadataAndOffset(
                                 Optional.of(new PositionImpl(lastMessageId.getLedgerId(), lastMessageId.getEntryId())),
@@ -491,6 +588,7 @@ public class GroupMetadataManager {
                             group.onTxnOffsetCommitAppend(producerId, tp, commitRecordMetadataAndOffset);
                         } else {
                             group.onOffsetCommitAppend(tp, commitRecordMetadataAndOffset);
+                            expirationQueue.schedule(group.groupId(), offsetAndMetadata.expireTimestamp());
                         }
                     });
                 }
@@ -560,43 +658,43 @@ public class GroupMetadataManager {
                 ));
         }
 
-        return group.inLock(() -> {
-            if (group.is(GroupState.Dead)) {
-                return topicPartitionsOpt.orElse(Collections.emptyList())
-                    .stream()
-                    .collect(Collectors.toMap(
-                        tp -> tp,
-                        tp -> KafkaResponseUtils.newOffsetFetchPartition()
-                    ));
-            }
+        // The offsets are read without the group lock so that the OffsetFetch requests are not blocked by the
+        // membership changes, each offset is read atomically
+        if (group.is(GroupState.Dead)) {
+            return topicPartitionsOpt.orElse(Collections.emptyList())
+                .stream()
+                .collect(Collectors.toMap(
+                    tp -> tp,
+                    tp -> KafkaResponseUtils.newOffsetFetchPartition()
+                ));
+        }
 
-            return topicPartitionsOpt.map(topicPartitions ->
-                topicPartitions.stream()
-                    .collect(Collectors.toMap(
-                        tp -> tp,
-                        topicPartition ->
-                            group.offset(topicPartition, namespacePrefix)
-                                .map(offsetAndMetadata -> KafkaResponseUtils.newOffsetFetchPartition(
-                                    offsetAndMetadata.offset(),
-                                    offsetAndMetadata.metadata())
-                                )
-                                .orElseGet(KafkaResponseUtils::newOffsetFetchPartition)
-                    ))
-            ).orElseGet(() ->
-                group.allOffsets().entrySet()
-                    .stream()
-                    .collect(Collectors.toMap(
-                            Map.Entry::getKey,
-                        e -> {
-                            OffsetAndMetadata oam = e.getValue();
-                            return KafkaResponseUtils.newOffsetFetchPartition(
-                                oam.offset(),
-                                oam.metadata()
-                            );
-                        }
-                    ))
-            );
-        });
+        return topicPartitionsOpt.map(topicPartitions ->
+            topicPartitions.stream()
+                .collect(Collectors.toMap(
+                    tp -> tp,
+                    topicPartition ->
+                        group.offset(topicPartition, namespacePrefix)
+                            .map(offsetAndMetadata -> KafkaResponseUtils.newOffsetFetchPartition(
+                                offsetAndMetadata.offset(),
+                                offsetAndMetadata.metadata())
+                            )
+                            .orElseGet(KafkaResponseUtils::newOffsetFetchPartition)
+                ))
+        ).orElseGet(() ->
+            group.allOffsets().entrySet()
+                .stream()
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                    e -> {
+                        OffsetAndMetadata oam = e.getValue();
+                        return KafkaResponseUtils.newOffsetFetchPartition(
+                            oam.offset(),
+                            oam.metadata()
+                        );
+                    }
+                ))
+        );
     }
 
 
@@ -656,6 +754,7 @@ public class GroupMetadataManager {
             final var pendingOffsets = new HashMap<Long, Map<GroupTopicPartition, CommitRecordMetadataAndOffset>>();
             final var loadedGroups = new HashMap<String, GroupMetadata>();
             final var removedGroups = new HashSet<String>();
+            final long startTimeMs = time.milliseconds();
             offsetTopic.readToLatest(offsetsPartition, msg -> {
                 if (!shuttingDown.get()) {
                     processOffsetMessage(msg, loadedOffsets, pendingOffsets, loadedGroups, removedGroups);
@@ -670,13 +769,20 @@ public class GroupMetadataManager {
                     loadingPartitions.remove(offsetsPartition);
                     return null;
                 });
+                final StatsLogger partitionStatsLogger =
+                        statsLogger.scopeLabel(PARTITION_SCOPE, String.valueOf(offsetsPartition));
                 if (null != cause) {
+                    partitionStatsLogger.getOpStatsLogger(OFFSETS_LOAD_LATENCY)
+                            .registerFailedEvent(time.milliseconds() - startTimeMs, TimeUnit.MILLISECONDS);
                     log.error("Error loading offsets from {}", topicPartition, cause);
                     future.completeExceptionally(cause);
                     return;
                 }
                 log.info("Finished loading {} offsets and group metadata from {} in {} milliseconds",
                         topicPartition, result.numMessages(), result.timeMs());
+                partitionStatsLogger.getOpStatsLogger(OFFSETS_LOAD_LATENCY)
+                        .registerSuccessfulEvent(result.timeMs(), TimeUnit.MILLISECONDS);
+                partitionStatsLogger.getCounter(OFFSETS_LOAD_MESSAGES).addCount(result.numMessages());
                 future.complete(null);
             }, scheduler);
             return future;
@@ -936,14 +1042,13 @@ public class GroupMetadataManager {
             ownedPartitions.remove(partition);
             loadingPartitions.remove(partition);
 
-            for (GroupMetadata group : groupMetadataCache.values()) {
-                if (partitionFor(group.groupId()) == partition) {
-                    onGroupUnloaded.accept(group);
-                    groupMetadataCache.remove(group.groupId(), group);
-                    removeGroupFromAllProducers(group.groupId());
-                    numGroupsRemoved++;
-                    numOffsetsRemoved += group.numOffsets();
-                }
+            final Set<GroupMetadata> groups = groupsByPartition.getOrDefault(partition, Collections.emptySet());
+            for (GroupMetadata group : groups) {
+                onGroupUnloaded.accept(group);
+                removeGroup(group);
+                removeGroupFromAllProducers(group.groupId());
+                numGroupsRemoved++;
+                numOffsetsRemoved += group.numOffsets();
             }
         } finally {
             partitionLock.unlock();
@@ -956,12 +1061,27 @@ public class GroupMetadataManager {
 
     CompletableFuture<Void> cleanupGroupMetadata() {
         final long startMs = time.milliseconds();
-        return cleanGroupMetadata(groupMetadataCache.values().stream(),
-            group -> group.removeExpiredOffsets(time.milliseconds())
-        ).thenAcceptAsync(offsetsRemoved ->
-                log.info("Removed {} expired offsets in {} milliseconds.",
-                    offsetsRemoved, time.milliseconds() - startMs)
-            , scheduler);
+        final long startNanos = MathUtils.nowInNano();
+        // only the groups that might have expired offsets or might be dead are checked
+        final List<GroupMetadata> groups = expirationQueue.pollExpired(startMs).stream()
+            .map(groupMetadataCache::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        final int numGroupsBefore = groupMetadataCache.size();
+        return cleanGroupMetadata(groups.stream(), group -> {
+            final Map<TopicPartition, OffsetAndMetadata> expiredOffsets = group.removeExpiredOffsets(startMs);
+            if (group.hasOffsets()) {
+                expirationQueue.schedule(group.groupId(), group.earliestExpireTimestamp());
+            }
+            return expiredOffsets;
+        }).thenAcceptAsync(offsetsRemoved -> {
+            final long numGroupsRemoved = groups.stream().filter(group -> group.is(GroupState.Dead)).count();
+            cleanupLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            cleanupExpiredOffsets.addCount(offsetsRemoved);
+            cleanupExpiredGroups.addCount(numGroupsRemoved);
+            log.info("Removed {} expired offsets and {} dead groups in {} milliseconds. Checked {} of {} groups.",
+                offsetsRemoved, numGroupsRemoved, time.milliseconds() - startMs, groups.size(), numGroupsBefore);
+        }, scheduler);
     }
 
     CompletableFuture<Integer> cleanGroupMetadata(Stream<GroupMetadata> groups,
@@ -1000,7 +1120,7 @@ public class GroupMetadataManager {
 
             // We avoid writing the tombstone when the generationId is 0, since this group is only using
             // Kafka for offset storage.
-            if (groupIsDead && groupMetadataCache.remove(groupId, group) && generation > 0) {
+            if (groupIsDead && removeGroup(group) && generation > 0) {
                 // Append the tombstone messages to the partition. It is okay if the replicas don't receive these (say,
                 // if we crash or leaders move) since the new leaders will still expire the consumers with heartbeat and
                 // retry removing this group.
@@ -1064,6 +1184,7 @@ public class GroupMetadataManager {
             getGroup(groupId).map(group -> group.inLock(() -> {
                 if (!group.is(GroupState.Dead)) {
                     group.completePendingTxnOffsetCommit(producerId, isCommit);
+                    expirationQueue.schedule(groupId, group.earliestExpireTimestamp());
                     removeProducerGroup(producerId, groupId);
                 }
                 groupFuture.complete(null);
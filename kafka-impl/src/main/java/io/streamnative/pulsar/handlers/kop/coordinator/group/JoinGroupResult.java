@@ -13,6 +13,7 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.group;
 
+import java.util.Collections;
 import java.util.Map;
 import lombok.Data;
 import org.apache.kafka.common.protocol.Errors;
@@ -30,5 +31,7 @@ public class JoinGroupResult {
     private final String protocolType;
     private final String leaderId;
     private final Errors error;
+    // The group instance ids of the static members in `members`, keyed by member id
+    private Map<String, String> groupInstanceIds = Collections.emptyMap();
 
 }
@@ -19,6 +19,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.MoreObjects.ToStringHelper;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -73,6 +74,7 @@ public class MemberMetadata {
     })
     public static class MemberSummary {
         private final String memberId;
+        private final Optional<String> groupInstanceId;
         private final String clientId;
         private final String clientHost;
         private final byte[] metadata;
@@ -88,12 +90,44 @@ public class MemberMetadata {
     private final String protocolType;
     private final Map<String, byte[]> supportedProtocols;
 
+    // The group.instance.id of a static member, see KIP-345
+    private Optional<String> groupInstanceId = Optional.empty();
     private byte[] assignment = new byte[0];
     private CompletableFuture<JoinGroupResult> awaitingJoinCallback = null;
     private BiConsumer<byte[], Errors> awaitingSyncCallback = null;
-    private long latestHeartbeat = -1L;
+    // It's volatile because the heartbeats of a stable group update it without holding the group lock
+    private volatile long latestHeartbeat = -1L;
     private boolean isLeaving = false;
 
+    public boolean isStaticMember() {
+        return groupInstanceId.isPresent();
+    }
+
+    /**
+     * Create a copy of this member with a new member id and the client of the join request, which is used when a
+     * static member rejoins with an unknown member id.
+     */
+    public MemberMetadata withMemberId(String newMemberId,
+                                       String newClientId,
+                                       String newClientHost,
+                                       int newRebalanceTimeoutMs,
+                                       int newSessionTimeoutMs) {
+        MemberMetadata member = new MemberMetadata(
+            newMemberId,
+            groupId,
+            newClientId,
+            newClientHost,
+            newRebalanceTimeoutMs,
+            newSessionTimeoutMs,
+            protocolType,
+            new HashMap<>(supportedProtocols)
+        );
+        member.groupInstanceId = groupInstanceId;
+        member.assignment = assignment;
+        member.latestHeartbeat = latestHeartbeat;
+        return member;
+    }
+
     public Set<String> protocols() {
         return supportedProtocols.keySet();
     }
@@ -130,6 +164,7 @@ public class MemberMetadata {
     public MemberSummary summary(String protocol) {
         return new MemberSummary(
             memberId,
+            groupInstanceId,
             clientId,
             clientHost,
             metadata(protocol),
@@ -140,6 +175,7 @@ public class MemberMetadata {
     public MemberSummary summaryNoMetadata() {
         return new MemberSummary(
             memberId,
+            groupInstanceId,
             clientId,
             clientHost,
             new byte[0],
@@ -162,6 +198,7 @@ public class MemberMetadata {
     public String toString() {
         ToStringHelper helper = MoreObjects.toStringHelper("MemberMetadata")
             .add("memberId", memberId)
+            .add("groupInstanceId", groupInstanceId.orElse(null))
             .add("clientId", clientId)
             .add("clientHost", clientHost)
             .add("sessionTimeoutMs", sessionTimeoutMs)
@@ -0,0 +1,151 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.pulsar.client.api.MessageId;
+
+/**
+ * Coalesce the non-transactional offset commits of the same group within a time window.
+ *
+ * <p>Without coalescing, each offset commit is written as a single message of the offsets topic. With many consumers
+ * that commit frequently, the offsets topic is flooded with small writes. The commits of a group that arrive within
+ * the window are merged into a single message and only the latest offset of each partition is kept. When the window
+ * expires, the pending messages of all groups are sent together so that they can be batched by the producer.
+ *
+ * <p>The commits of different groups are not merged into the same message because the offsets topic is compacted
+ * by the message key, which is derived from the group id.
+ */
+@Slf4j
+class OffsetCommitCoalescer {
+
+    /**
+     * Write the offsets of a group as a single message.
+     */
+    interface Writer {
+        CompletableFuture<MessageId> write(String groupId, Map<TopicPartition, OffsetAndMetadata> offsets,
+                                           long timestamp);
+    }
+
+    /**
+     * The result of a coalesced write.
+     *
+     * @param messageId the message id of the written message
+     * @param writtenOffsets the offsets that are written, the offset of a partition might be from a later commit
+     */
+    record Result(MessageId messageId, Map<TopicPartition, OffsetAndMetadata> writtenOffsets) {
+    }
+
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final Writer writer;
+    private final Counter coalescedCommits;
+    // The pending commits of groups in the current window, guarded by `this`
+    private Map<String, PendingCommit> pendingCommits = new LinkedHashMap<>();
+
+    OffsetCommitCoalescer(long windowMs, ScheduledExecutorService scheduler, Writer writer, Counter coalescedCommits) {
+        this.windowMs = windowMs;
+        this.scheduler = scheduler;
+        this.writer = writer;
+        this.coalescedCommits = coalescedCommits;
+    }
+
+    boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * Add the offsets of a group to the current window.
+     *
+     * @return the future that is completed after the message that contains the offsets is persisted
+     */
+    CompletableFuture<Result> commit(String groupId, Map<TopicPartition, OffsetAndMetadata> offsets, long timestamp) {
+        if (!isEnabled()) {
+            final Map<TopicPartition, OffsetAndMetadata> writtenOffsets = Collections.unmodifiableMap(offsets);
+            return writer.write(groupId, offsets, timestamp)
+                    .thenApply(messageId -> new Result(messageId, writtenOffsets));
+        }
+        final boolean firstInWindow;
+        final PendingCommit pendingCommit;
+        synchronized (this) {
+            firstInWindow = pendingCommits.isEmpty();
+            final PendingCommit existingCommit = pendingCommits.get(groupId);
+            if (existingCommit != null) {
+                coalescedCommits.inc();
+                pendingCommit = existingCommit;
+            } else {
+                pendingCommit = new PendingCommit();
+                pendingCommits.put(groupId, pendingCommit);
+            }
+            pendingCommit.offsets.putAll(offsets);
+            pendingCommit.timestamp = Math.max(pendingCommit.timestamp, timestamp);
+        }
+        if (firstInWindow) {
+            scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+        return pendingCommit.future;
+    }
+
+    /**
+     * Send all the pending commits of the current window.
+     */
+    void flush() {
+        final Map<String, PendingCommit> commitsToSend;
+        synchronized (this) {
+            if (pendingCommits.isEmpty()) {
+                return;
+            }
+            commitsToSend = pendingCommits;
+            pendingCommits = new LinkedHashMap<>();
+        }
+        commitsToSend.forEach((groupId, pendingCommit) -> {
+            final Map<TopicPartition, OffsetAndMetadata> writtenOffsets =
+                    Collections.unmodifiableMap(pendingCommit.offsets);
+            final CompletableFuture<MessageId> future;
+            try {
+                future = writer.write(groupId, writtenOffsets, pendingCommit.timestamp);
+            } catch (Throwable e) {
+                pendingCommit.future.completeExceptionally(e);
+                return;
+            }
+            future.whenComplete((messageId, e) -> {
+                if (e == null) {
+                    pendingCommit.future.complete(new Result(messageId, writtenOffsets));
+                } else {
+                    pendingCommit.future.completeExceptionally(e);
+                }
+            });
+        });
+        if (log.isDebugEnabled()) {
+            log.debug("Flushed the offset commits of {} groups", commitsToSend.size());
+        }
+    }
+
+    private static class PendingCommit {
+
+        private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        private final CompletableFuture<Result> future = new CompletableFuture<>();
+        private long timestamp = 0L;
+    }
+}
@@ -34,6 +34,9 @@ public class OffsetConfig {
     public static final String DefaultOffsetsTopicName = "public/__kafka/__consumer_offsets";
     public static final int DefaultOffsetsNumPartitions = KafkaServiceConfiguration.DefaultOffsetsTopicNumPartitions;
     public static final int DefaultOffsetCommitTimeoutMs = 5000;
+    public static final int DefaultOffsetsLoadBatchSize = 1000;
+    public static final int DefaultOffsetsLoadConcurrency = 2;
+    public static final long DefaultOffsetCommitCoalesceWindowMs = 0L;
 
     @Default
     private String offsetsTopicName = DefaultOffsetsTopicName;
@@ -49,4 +52,10 @@ public class OffsetConfig {
     private int offsetsTopicNumPartitions = DefaultOffsetsNumPartitions;
     @Default
     private int offsetCommitTimeoutMs = DefaultOffsetCommitTimeoutMs;
+    @Default
+    private int offsetsLoadBatchSize = DefaultOffsetsLoadBatchSize;
+    @Default
+    private int offsetsLoadConcurrency = DefaultOffsetsLoadConcurrency;
+    @Default
+    private long offsetCommitCoalesceWindowMs = DefaultOffsetCommitCoalesceWindowMs;
 }
@@ -0,0 +1,191 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_EXECUTOR_QUEUE_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_EXECUTOR_TASK_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.THREAD_SCOPE;
+
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.kafka.common.errors.CoordinatorNotAvailableException;
+import org.apache.pulsar.common.util.FutureUtil;
+
+/**
+ * Execute the operations of a group in a single thread, which is chosen by the group id.
+ *
+ * <p>Since the operations of the same group are executed in order by the same thread, the group lock is not contended
+ * by the requests of the group. The caller thread, e.g. a Netty I/O thread, never waits for the group lock. The lock
+ * is still required by the operations that are triggered by the timer or by the group loading.
+ */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP group coordinator executor stats"
+)
+@Slf4j
+class OrderedGroupExecutor {
+
+    // null if the operations are executed in the caller thread
+    private final OrderedExecutor executor;
+    private final AtomicInteger[] queueSizes;
+    @StatsDoc(
+            name = GROUP_EXECUTOR_TASK_LATENCY,
+            help = "The time to execute a group operation in an executor thread"
+    )
+    private final OpStatsLogger[] taskLatencies;
+    // The gauges are unregistered on shutdown, so that a new executor of the same tenant can register its own gauges
+    private final StatsLogger[] threadStatsLoggers;
+    private final List<Gauge<Number>> queueSizeGauges;
+
+    /**
+     * Create an executor that executes the operations in the caller thread.
+     */
+    static OrderedGroupExecutor direct() {
+        return new OrderedGroupExecutor(null, 1, NullStatsLogger.INSTANCE);
+    }
+
+    static OrderedGroupExecutor create(String name, int numThreads, StatsLogger statsLogger) {
+        final OrderedExecutor executor = OrderedExecutor.newBuilder()
+                .name(name)
+                .numThreads(numThreads)
+                .build();
+        return new OrderedGroupExecutor(executor, numThreads, statsLogger);
+    }
+
+    private OrderedGroupExecutor(OrderedExecutor executor, int numThreads, StatsLogger statsLogger) {
+        this.executor = executor;
+        this.queueSizes = new AtomicInteger[numThreads];
+        this.taskLatencies = new OpStatsLogger[numThreads];
+        this.threadStatsLoggers = new StatsLogger[numThreads];
+        this.queueSizeGauges = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            final AtomicInteger queueSize = new AtomicInteger(0);
+            final StatsLogger threadStatsLogger = statsLogger.scopeLabel(THREAD_SCOPE, String.valueOf(i));
+            final Gauge<Number> queueSizeGauge = new Gauge<Number>() {
+                @Override
+                public Number getDefaultValue() {
+                    return 0;
+                }
+
+                @Override
+                public Number getSample() {
+                    return queueSize.get();
+                }
+            };
+            threadStatsLogger.registerGauge(GROUP_EXECUTOR_QUEUE_SIZE, queueSizeGauge);
+            queueSizes[i] = queueSize;
+            threadStatsLoggers[i] = threadStatsLogger;
+            queueSizeGauges.add(queueSizeGauge);
+            taskLatencies[i] = threadStatsLogger.getOpStatsLogger(GROUP_EXECUTOR_TASK_LATENCY);
+        }
+    }
+
+    /**
+     * Execute the operation of the group in the thread of the group.
+     *
+     * @return the future of the result of the operation, which fails with {@link CoordinatorNotAvailableException} if
+     *   the executor is shut down
+     */
+    <T> CompletableFuture<T> submit(String groupId, Supplier<CompletableFuture<T>> operation) {
+        if (executor == null) {
+            return runOperation(operation);
+        }
+        final int threadIndex = MathUtils.signSafeMod(groupId.hashCode(), queueSizes.length);
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        queueSizes[threadIndex].incrementAndGet();
+        try {
+            executor.chooseThread(threadIndex).execute(() -> {
+                queueSizes[threadIndex].decrementAndGet();
+                final long startNanos = MathUtils.nowInNano();
+                final CompletableFuture<T> result = runOperation(operation);
+                taskLatencies[threadIndex].registerSuccessfulEvent(
+                        MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+                result.whenComplete((value, e) -> {
+                    if (e == null) {
+                        future.complete(value);
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            // the executor is shut down, e.g. the coordinator is being closed, so the client should find the
+            // coordinator again
+            queueSizes[threadIndex].decrementAndGet();
+            future.completeExceptionally(new CoordinatorNotAvailableException(
+                    "The coordinator of group " + groupId + " is shut down"));
+        } catch (Throwable e) {
+            queueSizes[threadIndex].decrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Execute the operation of the group in the thread of the group without a result.
+     */
+    void execute(String groupId, Runnable operation) {
+        execute(groupId, operation, () -> {});
+    }
+
+    /**
+     * Execute the operation of the group in the thread of the group without a result, the `onShutdown` callback is
+     * called instead if the executor is shut down.
+     */
+    void execute(String groupId, Runnable operation, Runnable onShutdown) {
+        submit(groupId, () -> {
+            operation.run();
+            return CompletableFuture.completedFuture(null);
+        }).exceptionally(e -> {
+            log.error("Failed to execute the operation of group {}", groupId, e);
+            if (FutureUtil.unwrapCompletionException(e) instanceof CoordinatorNotAvailableException) {
+                onShutdown.run();
+            }
+            return null;
+        });
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (int i = 0; i < threadStatsLoggers.length; i++) {
+            threadStatsLoggers[i].unregisterGauge(GROUP_EXECUTOR_QUEUE_SIZE, queueSizeGauges.get(i));
+        }
+    }
+
+    private static <T> CompletableFuture<T> runOperation(Supplier<CompletableFuture<T>> operation) {
+        try {
+            return operation.get();
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
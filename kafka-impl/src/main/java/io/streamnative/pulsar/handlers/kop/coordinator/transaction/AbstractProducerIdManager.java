@@ -0,0 +1,255 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_ID_ALLOCATION_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_ID_BLOCK_FETCH_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_ID_BLOCK_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * The base of the {@link ProducerIdManager} implementations that claim the blocks of producer ids from a shared
+ * storage.
+ *
+ * <p>The producer ids are allocated from the current block without locking. When prefetch is enabled, the next block
+ * is fetched in background once {@link #PREFETCH_THRESHOLD} of the current block is allocated, so that the allocation
+ * only waits for the storage if the current block is used up before the next block is fetched. The size of the next
+ * block adapts to the allocation rate of the current block, so that a block lasts about
+ * {@link #TARGET_BLOCK_DURATION_MS}.
+ */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP producer id manager stats"
+)
+@Slf4j
+public abstract class AbstractProducerIdManager implements ProducerIdManager {
+
+    static final double PREFETCH_THRESHOLD = 0.9;
+    static final long TARGET_BLOCK_DURATION_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final long minBlockSize;
+    private final long maxBlockSize;
+    private final boolean prefetchEnabled;
+
+    private final AtomicReference<IdBlock> currentBlock = new AtomicReference<>();
+    // The block that is fetched before the current block is used up
+    private final AtomicReference<IdBlock> nextBlock = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<Void>> pendingFetch = new AtomicReference<>();
+
+    @StatsDoc(
+            name = PRODUCER_ID_ALLOCATION_LATENCY,
+            help = "The latency of allocating a producer id, including the time of waiting for a new block"
+    )
+    private final OpStatsLogger allocationLatency;
+    @StatsDoc(
+            name = PRODUCER_ID_BLOCK_FETCH_LATENCY,
+            help = "The latency of claiming a block of producer ids from the storage"
+    )
+    private final OpStatsLogger blockFetchLatency;
+    @StatsDoc(
+            name = PRODUCER_ID_BLOCK_SIZE,
+            help = "The number of producer ids of the claimed blocks"
+    )
+    private final OpStatsLogger blockSizeStats;
+
+    protected AbstractProducerIdManager(long minBlockSize, long maxBlockSize, boolean prefetchEnabled,
+                                        StatsLogger statsLogger) {
+        this.minBlockSize = Math.max(minBlockSize, 1L);
+        this.maxBlockSize = Math.max(maxBlockSize, this.minBlockSize);
+        this.prefetchEnabled = prefetchEnabled;
+        this.allocationLatency = statsLogger.getOpStatsLogger(PRODUCER_ID_ALLOCATION_LATENCY);
+        this.blockFetchLatency = statsLogger.getOpStatsLogger(PRODUCER_ID_BLOCK_FETCH_LATENCY);
+        this.blockSizeStats = statsLogger.getOpStatsLogger(PRODUCER_ID_BLOCK_SIZE);
+    }
+
+    /**
+     * Claim a block of producer ids from the storage.
+     *
+     * @param blockSize the number of producer ids to claim
+     * @return the future of the claimed block, whose first and last ids are both inclusive
+     */
+    protected abstract CompletableFuture<ProducerIdRange> fetchBlock(long blockSize);
+
+    @Override
+    public CompletableFuture<Long> generateProducerId() {
+        final long startTimeNanos = MathUtils.nowInNano();
+        final long producerId = tryAllocate();
+        if (producerId >= 0) {
+            allocationLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            return CompletableFuture.completedFuture(producerId);
+        }
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        getNewProducerIdBlock().whenComplete((__, e) -> {
+            final long newProducerId = (e == null) ? tryAllocate() : -1L;
+            if (newProducerId >= 0) {
+                allocationLatency.registerSuccessfulEvent(
+                        MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                future.complete(newProducerId);
+                return;
+            }
+            allocationLatency.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                // This can only happen if more than blockSize producers attempt to connect
+                // while the getNewProducerIdBlock() is processing
+                future.completeExceptionally(new IllegalStateException("New ProducerIdBlock exhausted. Try again."));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Fetch a new block of producer ids, the block replaces the current block after it's used up.
+     *
+     * @return the future that is completed after the new block is fetched, the concurrent calls share the same future
+     */
+    public CompletableFuture<Void> getNewProducerIdBlock() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> pending = pendingFetch.compareAndExchange(null, future);
+        if (pending != null) {
+            // In this case, the class is already getting the new producer id block.
+            // Returning this future ensures that callbacks work correctly
+            return pending;
+        }
+        final long blockSize = nextBlockSize();
+        final long startTimeNanos = MathUtils.nowInNano();
+        CompletableFuture<ProducerIdRange> fetchFuture;
+        try {
+            fetchFuture = fetchBlock(blockSize);
+        } catch (Throwable e) {
+            fetchFuture = CompletableFuture.failedFuture(e);
+        }
+        fetchFuture.whenComplete((range, e) -> {
+            if (e == null) {
+                blockFetchLatency.registerSuccessfulEvent(
+                        MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                blockSizeStats.registerSuccessfulValue(range.lastId() - range.firstId() + 1);
+                installBlock(new IdBlock(range, prefetchEnabled));
+            } else {
+                blockFetchLatency.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                log.error("Failed to fetch a new block of {} producer ids", blockSize, e);
+            }
+            // Clear the pending fetch before completing it, so that the callbacks can fetch the next block
+            pendingFetch.compareAndSet(future, null);
+            if (e == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Allocate a producer id from the current block, or switch to the next block if the current block is used up.
+     *
+     * @return the producer id, or -1 if there is no producer id available
+     */
+    private long tryAllocate() {
+        while (true) {
+            final IdBlock block = currentBlock.get();
+            if (block == null) {
+                return -1L;
+            }
+            final long producerId = block.nextId.getAndIncrement();
+            if (producerId <= block.lastId) {
+                if (producerId == block.prefetchId) {
+                    getNewProducerIdBlock();
+                }
+                return producerId;
+            }
+            final IdBlock next = nextBlock.get();
+            if (next == null || next == block) {
+                return -1L;
+            }
+            if (currentBlock.compareAndSet(block, next)) {
+                next.startTimeNanos = MathUtils.nowInNano();
+                nextBlock.compareAndSet(next, null);
+            }
+        }
+    }
+
+    private void installBlock(IdBlock block) {
+        if (currentBlock.compareAndSet(null, block)) {
+            return;
+        }
+        final IdBlock previous = nextBlock.getAndSet(block);
+        if (previous != null && previous != currentBlock.get()) {
+            log.warn("Discard the unused producer id block [{}, {}]", previous.firstId, previous.lastId);
+        }
+    }
+
+    /**
+     * The size of the next block is the number of producer ids that are expected to be allocated in
+     * {@link #TARGET_BLOCK_DURATION_MS} at the allocation rate of the current block.
+     */
+    @VisibleForTesting
+    long nextBlockSize() {
+        final IdBlock block = currentBlock.get();
+        if (block == null || minBlockSize == maxBlockSize) {
+            return minBlockSize;
+        }
+        final long numAllocated = Math.min(block.nextId.get(), block.lastId + 1) - block.firstId;
+        final long elapsedMs =
+                Math.max(TimeUnit.NANOSECONDS.toMillis(MathUtils.elapsedNanos(block.startTimeNanos)), 1L);
+        final long blockSize = numAllocated * TARGET_BLOCK_DURATION_MS / elapsedMs;
+        return Math.min(Math.max(blockSize, minBlockSize), maxBlockSize);
+    }
+
+    /**
+     * @return the next producer id of the current block, or -1 if there is no block
+     */
+    protected long nextProducerId() {
+        final IdBlock block = currentBlock.get();
+        return (block == null) ? -1L : Math.min(block.nextId.get(), block.lastId + 1);
+    }
+
+    /**
+     * A range of producer ids, both the first and the last ids are inclusive.
+     */
+    protected record ProducerIdRange(long firstId, long lastId) {
+    }
+
+    private static final class IdBlock {
+        private final long firstId;
+        private final long lastId;
+        // The next block is fetched when this id is allocated, -1 means the next block is fetched on demand
+        private final long prefetchId;
+        private final AtomicLong nextId;
+        // The time that the block becomes the current block, a prefetched block is idle until then
+        private volatile long startTimeNanos = MathUtils.nowInNano();
+
+        IdBlock(ProducerIdRange range, boolean prefetchEnabled) {
+            this.firstId = range.firstId();
+            this.lastId = range.lastId();
+            this.prefetchId = prefetchEnabled
+                    ? firstId + (long) ((lastId - firstId + 1) * PREFETCH_THRESHOLD) : -1L;
+            this.nextId = new AtomicLong(firstId);
+        }
+    }
+}
@@ -17,6 +17,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Maps;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
@@ -39,9 +41,10 @@ import org.apache.pulsar.metadata.api.extended.MetadataStoreExtended;
  *
  * ProducerIds are managed via ZooKeeper, where the latest producerId block is written on the corresponding ZK
  * path by the manager who claims the block, where the written block_start and block_end are both inclusive.
+ * Since each block starts right after the latest written block, the claimed blocks can have different sizes.
  */
 @Slf4j
-public class ProducerIdManagerImpl implements ProducerIdManager {
+public class ProducerIdManagerImpl extends AbstractProducerIdManager {
 
     private static final Long currentVersion = 1L;
     public static final Long PID_BLOCK_SIZE = 1000L;
@@ -51,12 +54,25 @@ public class ProducerIdManagerImpl implements ProducerIdManager {
     private final int brokerId;
     private final MetadataStoreExtended metadataStore;
 
-    private ProducerIdBlock currentProducerIdBlock;
-    private Long nextProducerId = -1L;
+    /**
+     * Create a manager that claims the blocks of {@link #PID_BLOCK_SIZE} producer ids on demand.
+     */
+    public ProducerIdManagerImpl(int brokerId, MetadataStoreExtended metadataStore) {
+        this(brokerId, metadataStore, PID_BLOCK_SIZE, PID_BLOCK_SIZE, false, NullStatsLogger.INSTANCE);
+    }
 
-    private CompletableFuture<Void> newProducerIdBlockFuture;
+    /**
+     * Create a manager that prefetches the next block of producer ids, whose size adapts to the allocation rate
+     * between {@link #PID_BLOCK_SIZE} and the max block size.
+     */
+    public ProducerIdManagerImpl(int brokerId, MetadataStoreExtended metadataStore, long maxBlockSize,
+                                 StatsLogger statsLogger) {
+        this(brokerId, metadataStore, PID_BLOCK_SIZE, maxBlockSize, true, statsLogger);
+    }
 
-    public ProducerIdManagerImpl(int brokerId, MetadataStoreExtended metadataStore) {
+    private ProducerIdManagerImpl(int brokerId, MetadataStoreExtended metadataStore, long minBlockSize,
+                                  long maxBlockSize, boolean prefetchEnabled, StatsLogger statsLogger) {
+        super(minBlockSize, maxBlockSize, prefetchEnabled, statsLogger);
         this.brokerId = brokerId;
         this.metadataStore = metadataStore;
     }
@@ -80,123 +96,58 @@ public class ProducerIdManagerImpl implements ProducerIdManager {
                 .build();
     }
 
-    public synchronized CompletableFuture<Void> getNewProducerIdBlock() {
-        if (newProducerIdBlockFuture != null && !newProducerIdBlockFuture.isDone()) {
-            // In this case, the class is already getting the new producer id block.
-            // Returning this future ensures that callbacks work correctly
-            return newProducerIdBlockFuture;
-        }
-        newProducerIdBlockFuture = new CompletableFuture<>();
-        getCurrentDataAndVersion().thenAccept(currentDataAndVersionOpt -> {
-            synchronized (this) {
-                final ProducerIdBlock nextProducerIdBlock;
-                if (currentDataAndVersionOpt.isPresent() && currentDataAndVersionOpt.get().getData() != null) {
-                    DataAndVersion dataAndVersion = currentDataAndVersionOpt.get();
-                    try {
-                        ProducerIdBlock currProducerIdBlock =
-                                ProducerIdManagerImpl.parseProducerIdBlockData(dataAndVersion.getData());
-                        if (currProducerIdBlock.blockEndId > Long.MAX_VALUE - ProducerIdManagerImpl.PID_BLOCK_SIZE) {
-                            // We have exhausted all producerIds (wow!), treat it as a fatal error
-                            log.error("Exhausted all producerIds as the next block's end producerId is will "
-                                            + "has exceeded long type limit (current block end producerId is {})",
-                                    currProducerIdBlock.blockEndId);
-                            newProducerIdBlockFuture
-                                    .completeExceptionally(new KafkaException("Have exhausted all producerIds."));
-                            return;
-                        }
-                        nextProducerIdBlock = ProducerIdBlock
-                                .builder()
-                                .brokerId(brokerId)
-                                .blockStartId(currProducerIdBlock.blockEndId + 1L)
-                                .blockEndId(currProducerIdBlock.blockEndId + ProducerIdManagerImpl.PID_BLOCK_SIZE)
-                                .build();
-                    } catch (IOException e) {
-                        newProducerIdBlockFuture.completeExceptionally(new KafkaException("Get producerId failed.", e));
-                        return;
-                    }
-                } else {
-                    if (log.isDebugEnabled()) {
-                        log.debug("There is no producerId block yet, creating the first block");
+    @Override
+    protected CompletableFuture<ProducerIdRange> fetchBlock(long blockSize) {
+        return getCurrentDataAndVersion().thenCompose(currentDataAndVersionOpt -> {
+            final ProducerIdBlock nextProducerIdBlock;
+            if (currentDataAndVersionOpt.isPresent() && currentDataAndVersionOpt.get().getData() != null) {
+                DataAndVersion dataAndVersion = currentDataAndVersionOpt.get();
+                try {
+                    ProducerIdBlock currProducerIdBlock =
+                            ProducerIdManagerImpl.parseProducerIdBlockData(dataAndVersion.getData());
+                    if (currProducerIdBlock.blockEndId > Long.MAX_VALUE - blockSize) {
+                        // We have exhausted all producerIds (wow!), treat it as a fatal error
+                        log.error("Exhausted all producerIds as the next block's end producerId is will "
+                                        + "has exceeded long type limit (current block end producerId is {})",
+                                currProducerIdBlock.blockEndId);
+                        return CompletableFuture.failedFuture(new KafkaException("Have exhausted all producerIds."));
                     }
                     nextProducerIdBlock = ProducerIdBlock
                             .builder()
                             .brokerId(brokerId)
-                            .blockStartId(0L)
-                            .blockEndId(ProducerIdManagerImpl.PID_BLOCK_SIZE - 1)
+                            .blockStartId(currProducerIdBlock.blockEndId + 1L)
+                            .blockEndId(currProducerIdBlock.blockEndId + blockSize)
                             .build();
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(new KafkaException("Get producerId failed.", e));
                 }
-                try {
-                    byte[] newProducerIdBlockData = ProducerIdManagerImpl
-                            .generateProducerIdBlockJson(nextProducerIdBlock);
-                    conditionalUpdateData(newProducerIdBlockData,
-                            currentDataAndVersionOpt.orElse(DataAndVersion.DEFAULT_VERSION).getVersion())
-                            .thenAccept(version -> {
-                                synchronized (this) {
-                                    currentProducerIdBlock = nextProducerIdBlock;
-                                    nextProducerId = nextProducerIdBlock.blockStartId;
-                                    newProducerIdBlockFuture.complete(null);
-                                }
-                            }).exceptionally(ex -> {
-                                synchronized (this) {
-                                    newProducerIdBlockFuture.completeExceptionally(ex);
-                                }
-                                return null;
-                            });
-                } catch (JsonProcessingException e) {
-                    newProducerIdBlockFuture.completeExceptionally(e);
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("There is no producerId block yet, creating the first block");
                 }
-        }}).exceptionally(ex -> {
-            synchronized (this) {
-                newProducerIdBlockFuture.completeExceptionally(ex);
+                nextProducerIdBlock = ProducerIdBlock
+                        .builder()
+                        .brokerId(brokerId)
+                        .blockStartId(0L)
+                        .blockEndId(blockSize - 1)
+                        .build();
+            }
+            final byte[] newProducerIdBlockData;
+            try {
+                newProducerIdBlockData = ProducerIdManagerImpl.generateProducerIdBlockJson(nextProducerIdBlock);
+            } catch (JsonProcessingException e) {
+                return CompletableFuture.failedFuture(e);
             }
-            return null;
+            return conditionalUpdateData(newProducerIdBlockData,
+                    currentDataAndVersionOpt.orElse(DataAndVersion.DEFAULT_VERSION).getVersion())
+                    .thenApply(__ -> new ProducerIdRange(
+                            nextProducerIdBlock.blockStartId, nextProducerIdBlock.blockEndId));
         });
-        return newProducerIdBlockFuture;
     }
 
     @Override
     public CompletableFuture<Void> initialize() {
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        getNewProducerIdBlock()
-                .thenAccept(__ -> {
-                    synchronized (this) {
-                        nextProducerId = currentProducerIdBlock.blockStartId;
-                    }
-                    future.complete(null);
-                }).exceptionally(throwable -> {
-                    future.completeExceptionally(throwable);
-                    return null;
-                });
-        return future;
-    }
-
-    @Override
-    public synchronized CompletableFuture<Long> generateProducerId() {
-        CompletableFuture<Long> nextProducerIdFuture = new CompletableFuture<>();
-        // grab a new block of producerIds if this block has been exhausted
-        if (nextProducerId > currentProducerIdBlock.blockEndId) {
-            getNewProducerIdBlock().thenAccept(__ -> {
-                synchronized (this) {
-                    if (nextProducerId > currentProducerIdBlock.blockEndId) {
-                        // This can only happen if more than blockSize producers attempt to connect
-                        // while the getNewProducerIdBlock() is processing
-                        Exception ex = new IllegalStateException("New ProducerIdBlock exhausted. Try again.");
-                        nextProducerIdFuture.completeExceptionally(ex);
-                    } else {
-                        nextProducerId += 1;
-                        nextProducerIdFuture.complete(nextProducerId - 1);
-                    }
-                }
-            }).exceptionally(ex -> {
-                nextProducerIdFuture.completeExceptionally(ex);
-                return null;
-            });
-        } else {
-            nextProducerId += 1;
-            nextProducerIdFuture.complete(nextProducerId - 1);
-        }
-
-        return nextProducerIdFuture;
+        return getNewProducerIdBlock();
     }
 
     private CompletableFuture<Long> conditionalUpdateData(byte[] data, long expectVersion) {
@@ -331,7 +282,7 @@ public class ProducerIdManagerImpl implements ProducerIdManager {
 
     @Override
     public void shutdown() {
-        log.info("Shutdown complete: last producerId assigned {}", nextProducerId);
+        log.info("Shutdown complete: last producerId assigned {}", nextProducerId());
     }
 
 }
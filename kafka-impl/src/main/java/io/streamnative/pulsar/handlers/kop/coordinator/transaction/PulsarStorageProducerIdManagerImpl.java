@@ -13,12 +13,10 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
 
-import java.util.List;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
-import java.util.stream.LongStream;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageId;
@@ -32,18 +30,19 @@ import org.apache.pulsar.client.api.Schema;
  * ProducerIdManager is the part of the transaction coordinator that provides ProducerIds in a unique way
  * such that the same producerId will not be assigned twice across multiple transaction coordinators.
  *
- * ProducerIds are managed via a Pulsar non-partitioned topic.
+ * ProducerIds are managed via a Pulsar non-partitioned topic. The manager that claims a block writes the sum of the
+ * read id and the block size, and the claimed block starts from the read id plus the min block size. Therefore, all
+ * the claimed ids are below the latest written id plus the min block size, no matter the sizes of the blocks.
  */
 @Slf4j
-public class PulsarStorageProducerIdManagerImpl implements ProducerIdManager {
+public class PulsarStorageProducerIdManagerImpl extends AbstractProducerIdManager {
     static final int BLOCK_SIZE = 1000;
     private final AtomicLong nextId = new AtomicLong(0);
     private final String topic;
-    private final int blockSize;
+    private final int minBlockSize;
     private final PulsarClient pulsarClient;
     private CompletableFuture<Reader<byte[]>> reader;
     private CompletableFuture<Void> currentReadHandle;
-    private final ConcurrentLinkedQueue<Long> availableIdsLocally = new ConcurrentLinkedQueue<>();
 
     private synchronized CompletableFuture<Reader<byte[]>> ensureReaderHandle() {
         if (reader == null) {
@@ -113,16 +112,9 @@ public class PulsarStorageProducerIdManagerImpl implements ProducerIdManager {
     }
 
     @Override
-    public synchronized CompletableFuture<Long> generateProducerId() {
-        Long booked = availableIdsLocally.poll();
-        if (booked != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Returning pre-allocated id {} for {}", booked, topic);
-            }
-            return CompletableFuture.completedFuture(booked);
-        }
+    protected CompletableFuture<ProducerIdRange> fetchBlock(long blockSize) {
         if (log.isDebugEnabled()) {
-            log.debug("Allocating new block of ids for {}", topic);
+            log.debug("Allocating new block of {} ids for {}", blockSize, topic);
         }
         CompletableFuture<Producer<byte[]>> producerHandle = pulsarClient.newProducer()
                 .enableBatching(false)
@@ -133,10 +125,13 @@ public class PulsarStorageProducerIdManagerImpl implements ProducerIdManager {
         return producerHandle.thenCompose(opProducer -> {
             // nobody can write now to the topic
             // wait for local cache to be up-to-date
-            CompletableFuture<Long> dummy = ensureLatestData(true)
+            CompletableFuture<ProducerIdRange> dummy = ensureLatestData(true)
                     .thenCompose((___) -> {
+                        // The ids below the written id plus the min block size might have been claimed, so the
+                        // block starts from there, which keeps the blocks of different sizes apart
                         long start = nextId.get();
-                        List<Long> block = generateBlock(start + blockSize, blockSize);
+                        final ProducerIdRange block =
+                                new ProducerIdRange(start + minBlockSize, start + minBlockSize + blockSize - 1);
                         final long nextAvailableId = start + blockSize;
                         // write to Pulsar
                         byte[] serialized = Schema.INT64.encode(nextAvailableId);
@@ -150,13 +145,11 @@ public class PulsarStorageProducerIdManagerImpl implements ProducerIdManager {
                                         log.debug("{} written {} as {}", this, nextAvailableId, msgId);
                                     }
                                     nextId.set(nextAvailableId);
-                                    availableIdsLocally.addAll(block);
-                                    long result = availableIdsLocally.remove();
                                     if (log.isDebugEnabled()) {
-                                        log.debug("Returning allocated id {} for {}, new range: {}-{}",
-                                                result, topic, start, nextAvailableId);
+                                        log.debug("Allocated new range {}-{} for {}",
+                                                block.firstId(), block.lastId(), topic);
                                     }
-                                    return result;
+                                    return block;
                                 });
                     });
             // ensure that we release the exclusive producer in any case
@@ -170,22 +163,34 @@ public class PulsarStorageProducerIdManagerImpl implements ProducerIdManager {
         });
     }
 
-    private static List<Long> generateBlock(long start, int blockSize) {
-        return LongStream.range(start, start + blockSize)
-                .boxed()
-                .collect(Collectors.toList());
-    }
-
+    /**
+     * Create a manager that claims the blocks of the given number of producer ids on demand.
+     */
     public PulsarStorageProducerIdManagerImpl(String topicName, PulsarClient pulsarClient, int blockSize) {
-        this.topic = topicName;
-        this.pulsarClient = pulsarClient;
-        this.blockSize = blockSize;
+        this(topicName, pulsarClient, blockSize, blockSize, false, NullStatsLogger.INSTANCE);
     }
 
     public PulsarStorageProducerIdManagerImpl(String topicName, PulsarClient pulsarClient) {
         this(topicName, pulsarClient, BLOCK_SIZE);
     }
 
+    /**
+     * Create a manager that prefetches the next block of producer ids, whose size adapts to the allocation rate
+     * between {@link #BLOCK_SIZE} and the max block size.
+     */
+    public PulsarStorageProducerIdManagerImpl(String topicName, PulsarClient pulsarClient, long maxBlockSize,
+                                              StatsLogger statsLogger) {
+        this(topicName, pulsarClient, BLOCK_SIZE, maxBlockSize, true, statsLogger);
+    }
+
+    private PulsarStorageProducerIdManagerImpl(String topicName, PulsarClient pulsarClient, int minBlockSize,
+                                               long maxBlockSize, boolean prefetchEnabled, StatsLogger statsLogger) {
+        super(minBlockSize, maxBlockSize, prefetchEnabled, statsLogger);
+        this.topic = topicName;
+        this.pulsarClient = pulsarClient;
+        this.minBlockSize = minBlockSize;
+    }
+
     @Override
     public CompletableFuture<Void> initialize() {
        return ensureLatestData(false);
@@ -36,6 +36,10 @@ public class TransactionConfig {
     public static final int DefaultTransactionStateManagerSchedulerNum = 1;
     public static final int DefaultTransactionLogNumPartitions = 8;
     public static final int DefaultTransactionStateNumPartitions = 8;
+    public static final int DefaultProducerStateSnapshotMaxDeltas = 10;
+    public static final int DefaultTransactionLogLoadBatchSize = 1000;
+    public static final int DefaultTransactionLogLoadConcurrency = 2;
+    public static final long DefaultProducerIdBlockMaxSize = 100_000L;
 
     @Default
     private int brokerId = 1;
@@ -54,6 +58,14 @@ public class TransactionConfig {
     @Default
     private int producerStateTopicNumPartitions = DefaultTransactionStateNumPartitions;
     @Default
+    private int producerStateSnapshotMaxDeltas = DefaultProducerStateSnapshotMaxDeltas;
+    @Default
+    private int transactionLogLoadBatchSize = DefaultTransactionLogLoadBatchSize;
+    @Default
+    private int transactionLogLoadConcurrency = DefaultTransactionLogLoadConcurrency;
+    @Default
+    private long producerIdBlockMaxSize = DefaultProducerIdBlockMaxSize;
+    @Default
     private long abortTimedOutTransactionsIntervalMs = DefaultAbortTimedOutTransactionsIntervalMs;
     @Default
     private long removeExpiredTransactionalIdsIntervalMs = DefaultRemoveExpiredTransactionalIdsIntervalMs;
@@ -28,10 +28,12 @@ import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionMetadata.TxnTransitMetadata;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionStateManager.CoordinatorEpochAndTxnMetadata;
 import io.streamnative.pulsar.handlers.kop.scala.Either;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.storage.ProducerStateManagerSnapshotBuffer;
 import io.streamnative.pulsar.handlers.kop.storage.PulsarPartitionedTopicProducerStateManagerSnapshotBuffer;
 import io.streamnative.pulsar.handlers.kop.utils.MetadataUtils;
 import io.streamnative.pulsar.handlers.kop.utils.ProducerIdAndEpoch;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -55,6 +57,8 @@ import org.apache.kafka.common.internals.Topic;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
 import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.metadata.api.extended.MetadataStoreExtended;
 
@@ -135,23 +139,28 @@ public class TransactionCoordinator {
                                             KopBrokerLookupManager kopBrokerLookupManager,
                                             ScheduledExecutorService scheduler,
                                             Time time,
-                                            Executor recoveryExecutor) throws Exception {
+                                            Executor recoveryExecutor,
+                                            StatsLogger statsLogger,
+                                            Function<List<TxnMarkerEntry>, CompletableFuture<WriteTxnMarkersResponse>>
+                                                    localTxnMarkerWriter) throws Exception {
         String namespacePrefixForMetadata = MetadataUtils.constructMetadataNamespace(tenant, kafkaConfig);
         String namespacePrefixForUserTopics = MetadataUtils.constructUserTopicsNamespace(tenant, kafkaConfig);
         TransactionStateManager transactionStateManager =
-                new TransactionStateManager(transactionConfig, txnTopicClient, scheduler, time);
+                new TransactionStateManager(transactionConfig, txnTopicClient, scheduler, time, statsLogger);
         ProducerIdManager producerIdManager;
         if (kafkaConfig.isKafkaTransactionProducerIdsStoredOnPulsar()) {
             producerIdManager = new PulsarStorageProducerIdManagerImpl(
-                    transactionConfig.getTransactionProducerIdTopicName(), txnTopicClient.getPulsarClient());
+                    transactionConfig.getTransactionProducerIdTopicName(), txnTopicClient.getPulsarClient(),
+                    transactionConfig.getProducerIdBlockMaxSize(), statsLogger);
         } else {
-            producerIdManager = new ProducerIdManagerImpl(transactionConfig.getBrokerId(), metadataStore);
+            producerIdManager = new ProducerIdManagerImpl(transactionConfig.getBrokerId(), metadataStore,
+                    transactionConfig.getProducerIdBlockMaxSize(), statsLogger);
         }
         return new TransactionCoordinator(
                 transactionConfig,
                 new TransactionMarkerChannelManager(tenant, kafkaConfig, transactionStateManager,
                         kopBrokerLookupManager, kafkaConfig.isKopTlsEnabledWithBroker(), namespacePrefixForUserTopics,
-                        scheduler),
+                        scheduler, localTxnMarkerWriter, statsLogger),
                 scheduler,
                 producerIdManager,
                 transactionStateManager,
@@ -160,7 +169,8 @@ public class TransactionCoordinator {
                 namespacePrefixForUserTopics,
                 (config) -> new PulsarPartitionedTopicProducerStateManagerSnapshotBuffer(
                         config.getTransactionProducerStateSnapshotTopicName(), txnTopicClient, recoveryExecutor,
-                        config.getProducerStateTopicNumPartitions())
+                        config.getProducerStateTopicNumPartitions(), config.getProducerStateSnapshotMaxDeltas(),
+                        statsLogger)
                 );
     }
 
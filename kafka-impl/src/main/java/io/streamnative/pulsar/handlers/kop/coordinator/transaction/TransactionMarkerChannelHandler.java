@@ -97,6 +97,17 @@ public class TransactionMarkerChannelHandler extends ChannelInboundHandlerAdapte
                 ));
             } else {
                 log.error("Failed to enqueue request because the channel failed", e);
+                // fail the markers so that they can be retried with a new channel
+                final PendingRequest pendingRequest = new PendingRequest(
+                        ApiKeys.WRITE_TXN_MARKERS,
+                        correlationIdGenerator.next(),
+                        newWriteTxnMarkers(txnMarkerEntries),
+                        responseContextConsumer);
+                pendingRequest.complete(new ResponseContext().set(
+                        null,
+                        pendingRequest.getApiVersion(),
+                        pendingRequest.getCorrelationId(),
+                        pendingRequest.createErrorResponse(new NetworkException(e))));
             }
         });
     }
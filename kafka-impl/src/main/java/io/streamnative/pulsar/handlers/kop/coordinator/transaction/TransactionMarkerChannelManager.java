@@ -13,6 +13,13 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
 
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKERS_PER_REQUEST;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKER_QUEUE_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_MARKER_QUEUE_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_PENDING_MARKER_TXNS;
+
 import com.google.common.annotations.VisibleForTesting;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.EventLoopGroup;
@@ -21,6 +28,8 @@ import io.streamnative.pulsar.handlers.kop.EndPoint;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import io.streamnative.pulsar.handlers.kop.KopBrokerLookupManager;
 import io.streamnative.pulsar.handlers.kop.scala.Either;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
 import io.streamnative.pulsar.handlers.kop.utils.ssl.SSLUtils;
 import java.io.IOException;
@@ -38,19 +47,26 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.requests.TransactionResult;
 import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
 import org.apache.pulsar.client.api.Authentication;
 import org.apache.pulsar.client.impl.AuthenticationUtil;
 import org.apache.pulsar.common.util.FutureUtil;
@@ -63,9 +79,16 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 /**
  * Transaction marker channel manager.
  */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP transaction marker stats"
+)
 @Slf4j
 public class TransactionMarkerChannelManager {
 
+    private static final long RETRY_BACKOFF_MS = 100;
+
     private final String tenant;
     @Getter
     private final KafkaServiceConfiguration kafkaConfig;
@@ -87,11 +110,40 @@ public class TransactionMarkerChannelManager {
     private ConcurrentHashMap<String, PendingCompleteTxn> transactionsWithPendingMarkers = new ConcurrentHashMap<>();
     private Map<InetSocketAddress, TxnMarkerQueue> markersQueuePerBroker = new ConcurrentHashMap<>();
     private TxnMarkerQueue markersQueueForUnknownBroker = new TxnMarkerQueue(null);
+    private TxnMarkerQueue markersQueueForLocalBroker = new TxnMarkerQueue(null);
+    // write the markers to the partitions owned by this broker in process, or null to always send the requests
+    private final Function<List<TxnMarkerEntry>, CompletableFuture<WriteTxnMarkersResponse>> localTxnMarkerWriter;
     private BlockingQueue<PendingCompleteTxn> txnLogAppendRetryQueue = new LinkedBlockingQueue<>();
     private volatile boolean closed;
     private final String namespacePrefixForUserTopics;
     private final ScheduledExecutorService scheduler;
-    private ScheduledFuture<?> drainQueuedTransactionMarkersHandle;
+    // whether a drain of the queued markers is scheduled, the wakeups before it starts are coalesced into it
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+
+    @StatsDoc(
+            name = TXN_MARKER_QUEUE_LATENCY,
+            help = "The latency in milliseconds from when the transaction markers are queued for a broker until they "
+                    + "are sent"
+    )
+    private final OpStatsLogger markerQueueLatency;
+    @StatsDoc(
+            name = TXN_MARKERS_PER_REQUEST,
+            help = "The number of transaction markers sent in a WriteTxnMarkers request or written to the local "
+                    + "partitions at once"
+    )
+    private final OpStatsLogger markersPerRequest;
+    @StatsDoc(
+            name = TXN_MARKER_QUEUE_SIZE,
+            help = "The number of transaction markers that are queued to be sent or written to the local partitions"
+    )
+    private final Gauge<Number> markerQueueSize;
+    @StatsDoc(
+            name = TXN_PENDING_MARKER_TXNS,
+            help = "The number of transactions whose markers are not all written yet"
+    )
+    private final Gauge<Number> pendingMarkerTxns;
+    private final StatsLogger statsLogger;
 
     @Getter
     private Authentication authentication;
@@ -115,6 +167,11 @@ public class TransactionMarkerChannelManager {
     protected static class TxnIdAndMarkerEntry {
         private final String transactionalId;
         private final TxnMarkerEntry entry;
+        private final long enqueueTimeNanos;
+
+        TxnIdAndMarkerEntry(String transactionalId, TxnMarkerEntry entry) {
+            this(transactionalId, entry, MathUtils.nowInNano());
+        }
     }
 
     private static class TxnMarkerQueue {
@@ -139,6 +196,14 @@ public class TransactionMarkerChannelManager {
             markersQueue.add(txnIdAndMarker);
         }
 
+        public int numMarkers() {
+            int numMarkers = 0;
+            for (BlockingQueue<TxnIdAndMarkerEntry> queue : markersPerPartition.values()) {
+                numMarkers += queue.size();
+            }
+            return numMarkers;
+        }
+
         public void forEachTxnTopicPartition(BiConsumer<Integer, BlockingQueue<TxnIdAndMarkerEntry>> f) {
             for (Map.Entry<Integer, BlockingQueue<TxnIdAndMarkerEntry>> entry: markersPerPartition.entrySet()) {
                 Integer partition = entry.getKey();
@@ -157,7 +222,50 @@ public class TransactionMarkerChannelManager {
                                            boolean enableTls,
                                            String namespacePrefixForUserTopics,
                                            ScheduledExecutorService scheduler) throws Exception {
+        this(tenant, kafkaConfig, txnStateManager, kopBrokerLookupManager, enableTls, namespacePrefixForUserTopics,
+                scheduler, null, NullStatsLogger.INSTANCE);
+    }
+
+    public TransactionMarkerChannelManager(String tenant,
+                                           KafkaServiceConfiguration kafkaConfig,
+                                           TransactionStateManager txnStateManager,
+                                           KopBrokerLookupManager kopBrokerLookupManager,
+                                           boolean enableTls,
+                                           String namespacePrefixForUserTopics,
+                                           ScheduledExecutorService scheduler,
+                                           @Nullable Function<List<TxnMarkerEntry>,
+                                                   CompletableFuture<WriteTxnMarkersResponse>> localTxnMarkerWriter,
+                                           StatsLogger statsLogger)
+            throws Exception {
         this.tenant = tenant;
+        this.localTxnMarkerWriter = localTxnMarkerWriter;
+        this.markerQueueLatency = statsLogger.getOpStatsLogger(TXN_MARKER_QUEUE_LATENCY);
+        this.markersPerRequest = statsLogger.getOpStatsLogger(TXN_MARKERS_PER_REQUEST);
+        this.statsLogger = statsLogger;
+        this.markerQueueSize = new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return numQueuedMarkers();
+            }
+        };
+        this.pendingMarkerTxns = new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return transactionsWithPendingMarkers.size();
+            }
+        };
+        statsLogger.registerGauge(TXN_MARKER_QUEUE_SIZE, markerQueueSize);
+        statsLogger.registerGauge(TXN_PENDING_MARKER_TXNS, pendingMarkerTxns);
         this.kafkaConfig = kafkaConfig;
         this.namespacePrefixForUserTopics = namespacePrefixForUserTopics;
         this.txnStateManager = txnStateManager;
@@ -185,30 +293,38 @@ public class TransactionMarkerChannelManager {
         bootstrap.handler(new TransactionMarkerChannelInitializer(kafkaConfig, enableTls, this));
     }
 
+    @VisibleForTesting
+    int numQueuedMarkers() {
+        int numMarkers = markersQueueForUnknownBroker.numMarkers() + markersQueueForLocalBroker.numMarkers();
+        for (TxnMarkerQueue markerQueue : markersQueuePerBroker.values()) {
+            numMarkers += markerQueue.numMarkers();
+        }
+        return numMarkers;
+    }
+
     public CompletableFuture<TransactionMarkerChannelHandler> getChannel(InetSocketAddress socketAddress) {
         if (closed) {
             return FutureUtil.failedFuture(new Exception("This TransactionMarkerChannelManager is closed"));
         }
-        ensureDrainQueuedTransactionMarkersActivity();
-        CompletableFuture<TransactionMarkerChannelHandler> result =
-                handlerMap.computeIfAbsent(socketAddress, address -> new CompletableFuture<>());
+        final CompletableFuture<TransactionMarkerChannelHandler> newHandler = new CompletableFuture<>();
+        final CompletableFuture<TransactionMarkerChannelHandler> result =
+                handlerMap.putIfAbsent(socketAddress, newHandler);
+        if (result != null) {
+            // reuse the connection to pipeline the requests to the same broker
+            return result;
+        }
 
         ChannelFutures.toCompletableFuture(bootstrap.connect(socketAddress))
                 .thenAccept(channel -> {
-                    result.complete(
+                    newHandler.complete(
                             (TransactionMarkerChannelHandler) channel.pipeline().get("txnHandler"));
                 }).exceptionally(e -> {
                     log.error("getChannel failed {} {}", socketAddress, e.getMessage(), e);
-                    result.completeExceptionally(e);
-                    handlerMap.remove(socketAddress, result);
+                    newHandler.completeExceptionally(e);
+                    handlerMap.remove(socketAddress, newHandler);
                     return null;
                 });
-
-        if (result.isCompletedExceptionally()) {
-            // edge case, the future failed before it was cached
-            handlerMap.remove(socketAddress, result);
-        }
-        return result;
+        return newHandler;
     }
 
     public void channelFailed(InetSocketAddress socketAddress, TransactionMarkerChannelHandler handler) {
@@ -232,7 +348,6 @@ public class TransactionMarkerChannelManager {
                                     TransactionMetadata txnMetadata,
                                     TransactionMetadata.TxnTransitMetadata newMetadata,
                                     String namespacePrefix) {
-        ensureDrainQueuedTransactionMarkersActivity();
         String transactionalId = txnMetadata.getTransactionalId();
         PendingCompleteTxn pendingCompleteTxn = new PendingCompleteTxn(
                 transactionalId,
@@ -243,7 +358,7 @@ public class TransactionMarkerChannelManager {
         transactionsWithPendingMarkers.put(transactionalId, pendingCompleteTxn);
         addTxnMarkersToBrokerQueue(transactionalId, txnMetadata.getProducerId(),
                 txnMetadata.getProducerEpoch(), txnResult, coordinatorEpoch, txnMetadata.getTopicPartitions(),
-                namespacePrefix);
+                namespacePrefix, false);
         maybeWriteTxnCompletion(transactionalId);
     }
 
@@ -257,7 +372,6 @@ public class TransactionMarkerChannelManager {
     }
 
     public void maybeWriteTxnCompletion(String transactionalId) {
-        ensureDrainQueuedTransactionMarkersActivity();
         Optional.ofNullable(transactionsWithPendingMarkers.get(transactionalId)).ifPresent(pendingCompleteTxn -> {
             if (!hasPendingMarkersToWrite(pendingCompleteTxn.txnMetadata)
                     && transactionsWithPendingMarkers.remove(transactionalId, pendingCompleteTxn)) {
@@ -273,11 +387,28 @@ public class TransactionMarkerChannelManager {
                                            Integer coordinatorEpoch,
                                            Set<TopicPartition> topicPartitions,
                                            String namespacePrefixForUserTopics) {
-        ensureDrainQueuedTransactionMarkersActivity();
+        addTxnMarkersToBrokerQueue(transactionalId, producerId, producerEpoch, result, coordinatorEpoch,
+                topicPartitions, namespacePrefixForUserTopics, true);
+    }
+
+    /**
+     * Add the markers to the queues of the brokers that own the partitions.
+     *
+     * @param retry whether the markers failed to be sent before, then they are sent after a backoff
+     */
+    private void addTxnMarkersToBrokerQueue(String transactionalId,
+                                            Long producerId,
+                                            Short producerEpoch,
+                                            TransactionResult result,
+                                            Integer coordinatorEpoch,
+                                            Set<TopicPartition> topicPartitions,
+                                            String namespacePrefixForUserTopics,
+                                            boolean retry) {
         Integer txnTopicPartition = txnStateManager.partitionFor(transactionalId);
 
         Map<InetSocketAddress, List<TopicPartition>> addressAndPartitionMap = new ConcurrentHashMap<>();
         List<TopicPartition> unknownBrokerTopicList = new CopyOnWriteArrayList<>();
+        List<TopicPartition> localBrokerTopicList = new CopyOnWriteArrayList<>();
 
         List<CompletableFuture<Void>> addressFutureList = new ArrayList<>();
         for (TopicPartition topicPartition : topicPartitions) {
@@ -347,6 +478,12 @@ public class TransactionMarkerChannelManager {
                                 addFuture.complete(null);
                                 return;
                             }
+                            if (localTxnMarkerWriter != null
+                                    && kopBrokerLookupManager.isLocalBrokerTopic(pulsarTopic)) {
+                                localBrokerTopicList.add(topicPartition);
+                                addFuture.complete(null);
+                                return;
+                            }
                             addressAndPartitionMap.compute(address.get(), (__, set) -> {
                                 if (set == null) {
                                     set = new ArrayList<>();
@@ -372,6 +509,18 @@ public class TransactionMarkerChannelManager {
                 markersQueueForUnknownBroker.addMarkers(
                         txnTopicPartition, new TxnIdAndMarkerEntry(transactionalId, entry));
             }
+            if (localBrokerTopicList.size() > 0) {
+                TxnMarkerEntry entry = new TxnMarkerEntry(
+                        producerId, producerEpoch, coordinatorEpoch, result, localBrokerTopicList);
+                markersQueueForLocalBroker.addMarkers(
+                        txnTopicPartition, new TxnIdAndMarkerEntry(transactionalId, entry));
+            }
+            if (retry || unknownBrokerTopicList.size() > 0) {
+                wakeUpAfterBackoff();
+            }
+            if (!retry && (addressAndPartitionMap.size() > 0 || localBrokerTopicList.size() > 0)) {
+                wakeUp();
+            }
         });
     }
 
@@ -452,6 +601,7 @@ public class TransactionMarkerChannelManager {
 
                         // enqueue for retry
                         txnLogAppendRetryQueue.add(txnLogAppend);
+                        wakeUpAfterBackoff();
                         break;
                     case COORDINATOR_LOAD_IN_PROGRESS:
                         log.info("Coordinator is loading the partition {} and hence cannot complete append of {}; "
@@ -469,7 +619,6 @@ public class TransactionMarkerChannelManager {
     }
 
     public void removeMarkersForTxnTopicPartition(Integer txnTopicPartitionId) {
-        ensureDrainQueuedTransactionMarkersActivity();
         BlockingQueue<TxnIdAndMarkerEntry> unknownBrokerMarkerEntries =
                 markersQueueForUnknownBroker.removeMarkersForTxnTopicPartition(txnTopicPartitionId);
         if (unknownBrokerMarkerEntries != null) {
@@ -477,6 +626,13 @@ public class TransactionMarkerChannelManager {
                 removeMarkersForTxnId(markerEntry.getTransactionalId());
             });
         }
+        BlockingQueue<TxnIdAndMarkerEntry> localBrokerMarkerEntries =
+                markersQueueForLocalBroker.removeMarkersForTxnTopicPartition(txnTopicPartitionId);
+        if (localBrokerMarkerEntries != null) {
+            localBrokerMarkerEntries.forEach(markerEntry -> {
+                removeMarkersForTxnId(markerEntry.getTransactionalId());
+            });
+        }
 
         markersQueuePerBroker.forEach((__, txnMarkerQueue) -> {
             BlockingQueue<TxnIdAndMarkerEntry> markerEntries =
@@ -518,28 +674,20 @@ public class TransactionMarkerChannelManager {
             List<TopicPartition> topicPartitions = txnIdAndMarker.getEntry().partitions();
 
             addTxnMarkersToBrokerQueue(transactionalId, producerId, producerEpoch,
-                    txnResult, coordinatorEpoch, new HashSet<>(topicPartitions), namespacePrefixForUserTopics);
+                    txnResult, coordinatorEpoch, new HashSet<>(topicPartitions), namespacePrefixForUserTopics, false);
         }
 
         for (TxnMarkerQueue txnMarkerQueue : markersQueuePerBroker.values()) {
             List<TxnIdAndMarkerEntry> txnIdAndMarkerEntriesForMarker = new ArrayList<>();
             txnMarkerQueue.forEachTxnTopicPartition((__, queue) -> queue.drainTo(txnIdAndMarkerEntriesForMarker));
             if (!txnIdAndMarkerEntriesForMarker.isEmpty()) {
+                recordDrainedMarkers(txnIdAndMarkerEntriesForMarker);
                 getChannel(txnMarkerQueue.address).whenComplete((channelHandler, throwable) -> {
                     if (throwable != null) {
                         log.error("Get channel for {} failed, re-enqueing {} txnIdAndMarkerEntriesForMarker",
                                 txnMarkerQueue.address, txnIdAndMarkerEntriesForMarker.size());
                         // put back
-                        txnIdAndMarkerEntriesForMarker.forEach(txnIdAndMarkerEntry -> {
-                            log.error("Re-enqueueing {}", txnIdAndMarkerEntry);
-                            addTxnMarkersToBrokerQueue(txnIdAndMarkerEntry.getTransactionalId(),
-                                    txnIdAndMarkerEntry.getEntry().producerId(),
-                                    txnIdAndMarkerEntry.getEntry().producerEpoch(),
-                                    txnIdAndMarkerEntry.getEntry().transactionResult(),
-                                    txnIdAndMarkerEntry.getEntry().coordinatorEpoch(),
-                                    new HashSet<>(txnIdAndMarkerEntry.getEntry().partitions()),
-                                    namespacePrefixForUserTopics);
-                        });
+                        reEnqueueTxnMarkers(txnIdAndMarkerEntriesForMarker);
                     } else {
                         List<TxnMarkerEntry> sendEntries = new ArrayList<>();
                         for (TxnIdAndMarkerEntry txnIdAndMarkerEntry : txnIdAndMarkerEntriesForMarker) {
@@ -553,26 +701,103 @@ public class TransactionMarkerChannelManager {
                 });
             }
         }
+
+        List<TxnIdAndMarkerEntry> localTxnIdAndMarkerEntries = new ArrayList<>();
+        markersQueueForLocalBroker.forEachTxnTopicPartition((__, queue) -> queue.drainTo(localTxnIdAndMarkerEntries));
+        if (!localTxnIdAndMarkerEntries.isEmpty()) {
+            recordDrainedMarkers(localTxnIdAndMarkerEntries);
+            writeTxnMarkersLocally(localTxnIdAndMarkerEntries);
+        }
+    }
+
+    private void recordDrainedMarkers(List<TxnIdAndMarkerEntry> txnIdAndMarkerEntries) {
+        for (TxnIdAndMarkerEntry txnIdAndMarkerEntry : txnIdAndMarkerEntries) {
+            markerQueueLatency.registerSuccessfulEvent(
+                    MathUtils.elapsedNanos(txnIdAndMarkerEntry.enqueueTimeNanos), TimeUnit.NANOSECONDS);
+        }
+        markersPerRequest.registerSuccessfulValue(txnIdAndMarkerEntries.size());
+    }
+
+    /**
+     * Write the markers to the partitions owned by this broker through the same path as the WriteTxnMarkers request,
+     * but without the serialization and the network round trip. If the ownership of a partition has moved, the
+     * partition is re-enqueued by the completion handler and the next lookup will route it to the new owner.
+     */
+    private void writeTxnMarkersLocally(List<TxnIdAndMarkerEntry> txnIdAndMarkerEntries) {
+        List<TxnMarkerEntry> writeEntries = new ArrayList<>();
+        for (TxnIdAndMarkerEntry txnIdAndMarkerEntry : txnIdAndMarkerEntries) {
+            writeEntries.add(txnIdAndMarkerEntry.entry);
+        }
+        TransactionMarkerRequestCompletionHandler completionHandler = new TransactionMarkerRequestCompletionHandler(
+                txnStateManager, this, kopBrokerLookupManager, txnIdAndMarkerEntries, namespacePrefixForUserTopics);
+        localTxnMarkerWriter.apply(writeEntries).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                log.error("Write {} txnIdAndMarkerEntries locally failed, re-enqueing them",
+                        txnIdAndMarkerEntries.size(), throwable);
+                reEnqueueTxnMarkers(txnIdAndMarkerEntries);
+                return;
+            }
+            // the handler throws IllegalStateException on fatal errors, which would be swallowed by the future,
+            // so log it like the channel handler does for the responses from the network
+            try {
+                completionHandler.accept(new ResponseContext().set(
+                        null, ApiKeys.WRITE_TXN_MARKERS.latestVersion(), -1, response));
+            } catch (Throwable e) {
+                log.error("Failed to handle the local write of {} txnIdAndMarkerEntries",
+                        txnIdAndMarkerEntries.size(), e);
+            }
+        });
+    }
+
+    private void reEnqueueTxnMarkers(List<TxnIdAndMarkerEntry> txnIdAndMarkerEntries) {
+        txnIdAndMarkerEntries.forEach(txnIdAndMarkerEntry -> {
+            log.error("Re-enqueueing {}", txnIdAndMarkerEntry);
+            addTxnMarkersToBrokerQueue(txnIdAndMarkerEntry.getTransactionalId(),
+                    txnIdAndMarkerEntry.getEntry().producerId(),
+                    txnIdAndMarkerEntry.getEntry().producerEpoch(),
+                    txnIdAndMarkerEntry.getEntry().transactionResult(),
+                    txnIdAndMarkerEntry.getEntry().coordinatorEpoch(),
+                    new HashSet<>(txnIdAndMarkerEntry.getEntry().partitions()),
+                    namespacePrefixForUserTopics);
+        });
     }
 
-    private synchronized void ensureDrainQueuedTransactionMarkersActivity() {
-        if (drainQueuedTransactionMarkersHandle != null || closed) {
+    /**
+     * Drain the queued markers as soon as possible. All the markers that are queued for a broker before the drain
+     * starts are sent in one request.
+     */
+    private void wakeUp() {
+        if (closed || !drainScheduled.compareAndSet(false, true)) {
             return;
         }
-        drainQueuedTransactionMarkersHandle = scheduler.scheduleWithFixedDelay(() -> {
-            drainQueuedTransactionMarkers();
-        }, 100, 100, TimeUnit.MILLISECONDS);
+        scheduler.execute(() -> {
+            drainScheduled.set(false);
+            try {
+                drainQueuedTransactionMarkers();
+            } catch (Throwable e) {
+                log.error("Failed to drain the queued transaction markers", e);
+            }
+        });
     }
 
-    private synchronized void stopDrainQueuedTransactionMarkersHandleActivity() {
-        if (drainQueuedTransactionMarkersHandle != null) {
-            drainQueuedTransactionMarkersHandle.cancel(false);
+    /**
+     * Drain the queued markers after a backoff, which is used by the markers and the transaction log appends that
+     * should be retried.
+     */
+    private void wakeUpAfterBackoff() {
+        if (closed || !retryScheduled.compareAndSet(false, true)) {
+            return;
         }
+        scheduler.schedule(() -> {
+            retryScheduled.set(false);
+            wakeUp();
+        }, RETRY_BACKOFF_MS, TimeUnit.MILLISECONDS);
     }
 
     public void close() {
         this.closed = true;
-        stopDrainQueuedTransactionMarkersHandleActivity();
+        statsLogger.unregisterGauge(TXN_MARKER_QUEUE_SIZE, markerQueueSize);
+        statsLogger.unregisterGauge(TXN_PENDING_MARKER_TXNS, pendingMarkerTxns);
         handlerMap.forEach((address, handler) -> {
             try {
                 final TransactionMarkerChannelHandler transactionMarkerChannelHandler = handler.get();
@@ -13,6 +13,16 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
 
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_ABORT_CHECK_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_ABORT_CHECK_TIMED_OUT;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_DURATION;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_LOG_LOAD_LATENCY;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_LOG_LOAD_MESSAGES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_ONGOING_COUNT;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.TXN_RESULT_SCOPE;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
@@ -20,25 +30,38 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
 import io.streamnative.pulsar.handlers.kop.scala.Either;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.CoreUtils;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.types.SchemaException;
@@ -46,6 +69,7 @@ import org.apache.kafka.common.requests.ProduceResponse;
 import org.apache.kafka.common.requests.TransactionResult;
 import org.apache.kafka.common.utils.SystemTime;
 import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.PulsarClientException;
@@ -56,24 +80,33 @@ import org.apache.pulsar.common.util.FutureUtil;
 /**
  * Transaction state manager.
  */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP transaction state manager stats"
+)
 @Slf4j
 public class TransactionStateManager {
 
     private final TransactionConfig transactionConfig;
     private final SystemTopicClient txnTopicClient;
-    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    // The state lock of each transaction log partition, so that the loading or unloading of a partition doesn't block
+    // the transactions of the other partitions
+    private final Map<Integer, ReentrantReadWriteLock> partitionStateLocks = Maps.newConcurrentMap();
     private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
     // Number of partitions for the transaction log topic.
     private final int transactionTopicPartitionCount;
 
-    // Partitions of transaction topic that are being loaded, state lock should be called BEFORE accessing this set.
+    // Partitions of transaction topic that are being loaded, the state lock of the partition should be called BEFORE
+    // accessing the partition in this set.
     @VisibleForTesting
-    protected final Set<Integer> loadingPartitions = Sets.newHashSet();
+    protected final Set<Integer> loadingPartitions = Sets.newConcurrentHashSet();
 
-    // partitions of transaction topic that are being removed, state lock should be called BEFORE accessing this set.
+    // partitions of transaction topic that are being removed, the state lock of the partition should be called BEFORE
+    // accessing the partition in this set.
     @VisibleForTesting
-    protected final Set<Integer> leavingPartitions = Sets.newHashSet();
+    protected final Set<Integer> leavingPartitions = Sets.newConcurrentHashSet();
 
     private final Map<Integer, CompletableFuture<Producer<ByteBuffer>>> txnLogProducerMap = Maps.newConcurrentMap();
     private final Map<Integer, CompletableFuture<Reader<ByteBuffer>>> txnLogReaderMap = Maps.newConcurrentMap();
@@ -83,19 +116,119 @@ public class TransactionStateManager {
     @VisibleForTesting
     protected final Map<Integer, Map<String, TransactionMetadata>> transactionMetadataCache = Maps.newConcurrentMap();
 
+    // The deadlines of the ongoing transactions indexed by assigned transaction topic partition ids, so that the timed
+    // out transactions are found without scanning the whole cache. A deadline is added when a transaction becomes
+    // ongoing, and it's removed by the timeout check after the transaction is completed or the deadline is changed.
+    private final Map<Integer, NavigableSet<TxnDeadline>> txnDeadlineIndex = Maps.newConcurrentMap();
+    // The number of the ongoing transactions of each transaction topic partition, which is updated with the state
+    // transitions, so that the gauge doesn't scan the whole cache
+    private final Map<Integer, AtomicInteger> ongoingTxnCounts = Maps.newConcurrentMap();
+
     private final ScheduledExecutorService scheduler;
 
+    // The max number of messages to read in one round when loading a partition, the messages are decoded in batch
+    private final int loadBatchSize;
+    // Decode the messages in a separated executor so that the next batch is read while the current batch is being
+    // decoded. The messages of the same partition are always decoded in the same thread. It's created when the first
+    // partition is loaded, so that the tenants whose transaction log partitions are not owned don't start the threads.
+    private final int loadConcurrency;
+    private OrderedExecutor loadExecutor;
+
     private final Time time;
 
+    // The TXN_LOG_LOAD_LATENCY and TXN_LOG_LOAD_MESSAGES are labeled by the transaction log topic partition
+    private final StatsLogger statsLogger;
+    @StatsDoc(
+            name = TXN_ABORT_CHECK_LATENCY,
+            help = "The latency of finding the timed out transactions to abort"
+    )
+    private final OpStatsLogger abortCheckLatency;
+    @StatsDoc(
+            name = TXN_ABORT_CHECK_TIMED_OUT,
+            help = "The number of the timed out transactions found by a check"
+    )
+    private final OpStatsLogger abortCheckTimedOut;
+    @StatsDoc(
+            name = TXN_ONGOING_COUNT,
+            help = "The number of the transactions that are not completed yet in the owned transaction log partitions"
+    )
+    private final Gauge<Number> ongoingTxnCount;
+    // The TXN_DURATION is labeled by the transaction result
+    @StatsDoc(
+            name = TXN_DURATION,
+            help = "The duration of the completed transactions from the start to the completion"
+    )
+    private final OpStatsLogger commitTxnDuration;
+    private final OpStatsLogger abortTxnDuration;
+
     public TransactionStateManager(TransactionConfig transactionConfig,
                                    SystemTopicClient txnTopicClient,
                                    ScheduledExecutorService scheduler,
                                    Time time) {
+        this(transactionConfig, txnTopicClient, scheduler, time, NullStatsLogger.INSTANCE);
+    }
+
+    public TransactionStateManager(TransactionConfig transactionConfig,
+                                   SystemTopicClient txnTopicClient,
+                                   ScheduledExecutorService scheduler,
+                                   Time time,
+                                   StatsLogger statsLogger) {
         this.transactionConfig = transactionConfig;
         this.txnTopicClient = txnTopicClient;
         this.scheduler = scheduler;
         this.transactionTopicPartitionCount = transactionConfig.getTransactionLogNumPartitions();
+        this.loadBatchSize = Math.max(transactionConfig.getTransactionLogLoadBatchSize(), 1);
+        this.loadConcurrency = Math.max(transactionConfig.getTransactionLogLoadConcurrency(), 1);
         this.time = time;
+        this.statsLogger = statsLogger;
+        this.abortCheckLatency = statsLogger.getOpStatsLogger(TXN_ABORT_CHECK_LATENCY);
+        this.abortCheckTimedOut = statsLogger.getOpStatsLogger(TXN_ABORT_CHECK_TIMED_OUT);
+        this.commitTxnDuration = statsLogger.scopeLabel(TXN_RESULT_SCOPE, "commit").getOpStatsLogger(TXN_DURATION);
+        this.abortTxnDuration = statsLogger.scopeLabel(TXN_RESULT_SCOPE, "abort").getOpStatsLogger(TXN_DURATION);
+        this.ongoingTxnCount = new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return ongoingTransactionCount();
+            }
+        };
+        statsLogger.registerGauge(TXN_ONGOING_COUNT, ongoingTxnCount);
+    }
+
+    /**
+     * @return the number of the transactions that are ongoing or being committed or aborted
+     */
+    @VisibleForTesting
+    long ongoingTransactionCount() {
+        long count = 0;
+        for (AtomicInteger partitionCount : ongoingTxnCounts.values()) {
+            count += partitionCount.get();
+        }
+        return count;
+    }
+
+    private static boolean isOngoing(TransactionState state) {
+        switch (state) {
+            case ONGOING:
+            case PREPARE_COMMIT:
+            case PREPARE_ABORT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void updateOngoingTxnCount(int partition, boolean wasOngoing, boolean isOngoing) {
+        if (wasOngoing != isOngoing) {
+            AtomicInteger partitionCount = ongoingTxnCounts.get(partition);
+            if (partitionCount != null) {
+                partitionCount.addAndGet(isOngoing ? 1 : -1);
+            }
+        }
     }
 
     // this is best-effort expiration of an ongoing transaction which has been open for more than its
@@ -103,29 +236,47 @@ public class TransactionStateManager {
     // since the timestamp is volatile and we will get the lock when actually trying to transit the transaction
     // metadata to abort later.
     protected List<TransactionalIdAndProducerIdEpoch> timedOutTransactions() {
-        long now = time.milliseconds();
-        return CoreUtils.inReadLock(stateLock, () -> transactionMetadataCache.entrySet()
-                .stream()
-                .filter(entry -> !leavingPartitions.contains(entry.getKey()))
-                .flatMap(entry -> entry.getValue().entrySet().stream().filter(txnMetadataEntry -> {
-                    TransactionMetadata txnMetadata = txnMetadataEntry.getValue();
-                    if (txnMetadata.pendingTransitionInProgress()) {
-                        return false;
-                    } else {
-                        if (txnMetadata.getState().equals(TransactionState.ONGOING)) {
-                            return txnMetadata.getTxnStartTimestamp() + txnMetadata.getTxnTimeoutMs() < now;
-                        } else {
-                            return false;
-                        }
-                    }
-                }).map(txnMetadataEntry -> {
-                    String txnId = txnMetadataEntry.getKey();
-                    TransactionMetadata txnMetadata = txnMetadataEntry.getValue();
-                    return new TransactionalIdAndProducerIdEpoch(txnId, txnMetadata
-                            .getProducerId(), txnMetadata.getProducerEpoch());
-                }))
-                .collect(Collectors.toList())
-        );
+        final long startTimeNanos = MathUtils.nowInNano();
+        final long now = time.milliseconds();
+        final List<TransactionalIdAndProducerIdEpoch> timedOutTransactions = new ArrayList<>();
+        txnDeadlineIndex.forEach((partition, deadlines) -> CoreUtils.inReadLock(partitionStateLock(partition), () -> {
+            Map<String, TransactionMetadata> metadataMap = transactionMetadataCache.get(partition);
+            if (leavingPartitions.contains(partition) || metadataMap == null) {
+                return null;
+            }
+            // Only the expired deadlines are visited
+            Iterator<TxnDeadline> iterator = deadlines.headSet(new TxnDeadline(now, ""), false).iterator();
+            while (iterator.hasNext()) {
+                TxnDeadline deadline = iterator.next();
+                TransactionMetadata txnMetadata = metadataMap.get(deadline.transactionalId());
+                if (txnMetadata == null || !txnMetadata.getState().equals(TransactionState.ONGOING)
+                        || TxnDeadline.deadlineMs(txnMetadata) != deadline.deadlineMs()) {
+                    // the transaction has been completed or restarted since the deadline was added
+                    iterator.remove();
+                } else if (!txnMetadata.pendingTransitionInProgress()) {
+                    // the deadline is kept until the abort completes, so that a failed abort is retried
+                    timedOutTransactions.add(new TransactionalIdAndProducerIdEpoch(deadline.transactionalId(),
+                            txnMetadata.getProducerId(), txnMetadata.getProducerEpoch()));
+                }
+            }
+            return null;
+        }));
+        abortCheckLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        abortCheckTimedOut.registerSuccessfulValue(timedOutTransactions.size());
+        return timedOutTransactions;
+    }
+
+    private void addTxnDeadline(int partition, TransactionMetadata txnMetadata) {
+        if (txnMetadata.getState().equals(TransactionState.ONGOING)) {
+            NavigableSet<TxnDeadline> deadlines = txnDeadlineIndex.get(partition);
+            if (deadlines != null) {
+                deadlines.add(new TxnDeadline(TxnDeadline.deadlineMs(txnMetadata), txnMetadata.getTransactionalId()));
+            }
+        }
+    }
+
+    private ReentrantReadWriteLock partitionStateLock(int partition) {
+        return partitionStateLocks.computeIfAbsent(partition, __ -> new ReentrantReadWriteLock());
     }
 
     public void startup(boolean enableTransactionalIdExpiration) {
@@ -144,21 +295,19 @@ public class TransactionStateManager {
 
     @VisibleForTesting
     protected CompletableFuture<Void> removeExpiredTransactionalIds() {
-        return CoreUtils.inReadLock(stateLock, () -> {
-            List<CompletableFuture<Void>> collect = transactionMetadataCache.entrySet().stream().map(entry -> {
-                Integer partitionId = entry.getKey();
-                Map<String, TransactionMetadata> partitionCacheEntry = entry.getValue();
-                TopicPartition transactionPartition =
-                        new TopicPartition(transactionConfig.getTransactionMetadataTopicName(), partitionId);
-                return removeExpiredTransactionalIds(transactionPartition, partitionCacheEntry);
-            }).collect(Collectors.toList());
-            return FutureUtils.collect(collect).thenAccept(__ -> {});
-        });
+        List<CompletableFuture<Void>> collect = transactionMetadataCache.entrySet().stream().map(entry -> {
+            Integer partitionId = entry.getKey();
+            Map<String, TransactionMetadata> partitionCacheEntry = entry.getValue();
+            TopicPartition transactionPartition =
+                    new TopicPartition(transactionConfig.getTransactionMetadataTopicName(), partitionId);
+            return removeExpiredTransactionalIds(transactionPartition, partitionCacheEntry);
+        }).collect(Collectors.toList());
+        return FutureUtils.collect(collect).thenAccept(__ -> {});
     }
 
     private CompletableFuture<Void> removeExpiredTransactionalIds(TopicPartition transactionPartition,
                                                Map<String, TransactionMetadata> txnMetadataCacheEntry) {
-        return CoreUtils.inReadLock(stateLock, () -> {
+        return CoreUtils.inReadLock(partitionStateLock(transactionPartition.partition()), () -> {
             long currentTimeMs = time.milliseconds();
             List<CompletableFuture<Void>> removeExpiredTransactionalFutures = Lists.newArrayList();
 
@@ -190,10 +339,11 @@ public class TransactionStateManager {
             TopicPartition transactionPartition,
             TransactionalIdCoordinatorEpochAndMetadata expiredForPartition,
             byte[] tombstone) {
-        return CoreUtils.inReadLock(stateLock, () -> appendTombstone(
+        final ReentrantReadWriteLock partitionStateLock = partitionStateLock(transactionPartition.partition());
+        return CoreUtils.inReadLock(partitionStateLock, () -> appendTombstone(
                 transactionPartition.partition(), tombstone)
                 .whenComplete((__, ex) -> {
-                    CoreUtils.inReadLock(stateLock, () -> {
+                    CoreUtils.inReadLock(partitionStateLock, () -> {
                         Map<String, TransactionMetadata> partitionCacheEntry =
                                 transactionMetadataCache.get(transactionPartition.partition());
                         if (partitionCacheEntry != null) {
@@ -308,7 +458,7 @@ public class TransactionStateManager {
         TopicPartition topicPartition = new TopicPartition(
                 transactionConfig.getTransactionMetadataTopicName(), partitionFor(transactionalId));
 
-        CoreUtils.inReadLock(stateLock, () -> {
+        CoreUtils.inReadLock(partitionStateLock(topicPartition.partition()), () -> {
             // we need to hold the read lock on the transaction metadata cache until appending to local log returns;
             // this is to avoid the case where an emigration followed by an immigration could have completed after the
             // check returns and before appendRecords() is called, since otherwise entries with a high coordinator epoch
@@ -474,7 +624,12 @@ public class TransactionStateManager {
                             log.debug("Updating {}'s transaction state to {} with coordinator epoch {} for {} "
                                     + "successed", transactionalId, newMetadata, coordinatorEpoch, transactionalId);
                         }
+                        final boolean wasOngoing = isOngoing(metadata.getState());
                         metadata.completeTransitionTo(newMetadata);
+                        addTxnDeadline(partitionFor(transactionalId), metadata);
+                        updateOngoingTxnCount(partitionFor(transactionalId), wasOngoing,
+                                isOngoing(metadata.getState()));
+                        recordTxnDuration(newMetadata);
                         return errors;
                     } catch (IllegalStateException ex) {
                         log.error("Failed to complete transition for {}. Return UNKNOWN_SERVER_ERROR",
@@ -486,6 +641,22 @@ public class TransactionStateManager {
         }
     }
 
+    private void recordTxnDuration(TransactionMetadata.TxnTransitMetadata newMetadata) {
+        final OpStatsLogger txnDuration;
+        switch (newMetadata.getTxnState()) {
+            case COMPLETE_COMMIT:
+                txnDuration = commitTxnDuration;
+                break;
+            case COMPLETE_ABORT:
+                txnDuration = abortTxnDuration;
+                break;
+            default:
+                return;
+        }
+        txnDuration.registerSuccessfulEvent(
+                newMetadata.getTxnLastUpdateTimestamp() - newMetadata.getTxnStartTimestamp(), TimeUnit.MILLISECONDS);
+    }
+
     private void invalidStatus(String transactionalId,
                                TransactionMetadata.TxnTransitMetadata newMetadata,
                                int coordinatorEpoch,
@@ -579,8 +750,8 @@ public class TransactionStateManager {
     private Either<Errors, Optional<CoordinatorEpochAndTxnMetadata>> getAndMaybeAddTransactionState(
             String transactionalId,
             Optional<TransactionMetadata> createdTxnMetadataOpt) {
-        return CoreUtils.inReadLock(stateLock, () -> {
-            int partitionId = partitionFor(transactionalId);
+        int partitionId = partitionFor(transactionalId);
+        return CoreUtils.inReadLock(partitionStateLock(partitionId), () -> {
             if (loadingPartitions.contains(partitionId)) {
                 log.info("TX Coordinator {} partition {} for transactionalId {} is loading",
                         transactionConfig.getTransactionMetadataTopicName(), partitionId, transactionalId);
@@ -600,7 +771,11 @@ public class TransactionStateManager {
                 final Optional<TransactionMetadata> txnMetadata;
                 TransactionMetadata txnMetadataCache = metadataMap.get(transactionalId);
                 if (txnMetadataCache == null) {
-                    createdTxnMetadataOpt.ifPresent(metadata -> metadataMap.put(transactionalId, metadata));
+                    createdTxnMetadataOpt.ifPresent(metadata -> {
+                        metadataMap.put(transactionalId, metadata);
+                        addTxnDeadline(partitionId, metadata);
+                        updateOngoingTxnCount(partitionId, false, isOngoing(metadata.getState()));
+                    });
                     txnMetadata = createdTxnMetadataOpt;
                 } else {
                     txnMetadata = Optional.of(txnMetadataCache);
@@ -624,7 +799,7 @@ public class TransactionStateManager {
         TopicPartition topicPartition =
                 new TopicPartition(transactionConfig.getTransactionMetadataTopicName(), partitionId);
 
-        boolean alreadyLoading = CoreUtils.inWriteLock(stateLock, () -> {
+        boolean alreadyLoading = CoreUtils.inWriteLock(partitionStateLock(partitionId), () -> {
             // The leavingPartitions of partitionId should have been removed in removeTransactionsForTxnTopicPartition,
             // If loadTransactionsForTxnTopicPartition success remove this partition, we just print a warning log,
             // ensure this operates have be recorded in logs, for future debugging.
@@ -653,32 +828,49 @@ public class TransactionStateManager {
                     }
                     return getReader(topicPartition.partition()).thenComposeAsync(reader ->
                             loadTransactionMetadata(topicPartition.partition(), reader, lastMsgId), scheduler);
-                }, scheduler).thenAcceptAsync(__ ->
-                        completeLoadedTransactions(topicPartition, startTimeMs, sendTxnMarkers), scheduler)
+                }, scheduler).thenAcceptAsync(numMessages ->
+                        completeLoadedTransactions(topicPartition, startTimeMs, numMessages, sendTxnMarkers), scheduler)
                 .exceptionally(ex -> {
                     log.error("Error to load transactions exceptions : [{}]", ex.getMessage());
+                    partitionStatsLogger(partitionId).getOpStatsLogger(TXN_LOG_LOAD_LATENCY).registerFailedEvent(
+                            SystemTime.SYSTEM.milliseconds() - startTimeMs, TimeUnit.MILLISECONDS);
                     loadingPartitions.remove(partitionId);
                     return null;
                 });
     }
 
-    private CompletableFuture<Void> loadTransactionMetadata(int partition,
+    /**
+     * Load the transaction metadata of the partition until the placeholder message.
+     *
+     * <p>The messages are read in batches of at most `transactionLogLoadBatchSize` messages, and the next batch is
+     * read while the current batch is being decoded in the load executor.
+     *
+     * @return the future of the number of messages that are loaded
+     */
+    private CompletableFuture<Long> loadTransactionMetadata(int partition,
                                                             Reader<ByteBuffer> reader,
                                                             MessageId lastMessageId) {
         if (log.isDebugEnabled()) {
             log.debug("Start load transaction metadata for partition {} till messageId {}", partition, lastMessageId);
         }
-        CompletableFuture<Void> loadFuture = new CompletableFuture<>();
+        CompletableFuture<Long> loadFuture = new CompletableFuture<>();
         Map<String, TransactionMetadata> transactionMetadataMap = new HashMap<>();
-        loadNextTransaction(partition, reader, lastMessageId, loadFuture, transactionMetadataMap);
+        loadNextBatch(partition, reader, lastMessageId, loadFuture, transactionMetadataMap, new AtomicLong(0),
+                CompletableFuture.completedFuture(null));
         return loadFuture;
     }
 
-    private void loadNextTransaction(int partition,
-                                     Reader<ByteBuffer> reader,
-                                     MessageId lastMessageId,
-                                     CompletableFuture<Void> loadFuture,
-                                     Map<String, TransactionMetadata> transactionMetadataMap) {
+    /**
+     * @param numMessages the number of messages that have been decoded, it's only updated in the load executor
+     * @param pendingDecode the future of decoding the previous batch
+     */
+    private void loadNextBatch(int partition,
+                               Reader<ByteBuffer> reader,
+                               MessageId lastMessageId,
+                               CompletableFuture<Long> loadFuture,
+                               Map<String, TransactionMetadata> transactionMetadataMap,
+                               AtomicLong numMessages,
+                               CompletableFuture<Void> pendingDecode) {
 
         if (shuttingDown.get()) {
             loadFuture.completeExceptionally(
@@ -686,24 +878,87 @@ public class TransactionStateManager {
             return;
         }
 
-        reader.readNextAsync().whenCompleteAsync((message, throwable) -> {
-            if (throwable != null) {
-                log.error("Failed to load transaction log.", throwable);
-                loadFuture.completeExceptionally(throwable);
-            }
-            if (message.getMessageId().compareTo(lastMessageId) >= 0) {
+        readBatchAsync(reader, lastMessageId).thenAcceptAsync(messages -> {
+            final CompletableFuture<Void> decode = pendingDecode.thenRunAsync(() ->
+                    decodeMessages(partition, messages, lastMessageId, transactionMetadataMap, numMessages),
+                    getLoadExecutor().chooseThread(partition));
+            if (messages.get(messages.size() - 1).getMessageId().compareTo(lastMessageId) >= 0) {
                 // reach the end of partition
-                addLoadedTransactionsToCache(partition, transactionMetadataMap);
-                loadFuture.complete(null);
+                decode.whenCompleteAsync((__, e) -> {
+                    if (e == null) {
+                        addLoadedTransactionsToCache(partition, transactionMetadataMap);
+                        loadFuture.complete(numMessages.get());
+                    } else {
+                        loadFuture.completeExceptionally(e);
+                    }
+                }, scheduler);
                 return;
             }
+            // Read the next batch after the previous batch is decoded, so that there are at most two batches in
+            // memory: the batch being decoded and the batch being read
+            pendingDecode.whenCompleteAsync((__, e) -> {
+                if (e == null) {
+                    loadNextBatch(partition, reader, lastMessageId, loadFuture, transactionMetadataMap, numMessages,
+                            decode);
+                } else {
+                    loadFuture.completeExceptionally(e);
+                }
+            }, scheduler);
+        }, scheduler).exceptionally(e -> {
+            log.error("Failed to load transaction log.", e);
+            loadFuture.completeExceptionally(e);
+            return null;
+        });
+    }
 
+    private synchronized OrderedExecutor getLoadExecutor() {
+        if (loadExecutor == null) {
+            if (shuttingDown.get()) {
+                throw new IllegalStateException("Transaction metadata manager is shutting down.");
+            }
+            loadExecutor = OrderedExecutor.newBuilder()
+                    .name("transaction-log-loader")
+                    .numThreads(loadConcurrency)
+                    .build();
+        }
+        return loadExecutor;
+    }
+
+    private CompletableFuture<List<Message<ByteBuffer>>> readBatchAsync(Reader<ByteBuffer> reader,
+                                                                        MessageId lastMessageId) {
+        return reader.readNextAsync().thenApplyAsync(msg -> {
+            final List<Message<ByteBuffer>> messages = new ArrayList<>();
+            messages.add(msg);
+            try {
+                // Drain the messages that are already in the receiver queue without waiting
+                Message<ByteBuffer> nextMsg = msg;
+                while (messages.size() < loadBatchSize && nextMsg.getMessageId().compareTo(lastMessageId) < 0) {
+                    nextMsg = reader.readNext(0, TimeUnit.MILLISECONDS);
+                    if (nextMsg == null) {
+                        break;
+                    }
+                    messages.add(nextMsg);
+                }
+            } catch (PulsarClientException e) {
+                throw new CompletionException(e);
+            }
+            return messages;
+        }, scheduler);
+    }
+
+    private static void decodeMessages(int partition,
+                                       List<Message<ByteBuffer>> messages,
+                                       MessageId lastMessageId,
+                                       Map<String, TransactionMetadata> transactionMetadataMap,
+                                       AtomicLong numMessages) {
+        for (Message<ByteBuffer> message : messages) {
+            if (message.getMessageId().compareTo(lastMessageId) >= 0) {
+                return;
+            }
             // skip place holder
             if (!message.hasKey()) {
-                loadNextTransaction(partition, reader, lastMessageId, loadFuture, transactionMetadataMap);
-                return;
+                continue;
             }
-
             try {
                 TransactionLogKey logKey = TransactionLogKey.decode(
                         ByteBuffer.wrap(message.getKeyBytes()), TransactionLogKey.HIGHEST_SUPPORTED_VERSION);
@@ -716,18 +971,34 @@ public class TransactionStateManager {
                 } else {
                     transactionMetadataMap.put(logKey.getTransactionId(), transactionMetadata);
                 }
-                loadNextTransaction(partition, reader, lastMessageId, loadFuture, transactionMetadataMap);
+                numMessages.incrementAndGet();
             } catch (SchemaException | BufferUnderflowException ex) {
                 log.error("Failed to decode transaction log with message {} for partition {}.",
                         message.getMessageId(), partition, ex);
-                loadFuture.completeExceptionally(ex);
+                throw ex;
             }
-        }, scheduler);
+        }
+    }
+
+    private StatsLogger partitionStatsLogger(int partition) {
+        return statsLogger.scopeLabel(PARTITION_SCOPE, String.valueOf(partition));
     }
 
     @VisibleForTesting
     protected void addLoadedTransactionsToCache(int txnTopicPartition,
                                               Map<String, TransactionMetadata> loadedTransactions) {
+        NavigableSet<TxnDeadline> deadlines = new ConcurrentSkipListSet<>();
+        AtomicInteger ongoingTxnCount = new AtomicInteger(0);
+        loadedTransactions.values().forEach(txnMetadata -> {
+            if (txnMetadata.getState().equals(TransactionState.ONGOING)) {
+                deadlines.add(new TxnDeadline(TxnDeadline.deadlineMs(txnMetadata), txnMetadata.getTransactionalId()));
+            }
+            if (isOngoing(txnMetadata.getState())) {
+                ongoingTxnCount.incrementAndGet();
+            }
+        });
+        txnDeadlineIndex.put(txnTopicPartition, deadlines);
+        ongoingTxnCounts.put(txnTopicPartition, ongoingTxnCount);
         Map<String, TransactionMetadata> previousTxnMetadataCacheEntry =
                 transactionMetadataCache.put(txnTopicPartition, loadedTransactions);
         if (previousTxnMetadataCacheEntry != null && !previousTxnMetadataCacheEntry.isEmpty()) {
@@ -736,15 +1007,19 @@ public class TransactionStateManager {
         }
     }
 
-    private void completeLoadedTransactions(TopicPartition topicPartition, long startTimeMs,
-                                                               SendTxnMarkersCallback sendTxnMarkersCallback) {
+    private void completeLoadedTransactions(TopicPartition topicPartition, long startTimeMs, long numMessages,
+                                            SendTxnMarkersCallback sendTxnMarkersCallback) {
         Map<String, TransactionMetadata> loadedTransactions = transactionMetadataCache.get(topicPartition.partition());
         long endTimeMs = SystemTime.SYSTEM.milliseconds();
         long totalLoadingTimeMs = endTimeMs - startTimeMs;
-        log.info("Finished loading transaction metadata {} from {} in {} milliseconds",
-                loadedTransactions.size(), topicPartition, totalLoadingTimeMs);
-
-        CoreUtils.inWriteLock(stateLock, () -> {
+        log.info("Finished loading transaction metadata {} from {} ({} messages) in {} milliseconds",
+                loadedTransactions.size(), topicPartition, numMessages, totalLoadingTimeMs);
+        final StatsLogger partitionStatsLogger = partitionStatsLogger(topicPartition.partition());
+        partitionStatsLogger.getOpStatsLogger(TXN_LOG_LOAD_LATENCY)
+                .registerSuccessfulEvent(totalLoadingTimeMs, TimeUnit.MILLISECONDS);
+        partitionStatsLogger.getCounter(TXN_LOG_LOAD_MESSAGES).addCount(numMessages);
+
+        CoreUtils.inWriteLock(partitionStateLock(topicPartition.partition()), () -> {
             if (loadingPartitions.contains(topicPartition.partition())) {
                 List<TransactionalIdAndTransitMetadata> transactionsPendingForCompletion = new ArrayList<>();
 
@@ -806,15 +1081,18 @@ public class TransactionStateManager {
         }
         log.info("Scheduling unloading transaction metadata from {}", topicPartition);
 
-        CoreUtils.inWriteLock(stateLock, () -> {
+        final ReentrantReadWriteLock partitionStateLock = partitionStateLock(partition);
+        CoreUtils.inWriteLock(partitionStateLock, () -> {
             loadingPartitions.remove(partition);
             leavingPartitions.add(partition);
             return null;
         });
 
         scheduler.submit(() -> {
-            CoreUtils.inWriteLock(stateLock, () -> {
+            CoreUtils.inWriteLock(partitionStateLock, () -> {
                 if (leavingPartitions.contains(partition)) {
+                    txnDeadlineIndex.remove(partition);
+                    ongoingTxnCounts.remove(partition);
                     transactionMetadataCache.remove(partition).forEach((txnId, metadata) -> {
                         log.info("Unloaded transaction metadata {} for {} following local partition deletion",
                                 metadata, topicPartition);
@@ -846,6 +1124,22 @@ public class TransactionStateManager {
         });
     }
 
+    /**
+     * The deadline of an ongoing transaction, which is the start time plus the timeout of the transaction.
+     */
+    private record TxnDeadline(long deadlineMs, String transactionalId) implements Comparable<TxnDeadline> {
+
+        static long deadlineMs(TransactionMetadata txnMetadata) {
+            return txnMetadata.getTxnStartTimestamp() + txnMetadata.getTxnTimeoutMs();
+        }
+
+        @Override
+        public int compareTo(TxnDeadline other) {
+            int result = Long.compare(deadlineMs, other.deadlineMs);
+            return (result != 0) ? result : transactionalId.compareTo(other.transactionalId);
+        }
+    }
+
     interface SendTxnMarkersCallback {
         void send(TransactionResult transactionResult, TransactionMetadata transactionMetadata,
                   TransactionMetadata.TxnTransitMetadata txnTransitMetadata);
@@ -871,7 +1165,7 @@ public class TransactionStateManager {
         return txnLogReaderMap.computeIfAbsent(partition, key -> {
             String topic = transactionConfig.getTransactionMetadataTopicName()
                     + TopicName.PARTITIONED_TOPIC_SUFFIX + partition;
-            return txnTopicClient.newReaderBuilder().clone().topic(topic)
+            return txnTopicClient.newReaderBuilder().clone().topic(topic).receiverQueueSize(loadBatchSize)
                     .startMessageId(MessageId.earliest).readCompacted(true).createAsync();
         });
     }
@@ -879,8 +1173,11 @@ public class TransactionStateManager {
 
     public void shutdown() {
         shuttingDown.set(true);
+        statsLogger.unregisterGauge(TXN_ONGOING_COUNT, ongoingTxnCount);
         loadingPartitions.clear();
         transactionMetadataCache.clear();
+        txnDeadlineIndex.clear();
+        ongoingTxnCounts.clear();
         List<CompletableFuture<Void>> txnLogProducerCloses = txnLogProducerMap.values().stream()
                 .map(producerCompletableFuture -> producerCompletableFuture
                         .thenComposeAsync(Producer::closeAsync, scheduler))
@@ -911,6 +1208,11 @@ public class TransactionStateManager {
             }
         }, scheduler);
         scheduler.shutdown();
+        synchronized (this) {
+            if (loadExecutor != null) {
+                loadExecutor.shutdown();
+            }
+        }
         log.info("Shutdown transaction state manager complete.");
     }
 
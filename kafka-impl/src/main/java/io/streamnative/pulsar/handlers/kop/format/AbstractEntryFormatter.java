@@ -125,7 +125,7 @@ public abstract class AbstractEntryFormatter implements EntryFormatter {
                 conversionTimeNanos);
     }
 
-    protected static boolean isKafkaEntryFormat(final MessageMetadata messageMetadata) {
+    public static boolean isKafkaEntryFormat(final MessageMetadata messageMetadata) {
         final List<KeyValue> keyValues = messageMetadata.getPropertiesList();
         for (KeyValue keyValue : keyValues) {
             if (keyValue.hasKey()
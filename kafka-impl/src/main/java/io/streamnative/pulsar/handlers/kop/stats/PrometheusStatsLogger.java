@@ -59,7 +59,9 @@ public class PrometheusStatsLogger implements StatsLogger {
 
     @Override
     public <T extends Number> void unregisterGauge(String name, Gauge<T> gauge) {
-        // no-op
+        // only remove the gauge that is registered by the caller, a gauge that is registered again later is kept
+        provider.gauges.computeIfPresent(scopeContext(name),
+                (scopeContext, simpleGauge) -> (simpleGauge.getGauge() == gauge) ? null : simpleGauge);
     }
 
     @Override
@@ -33,6 +33,10 @@ public class SimpleGauge<T extends Number> {
         return gauge.getSample();
     }
 
+    public Gauge<T> getGauge() {
+        return gauge;
+    }
+
     public Map<String, String> getLabels() {
         return labels;
     }
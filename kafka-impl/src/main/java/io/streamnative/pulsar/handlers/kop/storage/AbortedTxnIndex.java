@@ -0,0 +1,117 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.message.FetchResponseData;
+
+/**
+ * The index of the aborted transactions of a partition, sorted by the last offset of the transactions.
+ *
+ * <p>The last offset of an aborted transaction is the offset of its abort marker, so it's unique in a partition and
+ * the transactions are appended in ascending order. The last stable offset of an aborted transaction is the first
+ * offset of the earliest ongoing transaction when it was aborted, so all the transactions that are aborted later start
+ * from the last stable offset or after. Therefore, a query over a range of offsets seeks to the first transaction that
+ * ends in the range and stops at the first transaction whose last stable offset is beyond the range, which takes
+ * O(log n + k) time, where k is the number of the returned transactions.
+ *
+ * <p>The reads don't block each other or the writes. The purge removes the head of the index until the given offset,
+ * so it only touches the transactions that are removed.
+ */
+@Slf4j
+final class AbortedTxnIndex {
+
+    private final ConcurrentSkipListMap<Long, AbortedTxn> abortedTxns = new ConcurrentSkipListMap<>();
+    // the size of a ConcurrentSkipListMap is computed by traversing it, so it's counted separately
+    private final AtomicInteger numAbortedTxns = new AtomicInteger(0);
+
+    void add(AbortedTxn abortedTxn) {
+        if (abortedTxns.put(abortedTxn.lastOffset(), abortedTxn) == null) {
+            numAbortedTxns.incrementAndGet();
+        }
+    }
+
+    void addAll(Collection<AbortedTxn> abortedTxns) {
+        abortedTxns.forEach(this::add);
+    }
+
+    void clear() {
+        while (abortedTxns.pollFirstEntry() != null) {
+            numAbortedTxns.decrementAndGet();
+        }
+    }
+
+    boolean isEmpty() {
+        return abortedTxns.isEmpty();
+    }
+
+    int size() {
+        return numAbortedTxns.get();
+    }
+
+    /**
+     * Get the aborted transactions that overlap with the range [fetchOffset, upperBoundOffset).
+     */
+    List<FetchResponseData.AbortedTransaction> collectAbortedTxns(long fetchOffset, long upperBoundOffset) {
+        final List<FetchResponseData.AbortedTransaction> abortedTransactions = new ArrayList<>();
+        for (AbortedTxn abortedTxn : abortedTxns.tailMap(fetchOffset, true).values()) {
+            if (abortedTxn.firstOffset() < upperBoundOffset) {
+                abortedTransactions.add(new FetchResponseData.AbortedTransaction()
+                        .setProducerId(abortedTxn.producerId())
+                        .setFirstOffset(abortedTxn.firstOffset()));
+            }
+            if (abortedTxn.lastStableOffset() >= upperBoundOffset) {
+                break;
+            }
+        }
+        return abortedTransactions;
+    }
+
+    /**
+     * Remove the aborted transactions whose last offset is less than the given offset.
+     *
+     * @return the number of the removed transactions
+     */
+    long purge(long offset) {
+        final NavigableMap<Long, AbortedTxn> purgedTxns = abortedTxns.headMap(offset, false);
+        long count = 0;
+        while (true) {
+            final Map.Entry<Long, AbortedTxn> entry = purgedTxns.pollFirstEntry();
+            if (entry == null) {
+                break;
+            }
+            log.info("Transaction {} can be removed (lastOffset {} < {})",
+                    entry.getValue(), entry.getKey(), offset);
+            numAbortedTxns.decrementAndGet();
+            count++;
+        }
+        return count;
+    }
+
+    List<AbortedTxn> toList() {
+        return new ArrayList<>(abortedTxns.values());
+    }
+
+    @Override
+    public String toString() {
+        return abortedTxns.values().toString();
+    }
+}
@@ -136,6 +136,11 @@ public class PartitionLog {
     @Getter
     private volatile PersistentTopic persistentTopic;
 
+    // completed once the topic is loaded, which is enough to serve the produce requests without a producer id and the
+    // read-uncommitted fetch requests
+    private final CompletableFuture<PartitionLog> loadFuture = new CompletableFuture<>();
+
+    // completed once the producer state is recovered as well
     private final CompletableFuture<PartitionLog> initFuture = new CompletableFuture<>();
 
     private volatile Map<String, String> topicProperties;
@@ -146,6 +151,9 @@ public class PartitionLog {
 
     private volatile AtomicBoolean unloaded = new AtomicBoolean();
 
+    @Getter
+    private volatile long lastAccessTimeMs;
+
     public PartitionLog(KafkaServiceConfiguration kafkaConfig,
                         RequestStats requestStats,
                         Time time,
@@ -170,9 +178,12 @@ public class PartitionLog {
     public CompletableFuture<PartitionLog> initialise() {
         loadTopicProperties().whenComplete((___, errorLoadTopic) -> {
             if (errorLoadTopic != null) {
-                initFuture.completeExceptionally(new KoPTopicInitializeException(errorLoadTopic));
+                final KoPTopicInitializeException exception = new KoPTopicInitializeException(errorLoadTopic);
+                loadFuture.completeExceptionally(exception);
+                initFuture.completeExceptionally(exception);
                 return;
             }
+            loadFuture.complete(this);
             if (kafkaConfig.isKafkaTransactionCoordinatorEnabled()) {
                 producerStateManager
                         .recover(this, recoveryExecutor)
@@ -192,6 +203,16 @@ public class PartitionLog {
         return initFuture;
     }
 
+    /**
+     * Wait until the topic is loaded, the producer state might still be recovering in the background.
+     *
+     * <p>It's only safe for the operations that don't depend on the producer state, i.e. the appends without a producer
+     * id and the read-uncommitted fetches.
+     */
+    public CompletableFuture<PartitionLog> awaitLoad() {
+        return loadFuture;
+    }
+
     public boolean isInitialised() {
         return initFuture.isDone() && !initFuture.isCompletedExceptionally();
     }
@@ -204,6 +225,10 @@ public class PartitionLog {
         unloaded.set(true);
     }
 
+    void updateLastAccessTime(long nowMs) {
+        lastAccessTimeMs = nowMs;
+    }
+
     private CompletableFuture<Void> loadTopicProperties() {
         CompletableFuture<Optional<PersistentTopic>> persistentTopicFuture =
                 kafkaTopicLookupService.getTopic(fullPartitionName, this);
@@ -220,7 +245,10 @@ public class PartitionLog {
                                     kafkaTopicUUID,
                                     producerStateManagerSnapshotBuffer,
                                     kafkaConfig.getKafkaTxnProducerStateTopicSnapshotIntervalSeconds(),
-                                    kafkaConfig.getKafkaTxnPurgeAbortedTxnIntervalSeconds());
+                                    kafkaConfig.getKafkaTxnPurgeAbortedTxnIntervalSeconds(),
+                                    kafkaConfig.getKafkaProducerIdExpirationMs(),
+                                    kafkaConfig.getKafkaProducerIdExpirationCheckIntervalMs(),
+                                    requestStats.getProducerStateSnapshotStats());
                 });
     }
 
@@ -428,10 +456,17 @@ public class PartitionLog {
                                                          Optional<Long> firstOffset,
                                                          Long lastOffset,
                                                          AppendOrigin origin) {
+        return analyzeAndValidateProducerState(records.batches(), firstOffset, lastOffset, origin);
+    }
+
+    private AnalyzeResult analyzeAndValidateProducerState(Iterable<? extends RecordBatch> batches,
+                                                          Optional<Long> firstOffset,
+                                                          Long lastOffset,
+                                                          AppendOrigin origin) {
         Map<Long, ProducerAppendInfo> updatedProducers = Maps.newHashMap();
         List<CompletedTxn> completedTxns = Lists.newArrayList();
 
-        for (RecordBatch batch : records.batches()) {
+        for (RecordBatch batch : batches) {
             if (batch.hasProducerId()) {
                 // We cache offset metadata for the start of each transaction. This allows us to
                 // compute the last stable offset without relying on additional index lookups.
@@ -464,10 +499,31 @@ public class PartitionLog {
         return producerStateManager.firstUndecidedOffset();
     }
 
+    /**
+     * @return the number of offsets that the last stable offset lags behind the high watermark, or 0 if the producer
+     *         state is not recovered yet
+     */
+    public long lastStableOffsetLag() {
+        final PersistentTopic topic = persistentTopic;
+        if (!isInitialised() || topic == null || producerStateManager == null) {
+            return 0L;
+        }
+        final Optional<Long> firstUndecidedOffset = producerStateManager.firstUndecidedOffset();
+        if (!firstUndecidedOffset.isPresent()) {
+            return 0L;
+        }
+        return Math.max(MessageMetadataUtils.getHighWatermark(topic.getManagedLedger()) - firstUndecidedOffset.get(),
+                0L);
+    }
+
     public List<FetchResponseData.AbortedTransaction> getAbortedIndexList(long fetchOffset) {
         return producerStateManager.getAbortedIndexList(fetchOffset);
     }
 
+    public List<FetchResponseData.AbortedTransaction> getAbortedIndexList(long fetchOffset, long upperBoundOffset) {
+        return producerStateManager.getAbortedIndexList(fetchOffset, upperBoundOffset);
+    }
+
     /**
      * Append this message to pulsar.
      *
@@ -480,7 +536,8 @@ public class PartitionLog {
                                                  final AppendRecordsContext appendRecordsContext) {
         CompletableFuture<Long> appendFuture = new CompletableFuture<>();
         KafkaTopicManager topicManager = appendRecordsContext.getTopicManager();
-        if (topicManager == null) {
+        // the transaction markers that are written by the transaction coordinator in process have no connection
+        if (topicManager == null && origin != AppendOrigin.Coordinator) {
             log.error("topicManager is null for {}???", fullPartitionName,
                     new Exception("topicManager is null for " + fullPartitionName).fillInStackTrace());
             return CompletableFuture
@@ -526,9 +583,12 @@ public class PartitionLog {
                         appendRecordsContext);
             };
 
+            // the producer state is only needed by the idempotent or transactional producers and the markers
+            final CompletableFuture<PartitionLog> readyFuture =
+                    (origin == AppendOrigin.Client && !appendInfo.producerId().isPresent()) ? loadFuture : initFuture;
             appendRecordsContext.getPendingTopicFuturesMap()
                     .computeIfAbsent(topicPartition, ignored -> new PendingTopicFutures(requestStats))
-                    .addListener(initFuture, sequentialExecutor, appendFuture::completeExceptionally);
+                    .addListener(readyFuture, sequentialExecutor, appendFuture::completeExceptionally);
         } catch (Exception exception) {
             log.error("Failed to handle produce request for {}", topicPartition, exception);
             appendFuture.completeExceptionally(exception);
@@ -722,7 +782,8 @@ public class PartitionLog {
             decodeResult.updateConsumerStats(topicPartition, committedEntries.size(), groupName, requestStats);
             List<FetchResponseData.AbortedTransaction> abortedTransactions = null;
             if (readCommitted) {
-                abortedTransactions = this.getAbortedIndexList(partitionData.fetchOffset());
+                // the records after the LSO are not returned, so the aborted transactions after it are useless
+                abortedTransactions = this.getAbortedIndexList(partitionData.fetchOffset(), lso);
             }
             if (log.isDebugEnabled()) {
                 log.debug("Partition {} read entry completed in {} ns",
@@ -889,13 +950,14 @@ public class PartitionLog {
             return;
         }
 
-        appendRecordsContext
-                .getTopicManager()
-                .registerProducerInPersistentTopic(fullPartitionName, persistentTopic)
-                .ifPresent((producer) -> {
-                    // collect metrics
-                    encodeResult.updateProducerStats(topicPartition, requestStats, producer);
-                });
+        final KafkaTopicManager topicManager = appendRecordsContext.getTopicManager();
+        if (topicManager != null) {
+            topicManager.registerProducerInPersistentTopic(fullPartitionName, persistentTopic)
+                    .ifPresent((producer) -> {
+                        // collect metrics
+                        encodeResult.updateProducerStats(topicPartition, requestStats, producer);
+                    });
+        }
 
         final int numMessages = encodeResult.getNumMessages();
         final ByteBuf byteBuf = encodeResult.getEncodedByteBuf();
@@ -911,9 +973,13 @@ public class PartitionLog {
                         time.nanoseconds() - beforePublish, TimeUnit.NANOSECONDS);
                 final long lastOffset = offset + numMessages - 1;
 
-                AnalyzeResult analyzeResult = analyzeAndValidateProducerState(
-                        encodeResult.getRecords(), Optional.of(offset), lastOffset, AppendOrigin.Client);
-                updateProducerStateManager(lastOffset, analyzeResult);
+                // Before the producer state is recovered, only the records without a producer id can be appended,
+                // and the recovery will scan them because it reads until the end of the log.
+                if (isInitialised()) {
+                    AnalyzeResult analyzeResult = analyzeAndValidateProducerState(
+                            encodeResult.getRecords(), Optional.of(offset), lastOffset, AppendOrigin.Client);
+                    updateProducerStateManager(lastOffset, analyzeResult);
+                }
 
                 appendFuture.complete(offset);
             } else {
@@ -1184,7 +1250,6 @@ public class PartitionLog {
         }, null);
     }
 
-    @VisibleForTesting
     public CompletableFuture<?> takeProducerSnapshot() {
         return initFuture.thenCompose((___)  -> {
             // snapshot can be taken only on the same thread that is used for writes
@@ -1285,9 +1350,7 @@ public class PartitionLog {
                 final ManagedCursor cursor = cursorLongPair.getLeft();
                 final AtomicLong cursorOffset = new AtomicLong(cursorLongPair.getRight());
 
-                AtomicLong entryCounter = new AtomicLong();
-                readNextEntriesForRecovery(cursor, cursorOffset, tcm, entryCounter,
-                        future, executor);
+                new TxEntriesRecovery(cursor, cursorOffset, tcm, future, executor).start();
 
             }).exceptionally(ex -> {
                 future.completeExceptionally(new NotLeaderOrFollowerException());
@@ -1297,90 +1360,172 @@ public class PartitionLog {
         }));
     }
 
-    private void readNextEntriesForRecovery(ManagedCursor cursor, AtomicLong cursorOffset,
-                                            KafkaTopicConsumerManager tcm,
-                                            AtomicLong entryCounter,
-                                            CompletableFuture<Long> future, Executor executor) {
-        if (log.isDebugEnabled()) {
-            log.debug("readNextEntriesForRecovery {} cursorOffset {}", fullPartitionName, cursorOffset);
+    /**
+     * The pipelined scan of the log to recover the producer state.
+     *
+     * <p>The reads are issued one after another because a cursor can only have one pending read, but the next read is
+     * issued as soon as the previous read completes, so the reads run ahead of the decoding and applying of the
+     * entries. The entries are decoded in the threads that complete the reads and only the batch headers are parsed,
+     * see {@link ProducerStateRecoveryBatch}. The decoded batches are applied to the producer state on the recovery
+     * executor in the order of the reads. At most {@link #MAX_PENDING_BATCHES} batches that are read but not applied
+     * are buffered, after that the reads are paused until a batch is applied.
+     */
+    private class TxEntriesRecovery {
+
+        private static final int MAX_READ_ENTRIES_NUM = 200;
+        private static final int MAX_PENDING_BATCHES = 4;
+        private static final long PROGRESS_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+        private final ManagedCursor cursor;
+        private final AtomicLong cursorOffset;
+        private final KafkaTopicConsumerManager tcm;
+        private final CompletableFuture<Long> future;
+        private final Executor executor;
+        private final long startNanos = MathUtils.nowInNano();
+        private final AtomicLong entryCounter = new AtomicLong();
+        // the batches that are read but not applied, guarded by this
+        private int pendingBatches = 0;
+        private boolean readPaused = false;
+        // the tail of the chain that applies the batches in order, only accessed by the read callbacks, which are
+        // serialized because a read is only issued after the previous read completes
+        private CompletableFuture<Void> lastApplied = CompletableFuture.completedFuture(null);
+        private long lastProgressLogNanos = startNanos;
+
+        TxEntriesRecovery(ManagedCursor cursor, AtomicLong cursorOffset, KafkaTopicConsumerManager tcm,
+                          CompletableFuture<Long> future, Executor executor) {
+            this.cursor = cursor;
+            this.cursorOffset = cursorOffset;
+            this.tcm = tcm;
+            this.future = future;
+            this.executor = executor;
         }
-        int maxReadEntriesNum = 200;
-        long adjustedMaxBytes = Long.MAX_VALUE;
-        readEntries(cursor, topicPartition, cursorOffset, maxReadEntriesNum, adjustedMaxBytes,
-                (partitionName) -> {})
-                .whenCompleteAsync((entries, throwable) -> {
-                    if (throwable != null) {
-                        log.error("Read entry error on {}", fullPartitionName, throwable);
-                        tcm.deleteOneCursorAsync(cursor,
-                                "cursor.readEntry fail. deleteCursor");
-                        if (throwable instanceof ManagedLedgerException.CursorAlreadyClosedException
-                                || throwable instanceof ManagedLedgerException.ManagedLedgerFencedException) {
-                            future.completeExceptionally(new NotLeaderOrFollowerException());
-                            return;
-                        }
-                        future.completeExceptionally(new UnknownServerException(throwable));
-                        return;
-                    }
 
-                    // Add new offset back to TCM after entries are read successfully
-                    tcm.add(cursorOffset.get(), Pair.of(cursor, cursorOffset.get()));
+        void start() {
+            future.whenComplete((numEntries, error) -> {
+                if (error == null) {
+                    requestStats.getProducerStateRecoveryStats().registerSuccessfulEvent(
+                            MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+                } else {
+                    requestStats.getProducerStateRecoveryStats().registerFailedEvent(
+                            MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+                }
+            });
+            readNext();
+        }
 
-                    if (entries.isEmpty()) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("No more entries to recover for {}", fullPartitionName);
-                        }
-                        future.completeAsync(() -> entryCounter.get(), executor);
-                        return;
-                    }
+        private void readNext() {
+            if (future.isDone()) {
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("readNextEntriesForRecovery {} cursorOffset {}", fullPartitionName, cursorOffset);
+            }
+            readEntries(cursor, topicPartition, cursorOffset, MAX_READ_ENTRIES_NUM, Long.MAX_VALUE,
+                    (partitionName) -> {})
+                    .whenComplete(this::onReadComplete);
+        }
 
-                    CompletableFuture<DecodeResult> decodedEntries = new CompletableFuture<>();
-                    decodeEntriesForRecovery(decodedEntries, entries);
-
-                    decodedEntries.thenAccept((decodeResult) -> {
-                        try {
-                            MemoryRecords records = decodeResult.getRecords();
-                            // When we retrieve many entries, this firstOffset's baseOffset is not necessarily
-                            // the base offset for all records.
-                            Optional<Long> firstOffset = Optional
-                                    .ofNullable(records.firstBatch())
-                                    .map(batch -> batch.baseOffset());
-
-                            long[] lastOffSetHolder = {-1L};
-                            records.batches().forEach(batch -> {
-                                batch.forEach(record -> {
-                                    if (lastOffSetHolder[0] < record.offset()) {
-                                        lastOffSetHolder[0] = record.offset();
-                                    }
-                                    entryCounter.incrementAndGet();
-                                });
-                            });
-                            long lastOffset = lastOffSetHolder[0];
-
-                            if (log.isDebugEnabled()) {
-                                log.debug("Read some entries while recovering {} firstOffSet {} lastOffset {}",
-                                        fullPartitionName,
-                                        firstOffset.orElse(null), lastOffset);
-                            }
-
-                            // Get the relevant offsets from each record
-                            AnalyzeResult analyzeResult = analyzeAndValidateProducerState(records,
-                                    Optional.empty(), null, AppendOrigin.Log);
-
-                            updateProducerStateManager(lastOffset, analyzeResult);
-                            if (log.isDebugEnabled()) {
-                                log.debug("Completed recovery of batch {} {}", analyzeResult, fullPartitionName);
-                            }
-                        } finally {
-                            decodeResult.recycle();
-                        }
-                        readNextEntriesForRecovery(cursor, cursorOffset, tcm, entryCounter, future, executor);
+        private void onReadComplete(List<Entry> entries, Throwable throwable) {
+            if (throwable != null) {
+                log.error("Read entry error on {}", fullPartitionName, throwable);
+                tcm.deleteOneCursorAsync(cursor,
+                        "cursor.readEntry fail. deleteCursor");
+                if (throwable instanceof ManagedLedgerException.CursorAlreadyClosedException
+                        || throwable instanceof ManagedLedgerException.ManagedLedgerFencedException) {
+                    future.completeExceptionally(new NotLeaderOrFollowerException());
+                    return;
+                }
+                future.completeExceptionally(new UnknownServerException(throwable));
+                return;
+            }
+            if (future.isDone()) {
+                entries.forEach(Entry::release);
+                return;
+            }
+
+            // Add new offset back to TCM after entries are read successfully
+            final long nextOffset = cursorOffset.get();
+            tcm.add(nextOffset, Pair.of(cursor, nextOffset));
+
+            if (entries.isEmpty()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("No more entries to recover for {}", fullPartitionName);
+                }
+                lastApplied.thenRunAsync(() -> future.complete(entryCounter.get()), executor);
+                return;
+            }
 
-                    }).exceptionally(error -> {
-                        log.error("Bad error while recovering {}", fullPartitionName, error);
-                        future.completeExceptionally(error);
+            // chain the apply before issuing the next read to keep the order of the reads
+            final CompletableFuture<ProducerStateRecoveryBatch> decoded = new CompletableFuture<>();
+            lastApplied = lastApplied.thenCombineAsync(decoded,
+                    (__, batch) -> {
+                        apply(batch, nextOffset - 1);
                         return null;
-                    });
-                }, executor);
+                    }, executor);
+            lastApplied.whenComplete((__, error) -> {
+                decoded.thenAccept(ProducerStateRecoveryBatch::release);
+                if (error != null) {
+                    log.error("Bad error while recovering {}", fullPartitionName, error);
+                    future.completeExceptionally(error);
+                }
+            });
+
+            final boolean pause;
+            synchronized (this) {
+                pendingBatches++;
+                pause = pendingBatches >= MAX_PENDING_BATCHES;
+                readPaused = pause;
+            }
+            if (!pause) {
+                readNext();
+            }
+
+            final long startDecodingEntriesNanos = MathUtils.nowInNano();
+            decoded.complete(ProducerStateRecoveryBatch.decode(entries));
+            requestStats.getFetchDecodeStats().registerSuccessfulEvent(
+                    MathUtils.elapsedNanos(startDecodingEntriesNanos), TimeUnit.NANOSECONDS);
+        }
+
+        private void apply(ProducerStateRecoveryBatch batch, long lastOffset) {
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("Read {} entries while recovering {} lastOffset {}",
+                            batch.numEntries(), fullPartitionName, lastOffset);
+                }
+                AnalyzeResult analyzeResult = analyzeAndValidateProducerState(batch.batches(),
+                        Optional.empty(), null, AppendOrigin.Log);
+                updateProducerStateManager(lastOffset, analyzeResult);
+                if (log.isDebugEnabled()) {
+                    log.debug("Completed recovery of batch {} {}", analyzeResult, fullPartitionName);
+                }
+            } finally {
+                batch.release();
+            }
+            entryCounter.addAndGet(batch.numEntries());
+            requestStats.getProducerStateRecoveryEntries().addCount(batch.numEntries());
+            maybeLogProgress(lastOffset);
+
+            final boolean resume;
+            synchronized (this) {
+                pendingBatches--;
+                resume = readPaused;
+                readPaused = false;
+            }
+            if (resume) {
+                readNext();
+            }
+        }
+
+        private void maybeLogProgress(long lastOffset) {
+            final long now = MathUtils.nowInNano();
+            if (now - lastProgressLogNanos >= PROGRESS_LOG_INTERVAL_NANOS) {
+                lastProgressLogNanos = now;
+                final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+                log.info("Recovering {}: scanned {} entries up to offset {} in {} ms ({} entries/s)",
+                        fullPartitionName, entryCounter.get(), lastOffset, elapsedMs,
+                        entryCounter.get() * 1000 / Math.max(elapsedMs, 1));
+            }
+        }
     }
 
     private void updateProducerStateManager(long lastOffset, AnalyzeResult analyzeResult) {
@@ -1401,24 +1546,7 @@ public class PartitionLog {
         // do system clean up stuff in this thread
         producerStateManager.maybeTakeSnapshot(recoveryExecutor);
         producerStateManager.maybePurgeAbortedTx();
-    }
-
-    private void decodeEntriesForRecovery(final CompletableFuture<DecodeResult> future,
-                                          final List<Entry> entries) {
-
-        if (log.isDebugEnabled()) {
-            log.debug("Read {} entries", entries.size());
-        }
-        final byte magic = RecordBatch.CURRENT_MAGIC_VALUE;
-        final long startDecodingEntriesNanos = MathUtils.nowInNano();
-        try {
-            DecodeResult decodeResult = entryFormatter.decode(entries, magic);
-            requestStats.getFetchDecodeStats().registerSuccessfulEvent(
-                    MathUtils.elapsedNanos(startDecodingEntriesNanos), TimeUnit.NANOSECONDS);
-            future.complete(decodeResult);
-        } catch (Exception error) {
-            future.completeExceptionally(error);
-        }
+        producerStateManager.maybeExpireProducerIds();
     }
 
     public boolean isUnloaded() {
@@ -13,19 +13,39 @@
  */
 package io.streamnative.pulsar.handlers.kop.storage;
 
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_LOG_EVICTED_COUNT;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_LOG_LIVE_COUNT;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_LSO_LAG;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_ABORTED_TXNS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_MAX_PARTITION_PRODUCER_IDS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_ONGOING_TXNS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_PRODUCER_IDS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import io.streamnative.pulsar.handlers.kop.KafkaTopicLookupService;
 import io.streamnative.pulsar.handlers.kop.RequestStats;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.service.plugin.EntryFilter;
@@ -34,7 +54,19 @@ import org.apache.pulsar.common.util.FutureUtil;
 
 /**
  * Manage {@link PartitionLog}.
+ *
+ * <p>A partition log is kept in memory until its topic is unloaded, unless it's released by
+ * {@link #evictPartitionLogs()} because it's idle or the number of partition logs exceeds the limit.
+ *
+ * <p>The producer state metrics are aggregated over the partition logs, so their cardinality doesn't grow with the
+ * number of partitions, except the last stable offset lag of each partition, which is only exposed when
+ * {@link KafkaServiceConfiguration#isKafkaTxnLsoLagMetricsEnabled()} is true.
  */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP partition log stats"
+)
 @AllArgsConstructor
 @Slf4j
 public class PartitionLogManager {
@@ -51,6 +83,25 @@ public class PartitionLogManager {
 
     private final OrderedExecutor recoveryExecutor;
 
+    // the partition logs whose producer state snapshots are being taken before they are released, the value is true
+    // if the partition log is accessed during the snapshot
+    private final Map<PartitionLog, Boolean> evictingLogs = new ConcurrentHashMap<>();
+
+    @StatsDoc(
+            name = PARTITION_LOG_EVICTED_COUNT,
+            help = "The number of partition logs that have been released since the broker started"
+    )
+    private final AtomicLong evictedCount = new AtomicLong(0);
+
+    @StatsDoc(
+            name = PARTITION_LSO_LAG,
+            help = "The number of offsets that the last stable offset of a partition lags behind the high watermark"
+    )
+    private final Map<String, LsoLagGauge> lsoLagGauges = new ConcurrentHashMap<>();
+
+    private record LsoLagGauge(StatsLogger statsLogger, Gauge<Number> gauge) {
+    }
+
     public PartitionLogManager(KafkaServiceConfiguration kafkaConfig,
                                RequestStats requestStats,
                                final List<EntryFilter> entryFilters,
@@ -66,13 +117,60 @@ public class PartitionLogManager {
         this.kafkaTopicLookupService = kafkaTopicLookupService;
         this.producerStateManagerSnapshotBuffer = producerStateManagerSnapshotBuffer;
         this.recoveryExecutor = recoveryExecutor;
+
+        requestStats.getStatsLogger().registerGauge(PARTITION_LOG_LIVE_COUNT, newGauge(logMap::size));
+        requestStats.getStatsLogger().registerGauge(PARTITION_LOG_EVICTED_COUNT, newGauge(evictedCount::get));
+        requestStats.getStatsLogger().registerGauge(PRODUCER_STATE_PRODUCER_IDS,
+                newGauge(() -> aggregateProducerStates(ProducerStateManager::numProducers, Long::sum)));
+        requestStats.getStatsLogger().registerGauge(PRODUCER_STATE_MAX_PARTITION_PRODUCER_IDS,
+                newGauge(() -> aggregateProducerStates(ProducerStateManager::numProducers, Math::max)));
+        requestStats.getStatsLogger().registerGauge(PRODUCER_STATE_ONGOING_TXNS,
+                newGauge(() -> aggregateProducerStates(ProducerStateManager::numOngoingTxns, Long::sum)));
+        requestStats.getStatsLogger().registerGauge(PRODUCER_STATE_ABORTED_TXNS,
+                newGauge(() -> aggregateProducerStates(ProducerStateManager::numAbortedTxns, Long::sum)));
+    }
+
+    private static Gauge<Number> newGauge(LongSupplier supplier) {
+        return new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return supplier.getAsLong();
+            }
+        };
+    }
+
+    /**
+     * Aggregate a metric of the producer states of the partition logs that are initialised.
+     */
+    @VisibleForTesting
+    long aggregateProducerStates(ToLongFunction<ProducerStateManager> metric, LongBinaryOperator aggregator) {
+        long result = 0;
+        for (PartitionLog partitionLog : logMap.values()) {
+            final ProducerStateManager producerStateManager = partitionLog.getProducerStateManager();
+            if (partitionLog.isInitialised() && producerStateManager != null) {
+                result = aggregator.applyAsLong(result, metric.applyAsLong(producerStateManager));
+            }
+        }
+        return result;
     }
 
     public PartitionLog getLog(TopicPartition topicPartition, String namespacePrefix) {
         String kopTopic = KopTopic.toString(topicPartition, namespacePrefix);
         String tenant = TopicName.get(kopTopic).getTenant();
         ProducerStateManagerSnapshotBuffer prodPerTenant = producerStateManagerSnapshotBuffer.apply(tenant);
-        PartitionLog res =  logMap.computeIfAbsent(kopTopic, key -> {
+        PartitionLog res = logMap.compute(kopTopic, (key, existing) -> {
+            // the access is recorded in the same map operation that releases an idle partition log, so a partition
+            // log is never released after it's returned
+            if (existing != null && !existing.isUnloaded()) {
+                existing.updateLastAccessTime(time.milliseconds());
+                evictingLogs.replace(existing, Boolean.TRUE);
+                return existing;
+            }
             PartitionLog partitionLog = new PartitionLog(kafkaConfig, requestStats,
                     time, topicPartition, key, entryFilters,
                     kafkaTopicLookupService,
@@ -86,16 +184,23 @@ public class PartitionLogManager {
                     // in case of failure we have to remove the CompletableFuture from the map
                     log.error("Failed to recovery of {}", key, error);
                     partitionLog.markAsUnloaded();
-                    logMap.remove(key, partitionLog);
+                    if (logMap.remove(key, partitionLog)) {
+                        unregisterLsoLagGauge(key);
+                    }
                 }
             });
 
+            partitionLog.updateLastAccessTime(time.milliseconds());
             return partitionLog;
         });
         if (res.isInitialisationFailed()) {
             log.error("Failed to initialize of {}", kopTopic);
             res.markAsUnloaded();
-            logMap.remove(kopTopic, res);
+            if (logMap.remove(kopTopic, res)) {
+                unregisterLsoLagGauge(kopTopic);
+            }
+        } else if (kafkaConfig.isKafkaTxnLsoLagMetricsEnabled() && !lsoLagGauges.containsKey(kopTopic)) {
+            registerLsoLagGauge(kopTopic, topicPartition);
         }
         return res;
     }
@@ -105,14 +210,120 @@ public class PartitionLogManager {
         PartitionLog exists =  logMap.remove(topicName);
         if (exists != null) {
             exists.markAsUnloaded();
+            unregisterLsoLagGauge(topicName);
         }
         return exists;
     }
 
+    /**
+     * The gauge reads the partition log by its name, so a partition log that is re-created keeps the same gauge.
+     * The registration and {@link #unregisterLsoLagGauge(String)} are serialized on the topic name and both check the
+     * partition log after it's added or removed, so a gauge is never left behind for a removed partition log.
+     */
+    private void registerLsoLagGauge(String topicName, TopicPartition topicPartition) {
+        lsoLagGauges.computeIfAbsent(topicName, key -> {
+            if (!logMap.containsKey(key)) {
+                // the partition log has been removed before the registration
+                return null;
+            }
+            final StatsLogger statsLogger = requestStats.getStatsLoggerForTopicPartition(topicPartition);
+            final Gauge<Number> gauge = newGauge(() -> {
+                final PartitionLog partitionLog = logMap.get(key);
+                return (partitionLog != null) ? partitionLog.lastStableOffsetLag() : 0L;
+            });
+            statsLogger.registerGauge(PARTITION_LSO_LAG, gauge);
+            return new LsoLagGauge(statsLogger, gauge);
+        });
+    }
+
+    private void unregisterLsoLagGauge(String topicName) {
+        lsoLagGauges.computeIfPresent(topicName, (key, lsoLagGauge) -> {
+            if (logMap.containsKey(key)) {
+                // the partition log has been re-created
+                return lsoLagGauge;
+            }
+            lsoLagGauge.statsLogger().unregisterGauge(PARTITION_LSO_LAG, lsoLagGauge.gauge());
+            return null;
+        });
+    }
+
+    @VisibleForTesting
+    int numLsoLagGauges() {
+        return lsoLagGauges.size();
+    }
+
     public int size() {
         return logMap.size();
     }
 
+    /**
+     * Release the partition logs that are idle for longer than the idle timeout and the least recently accessed
+     * partition logs that exceed the max count.
+     *
+     * <p>The producer state is snapshotted before a partition log is released, so the next access of the partition
+     * recovers from the snapshot instead of the beginning of the log. A partition log that is accessed while the
+     * snapshot is being taken is kept.
+     */
+    public CompletableFuture<?> evictPartitionLogs() {
+        final long idleTimeoutMs = kafkaConfig.getKafkaPartitionLogIdleTimeoutMs();
+        final int maxCount = kafkaConfig.getKafkaPartitionLogMaxCount();
+        if (idleTimeoutMs <= 0 && maxCount <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final long now = time.milliseconds();
+        final List<Map.Entry<String, PartitionLog>> candidates = new ArrayList<>();
+        logMap.entrySet().forEach(entry -> {
+            // don't release a partition log that is still recovering
+            if (entry.getValue().isInitialised() && !evictingLogs.containsKey(entry.getValue())) {
+                candidates.add(entry);
+            }
+        });
+        candidates.sort(Comparator.comparingLong(entry -> entry.getValue().getLastAccessTimeMs()));
+
+        int numExceeded = (maxCount > 0) ? logMap.size() - maxCount : 0;
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (Map.Entry<String, PartitionLog> entry : candidates) {
+            final boolean idle = idleTimeoutMs > 0 && now - entry.getValue().getLastAccessTimeMs() >= idleTimeoutMs;
+            if (!idle && numExceeded <= 0) {
+                // the remaining partition logs are accessed more recently
+                break;
+            }
+            futures.add(evict(entry.getKey(), entry.getValue(), entry.getValue().getLastAccessTimeMs()));
+            numExceeded--;
+        }
+        return FutureUtil.waitForAll(futures);
+    }
+
+    private CompletableFuture<?> evict(String topicName, PartitionLog partitionLog, long lastAccessTimeMs) {
+        if (evictingLogs.putIfAbsent(partitionLog, Boolean.FALSE) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<?> snapshotFuture = kafkaConfig.isKafkaTransactionCoordinatorEnabled()
+                ? partitionLog.takeProducerSnapshot() : CompletableFuture.completedFuture(null);
+        return snapshotFuture.handle((__, error) -> {
+            if (error != null) {
+                evictingLogs.remove(partitionLog);
+                log.warn("Failed to take the producer state snapshot of {}, keep it in memory", topicName, error);
+                return null;
+            }
+            logMap.computeIfPresent(topicName, (key, currentLog) -> {
+                // getLog() flags the accesses during the snapshot, even those in the same millisecond, and the access
+                // time covers the accesses after the partition log is chosen and before the snapshot starts
+                if (currentLog != partitionLog || Boolean.TRUE.equals(evictingLogs.get(partitionLog))
+                        || currentLog.getLastAccessTimeMs() != lastAccessTimeMs) {
+                    return currentLog;
+                }
+                currentLog.markAsUnloaded();
+                evictedCount.incrementAndGet();
+                log.info("Released partition log {}, which was last accessed at {}", key, lastAccessTimeMs);
+                return null;
+            });
+            evictingLogs.remove(partitionLog);
+            unregisterLsoLagGauge(topicName);
+            return null;
+        });
+    }
+
     public CompletableFuture<?> updatePurgeAbortedTxnsOffsets() {
         List<CompletableFuture<?>> handles = new ArrayList<>();
         logMap.values().forEach(log -> {
@@ -14,8 +14,9 @@
 package io.streamnative.pulsar.handlers.kop.storage;
 
 import java.util.Optional;
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 import org.apache.kafka.common.record.RecordBatch;
 
@@ -27,7 +28,6 @@ import org.apache.kafka.common.record.RecordBatch;
  */
 @Data
 @Accessors(fluent = true)
-@AllArgsConstructor
 public class ProducerStateEntry {
 
     private long producerId;
@@ -35,7 +35,22 @@ public class ProducerStateEntry {
     private Integer coordinatorEpoch;
     private Long lastTimestamp;
     private Optional<Long> currentTxnFirstOffset;
+    // the broker time when the entry is added to the producer state, it's not a part of the snapshot
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private long lastUpdateTimeMs;
 
+    public ProducerStateEntry(long producerId,
+                              Short producerEpoch,
+                              Integer coordinatorEpoch,
+                              Long lastTimestamp,
+                              Optional<Long> currentTxnFirstOffset) {
+        this.producerId = producerId;
+        this.producerEpoch = producerEpoch;
+        this.coordinatorEpoch = coordinatorEpoch;
+        this.lastTimestamp = lastTimestamp;
+        this.currentTxnFirstOffset = currentTxnFirstOffset;
+    }
 
     public boolean maybeUpdateProducerEpoch(Short producerEpoch) {
         if (this.producerEpoch == null
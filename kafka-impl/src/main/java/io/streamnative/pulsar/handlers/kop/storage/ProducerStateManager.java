@@ -14,24 +14,33 @@
 package io.streamnative.pulsar.handlers.kop.storage;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Maps;
-import java.util.ArrayList;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.util.SafeRunnable;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.apache.kafka.common.message.FetchResponseData;
 import org.apache.kafka.common.record.RecordBatch;
 
 /**
  * Producer state manager.
+ *
+ * <p>The state is only modified by the thread that appends the records to the partition, or by the recovery before
+ * the partition is ready. The producer entries are never modified after they are added, an update replaces the entry
+ * of the producer. Therefore, the other threads, e.g. the fetch threads and the snapshot thread, can read the state
+ * concurrently without locks.
  */
 @Slf4j
 public class ProducerStateManager {
@@ -40,21 +49,33 @@ public class ProducerStateManager {
     private final String topicPartition;
     private final String kafkaTopicUUID;
 
-    private final Map<Long, ProducerStateEntry> producers = Maps.newConcurrentMap();
+    // there is only one writer, and the map shrinks after the idle producers are expired
+    private final ConcurrentLongHashMap<ProducerStateEntry> producers =
+            ConcurrentLongHashMap.<ProducerStateEntry>newBuilder()
+                    .expectedItems(16)
+                    .concurrencyLevel(1)
+                    .autoShrink(true)
+                    .build();
 
     // ongoing transactions sorted by the first offset of the transaction
-    private final TreeMap<Long, TxnMetadata> ongoingTxns = Maps.newTreeMap();
-    private final List<AbortedTxn> abortedIndexList = new ArrayList<>();
+    private final ConcurrentSkipListMap<Long, TxnMetadata> ongoingTxns = new ConcurrentSkipListMap<>();
+    // the size of ongoingTxns, ConcurrentSkipListMap#size() traverses the whole map
+    private final AtomicInteger numOngoingTxns = new AtomicInteger(0);
+    private final AbortedTxnIndex abortedIndex = new AbortedTxnIndex();
 
     private final ProducerStateManagerSnapshotBuffer producerStateManagerSnapshotBuffer;
 
     private final int kafkaTxnProducerStateTopicSnapshotIntervalSeconds;
     private final int kafkaTxnPurgeAbortedTxnIntervalSeconds;
+    private final long producerIdExpirationMs;
+    private final long producerIdExpirationCheckIntervalMs;
+    private final OpStatsLogger snapshotStats;
 
     private volatile long mapEndOffset = -1;
 
     private long lastSnapshotTime;
     private long lastPurgeAbortedTxnTime;
+    private long lastProducerIdExpirationCheckTime;
 
     private volatile long abortedTxnsPurgeOffset = -1;
 
@@ -63,6 +84,31 @@ public class ProducerStateManager {
                                 ProducerStateManagerSnapshotBuffer producerStateManagerSnapshotBuffer,
                                 int kafkaTxnProducerStateTopicSnapshotIntervalSeconds,
                                 int kafkaTxnPurgeAbortedTxnIntervalSeconds) {
+        this(topicPartition, kafkaTopicUUID, producerStateManagerSnapshotBuffer,
+                kafkaTxnProducerStateTopicSnapshotIntervalSeconds, kafkaTxnPurgeAbortedTxnIntervalSeconds, -1, -1);
+    }
+
+    public ProducerStateManager(String topicPartition,
+                                String kafkaTopicUUID,
+                                ProducerStateManagerSnapshotBuffer producerStateManagerSnapshotBuffer,
+                                int kafkaTxnProducerStateTopicSnapshotIntervalSeconds,
+                                int kafkaTxnPurgeAbortedTxnIntervalSeconds,
+                                long producerIdExpirationMs,
+                                long producerIdExpirationCheckIntervalMs) {
+        this(topicPartition, kafkaTopicUUID, producerStateManagerSnapshotBuffer,
+                kafkaTxnProducerStateTopicSnapshotIntervalSeconds, kafkaTxnPurgeAbortedTxnIntervalSeconds,
+                producerIdExpirationMs, producerIdExpirationCheckIntervalMs,
+                NullStatsLogger.INSTANCE.getOpStatsLogger(""));
+    }
+
+    public ProducerStateManager(String topicPartition,
+                                String kafkaTopicUUID,
+                                ProducerStateManagerSnapshotBuffer producerStateManagerSnapshotBuffer,
+                                int kafkaTxnProducerStateTopicSnapshotIntervalSeconds,
+                                int kafkaTxnPurgeAbortedTxnIntervalSeconds,
+                                long producerIdExpirationMs,
+                                long producerIdExpirationCheckIntervalMs,
+                                OpStatsLogger snapshotStats) {
         this.topicPartition = topicPartition;
         this.kafkaTopicUUID = kafkaTopicUUID;
         this.producerStateManagerSnapshotBuffer = producerStateManagerSnapshotBuffer;
@@ -70,6 +116,10 @@ public class ProducerStateManager {
         this.kafkaTxnPurgeAbortedTxnIntervalSeconds = kafkaTxnPurgeAbortedTxnIntervalSeconds;
         this.lastSnapshotTime = System.currentTimeMillis();
         this.lastPurgeAbortedTxnTime = System.currentTimeMillis();
+        this.producerIdExpirationMs = producerIdExpirationMs;
+        this.producerIdExpirationCheckIntervalMs = producerIdExpirationCheckIntervalMs;
+        this.lastProducerIdExpirationCheckTime = System.currentTimeMillis();
+        this.snapshotStats = snapshotStats;
     }
 
     public CompletableFuture<Void> recover(PartitionLog partitionLog, Executor executor) {
@@ -89,14 +139,18 @@ public class ProducerStateManager {
             snapshot = null;
         }
         long offSetPosition = 0;
-        synchronized (abortedIndexList) {
-            this.abortedIndexList.clear();
+        synchronized (abortedIndex) {
+            this.abortedIndex.clear();
             this.producers.clear();
-            this.ongoingTxns.clear();
+            clearOngoingTxns();
             if (snapshot != null) {
-                this.abortedIndexList.addAll(snapshot.getAbortedIndexList());
-                this.producers.putAll(snapshot.getProducers());
-                this.ongoingTxns.putAll(snapshot.getOngoingTxns());
+                this.abortedIndex.addAll(snapshot.getAbortedIndexList());
+                final long now = System.currentTimeMillis();
+                snapshot.getProducers().forEach((producerId, entry) -> {
+                    entry.lastUpdateTimeMs(now);
+                    this.producers.put(producerId, entry);
+                });
+                snapshot.getOngoingTxns().forEach(this::putOngoingTxn);
                 this.mapEndOffset = snapshot.getOffset();
                 offSetPosition = snapshot.getOffset();
                 log.info("Recover topic {} from offset {}", topicPartition, offSetPosition);
@@ -132,14 +186,19 @@ public class ProducerStateManager {
                     result.complete(null);
                     return;
                 }
+                final long startTimeNanos = MathUtils.nowInNano();
                 ProducerStateManagerSnapshot snapshot = getProducerStateManagerSnapshot();
                 log.info("Taking snapshot for {} at {}", topicPartition, snapshot);
                 producerStateManagerSnapshotBuffer
                         .write(snapshot)
                         .whenComplete((res, error) -> {
                             if (error != null) {
+                                snapshotStats.registerFailedEvent(
+                                        MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
                                 result.completeExceptionally(error);
                             } else {
+                                snapshotStats.registerSuccessfulEvent(
+                                        MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
                                 if (log.isDebugEnabled()) {
                                     log.debug("Snapshot for {} ({}) taken at offset {}",
                                             topicPartition, kafkaTopicUUID, snapshot.getOffset());
@@ -197,6 +256,33 @@ public class ProducerStateManager {
         return executePurgeAbortedTx();
     }
 
+    void maybeExpireProducerIds() {
+        if (producerIdExpirationMs <= 0 || producerIdExpirationCheckIntervalMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastProducerIdExpirationCheckTime < producerIdExpirationCheckIntervalMs) {
+            return;
+        }
+        lastProducerIdExpirationCheckTime = now;
+        removeExpiredProducers(now);
+    }
+
+    /**
+     * Remove the producers that have no ongoing transaction and have not appended for the expiration time.
+     *
+     * @return the number of the removed producers
+     */
+    @VisibleForTesting
+    int removeExpiredProducers(long currentTimeMs) {
+        int count = producers.removeIf((producerId, entry) -> !entry.currentTxnFirstOffset().isPresent()
+                && currentTimeMs - entry.lastUpdateTimeMs() >= producerIdExpirationMs);
+        if (count > 0) {
+            log.info("{} removed {} expired producers", topicPartition, count);
+        }
+        return count;
+    }
+
     @VisibleForTesting
     long executePurgeAbortedTx() {
         return purgeAbortedTxns(abortedTxnsPurgeOffset);
@@ -204,14 +290,14 @@ public class ProducerStateManager {
 
     private ProducerStateManagerSnapshot getProducerStateManagerSnapshot() {
         ProducerStateManagerSnapshot snapshot;
-        synchronized (abortedIndexList) {
+        synchronized (abortedIndex) {
             snapshot = new ProducerStateManagerSnapshot(
                     topicPartition,
                     kafkaTopicUUID,
                     mapEndOffset,
-                    new HashMap<>(producers),
+                    copyProducers(),
                     new TreeMap<>(ongoingTxns),
-                    new ArrayList<>(abortedIndexList));
+                    abortedIndex.toList());
         }
         if (log.isDebugEnabled()) {
             log.debug("Snapshot for {}: {}", topicPartition, snapshot);
@@ -219,6 +305,12 @@ public class ProducerStateManager {
         return snapshot;
     }
 
+    private Map<Long, ProducerStateEntry> copyProducers() {
+        final Map<Long, ProducerStateEntry> copy = new HashMap<>();
+        producers.forEach(copy::put);
+        return copy;
+    }
+
     public ProducerAppendInfo prepareUpdate(Long producerId, PartitionLog.AppendOrigin origin) {
         ProducerStateEntry currentEntry = lastEntry(producerId).orElse(ProducerStateEntry.empty(producerId));
         return new ProducerAppendInfo(topicPartition, producerId, currentEntry, origin);
@@ -230,6 +322,7 @@ public class ProducerStateManager {
      * transaction index, but the completion must be done only after successfully appending to the index.
      */
     public long lastStableOffset(CompletedTxn completedTxn) {
+        // a producer has at most one ongoing transaction, so at most two transactions are visited
         for (TxnMetadata txnMetadata : ongoingTxns.values()) {
             if (completedTxn.producerId() != txnMetadata.producerId()) {
                 return txnMetadata.firstOffset();
@@ -253,10 +346,7 @@ public class ProducerStateManager {
      * Get the last written entry for the given producer id.
      */
     public Optional<ProducerStateEntry> lastEntry(Long producerId) {
-        if (!producers.containsKey(producerId)) {
-            return Optional.empty();
-        }
-        return Optional.of(producers.get(producerId));
+        return Optional.ofNullable(producers.get(producerId));
     }
 
     /**
@@ -271,19 +361,13 @@ public class ProducerStateManager {
                     appendInfo.producerId(), topicPartition));
         }
 
+        // the updated entry is initialized from the current entry, so it replaces the current entry
         ProducerStateEntry updatedEntry = appendInfo.toEntry();
-
-        producers.compute(appendInfo.producerId(), (pid, stateEntry) -> {
-            if (stateEntry == null) {
-                stateEntry = updatedEntry;
-            } else {
-                stateEntry.update(updatedEntry);
-            }
-            return stateEntry;
-        });
+        updatedEntry.lastUpdateTimeMs(System.currentTimeMillis());
+        producers.put(appendInfo.producerId(), updatedEntry);
 
         for (TxnMetadata txn : appendInfo.startedTransactions()) {
-            ongoingTxns.put(txn.firstOffset(), txn);
+            putOngoingTxn(txn.firstOffset(), txn);
         }
     }
 
@@ -298,57 +382,62 @@ public class ProducerStateManager {
             if (log.isDebugEnabled()) {
                 log.debug("Adding new AbortedTxn {}", abortedTxn);
             }
-            synchronized (abortedIndexList) {
-                abortedIndexList.add(abortedTxn);
-            }
+            abortedIndex.add(abortedTxn);
         }
     }
 
     public void completeTxn(CompletedTxn completedTxn) {
         TxnMetadata txnMetadata = ongoingTxns.remove(completedTxn.firstOffset());
-        if (txnMetadata == null) {
+        if (txnMetadata != null) {
+            numOngoingTxns.decrementAndGet();
+        } else {
             String msg = String.format("Attempted to complete transaction %s on partition "
                     + "%s which was not started.", completedTxn, topicPartition);
             throw new IllegalArgumentException(msg);
         }
     }
 
+    public long numProducers() {
+        return producers.size();
+    }
+
+    public long numOngoingTxns() {
+        return numOngoingTxns.get();
+    }
+
+    private void putOngoingTxn(long firstOffset, TxnMetadata txn) {
+        if (ongoingTxns.put(firstOffset, txn) == null) {
+            numOngoingTxns.incrementAndGet();
+        }
+    }
+
+    private void clearOngoingTxns() {
+        while (ongoingTxns.pollFirstEntry() != null) {
+            numOngoingTxns.decrementAndGet();
+        }
+    }
+
+    public long numAbortedTxns() {
+        return abortedIndex.size();
+    }
+
     public boolean hasSomeAbortedTransactions() {
-        return !abortedIndexList.isEmpty();
+        return !abortedIndex.isEmpty();
     }
 
     public long purgeAbortedTxns(long offset) {
-        AtomicLong count = new AtomicLong();
-        synchronized (abortedIndexList) {
-            abortedIndexList.removeIf(tx -> {
-                boolean toRemove = tx.lastOffset() < offset;
-                if (toRemove) {
-                    log.info("Transaction {} can be removed (lastOffset {} < {})", tx, tx.lastOffset(), offset);
-                    count.incrementAndGet();
-                } else {
-                    if (log.isDebugEnabled()) {
-                        log.info("Transaction {} cannot be removed (lastOffset >= {})", tx, tx.lastOffset(), offset);
-                    }
-                }
-                return toRemove;
-            });
-        }
-        return count.get();
+        return abortedIndex.purge(offset);
     }
 
     public List<FetchResponseData.AbortedTransaction> getAbortedIndexList(long fetchOffset) {
-        synchronized (abortedIndexList) {
-            List<FetchResponseData.AbortedTransaction> abortedTransactions = new ArrayList<>();
-            for (AbortedTxn abortedTxn : abortedIndexList) {
-                if (abortedTxn.lastOffset() >= fetchOffset) {
-                    abortedTransactions.add(
-                            new FetchResponseData.AbortedTransaction()
-                                    .setProducerId(abortedTxn.producerId())
-                                    .setFirstOffset(abortedTxn.firstOffset()));
-                }
-            }
-            return abortedTransactions;
-        }
+        return getAbortedIndexList(fetchOffset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the aborted transactions that overlap with the range [fetchOffset, upperBoundOffset).
+     */
+    public List<FetchResponseData.AbortedTransaction> getAbortedIndexList(long fetchOffset, long upperBoundOffset) {
+        return abortedIndex.collectAbortedTxns(fetchOffset, upperBoundOffset);
     }
 
     public void handleMissingDataBeforeRecovery(long minOffset, long snapshotOffset) {
@@ -363,8 +452,8 @@ public class ProducerStateManager {
                     topicPartition, mapEndOffset, snapshotOffset, minOffset);
             // topic was not empty (mapEndOffset has some value)
             // but there is no more data on the topic (trimmed?)
-            ongoingTxns.clear();
-            abortedIndexList.clear();
+            clearOngoingTxns();
+            abortedIndex.clear();
             producers.clear();
             mapEndOffset = -1;
         }
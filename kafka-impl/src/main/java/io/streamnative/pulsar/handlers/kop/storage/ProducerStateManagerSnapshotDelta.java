@@ -0,0 +1,101 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The changes of the producer state since a base {@link ProducerStateManagerSnapshot}.
+ *
+ * <p>A delta is always computed against the base snapshot instead of the previous delta, so the latest delta and its
+ * base are enough to restore the latest snapshot.
+ */
+@Data
+@AllArgsConstructor
+public final class ProducerStateManagerSnapshotDelta {
+    private final String topicPartition;
+    private final String topicUUID;
+    private final long offset;
+    // the offset of the base snapshot
+    private final long baseOffset;
+
+    // the producers that are added or updated since the base snapshot
+    private final Map<Long, ProducerStateEntry> producers;
+    // the producers that are removed since the base snapshot
+    private final List<Long> removedProducerIds;
+
+    // ongoing transactions sorted by the first offset of the transaction
+    private final TreeMap<Long, TxnMetadata> ongoingTxns;
+
+    // the aborted transactions of the base snapshot whose last offset is less than it are purged
+    private final long abortedTxnsStartOffset;
+    // the aborted transactions that are added since the base snapshot
+    private final List<AbortedTxn> abortedIndexList;
+
+    public static ProducerStateManagerSnapshotDelta diff(ProducerStateManagerSnapshot base,
+                                                         ProducerStateManagerSnapshot snapshot) {
+        final Map<Long, ProducerStateEntry> producers = new HashMap<>();
+        snapshot.getProducers().forEach((producerId, entry) -> {
+            if (!entry.equals(base.getProducers().get(producerId))) {
+                producers.put(producerId, entry);
+            }
+        });
+        final List<Long> removedProducerIds = new ArrayList<>();
+        base.getProducers().keySet().forEach(producerId -> {
+            if (!snapshot.getProducers().containsKey(producerId)) {
+                removedProducerIds.add(producerId);
+            }
+        });
+
+        // the aborted transactions are sorted by the last offset
+        final List<AbortedTxn> baseAbortedTxns = base.getAbortedIndexList();
+        final long baseLastOffset = baseAbortedTxns.isEmpty()
+                ? Long.MIN_VALUE : baseAbortedTxns.get(baseAbortedTxns.size() - 1).lastOffset();
+        final List<AbortedTxn> abortedTxns = new ArrayList<>();
+        for (AbortedTxn abortedTxn : snapshot.getAbortedIndexList()) {
+            if (abortedTxn.lastOffset() > baseLastOffset) {
+                abortedTxns.add(abortedTxn);
+            }
+        }
+        final long abortedTxnsStartOffset = snapshot.getAbortedIndexList().isEmpty()
+                ? Long.MAX_VALUE : snapshot.getAbortedIndexList().get(0).lastOffset();
+
+        return new ProducerStateManagerSnapshotDelta(snapshot.getTopicPartition(), snapshot.getTopicUUID(),
+                snapshot.getOffset(), base.getOffset(), producers, removedProducerIds,
+                new TreeMap<>(snapshot.getOngoingTxns()), abortedTxnsStartOffset, abortedTxns);
+    }
+
+    public ProducerStateManagerSnapshot applyTo(ProducerStateManagerSnapshot base) {
+        final Map<Long, ProducerStateEntry> producers = new HashMap<>(base.getProducers());
+        removedProducerIds.forEach(producers::remove);
+        producers.putAll(this.producers);
+
+        final List<AbortedTxn> abortedTxns = new ArrayList<>();
+        for (AbortedTxn abortedTxn : base.getAbortedIndexList()) {
+            if (abortedTxn.lastOffset() >= abortedTxnsStartOffset) {
+                abortedTxns.add(abortedTxn);
+            }
+        }
+        abortedTxns.addAll(abortedIndexList);
+
+        return new ProducerStateManagerSnapshot(topicPartition, topicUUID, offset, producers,
+                new TreeMap<>(ongoingTxns), abortedTxns);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.apache.kafka.common.record.Records.OFFSET_OFFSET;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.streamnative.pulsar.handlers.kop.exceptions.MetadataCorruptedException;
+import io.streamnative.pulsar.handlers.kop.format.AbstractEntryFormatter;
+import io.streamnative.pulsar.handlers.kop.format.DecodeResult;
+import io.streamnative.pulsar.handlers.kop.utils.ByteBufUtils;
+import io.streamnative.pulsar.handlers.kop.utils.MessageMetadataUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+
+/**
+ * The record batches of the entries that are read to recover the producer state.
+ *
+ * <p>Only the batch headers and the transaction markers are needed to recover the producer state. Therefore, the
+ * records of the entries in Kafka format are neither copied nor parsed, and the entries in Pulsar format are only
+ * decoded when they belong to a transaction, because the other entries don't have a producer id.
+ */
+@Slf4j
+final class ProducerStateRecoveryBatch {
+
+    private final List<Entry> entries;
+    private final List<MemoryRecords> records = new ArrayList<>();
+    private final List<DecodeResult> decodeResults = new ArrayList<>();
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private ProducerStateRecoveryBatch(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Decode the entries, which are released by {@link #release()}.
+     */
+    static ProducerStateRecoveryBatch decode(List<Entry> entries) {
+        final ProducerStateRecoveryBatch batch = new ProducerStateRecoveryBatch(entries);
+        for (Entry entry : entries) {
+            try {
+                final long baseOffset = MessageMetadataUtils.peekBaseOffsetFromEntry(entry);
+                final ByteBuf byteBuf = entry.getDataBuffer();
+                final MessageMetadata metadata = MessageMetadataUtils.parseMessageMetadata(byteBuf);
+                if (AbstractEntryFormatter.isKafkaEntryFormat(metadata)) {
+                    byteBuf.setLong(byteBuf.readerIndex() + OFFSET_OFFSET, baseOffset);
+                    batch.records.add(MemoryRecords.readableRecords(ByteBufUtils.getNioBuffer(byteBuf)));
+                } else if (metadata.hasTxnidMostBits() || metadata.hasMarkerType()) {
+                    final DecodeResult decodeResult = ByteBufUtils.decodePulsarEntryToKafkaRecords(
+                            metadata, byteBuf, baseOffset, RecordBatch.CURRENT_MAGIC_VALUE);
+                    batch.decodeResults.add(decodeResult);
+                    batch.records.add(decodeResult.getRecords());
+                }
+            } catch (MetadataCorruptedException | IOException | KafkaException e) { // skip failed decode entry
+                log.error("[{}:{}] Failed to decode entry. ", entry.getLedgerId(), entry.getEntryId(), e);
+            }
+        }
+        return batch;
+    }
+
+    int numEntries() {
+        return entries.size();
+    }
+
+    Iterable<RecordBatch> batches() {
+        return Iterables.concat(Lists.transform(records, MemoryRecords::batches));
+    }
+
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            decodeResults.forEach(DecodeResult::recycle);
+            entries.forEach(Entry::release);
+        }
+    }
+}
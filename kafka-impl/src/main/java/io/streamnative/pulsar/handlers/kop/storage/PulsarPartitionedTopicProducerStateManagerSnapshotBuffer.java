@@ -15,6 +15,8 @@ package io.streamnative.pulsar.handlers.kop.storage;
 
 import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
 import io.streamnative.pulsar.handlers.kop.coordinator.transaction.TransactionCoordinator;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -45,13 +47,24 @@ public class PulsarPartitionedTopicProducerStateManagerSnapshotBuffer implements
                                                                     SystemTopicClient pulsarClient,
                                                                     Executor executor,
                                                                     int numPartitions) {
+        this(topicName, pulsarClient, executor, numPartitions, 0, NullStatsLogger.INSTANCE);
+    }
+
+    public PulsarPartitionedTopicProducerStateManagerSnapshotBuffer(String topicName,
+                                                                    SystemTopicClient pulsarClient,
+                                                                    Executor executor,
+                                                                    int numPartitions,
+                                                                    int maxDeltasPerBase,
+                                                                    StatsLogger statsLogger) {
         TopicName fullName = TopicName.get(topicName);
         for (int i = 0; i < numPartitions; i++) {
             PulsarTopicProducerStateManagerSnapshotBuffer partition =
                     new PulsarTopicProducerStateManagerSnapshotBuffer(
                             fullName.getPartition(i).toString(),
                             pulsarClient,
-                            executor);
+                            executor,
+                            maxDeltasPerBase,
+                            statsLogger);
             partitions.add(partition);
         }
     }
@@ -13,11 +13,19 @@
  */
 package io.streamnative.pulsar.handlers.kop.storage;
 
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.CATEGORY_SERVER;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_SNAPSHOT_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PRODUCER_STATE_SNAPSHOT_WRITES;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SNAPSHOT_TYPE_SCOPE;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
 import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -33,6 +41,9 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.kafka.common.errors.NotLeaderOrFollowerException;
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.MessageId;
@@ -40,13 +51,45 @@ import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.Reader;
 import org.apache.pulsar.common.util.FutureUtil;
 
+/**
+ * The buffer that stores the producer state snapshots in a compacted Pulsar topic.
+ *
+ * <p>A base snapshot contains the whole producer state of a partition, its message key is the partition name. The
+ * following snapshots of the partition are written as the deltas against the base snapshot, whose message key is
+ * the partition name with the {@link #DELTA_KEY_SUFFIX}. A new base snapshot is written after {@code
+ * maxDeltasPerBase} deltas, or when a delta is not much smaller than the base. Since the topic is compacted, only
+ * the latest base and the latest delta of each partition are read when the buffer is loaded.
+ */
+@StatsDoc(
+        name = SERVER_SCOPE,
+        category = CATEGORY_SERVER,
+        help = "KOP producer state snapshot stats"
+)
 @Slf4j
 public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerStateManagerSnapshotBuffer {
 
+    // the suffix of the message key of a delta snapshot
+    static final String DELTA_KEY_SUFFIX = "#delta";
+
     private final Map<String, ProducerStateManagerSnapshot> latestSnapshots = new ConcurrentHashMap<>();
+    private final Map<String, BaseSnapshot> latestBases = new ConcurrentHashMap<>();
     private final String topic;
     private final SystemTopicClient pulsarClient;
     private final Executor executor;
+    // 0 means that only base snapshots are written
+    private final int maxDeltasPerBase;
+    @StatsDoc(
+            name = PRODUCER_STATE_SNAPSHOT_WRITES,
+            help = "The number of producer state snapshots written to the snapshot topic"
+    )
+    private final Counter baseWrites;
+    private final Counter deltaWrites;
+    @StatsDoc(
+            name = PRODUCER_STATE_SNAPSHOT_SIZE,
+            help = "The size in bytes of the producer state snapshots written to the snapshot topic"
+    )
+    private final OpStatsLogger baseSize;
+    private final OpStatsLogger deltaSize;
     private CompletableFuture<Reader<ByteBuffer>> reader;
 
     private CompletableFuture<Producer<ByteBuffer>> producer;
@@ -129,11 +172,6 @@ public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerSt
 
     @Override
     public CompletableFuture<Void> write(ProducerStateManagerSnapshot snapshot) {
-        ByteBuffer serialized = serialize(snapshot);
-        if (serialized == null) {
-            // cannot serialise, skip
-            return CompletableFuture.completedFuture(null);
-        }
         return ensureProducerHandle().thenCompose(opProducer -> {
             // nobody can write now to the topic
             // wait for local cache to be up-to-date
@@ -147,146 +185,186 @@ public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerSt
                             return FutureUtil.failedFuture(new NotLeaderOrFollowerException("No more owner of "
                                     + "ProducerState for topic " + topic));
                         }
+                        BaseSnapshot base = latestBases.get(snapshot.getTopicPartition());
+                        ByteBuffer serializedDelta = serializeDeltaIfSmaller(base, snapshot);
+                        boolean isDelta = serializedDelta != null;
+                        ByteBuffer serialized = isDelta ? serializedDelta : serialize(snapshot);
+                        if (serialized == null) {
+                            // cannot serialise, skip
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        int size = serialized.remaining();
                         return opProducer
                                 .newMessage()
-                                .key(snapshot.getTopicPartition()) // leverage compaction
+                                // leverage compaction, the latest base and the latest delta are retained
+                                .key(isDelta
+                                        ? snapshot.getTopicPartition() + DELTA_KEY_SUFFIX
+                                        : snapshot.getTopicPartition())
                                 .value(serialized)
                                 .sendAsync()
                                 .thenApply((msgId) -> {
                                     if (log.isDebugEnabled()) {
-                                        log.debug("{} written {} as {}", this, snapshot, msgId);
+                                        log.debug("{} written {} {} as {}", this,
+                                                isDelta ? "delta of" : "", snapshot, msgId);
                                     }
                                     latestSnapshots.put(snapshot.getTopicPartition(), snapshot);
+                                    if (isDelta) {
+                                        base.addDelta(snapshot.getOffset());
+                                        deltaWrites.inc();
+                                        deltaSize.registerSuccessfulValue(size);
+                                    } else {
+                                        latestBases.put(snapshot.getTopicPartition(),
+                                                new BaseSnapshot(snapshot, size));
+                                        baseWrites.inc();
+                                        baseSize.registerSuccessfulValue(size);
+                                    }
                                     return null;
                                 });
                     });
         });
     }
 
+    /**
+     * Serialize the changes of the snapshot since the latest base snapshot of the partition.
+     *
+     * @return null if a new base snapshot should be written
+     */
+    private ByteBuffer serializeDeltaIfSmaller(BaseSnapshot base, ProducerStateManagerSnapshot snapshot) {
+        if (base == null || base.numDeltas() >= maxDeltasPerBase
+                || !Objects.equals(base.snapshot.getTopicUUID(), snapshot.getTopicUUID())) {
+            return null;
+        }
+        ByteBuffer serializedDelta = serializeDelta(ProducerStateManagerSnapshotDelta.diff(base.snapshot, snapshot));
+        // compact into a new base when the delta is not much smaller than the base
+        if (serializedDelta == null || serializedDelta.remaining() * 2 > base.size) {
+            return null;
+        }
+        return serializedDelta;
+    }
+
     protected static ByteBuffer serialize(ProducerStateManagerSnapshot snapshot) {
 
         ByteBuf byteBuf = Unpooled.buffer();
         try (DataOutputStream dataOutputStream =
                      new DataOutputStream(new ByteBufOutputStream(byteBuf));) {
 
-            dataOutputStream.writeUTF(snapshot.getTopicPartition());
-            if (snapshot.getTopicUUID() != null) {
-                dataOutputStream.writeUTF(snapshot.getTopicUUID());
-            } else {
-                // topics created from Pulsar don't have the UUID
-                dataOutputStream.writeUTF("");
-            }
-            dataOutputStream.writeLong(snapshot.getOffset());
-
-            dataOutputStream.writeInt(snapshot.getProducers().size());
-            for (Map.Entry<Long, ProducerStateEntry> entry : snapshot.getProducers().entrySet()) {
-                ProducerStateEntry producer = entry.getValue();
-                dataOutputStream.writeLong(producer.producerId());
-                if (producer.producerEpoch() != null) {
-                    dataOutputStream.writeInt(producer.producerEpoch());
-                } else {
-                    dataOutputStream.writeInt(-1);
-                }
-                if (producer.coordinatorEpoch() != null) {
-                    dataOutputStream.writeInt(producer.coordinatorEpoch());
-                } else {
-                    dataOutputStream.writeInt(-1);
-                }
-                if (producer.lastTimestamp() != null) {
-                    dataOutputStream.writeLong(producer.lastTimestamp());
-                } else {
-                    dataOutputStream.writeLong(-1L);
-                }
-                if (producer.currentTxnFirstOffset().isPresent()) {
-                    dataOutputStream.writeLong(producer.currentTxnFirstOffset().get());
-                } else {
-                    dataOutputStream.writeLong(-1);
-                }
-            }
+            writeHeader(dataOutputStream, snapshot.getTopicPartition(), snapshot.getTopicUUID(),
+                    snapshot.getOffset());
+            writeProducers(dataOutputStream, snapshot.getProducers());
+            writeOngoingTxns(dataOutputStream, snapshot.getOngoingTxns());
+            writeAbortedTxns(dataOutputStream, snapshot.getAbortedIndexList());
 
-            dataOutputStream.writeInt(snapshot.getOngoingTxns().size());
-            for (Map.Entry<Long, TxnMetadata> entry : snapshot.getOngoingTxns().entrySet()) {
-                TxnMetadata tx = entry.getValue();
-                dataOutputStream.writeLong(tx.producerId());
-                dataOutputStream.writeLong(tx.firstOffset());
-                dataOutputStream.writeLong(tx.lastOffset());
-            }
+            dataOutputStream.flush();
+
+            return byteBuf.nioBuffer();
+
+        } catch (IOException err) {
+            log.error("Cannot serialise snapshot {}", snapshot, err);
+            return null;
+        }
+    }
+
+    protected static ByteBuffer serializeDelta(ProducerStateManagerSnapshotDelta delta) {
+        ByteBuf byteBuf = Unpooled.buffer();
+        try (DataOutputStream dataOutputStream =
+                     new DataOutputStream(new ByteBufOutputStream(byteBuf));) {
 
-            dataOutputStream.writeInt(snapshot.getAbortedIndexList().size());
-            for (AbortedTxn tx : snapshot.getAbortedIndexList()) {
-                dataOutputStream.writeLong(tx.producerId());
-                dataOutputStream.writeLong(tx.firstOffset());
-                dataOutputStream.writeLong(tx.lastOffset());
-                dataOutputStream.writeLong(tx.lastStableOffset());
+            writeHeader(dataOutputStream, delta.getTopicPartition(), delta.getTopicUUID(), delta.getOffset());
+            dataOutputStream.writeLong(delta.getBaseOffset());
+            writeProducers(dataOutputStream, delta.getProducers());
+            dataOutputStream.writeInt(delta.getRemovedProducerIds().size());
+            for (long producerId : delta.getRemovedProducerIds()) {
+                dataOutputStream.writeLong(producerId);
             }
+            writeOngoingTxns(dataOutputStream, delta.getOngoingTxns());
+            dataOutputStream.writeLong(delta.getAbortedTxnsStartOffset());
+            writeAbortedTxns(dataOutputStream, delta.getAbortedIndexList());
 
             dataOutputStream.flush();
 
             return byteBuf.nioBuffer();
 
         } catch (IOException err) {
-            log.error("Cannot serialise snapshot {}", snapshot, err);
+            log.error("Cannot serialise snapshot delta {}", delta, err);
             return null;
         }
     }
 
+    private static void writeHeader(DataOutputStream dataOutputStream,
+                                    String topicPartition,
+                                    String topicUUID,
+                                    long offset) throws IOException {
+        dataOutputStream.writeUTF(topicPartition);
+        if (topicUUID != null) {
+            dataOutputStream.writeUTF(topicUUID);
+        } else {
+            // topics created from Pulsar don't have the UUID
+            dataOutputStream.writeUTF("");
+        }
+        dataOutputStream.writeLong(offset);
+    }
+
+    private static void writeProducers(DataOutputStream dataOutputStream,
+                                       Map<Long, ProducerStateEntry> producers) throws IOException {
+        dataOutputStream.writeInt(producers.size());
+        for (Map.Entry<Long, ProducerStateEntry> entry : producers.entrySet()) {
+            ProducerStateEntry producer = entry.getValue();
+            dataOutputStream.writeLong(producer.producerId());
+            if (producer.producerEpoch() != null) {
+                dataOutputStream.writeInt(producer.producerEpoch());
+            } else {
+                dataOutputStream.writeInt(-1);
+            }
+            if (producer.coordinatorEpoch() != null) {
+                dataOutputStream.writeInt(producer.coordinatorEpoch());
+            } else {
+                dataOutputStream.writeInt(-1);
+            }
+            if (producer.lastTimestamp() != null) {
+                dataOutputStream.writeLong(producer.lastTimestamp());
+            } else {
+                dataOutputStream.writeLong(-1L);
+            }
+            if (producer.currentTxnFirstOffset().isPresent()) {
+                dataOutputStream.writeLong(producer.currentTxnFirstOffset().get());
+            } else {
+                dataOutputStream.writeLong(-1);
+            }
+        }
+    }
+
+    private static void writeOngoingTxns(DataOutputStream dataOutputStream,
+                                         TreeMap<Long, TxnMetadata> ongoingTxns) throws IOException {
+        dataOutputStream.writeInt(ongoingTxns.size());
+        for (Map.Entry<Long, TxnMetadata> entry : ongoingTxns.entrySet()) {
+            TxnMetadata tx = entry.getValue();
+            dataOutputStream.writeLong(tx.producerId());
+            dataOutputStream.writeLong(tx.firstOffset());
+            dataOutputStream.writeLong(tx.lastOffset());
+        }
+    }
+
+    private static void writeAbortedTxns(DataOutputStream dataOutputStream,
+                                         List<AbortedTxn> abortedTxns) throws IOException {
+        dataOutputStream.writeInt(abortedTxns.size());
+        for (AbortedTxn tx : abortedTxns) {
+            dataOutputStream.writeLong(tx.producerId());
+            dataOutputStream.writeLong(tx.firstOffset());
+            dataOutputStream.writeLong(tx.lastOffset());
+            dataOutputStream.writeLong(tx.lastStableOffset());
+        }
+    }
+
     protected static ProducerStateManagerSnapshot deserialize(ByteBuffer buffer) {
         try (DataInputStream dataInputStream =
                      new DataInputStream(new ByteBufInputStream(Unpooled.wrappedBuffer(buffer)));) {
             String topicPartition = dataInputStream.readUTF();
-            String topicUUID = dataInputStream.readUTF();
-            if (topicUUID.isEmpty()) {
-                topicUUID = null;
-            }
+            String topicUUID = readTopicUUID(dataInputStream);
             long offset = dataInputStream.readLong();
 
-            int numProducers = dataInputStream.readInt();
-            Map<Long, ProducerStateEntry> producers = new HashMap<>();
-            for (int i = 0; i < numProducers; i++) {
-                long producerId = dataInputStream.readLong();
-                Integer producerEpoch = dataInputStream.readInt();
-                if (producerEpoch == -1) {
-                    producerEpoch = null;
-                }
-                Integer coordinatorEpoch = dataInputStream.readInt();
-                if (coordinatorEpoch == -1) {
-                    coordinatorEpoch = null;
-                }
-                Long lastTimestamp = dataInputStream.readLong();
-                if (lastTimestamp == -1) {
-                    lastTimestamp = null;
-                }
-                Long currentTxFirstOffset = dataInputStream.readLong();
-                if (currentTxFirstOffset == -1) {
-                    currentTxFirstOffset = null;
-                }
-                ProducerStateEntry entry = ProducerStateEntry.empty(producerId)
-                        .producerEpoch(producerEpoch != null ? producerEpoch.shortValue() : null)
-                        .coordinatorEpoch(coordinatorEpoch)
-                        .lastTimestamp(lastTimestamp)
-                        .currentTxnFirstOffset(Optional.ofNullable(currentTxFirstOffset));
-                producers.put(producerId, entry);
-            }
-
-            int numOngoingTxns = dataInputStream.readInt();
-            TreeMap<Long, TxnMetadata> ongoingTxns = new TreeMap<>();
-            for (int i = 0; i < numOngoingTxns; i++) {
-                long producerId = dataInputStream.readLong();
-                long firstOffset = dataInputStream.readLong();
-                long lastOffset = dataInputStream.readLong();
-                ongoingTxns.put(firstOffset, new TxnMetadata(producerId, firstOffset)
-                        .lastOffset(lastOffset));
-            }
-
-            int numAbortedIndexList = dataInputStream.readInt();
-            List<AbortedTxn> abortedTxnList = new ArrayList<>();
-            for (int i = 0; i < numAbortedIndexList; i++) {
-                long producerId = dataInputStream.readLong();
-                long firstOffset = dataInputStream.readLong();
-                long lastOffset = dataInputStream.readLong();
-                long lastStableOffset = dataInputStream.readLong();
-                abortedTxnList.add(new AbortedTxn(producerId, firstOffset, lastOffset, lastStableOffset));
-            }
+            Map<Long, ProducerStateEntry> producers = readProducers(dataInputStream);
+            TreeMap<Long, TxnMetadata> ongoingTxns = readOngoingTxns(dataInputStream);
+            List<AbortedTxn> abortedTxnList = readAbortedTxns(dataInputStream);
 
             return new ProducerStateManagerSnapshot(topicPartition, topicUUID, offset,
                     producers, ongoingTxns, abortedTxnList);
@@ -297,10 +375,106 @@ public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerSt
         }
     }
 
+    protected static ProducerStateManagerSnapshotDelta deserializeDelta(ByteBuffer buffer) {
+        try (DataInputStream dataInputStream =
+                     new DataInputStream(new ByteBufInputStream(Unpooled.wrappedBuffer(buffer)));) {
+            String topicPartition = dataInputStream.readUTF();
+            String topicUUID = readTopicUUID(dataInputStream);
+            long offset = dataInputStream.readLong();
+            long baseOffset = dataInputStream.readLong();
+
+            Map<Long, ProducerStateEntry> producers = readProducers(dataInputStream);
+            int numRemovedProducers = dataInputStream.readInt();
+            List<Long> removedProducerIds = new ArrayList<>(numRemovedProducers);
+            for (int i = 0; i < numRemovedProducers; i++) {
+                removedProducerIds.add(dataInputStream.readLong());
+            }
+            TreeMap<Long, TxnMetadata> ongoingTxns = readOngoingTxns(dataInputStream);
+            long abortedTxnsStartOffset = dataInputStream.readLong();
+            List<AbortedTxn> abortedTxnList = readAbortedTxns(dataInputStream);
+
+            return new ProducerStateManagerSnapshotDelta(topicPartition, topicUUID, offset, baseOffset,
+                    producers, removedProducerIds, ongoingTxns, abortedTxnsStartOffset, abortedTxnList);
+
+        } catch (Throwable err) {
+            log.error("Cannot deserialize snapshot delta", err);
+            return null;
+        }
+    }
+
+    private static String readTopicUUID(DataInputStream dataInputStream) throws IOException {
+        String topicUUID = dataInputStream.readUTF();
+        if (topicUUID.isEmpty()) {
+            topicUUID = null;
+        }
+        return topicUUID;
+    }
+
+    private static Map<Long, ProducerStateEntry> readProducers(DataInputStream dataInputStream) throws IOException {
+        int numProducers = dataInputStream.readInt();
+        Map<Long, ProducerStateEntry> producers = new HashMap<>();
+        for (int i = 0; i < numProducers; i++) {
+            long producerId = dataInputStream.readLong();
+            Integer producerEpoch = dataInputStream.readInt();
+            if (producerEpoch == -1) {
+                producerEpoch = null;
+            }
+            Integer coordinatorEpoch = dataInputStream.readInt();
+            if (coordinatorEpoch == -1) {
+                coordinatorEpoch = null;
+            }
+            Long lastTimestamp = dataInputStream.readLong();
+            if (lastTimestamp == -1) {
+                lastTimestamp = null;
+            }
+            Long currentTxFirstOffset = dataInputStream.readLong();
+            if (currentTxFirstOffset == -1) {
+                currentTxFirstOffset = null;
+            }
+            ProducerStateEntry entry = ProducerStateEntry.empty(producerId)
+                    .producerEpoch(producerEpoch != null ? producerEpoch.shortValue() : null)
+                    .coordinatorEpoch(coordinatorEpoch)
+                    .lastTimestamp(lastTimestamp)
+                    .currentTxnFirstOffset(Optional.ofNullable(currentTxFirstOffset));
+            producers.put(producerId, entry);
+        }
+        return producers;
+    }
+
+    private static TreeMap<Long, TxnMetadata> readOngoingTxns(DataInputStream dataInputStream) throws IOException {
+        int numOngoingTxns = dataInputStream.readInt();
+        TreeMap<Long, TxnMetadata> ongoingTxns = new TreeMap<>();
+        for (int i = 0; i < numOngoingTxns; i++) {
+            long producerId = dataInputStream.readLong();
+            long firstOffset = dataInputStream.readLong();
+            long lastOffset = dataInputStream.readLong();
+            ongoingTxns.put(firstOffset, new TxnMetadata(producerId, firstOffset)
+                    .lastOffset(lastOffset));
+        }
+        return ongoingTxns;
+    }
+
+    private static List<AbortedTxn> readAbortedTxns(DataInputStream dataInputStream) throws IOException {
+        int numAbortedIndexList = dataInputStream.readInt();
+        List<AbortedTxn> abortedTxnList = new ArrayList<>();
+        for (int i = 0; i < numAbortedIndexList; i++) {
+            long producerId = dataInputStream.readLong();
+            long firstOffset = dataInputStream.readLong();
+            long lastOffset = dataInputStream.readLong();
+            long lastStableOffset = dataInputStream.readLong();
+            abortedTxnList.add(new AbortedTxn(producerId, firstOffset, lastOffset, lastStableOffset));
+        }
+        return abortedTxnList;
+    }
+
     private void processMessage(Message<ByteBuffer> msg) {
+        String key = msg.hasKey() ? msg.getKey() : null;
+        if (key != null && key.endsWith(DELTA_KEY_SUFFIX)) {
+            processDelta(key.substring(0, key.length() - DELTA_KEY_SUFFIX.length()), msg);
+            return;
+        }
         ProducerStateManagerSnapshot deserialize = deserialize(msg.getValue());
         if (deserialize != null) {
-            String key = msg.hasKey() ? msg.getKey() : null;
             if (Objects.equals(key, deserialize.getTopicPartition())) {
                 if (log.isDebugEnabled()) {
                     log.debug("found snapshot for {} ({}): {}",
@@ -309,8 +483,31 @@ public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerSt
                             deserialize);
                 }
                 latestSnapshots.put(deserialize.getTopicPartition(), deserialize);
+                latestBases.put(deserialize.getTopicPartition(), new BaseSnapshot(deserialize, msg.size()));
+            }
+        }
+    }
+
+    private void processDelta(String topicPartition, Message<ByteBuffer> msg) {
+        ProducerStateManagerSnapshotDelta delta = deserializeDelta(msg.getValue());
+        if (delta == null || !topicPartition.equals(delta.getTopicPartition())) {
+            return;
+        }
+        BaseSnapshot base = latestBases.get(topicPartition);
+        // a delta is only valid for its base, the delta of an older base is skipped
+        if (base == null || base.snapshot.getOffset() != delta.getBaseOffset()
+                || !Objects.equals(base.snapshot.getTopicUUID(), delta.getTopicUUID())) {
+            if (log.isDebugEnabled()) {
+                log.debug("skip snapshot delta for {} at {} with base offset {}",
+                        topicPartition, delta.getOffset(), delta.getBaseOffset());
             }
+            return;
         }
+        if (log.isDebugEnabled()) {
+            log.debug("found snapshot delta for {} ({}): {}", topicPartition, delta.getTopicUUID(), delta);
+        }
+        base.addDelta(delta.getOffset());
+        latestSnapshots.put(topicPartition, delta.applyTo(base.snapshot));
     }
 
     @Override
@@ -328,9 +525,24 @@ public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerSt
     public PulsarTopicProducerStateManagerSnapshotBuffer(String topicName,
                                                          SystemTopicClient pulsarClient,
                                                          Executor executor) {
+        this(topicName, pulsarClient, executor, 0, NullStatsLogger.INSTANCE);
+    }
+
+    public PulsarTopicProducerStateManagerSnapshotBuffer(String topicName,
+                                                         SystemTopicClient pulsarClient,
+                                                         Executor executor,
+                                                         int maxDeltasPerBase,
+                                                         StatsLogger statsLogger) {
         this.topic = topicName;
         this.pulsarClient = pulsarClient;
         this.executor = executor;
+        this.maxDeltasPerBase = maxDeltasPerBase;
+        StatsLogger baseStatsLogger = statsLogger.scopeLabel(SNAPSHOT_TYPE_SCOPE, "base");
+        StatsLogger deltaStatsLogger = statsLogger.scopeLabel(SNAPSHOT_TYPE_SCOPE, "delta");
+        this.baseWrites = baseStatsLogger.getCounter(PRODUCER_STATE_SNAPSHOT_WRITES);
+        this.deltaWrites = deltaStatsLogger.getCounter(PRODUCER_STATE_SNAPSHOT_WRITES);
+        this.baseSize = baseStatsLogger.getOpStatsLogger(PRODUCER_STATE_SNAPSHOT_SIZE);
+        this.deltaSize = deltaStatsLogger.getOpStatsLogger(PRODUCER_STATE_SNAPSHOT_SIZE);
     }
 
 
@@ -364,4 +576,31 @@ public class PulsarTopicProducerStateManagerSnapshotBuffer implements ProducerSt
     public String toString() {
         return "PulsarTopicProducerStateManagerSnapshotBuffer{" + topic + '}';
     }
+
+    private static class BaseSnapshot {
+        private final ProducerStateManagerSnapshot snapshot;
+        private final int size;
+        // the number of deltas written after the base snapshot
+        private int numDeltas = 0;
+        // the offset of the latest counted delta, so that a delta written by this buffer is not counted again when
+        // it's read back
+        private long lastDeltaOffset;
+
+        BaseSnapshot(ProducerStateManagerSnapshot snapshot, int size) {
+            this.snapshot = snapshot;
+            this.size = size;
+            this.lastDeltaOffset = snapshot.getOffset();
+        }
+
+        synchronized void addDelta(long offset) {
+            if (offset > lastDeltaOffset) {
+                lastDeltaOffset = offset;
+                numDeltas++;
+            }
+        }
+
+        synchronized int numDeltas() {
+            return numDeltas;
+        }
+    }
 }
@@ -20,13 +20,16 @@ import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import io.streamnative.pulsar.handlers.kop.KafkaTopicLookupService;
 import io.streamnative.pulsar.handlers.kop.MessageFetchContext;
 import io.streamnative.pulsar.handlers.kop.RequestStats;
+import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupCoordinator;
 import io.streamnative.pulsar.handlers.kop.exceptions.KoPTopicInitializeException;
 import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
 import io.streamnative.pulsar.handlers.kop.utils.delayed.DelayedOperation;
 import io.streamnative.pulsar.handlers.kop.utils.delayed.DelayedOperationKey;
 import io.streamnative.pulsar.handlers.kop.utils.delayed.DelayedOperationPurgatory;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,8 +48,13 @@ import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.NotLeaderOrFollowerException;
 import org.apache.kafka.common.message.FetchRequestData;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.EndTransactionMarker;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.requests.ProduceResponse;
+import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
 import org.apache.kafka.common.utils.SystemTime;
 import org.apache.kafka.common.utils.Time;
 import org.apache.pulsar.broker.service.BrokerServiceException;
@@ -232,6 +240,118 @@ public class ReplicaManager {
         return completableFuture;
     }
 
+    /**
+     * Append the transaction markers to the partitions and complete the transactional offset commits of the group
+     * metadata partitions.
+     *
+     * <p>It's used by both the WriteTxnMarkers requests and the transaction coordinator that writes the markers to
+     * the partitions owned by this broker directly.
+     *
+     * @return the future of the response, which is never completed exceptionally
+     */
+    public CompletableFuture<WriteTxnMarkersResponse> writeTxnMarkers(
+            final List<WriteTxnMarkersRequest.TxnMarkerEntry> markers,
+            final long timeout,
+            final String namespacePrefix,
+            final GroupCoordinator groupCoordinator,
+            final AppendRecordsContext appendRecordsContext) {
+        final CompletableFuture<WriteTxnMarkersResponse> response = new CompletableFuture<>();
+        final Map<Long, Map<TopicPartition, Errors>> errors = new ConcurrentHashMap<>();
+        final AtomicInteger numAppends = new AtomicInteger(markers.size());
+
+        if (numAppends.get() == 0) {
+            response.complete(new WriteTxnMarkersResponse(errors));
+            return response;
+        }
+        final BiConsumer<Long, Map<TopicPartition, Errors>> updateErrors = (producerId, currentErrors) -> {
+            Map<TopicPartition, Errors> previousErrors = errors.putIfAbsent(producerId, currentErrors);
+            if (previousErrors != null) {
+                previousErrors.putAll(currentErrors);
+            }
+        };
+        final Runnable completeOne = () -> {
+            if (numAppends.decrementAndGet() == 0) {
+                response.complete(new WriteTxnMarkersResponse(errors));
+            }
+        };
+
+        for (WriteTxnMarkersRequest.TxnMarkerEntry marker : markers) {
+            long producerId = marker.producerId();
+            TransactionResult transactionResult = marker.transactionResult();
+            Map<TopicPartition, MemoryRecords> controlRecords = generateTxnMarkerRecords(marker);
+            appendRecords(
+                    timeout,
+                    (short) 1,
+                    true,
+                    namespacePrefix,
+                    controlRecords,
+                    PartitionLog.AppendOrigin.Coordinator,
+                    appendRecordsContext
+            ).whenComplete((result, ex) -> {
+                if (ex != null) {
+                    log.error("Append txn marker ({}) failed.", marker, ex);
+                    Map<TopicPartition, Errors> currentErrors = new HashMap<>();
+                    controlRecords.forEach(((topicPartition, partitionResponse) -> currentErrors.put(topicPartition,
+                            Errors.KAFKA_STORAGE_ERROR)));
+                    updateErrors.accept(producerId, currentErrors);
+                    completeOne.run();
+                    return;
+                }
+                Map<TopicPartition, Errors> currentErrors = new HashMap<>();
+                result.forEach(((topicPartition, partitionResponse) -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Append txn marker to topic : [{}], response: [{}].",
+                                topicPartition, partitionResponse);
+                    }
+                    currentErrors.put(topicPartition, partitionResponse.error);
+                }));
+                updateErrors.accept(producerId, currentErrors);
+
+                Set<TopicPartition> successfulOffsetsPartitions = result.keySet()
+                        .stream()
+                        .filter(topicPartition ->
+                                KopTopic.isGroupMetadataTopicName(topicPartition.topic(), metadataNamespace))
+                        .collect(Collectors.toSet());
+                if (!successfulOffsetsPartitions.isEmpty()) {
+                    groupCoordinator.scheduleHandleTxnCompletion(
+                            producerId,
+                            successfulOffsetsPartitions
+                                    .stream().map(TopicPartition::partition).collect(Collectors.toSet()),
+                            transactionResult).whenComplete((__, e) -> {
+                                if (e != null) {
+                                    log.error("Received an exception while trying to update the offsets cache on "
+                                            + "transaction marker append", e);
+                                    ConcurrentHashMap<TopicPartition, Errors> updatedErrors = new ConcurrentHashMap<>();
+                                    successfulOffsetsPartitions.forEach(partition ->
+                                            updatedErrors.put(partition, Errors.forException(e.getCause())));
+                                    updateErrors.accept(producerId, updatedErrors);
+                                }
+                        completeOne.run();
+                    });
+                    return;
+                }
+                completeOne.run();
+            });
+        }
+        return response;
+    }
+
+    private static Map<TopicPartition, MemoryRecords> generateTxnMarkerRecords(
+            WriteTxnMarkersRequest.TxnMarkerEntry marker) {
+        Map<TopicPartition, MemoryRecords> txnMarkerRecordsMap = new HashMap<>();
+
+        ControlRecordType controlRecordType = marker.transactionResult().equals(TransactionResult.COMMIT)
+                ? ControlRecordType.COMMIT : ControlRecordType.ABORT;
+        EndTransactionMarker endTransactionMarker = new EndTransactionMarker(
+                controlRecordType, marker.coordinatorEpoch());
+        for (TopicPartition topicPartition : marker.partitions()) {
+            MemoryRecords memoryRecords = MemoryRecords.withEndTransactionMarker(
+                    marker.producerId(), marker.producerEpoch(), endTransactionMarker);
+            txnMarkerRecordsMap.put(topicPartition, memoryRecords);
+        }
+        return txnMarkerRecordsMap;
+    }
+
     public CompletableFuture<Map<TopicPartition, PartitionLog.ReadRecordsResult>> fetchMessage(
             final long timeout,
             final int fetchMinBytes,
@@ -303,8 +423,9 @@ public class ReplicaManager {
             }
         };
         readPartitionInfo.forEach((tp, fetchInfo) -> {
-            getPartitionLog(tp, context.getNamespacePrefix())
-                    .awaitInitialisation()
+            final PartitionLog partition = getPartitionLog(tp, context.getNamespacePrefix());
+            // only the read-committed fetches depend on the producer state
+            (readCommitted ? partition.awaitInitialisation() : partition.awaitLoad())
                     .whenComplete((partitionLog, failed) ->{
                         if (failed != null) {
                             result.put(tp,
@@ -338,4 +459,8 @@ public class ReplicaManager {
         return logManager.updatePurgeAbortedTxnsOffsets();
     }
 
+    public CompletableFuture<?> evictPartitionLogs() {
+        return logManager.evictPartitionLogs();
+    }
+
 }
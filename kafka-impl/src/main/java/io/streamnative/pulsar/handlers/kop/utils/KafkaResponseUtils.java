@@ -180,6 +180,7 @@ public class KafkaResponseUtils {
                 describedGroup.members().add(new DescribeGroupsResponseData.DescribedGroupMember()
                         .setClientHost(member.clientHost())
                         .setMemberId(member.memberId())
+                        .setGroupInstanceId(member.groupInstanceId().orElse(null))
                         .setClientId(member.clientId())
                         .setMemberMetadata(member.metadata())
                         .setMemberAssignment(member.assignment()));
@@ -239,6 +240,19 @@ public class KafkaResponseUtils {
                                                  String leaderId,
                                                  Map<String, byte[]> groupMembers,
                                                  short requestVersion) {
+        return newJoinGroup(errors, generationId, groupProtocol, groupProtocolType, memberId, leaderId, groupMembers,
+                Collections.emptyMap(), requestVersion);
+    }
+
+    public static JoinGroupResponse newJoinGroup(Errors errors,
+                                                 int generationId,
+                                                 String groupProtocol,
+                                                 String groupProtocolType,
+                                                 String memberId,
+                                                 String leaderId,
+                                                 Map<String, byte[]> groupMembers,
+                                                 Map<String, String> groupInstanceIds,
+                                                 short requestVersion) {
         JoinGroupResponseData data = new JoinGroupResponseData()
                 .setErrorCode(errors.code())
                 .setLeader(leaderId)
@@ -252,6 +266,7 @@ public class KafkaResponseUtils {
                         .map(entry ->
                             new JoinGroupResponseData.JoinGroupResponseMember()
                                     .setMemberId(entry.getKey())
+                                    .setGroupInstanceId(groupInstanceIds.get(entry.getKey()))
                                     .setMetadata(entry.getValue())
                         )
                         .collect(Collectors.toList()));
@@ -269,6 +284,13 @@ public class KafkaResponseUtils {
         return new LeaveGroupResponse(data);
     }
 
+    public static LeaveGroupResponse newLeaveGroup(Errors errors,
+                                                   List<LeaveGroupResponseData.MemberResponse> memberResponses,
+                                                   short requestVersion) {
+        // Before version 3, the member errors are merged into the top level error
+        return new LeaveGroupResponse(memberResponses, errors, 0, requestVersion);
+    }
+
     public static ListGroupsResponse newListGroups(Errors errors,
                                                    List<GroupMetadata.GroupOverview> groups) {
         ListGroupsResponseData data = new ListGroupsResponseData();
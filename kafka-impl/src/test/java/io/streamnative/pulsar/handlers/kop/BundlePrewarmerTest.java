@@ -0,0 +1,152 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.Sets;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.storage.PartitionLog;
+import io.streamnative.pulsar.handlers.kop.storage.ReplicaManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.pulsar.common.naming.NamespaceName;
+import org.apache.pulsar.common.naming.TopicName;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link BundlePrewarmer}.
+ */
+public class BundlePrewarmerTest {
+
+    @Test
+    public void testIsKafkaNamespace() {
+        final Set<String> defaultNamespaces = Collections.singleton("${tenant}/default");
+        Assert.assertTrue(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("public/default"), defaultNamespaces));
+        Assert.assertTrue(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("my-tenant/default"),
+                defaultNamespaces));
+        Assert.assertFalse(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("public/other"), defaultNamespaces));
+
+        final Set<String> allowedNamespaces = Sets.newHashSet("public/kafka", "my-tenant/*");
+        Assert.assertTrue(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("public/kafka"), allowedNamespaces));
+        Assert.assertFalse(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("public/default"), allowedNamespaces));
+        Assert.assertTrue(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("my-tenant/ns"), allowedNamespaces));
+        Assert.assertFalse(BundlePrewarmer.isKafkaNamespace(NamespaceName.get("other/ns"), allowedNamespaces));
+    }
+
+    @Test
+    public void testPrewarmTopic() {
+        final ReplicaManager replicaManager = mock(ReplicaManager.class);
+        final PartitionLog partitionLog = mock(PartitionLog.class);
+        final CompletableFuture<PartitionLog> initFuture = new CompletableFuture<>();
+        when(partitionLog.awaitInitialisation()).thenReturn(initFuture);
+        when(replicaManager.getPartitionLog(any(), anyString())).thenReturn(partitionLog);
+        final KopBrokerLookupManager lookupManager = mock(KopBrokerLookupManager.class);
+        when(lookupManager.findBroker(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final List<String> bootstrappedTenants = new ArrayList<>();
+        final BundlePrewarmer prewarmer = new BundlePrewarmer(new KafkaServiceConfiguration(), replicaManager,
+                lookupManager, bootstrappedTenants::add, Runnable::run, NullStatsLogger.INSTANCE);
+
+        Assert.assertTrue(prewarmer.interestedInEvent(NamespaceName.get("public/default"),
+                TopicOwnershipListener.EventType.LOAD));
+        Assert.assertFalse(prewarmer.interestedInEvent(NamespaceName.get("public/default"),
+                TopicOwnershipListener.EventType.UNLOAD));
+        Assert.assertFalse(prewarmer.interestedInEvent(NamespaceName.get("public/other"),
+                TopicOwnershipListener.EventType.LOAD));
+
+        // The partition log is initialized and the lookup is resolved for a partition
+        prewarmer.whenLoad(TopicName.get("persistent://public/default/topic-partition-1"));
+        verify(replicaManager).getPartitionLog(new TopicPartition("persistent://public/default/topic", 1),
+                "public/default");
+        verify(lookupManager).findBroker("persistent://public/default/topic-partition-1", null);
+        verify(partitionLog).awaitInitialisation();
+
+        // A non-partitioned topic is pre-warmed as the partition 0
+        prewarmer.whenLoad(TopicName.get("persistent://public/default/non-partitioned"));
+        verify(replicaManager).getPartitionLog(new TopicPartition("persistent://public/default/non-partitioned", 0),
+                "public/default");
+        verify(lookupManager).findBroker("persistent://public/default/non-partitioned-partition-0", null);
+        initFuture.complete(partitionLog);
+        Assert.assertTrue(bootstrappedTenants.isEmpty());
+    }
+
+    @Test
+    public void testMaxInFlightTopics() {
+        final ReplicaManager replicaManager = mock(ReplicaManager.class);
+        final List<CompletableFuture<PartitionLog>> initFutures = new ArrayList<>();
+        when(replicaManager.getPartitionLog(any(), anyString())).thenAnswer(__ -> {
+            final PartitionLog partitionLog = mock(PartitionLog.class);
+            final CompletableFuture<PartitionLog> initFuture = new CompletableFuture<>();
+            when(partitionLog.awaitInitialisation()).thenReturn(initFuture);
+            initFutures.add(initFuture);
+            return partitionLog;
+        });
+        final KopBrokerLookupManager lookupManager = mock(KopBrokerLookupManager.class);
+        when(lookupManager.findBroker(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+        kafkaConfig.setKopPrewarmMaxInFlightTopics(2);
+        final BundlePrewarmer prewarmer = new BundlePrewarmer(kafkaConfig, replicaManager,
+                lookupManager, __ -> {}, Runnable::run, NullStatsLogger.INSTANCE);
+
+        for (int i = 0; i < 5; i++) {
+            prewarmer.whenLoad(TopicName.get("persistent://public/default/topic-partition-" + i));
+        }
+        // only 2 topics are pre-warmed at the same time
+        Assert.assertEquals(initFutures.size(), 2);
+
+        // the waiting topics are pre-warmed in order when the in-flight topics complete
+        initFutures.get(0).complete(null);
+        Assert.assertEquals(initFutures.size(), 3);
+        verify(replicaManager).getPartitionLog(new TopicPartition("persistent://public/default/topic", 2),
+                "public/default");
+        initFutures.get(1).completeExceptionally(new RuntimeException("failed to initialize"));
+        initFutures.get(2).complete(null);
+        Assert.assertEquals(initFutures.size(), 5);
+        initFutures.get(3).complete(null);
+        initFutures.get(4).complete(null);
+        verify(replicaManager, times(5)).getPartitionLog(any(), anyString());
+    }
+
+    @Test
+    public void testBootstrapCoordinators() {
+        final ReplicaManager replicaManager = mock(ReplicaManager.class);
+        final KopBrokerLookupManager lookupManager = mock(KopBrokerLookupManager.class);
+        final List<String> bootstrappedTenants = new ArrayList<>();
+        final BundlePrewarmer prewarmer = new BundlePrewarmer(new KafkaServiceConfiguration(), replicaManager,
+                lookupManager, bootstrappedTenants::add, Runnable::run, NullStatsLogger.INSTANCE);
+
+        Assert.assertTrue(prewarmer.interestedInEvent(NamespaceName.get("my-tenant/__kafka"),
+                TopicOwnershipListener.EventType.LOAD));
+        prewarmer.whenLoad(TopicName.get("persistent://my-tenant/__kafka/__consumer_offsets-partition-0"));
+        // Other topics in the metadata namespace are ignored
+        prewarmer.whenLoad(TopicName.get("persistent://my-tenant/__kafka/other-partition-0"));
+        Assert.assertEquals(bootstrappedTenants, Collections.singletonList("my-tenant"));
+        // The coordinators load their own partitions, so neither the partition log nor the lookup is touched
+        verifyNoInteractions(replicaManager, lookupManager);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link CoordinatorBootstrapper}.
+ */
+public class CoordinatorBootstrapperTest {
+
+    private OrderedExecutor executor;
+
+    @BeforeClass
+    public void setup() {
+        executor = OrderedExecutor.newBuilder().name("coordinator-bootstrapper-test").numThreads(2).build();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        executor.shutdown();
+    }
+
+    @Test(timeOut = 30000)
+    public void testConcurrentBootstrapsShared() throws Exception {
+        final Map<String, String> coordinators = new ConcurrentHashMap<>();
+        final AtomicInteger numCreations = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CoordinatorBootstrapper<String> bootstrapper = new CoordinatorBootstrapper<>("group", coordinators,
+                tenant -> {
+                    numCreations.incrementAndGet();
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "coordinator-" + tenant;
+                }, executor, NullStatsLogger.INSTANCE);
+
+        final CompletableFuture<String> future1 = bootstrapper.getAsync("public");
+        final CompletableFuture<String> future2 = bootstrapper.getAsync("public");
+        Assert.assertSame(future1, future2);
+        Assert.assertFalse(future1.isDone());
+        Assert.assertEquals(bootstrapper.numPendingBootstraps(), 1);
+
+        latch.countDown();
+        Assert.assertEquals(future1.get(), "coordinator-public");
+        Assert.assertEquals(bootstrapper.get("public"), "coordinator-public");
+        Assert.assertTrue(bootstrapper.getAsync("public").isDone());
+        Assert.assertEquals(coordinators.get("public"), "coordinator-public");
+        Assert.assertEquals(numCreations.get(), 1);
+        Assert.assertEquals(bootstrapper.numPendingBootstraps(), 0);
+    }
+
+    @Test(timeOut = 30000)
+    public void testFailedBootstrapRetried() {
+        final Map<String, String> coordinators = new ConcurrentHashMap<>();
+        final AtomicInteger numCreations = new AtomicInteger(0);
+        final CoordinatorBootstrapper<String> bootstrapper = new CoordinatorBootstrapper<>("transaction",
+                coordinators, tenant -> {
+                    if (numCreations.incrementAndGet() == 1) {
+                        throw new IllegalStateException("failed to create " + tenant);
+                    }
+                    return "coordinator-" + tenant;
+                }, executor, NullStatsLogger.INSTANCE);
+
+        try {
+            bootstrapper.get("public");
+            Assert.fail("the first bootstrap should fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "failed to create public");
+        }
+        Assert.assertTrue(coordinators.isEmpty());
+        Assert.assertEquals(bootstrapper.numPendingBootstraps(), 0);
+
+        Assert.assertEquals(bootstrapper.get("public"), "coordinator-public");
+        Assert.assertEquals(numCreations.get(), 2);
+    }
+}
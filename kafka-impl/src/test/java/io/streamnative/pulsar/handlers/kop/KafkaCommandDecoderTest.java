@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.common.message.HeartbeatRequestData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.requests.AbstractRequest;
+import org.apache.kafka.common.requests.HeartbeatRequest;
+import org.apache.kafka.common.requests.MetadataRequest;
+import org.apache.kafka.common.requests.RequestHeader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link KafkaCommandDecoder}.
+ */
+public class KafkaCommandDecoderTest {
+
+    @Test(timeOut = 30000)
+    public void testRequestsDispatchedInOrderAfterPrepare() {
+        final CompletableFuture<Void> coordinatorFuture = new CompletableFuture<>();
+        final List<Integer> dispatchedCorrelationIds = new ArrayList<>();
+        final KafkaCommandDecoder decoder = mock(KafkaCommandDecoder.class, withSettings()
+                .useConstructor(RequestStats.NULL_INSTANCE, new KafkaServiceConfiguration(), null)
+                .defaultAnswer(CALLS_REAL_METHODS));
+        doReturn(true).when(decoder).hasAuthenticated();
+        // the heartbeat requests wait for the coordinator, while the metadata requests don't
+        doAnswer(invocation -> {
+            final KafkaCommandDecoder.KafkaHeaderAndRequest request = invocation.getArgument(0);
+            return (request.getHeader().apiKey() == ApiKeys.HEARTBEAT)
+                    ? coordinatorFuture : KafkaCommandDecoder.PREPARED;
+        }).when(decoder).prepareRequest(any());
+        doAnswer(invocation -> {
+            final KafkaCommandDecoder.KafkaHeaderAndRequest request = invocation.getArgument(0);
+            dispatchedCorrelationIds.add(request.getHeader().correlationId());
+            return null;
+        }).when(decoder).handleHeartbeatRequest(any(), any());
+        doAnswer(invocation -> {
+            final KafkaCommandDecoder.KafkaHeaderAndRequest request = invocation.getArgument(0);
+            dispatchedCorrelationIds.add(request.getHeader().correlationId());
+            return null;
+        }).when(decoder).handleTopicMetadataRequest(any(), any());
+
+        final EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(Unpooled.wrappedBuffer(newHeartbeatRequest(0)));
+        channel.writeInbound(Unpooled.wrappedBuffer(newMetadataRequest(1)));
+        channel.writeInbound(Unpooled.wrappedBuffer(newHeartbeatRequest(2)));
+        channel.runPendingTasks();
+        // the metadata request doesn't overtake the heartbeat request that is received before it
+        Assert.assertTrue(dispatchedCorrelationIds.isEmpty());
+
+        coordinatorFuture.complete(null);
+        channel.runPendingTasks();
+        Assert.assertEquals(dispatchedCorrelationIds, List.of(0, 1, 2));
+
+        // the requests are dispatched immediately after the queue is drained
+        channel.writeInbound(Unpooled.wrappedBuffer(newMetadataRequest(3)));
+        Assert.assertEquals(dispatchedCorrelationIds, List.of(0, 1, 2, 3));
+        channel.finishAndReleaseAll();
+    }
+
+    private static ByteBuffer newHeartbeatRequest(int correlationId) {
+        return serialize(new HeartbeatRequest.Builder(new HeartbeatRequestData()
+                .setGroupId("group")
+                .setMemberId("member")
+                .setGenerationId(1)).build(), correlationId);
+    }
+
+    private static ByteBuffer newMetadataRequest(int correlationId) {
+        return serialize(new MetadataRequest.Builder(new MetadataRequestData()).build(), correlationId);
+    }
+
+    private static ByteBuffer serialize(AbstractRequest request, int correlationId) {
+        return request.serializeWithHeader(new RequestHeader(request.apiKey(), request.version(),
+                "client", correlationId));
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.METADATA_CACHE_HITS;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.METADATA_CACHE_MISSES;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import io.streamnative.pulsar.handlers.kop.utils.KafkaResponseUtils;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link MetadataResponseCache}.
+ */
+public class MetadataResponseCacheTest {
+
+    private static final String TOPIC = "persistent://public/default/topic";
+
+    private static MetadataResponseCache.Key newKey(List<String> topics) {
+        return new MetadataResponseCache.Key("PLAINTEXT", (short) 9, "public/default", null,
+                true, topics, topics);
+    }
+
+    private static MetadataResponse newResponse(Errors error) {
+        final List<MetadataResponse.TopicMetadata> topicMetadata = (error == Errors.NONE)
+                ? Collections.emptyList()
+                : Collections.singletonList(new MetadataResponse.TopicMetadata(
+                        error, TOPIC, false, Collections.emptyList()));
+        return KafkaResponseUtils.newMetadata(Collections.emptyList(), "cluster", 0, topicMetadata, (short) 9);
+    }
+
+    @Test
+    public void testSharedBuild() {
+        final MetadataResponseCache cache = new MetadataResponseCache(60000, 10, NullStatsLogger.INSTANCE);
+        final AtomicInteger numBuilds = new AtomicInteger(0);
+        final CompletableFuture<MetadataResponse> pendingResponse = new CompletableFuture<>();
+
+        final CompletableFuture<MetadataResponse> future1 = cache.getOrBuild(newKey(null), () -> {
+            numBuilds.incrementAndGet();
+            return pendingResponse;
+        });
+        final CompletableFuture<MetadataResponse> future2 = cache.getOrBuild(newKey(null), () -> {
+            numBuilds.incrementAndGet();
+            return pendingResponse;
+        });
+        Assert.assertSame(future1, future2);
+        pendingResponse.complete(newResponse(Errors.NONE));
+        cache.getOrBuild(newKey(null), () -> {
+            numBuilds.incrementAndGet();
+            return CompletableFuture.completedFuture(newResponse(Errors.NONE));
+        });
+        Assert.assertEquals(numBuilds.get(), 1);
+        Assert.assertEquals(cache.size(), 1);
+
+        // A different topic set is a different key
+        cache.getOrBuild(newKey(Collections.singletonList(TOPIC)), () -> {
+            numBuilds.incrementAndGet();
+            return CompletableFuture.completedFuture(newResponse(Errors.NONE));
+        });
+        Assert.assertEquals(numBuilds.get(), 2);
+        Assert.assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void testResponseWithErrorsNotCached() {
+        final MetadataResponseCache cache = new MetadataResponseCache(60000, 10, NullStatsLogger.INSTANCE);
+        final List<String> topics = Collections.singletonList(TOPIC);
+        cache.getOrBuild(newKey(topics),
+                () -> CompletableFuture.completedFuture(newResponse(Errors.UNKNOWN_TOPIC_OR_PARTITION)));
+        Assert.assertEquals(cache.size(), 0);
+
+        final CompletableFuture<MetadataResponse> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new RuntimeException("lookup failed"));
+        Assert.assertTrue(cache.getOrBuild(newKey(topics), () -> failedFuture).isCompletedExceptionally());
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testInvalidate() {
+        final MetadataResponseCache cache = new MetadataResponseCache(60000, 10, NullStatsLogger.INSTANCE);
+        final List<String> topics = Collections.singletonList(TOPIC);
+        final List<String> otherTopics = Collections.singletonList("persistent://public/default/other");
+        cache.getOrBuild(newKey(null), () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        cache.getOrBuild(newKey(topics), () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        cache.getOrBuild(newKey(otherTopics), () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        Assert.assertEquals(cache.size(), 3);
+
+        // The all-topics response and the response that contains the topic are invalidated
+        cache.invalidateTopic(TOPIC);
+        Assert.assertEquals(cache.size(), 1);
+
+        cache.invalidateAll();
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testTtlAndMaxEntries() throws Exception {
+        final MetadataResponseCache cache = new MetadataResponseCache(100, 1, NullStatsLogger.INSTANCE);
+        final AtomicInteger numBuilds = new AtomicInteger(0);
+        final Runnable getAllTopics = () -> cache.getOrBuild(newKey(null), () -> {
+            numBuilds.incrementAndGet();
+            return CompletableFuture.completedFuture(newResponse(Errors.NONE));
+        });
+        getAllTopics.run();
+        getAllTopics.run();
+        Assert.assertEquals(numBuilds.get(), 1);
+        Thread.sleep(200);
+        getAllTopics.run();
+        Assert.assertEquals(numBuilds.get(), 2);
+
+        // The cache is full
+        cache.getOrBuild(newKey(Collections.singletonList(TOPIC)),
+                () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        Assert.assertEquals(cache.size(), 1);
+
+        final MetadataResponseCache disabledCache = new MetadataResponseCache(0, 10, NullStatsLogger.INSTANCE);
+        Assert.assertFalse(disabledCache.isEnabled());
+        disabledCache.getOrBuild(newKey(null), () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        Assert.assertEquals(disabledCache.size(), 0);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        final Counter hits = mock(Counter.class);
+        final Counter misses = mock(Counter.class);
+        final StatsLogger statsLogger = mock(StatsLogger.class);
+        when(statsLogger.getCounter(METADATA_CACHE_HITS)).thenReturn(hits);
+        when(statsLogger.getCounter(METADATA_CACHE_MISSES)).thenReturn(misses);
+        when(statsLogger.getOpStatsLogger(anyString())).thenReturn(mock(OpStatsLogger.class));
+
+        final MetadataResponseCache cache = new MetadataResponseCache(60000, 10, statsLogger);
+        for (int i = 0; i < 3; i++) {
+            cache.getOrBuild(newKey(null), () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        }
+        verify(misses, times(1)).inc();
+        verify(hits, times(2)).inc();
+
+        // The requests are neither hits nor misses when the cache is disabled
+        final Counter disabledHits = mock(Counter.class);
+        final Counter disabledMisses = mock(Counter.class);
+        when(statsLogger.getCounter(METADATA_CACHE_HITS)).thenReturn(disabledHits);
+        when(statsLogger.getCounter(METADATA_CACHE_MISSES)).thenReturn(disabledMisses);
+        final MetadataResponseCache disabledCache = new MetadataResponseCache(0, 10, statsLogger);
+        disabledCache.getOrBuild(newKey(null), () -> CompletableFuture.completedFuture(newResponse(Errors.NONE)));
+        verify(disabledHits, never()).inc();
+        verify(disabledMisses, never()).inc();
+    }
+}
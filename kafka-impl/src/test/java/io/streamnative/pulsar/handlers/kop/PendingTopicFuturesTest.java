@@ -165,4 +165,26 @@ public class PendingTopicFuturesTest {
         log.info("completedIndexes: {}", completedIndexes);
         Assert.assertEquals(completedIndexes, range(0, 10));
     }
+
+    @Test(timeOut = 10000)
+    void testWaitForDifferentTopicFutures() throws ExecutionException, InterruptedException {
+        final PendingTopicFutures pendingTopicFutures = new PendingTopicFutures(null);
+        // e.g. the load of the topic and the recovery of the producer state
+        final CompletableFuture<PartitionLog> loadFuture = new CompletableFuture<>();
+        final CompletableFuture<PartitionLog> initFuture = new CompletableFuture<>();
+        final List<Integer> completedIndexes = new ArrayList<>();
+
+        pendingTopicFutures.addListener(loadFuture, ignored -> completedIndexes.add(0), (ignore) -> {});
+        pendingTopicFutures.addListener(initFuture, ignored -> completedIndexes.add(1), (ignore) -> {});
+        pendingTopicFutures.addListener(loadFuture, ignored -> completedIndexes.add(2), (ignore) -> {});
+
+        loadFuture.complete(mock(PartitionLog.class));
+        // the listeners after the one that waits for the init future are blocked to keep the order
+        Assert.assertEquals(completedIndexes, Collections.singletonList(0));
+        Assert.assertEquals(pendingTopicFutures.size(), 2);
+
+        initFuture.complete(mock(PartitionLog.class));
+        Assert.assertEquals(pendingTopicFutures.waitAndGetSize(), 0);
+        Assert.assertEquals(completedIndexes, range(0, 3));
+    }
 }
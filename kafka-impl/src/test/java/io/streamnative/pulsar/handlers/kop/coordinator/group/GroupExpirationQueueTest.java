@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link GroupExpirationQueue}.
+ */
+public class GroupExpirationQueueTest {
+
+    @Test
+    public void testPollExpired() {
+        final GroupExpirationQueue queue = new GroupExpirationQueue();
+        queue.schedule("group-A", 300L);
+        queue.schedule("group-B", 100L);
+        queue.schedule("group-C", 200L);
+        Assert.assertEquals(queue.size(), 3);
+
+        Assert.assertEquals(queue.pollExpired(50L), Collections.emptyList());
+        Assert.assertEquals(queue.pollExpired(200L), Arrays.asList("group-B", "group-C"));
+        Assert.assertEquals(queue.size(), 1);
+        Assert.assertEquals(queue.pollExpired(1000L), Collections.singletonList("group-A"));
+        Assert.assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testOnlyEarliestDeadlineKept() {
+        final GroupExpirationQueue queue = new GroupExpirationQueue();
+        queue.schedule("group-A", 200L);
+        // a later deadline doesn't replace the earlier one
+        queue.schedule("group-A", 300L);
+        Assert.assertEquals(queue.pollExpired(200L), Collections.singletonList("group-A"));
+        Assert.assertEquals(queue.pollExpired(1000L), Collections.emptyList());
+
+        queue.schedule("group-A", 300L);
+        queue.schedule("group-A", 100L);
+        Assert.assertEquals(queue.size(), 1);
+        Assert.assertEquals(queue.pollExpired(100L), Collections.singletonList("group-A"));
+        // the replaced entry is discarded
+        Assert.assertEquals(queue.pollExpired(1000L), Collections.emptyList());
+    }
+
+    @Test
+    public void testRemove() {
+        final GroupExpirationQueue queue = new GroupExpirationQueue();
+        for (int i = 0; i < 100; i++) {
+            queue.schedule("group-" + i, i);
+            queue.remove("group-" + i);
+        }
+        queue.schedule("group-0", 500L);
+        Assert.assertEquals(queue.size(), 1);
+        Assert.assertEquals(queue.pollExpired(1000L), Collections.singletonList("group-0"));
+    }
+}
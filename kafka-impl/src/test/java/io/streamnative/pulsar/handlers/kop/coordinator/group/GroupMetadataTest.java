@@ -28,6 +28,8 @@ import static org.testng.Assert.fail;
 import com.google.common.collect.Sets;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.CommitRecordMetadataAndOffset;
 import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -38,6 +40,7 @@ import java.util.function.Supplier;
 import lombok.val;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -407,6 +410,45 @@ public class GroupMetadataTest {
         assertEquals(Optional.of(offset), group.offset(partition, NAMESPACE_PREFIX));
     }
 
+    @Test(timeOut = 30000)
+    public void testReadOffsetsWithoutLock() throws Exception {
+        TopicPartition partition = new TopicPartition("foo", 0);
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        offsets.put(partition, OffsetAndMetadata.apply(37));
+        group.prepareOffsetCommit(offsets);
+        group.onOffsetCommitAppend(partition, new CommitRecordMetadataAndOffset(
+                Optional.of(new PositionImpl(1000, 1)), OffsetAndMetadata.apply(37)));
+
+        // the offsets can be read while the group lock is held by another thread
+        group.lock().lock();
+        try {
+            final CompletableFuture<Optional<OffsetAndMetadata>> future = CompletableFuture.supplyAsync(() ->
+                    group.offset(partition, NAMESPACE_PREFIX));
+            assertEquals(future.get().map(OffsetAndMetadata::offset), Optional.of(37L));
+            assertEquals(CompletableFuture.supplyAsync(group::allOffsets).get().keySet(), offsets.keySet());
+        } finally {
+            group.lock().unlock();
+        }
+    }
+
+    @Test
+    public void testConcurrentOffsetCommitAppend() throws Exception {
+        TopicPartition partition = new TopicPartition("foo", 0);
+        final int numCommits = 1000;
+        group.prepareOffsetCommit(Collections.singletonMap(partition, OffsetAndMetadata.apply(numCommits - 1)));
+        final CompletableFuture<?>[] futures = new CompletableFuture[numCommits];
+        for (int i = 0; i < numCommits; i++) {
+            final long offset = i;
+            futures[i] = CompletableFuture.runAsync(() -> group.onOffsetCommitAppend(partition,
+                    new CommitRecordMetadataAndOffset(Optional.of(new PositionImpl(1000, offset)),
+                            OffsetAndMetadata.apply(offset))));
+        }
+        CompletableFuture.allOf(futures).get();
+        // the offset of the latest appended position always wins
+        assertEquals(group.offset(partition, NAMESPACE_PREFIX).map(OffsetAndMetadata::offset),
+                Optional.of((long) numCommits - 1));
+    }
+
     @Test
     public void testOffsetIncreasingCommit() {
         TopicPartition topicPartition = new TopicPartition("foo", 1);
@@ -635,6 +677,105 @@ public class GroupMetadataTest {
         assertFalse(group.hasPendingOffsetCommitsFromProducer(producerId));
     }
 
+    @Test
+    public void testRebalanceTracking() {
+        Map<String, byte[]> protocols = new HashMap<>();
+        protocols.put("range", new byte[0]);
+        MemberMetadata member = new MemberMetadata(
+            "memberId", groupId.get(), clientId, clientHost, rebalanceTimeoutMs, sessionTimeoutMs,
+            protocolType, protocols);
+        member.awaitingJoinCallback(new CompletableFuture<>());
+        group.add(member);
+        assertEquals(group.rebalanceStartMs(), -1L);
+
+        group.transitionTo(PreparingRebalance);
+        group.maybeStartRebalance(100L);
+        group.initNextGeneration();
+        // the rebalance is restarted before the group becomes stable
+        group.transitionTo(PreparingRebalance);
+        group.maybeStartRebalance(200L);
+        group.initNextGeneration();
+        assertEquals(group.rebalanceStartMs(), 100L);
+        assertEquals(group.rebalanceGenerations(), 2);
+
+        group.transitionTo(Stable);
+        group.completeRebalance();
+        assertEquals(group.rebalanceStartMs(), -1L);
+        assertEquals(group.rebalanceGenerations(), 0);
+    }
+
+    @Test
+    public void testReplaceStaticMember() {
+        String groupInstanceId = "instance-0";
+        Map<String, byte[]> protocols = new HashMap<>();
+        protocols.put("range", new byte[0]);
+        MemberMetadata member = new MemberMetadata(
+            "oldMemberId", groupId.get(), clientId, clientHost, rebalanceTimeoutMs, sessionTimeoutMs,
+            protocolType, protocols);
+        member.groupInstanceId(Optional.of(groupInstanceId));
+        CompletableFuture<JoinGroupResult> joinFuture = new CompletableFuture<>();
+        member.awaitingJoinCallback(joinFuture);
+        group.add(member);
+        assertTrue(group.isLeader("oldMemberId"));
+        assertTrue(group.hasStaticMember(groupInstanceId));
+        assertEquals(group.getStaticMemberId(groupInstanceId), "oldMemberId");
+        assertFalse(group.isStaticMemberFenced("oldMemberId", Optional.of(groupInstanceId)));
+
+        MemberMetadata newMember = group.replaceStaticMember(groupInstanceId, "oldMemberId", "newMemberId",
+            "newClientId", "newClientHost", rebalanceTimeoutMs * 2, sessionTimeoutMs * 2);
+        assertEquals(newMember.memberId(), "newMemberId");
+        // the new member takes the client and the timeouts of the rejoin, and keeps the protocols
+        assertEquals(newMember.clientId(), "newClientId");
+        assertEquals(newMember.clientHost(), "newClientHost");
+        assertEquals(newMember.rebalanceTimeoutMs(), rebalanceTimeoutMs * 2);
+        assertEquals(newMember.sessionTimeoutMs(), sessionTimeoutMs * 2);
+        assertEquals(newMember.supportedProtocols().keySet(), protocols.keySet());
+        assertEquals(newMember.groupInstanceId(), Optional.of(groupInstanceId));
+        assertFalse(group.has("oldMemberId"));
+        assertTrue(group.isLeader("newMemberId"));
+        assertEquals(group.staticMemberInstanceIds(), Collections.singletonMap("newMemberId", groupInstanceId));
+        // the pending join of the old member id is fenced
+        assertEquals(joinFuture.getNow(null).getError(), Errors.FENCED_INSTANCE_ID);
+        assertTrue(group.isStaticMemberFenced("oldMemberId", Optional.of(groupInstanceId)));
+        assertFalse(group.isStaticMemberFenced("newMemberId", Optional.of(groupInstanceId)));
+        assertFalse(group.isStaticMemberFenced("oldMemberId", Optional.empty()));
+
+        group.remove("newMemberId");
+        assertFalse(group.hasStaticMember(groupInstanceId));
+        assertNull(group.getStaticMemberId(groupInstanceId));
+    }
+
+    @Test
+    public void testGroupValueVersionWithStaticMember() {
+        Map<String, byte[]> protocols = new HashMap<>();
+        protocols.put("range", new byte[]{ 1 });
+        MemberMetadata dynamicMember = new MemberMetadata(
+            "dynamicMemberId", groupId.get(), clientId, clientHost, rebalanceTimeoutMs, sessionTimeoutMs,
+            protocolType, protocols);
+        dynamicMember.awaitingJoinCallback(new CompletableFuture<>());
+        group.add(dynamicMember);
+        group.transitionTo(PreparingRebalance);
+        group.initNextGeneration();
+        assertEquals(GroupMetadataConstants.groupValueSchemaVersion(group), 1);
+
+        MemberMetadata staticMember = new MemberMetadata(
+            "staticMemberId", groupId.get(), clientId, clientHost, rebalanceTimeoutMs, sessionTimeoutMs,
+            protocolType, protocols);
+        staticMember.groupInstanceId(Optional.of("instance-0"));
+        group.add(staticMember);
+        short version = GroupMetadataConstants.groupValueSchemaVersion(group);
+        assertEquals(version, 2);
+
+        Map<String, byte[]> assignment = new HashMap<>();
+        assignment.put("dynamicMemberId", new byte[0]);
+        assignment.put("staticMemberId", new byte[0]);
+        byte[] value = GroupMetadataConstants.groupMetadataValue(group, assignment, version);
+        GroupMetadata loadedGroup = GroupMetadataConstants.readGroupMessageValue(groupId.get(), ByteBuffer.wrap(value));
+        assertEquals(loadedGroup.get("staticMemberId").groupInstanceId(), Optional.of("instance-0"));
+        assertEquals(loadedGroup.get("dynamicMemberId").groupInstanceId(), Optional.empty());
+        assertEquals(loadedGroup.getStaticMemberId("instance-0"), "staticMemberId");
+    }
+
     private void assertState(GroupMetadata group, GroupState targetState) {
         Set<GroupState> states = Sets.newHashSet(
             Stable, PreparingRebalance, CompletingRebalance, Dead
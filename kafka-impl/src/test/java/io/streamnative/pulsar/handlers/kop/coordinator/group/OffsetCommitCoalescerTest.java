@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link OffsetCommitCoalescer}.
+ */
+public class OffsetCommitCoalescerTest {
+
+    private static final TopicPartition TP0 = new TopicPartition("topic", 0);
+    private static final TopicPartition TP1 = new TopicPartition("topic", 1);
+
+    private ScheduledExecutorService scheduler;
+
+    @BeforeClass
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        scheduler.shutdown();
+    }
+
+    @Test(timeOut = 30000)
+    public void testCoalesceCommitsOfSameGroup() throws Exception {
+        final Map<String, AtomicInteger> numWrites = new ConcurrentHashMap<>();
+        final Map<String, Map<TopicPartition, OffsetAndMetadata>> writtenOffsets = new ConcurrentHashMap<>();
+        final OffsetCommitCoalescer coalescer = new OffsetCommitCoalescer(100, scheduler,
+                (groupId, offsets, timestamp) -> {
+                    numWrites.computeIfAbsent(groupId, __ -> new AtomicInteger(0)).incrementAndGet();
+                    writtenOffsets.put(groupId, new HashMap<>(offsets));
+                    return CompletableFuture.completedFuture(new MessageIdImpl(0L, 0L, 0));
+                }, NullStatsLogger.INSTANCE.getCounter("coalesced"));
+
+        final OffsetAndMetadata offset1 = OffsetAndMetadata.apply(1L);
+        final OffsetAndMetadata offset2 = OffsetAndMetadata.apply(2L);
+        final OffsetAndMetadata offset3 = OffsetAndMetadata.apply(3L);
+        final CompletableFuture<OffsetCommitCoalescer.Result> future1 =
+                coalescer.commit("group-A", Collections.singletonMap(TP0, offset1), 1L);
+        final CompletableFuture<OffsetCommitCoalescer.Result> future2 =
+                coalescer.commit("group-A", Map.of(TP0, offset2, TP1, offset3), 2L);
+        final CompletableFuture<OffsetCommitCoalescer.Result> future3 =
+                coalescer.commit("group-B", Collections.singletonMap(TP0, offset1), 3L);
+        Assert.assertSame(future1, future2);
+        Assert.assertNotSame(future1, future3);
+        Assert.assertFalse(future1.isDone());
+
+        final OffsetCommitCoalescer.Result result = future1.get();
+        Assert.assertEquals(result.writtenOffsets(), Map.of(TP0, offset2, TP1, offset3));
+        Assert.assertSame(result.writtenOffsets().get(TP0), offset2);
+        Assert.assertEquals(future3.get().writtenOffsets(), Collections.singletonMap(TP0, offset1));
+        Assert.assertEquals(numWrites.get("group-A").get(), 1);
+        Assert.assertEquals(numWrites.get("group-B").get(), 1);
+        Assert.assertEquals(writtenOffsets.get("group-A"), Map.of(TP0, offset2, TP1, offset3));
+
+        // A new window is started after the flush
+        coalescer.commit("group-A", Collections.singletonMap(TP0, offset3), 4L).get();
+        Assert.assertEquals(numWrites.get("group-A").get(), 2);
+    }
+
+    @Test(timeOut = 30000)
+    public void testFailedWrite() {
+        final OffsetCommitCoalescer coalescer = new OffsetCommitCoalescer(10, scheduler,
+                (groupId, offsets, timestamp) -> CompletableFuture.failedFuture(new RuntimeException("failed")),
+                NullStatsLogger.INSTANCE.getCounter("coalesced"));
+        final CompletableFuture<OffsetCommitCoalescer.Result> future1 =
+                coalescer.commit("group-A", Collections.singletonMap(TP0, OffsetAndMetadata.apply(1L)), 1L);
+        final CompletableFuture<OffsetCommitCoalescer.Result> future2 =
+                coalescer.commit("group-A", Collections.singletonMap(TP1, OffsetAndMetadata.apply(1L)), 1L);
+        try {
+            future2.join();
+            Assert.fail("the write should fail");
+        } catch (Exception e) {
+            Assert.assertEquals(e.getCause().getMessage(), "failed");
+        }
+        Assert.assertTrue(future1.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testDisabled() {
+        final AtomicInteger numWrites = new AtomicInteger(0);
+        final OffsetCommitCoalescer coalescer = new OffsetCommitCoalescer(0, scheduler,
+                (groupId, offsets, timestamp) -> {
+                    numWrites.incrementAndGet();
+                    return CompletableFuture.completedFuture(MessageId.earliest);
+                }, NullStatsLogger.INSTANCE.getCounter("coalesced"));
+        Assert.assertFalse(coalescer.isEnabled());
+        Assert.assertTrue(coalescer.commit("group-A", Collections.singletonMap(TP0, OffsetAndMetadata.apply(1L)), 1L)
+                .isDone());
+        Assert.assertTrue(coalescer.commit("group-A", Collections.singletonMap(TP0, OffsetAndMetadata.apply(2L)), 1L)
+                .isDone());
+        Assert.assertEquals(numWrites.get(), 2);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.group;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.GROUP_EXECUTOR_QUEUE_SIZE;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+
+import io.prometheus.client.CollectorRegistry;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import io.streamnative.pulsar.handlers.kop.stats.PrometheusMetricsProvider;
+import io.streamnative.pulsar.handlers.kop.stats.StatsLogger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.kafka.common.errors.CoordinatorNotAvailableException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link OrderedGroupExecutor}.
+ */
+public class OrderedGroupExecutorTest {
+
+    @Test(timeOut = 30000)
+    public void testOperationsOfGroupAreOrdered() throws Exception {
+        final OrderedGroupExecutor executor = OrderedGroupExecutor.create("test-group-executor", 4,
+                NullStatsLogger.INSTANCE);
+        try {
+            final List<Integer> executedOperations = Collections.synchronizedList(new ArrayList<>());
+            final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final int index = i;
+                futures.add(executor.submit("group", () -> {
+                    executedOperations.add(index);
+                    return CompletableFuture.completedFuture(index);
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Assert.assertEquals(futures.get(i).get(3, TimeUnit.SECONDS).intValue(), i);
+            }
+            Assert.assertEquals(executedOperations,
+                    IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testFailedOperation() throws Exception {
+        final OrderedGroupExecutor executor = OrderedGroupExecutor.create("test-group-executor", 1,
+                NullStatsLogger.INSTANCE);
+        try {
+            final CompletableFuture<Integer> future = executor.submit("group", () -> {
+                throw new IllegalStateException("failed");
+            });
+            try {
+                future.get(3, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            // the thread of the group is still available
+            Assert.assertEquals(executor.submit("group", () -> CompletableFuture.completedFuture(1))
+                    .get(3, TimeUnit.SECONDS).intValue(), 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testOperationAfterShutdown() throws Exception {
+        final OrderedGroupExecutor executor = OrderedGroupExecutor.create("test-group-executor", 1,
+                NullStatsLogger.INSTANCE);
+        executor.shutdown();
+        final CompletableFuture<Integer> future = executor.submit("group",
+                () -> CompletableFuture.completedFuture(1));
+        try {
+            future.get(3, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            // the client should find the coordinator again
+            Assert.assertTrue(e.getCause() instanceof CoordinatorNotAvailableException);
+        }
+
+        final AtomicBoolean executed = new AtomicBoolean(false);
+        final AtomicBoolean shutdownCalled = new AtomicBoolean(false);
+        executor.execute("group", () -> executed.set(true), () -> shutdownCalled.set(true));
+        Assert.assertFalse(executed.get());
+        Assert.assertTrue(shutdownCalled.get());
+    }
+
+    @Test(timeOut = 30000)
+    public void testQueueSizeGaugesUnregisteredOnShutdown() throws Exception {
+        final PrometheusMetricsProvider provider = new PrometheusMetricsProvider(new CollectorRegistry());
+        final StatsLogger statsLogger = provider.getStatsLogger(SERVER_SCOPE);
+        final OrderedGroupExecutor executor = OrderedGroupExecutor.create("test-group-executor", 2, statsLogger);
+        Assert.assertEquals(countQueueSizeGauges(provider), 2L);
+        executor.shutdown();
+        Assert.assertEquals(countQueueSizeGauges(provider), 0L);
+
+        // A new executor with the same stats logger reports its own queue sizes
+        final OrderedGroupExecutor newExecutor = OrderedGroupExecutor.create("test-group-executor", 2, statsLogger);
+        try {
+            Assert.assertEquals(countQueueSizeGauges(provider), 2L);
+            Assert.assertEquals(newExecutor.submit("group", () -> CompletableFuture.completedFuture(1))
+                    .get(3, TimeUnit.SECONDS).intValue(), 1);
+        } finally {
+            newExecutor.shutdown();
+        }
+        Assert.assertEquals(countQueueSizeGauges(provider), 0L);
+    }
+
+    private static long countQueueSizeGauges(PrometheusMetricsProvider provider) {
+        return provider.gauges.keySet().stream()
+                .filter(scope -> scope.getScope().endsWith(GROUP_EXECUTOR_QUEUE_SIZE))
+                .count();
+    }
+}
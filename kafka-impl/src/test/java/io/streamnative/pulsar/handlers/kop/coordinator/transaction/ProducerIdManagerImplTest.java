@@ -16,8 +16,11 @@ package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -159,4 +162,81 @@ public class ProducerIdManagerImplTest {
         Assert.assertEquals(set.size(), blockSize, "Ensures all ids are unique and that no extra ids were created.");
     }
 
+    @Test
+    public void testPrefetchNextBlock() throws Exception {
+        int brokerId = 1;
+        CompletableFuture<Optional<GetResult>> secondGetFuture = new CompletableFuture<>();
+        CompletableFuture<Stat> putFuture =
+                CompletableFuture.completedFuture(new Stat("", 0, 0, 0, false, false));
+
+        MetadataStoreExtended mockedMetadataStore = mock(MetadataStoreExtended.class);
+        when(mockedMetadataStore.get(anyString())).thenReturn(CompletableFuture.completedFuture(Optional.empty()))
+                .thenReturn(secondGetFuture).thenReturn(new CompletableFuture<>());
+        when(mockedMetadataStore.put(anyString(), any(), any())).thenReturn(putFuture);
+
+        // The block size is fixed because the max block size is the same as the min block size
+        ProducerIdManagerImpl producerIdManager = new ProducerIdManagerImpl(brokerId, mockedMetadataStore,
+                ProducerIdManagerImpl.PID_BLOCK_SIZE, NullStatsLogger.INSTANCE);
+        producerIdManager.initialize().get();
+        long prefetchId = (long) (ProducerIdManagerImpl.PID_BLOCK_SIZE * AbstractProducerIdManager.PREFETCH_THRESHOLD);
+        for (int i = 0; i < prefetchId; i++) {
+            Assert.assertEquals(producerIdManager.generateProducerId().get().intValue(), i);
+        }
+        verify(mockedMetadataStore, times(1)).get(anyString());
+
+        // The next block is fetched in background once the prefetch id is allocated
+        Assert.assertEquals(producerIdManager.generateProducerId().get().longValue(), prefetchId);
+        verify(mockedMetadataStore, times(2)).get(anyString());
+        for (long i = prefetchId + 1; i < ProducerIdManagerImpl.PID_BLOCK_SIZE; i++) {
+            CompletableFuture<Long> future = producerIdManager.generateProducerId();
+            Assert.assertTrue(future.isDone());
+            Assert.assertEquals(future.get().longValue(), i);
+        }
+
+        // The current block is used up before the next block is fetched
+        CompletableFuture<Long> future = producerIdManager.generateProducerId();
+        Assert.assertFalse(future.isDone());
+        ProducerIdManagerImpl.ProducerIdBlock zeroBlock = ProducerIdManagerImpl.ProducerIdBlock
+                .builder()
+                .brokerId(brokerId)
+                .blockStartId(0L)
+                .blockEndId(ProducerIdManagerImpl.PID_BLOCK_SIZE - 1)
+                .build();
+        Stat stat = new Stat("", 0, 0, 0, false, false);
+        secondGetFuture.complete(Optional.of(
+                new GetResult(ProducerIdManagerImpl.generateProducerIdBlockJson(zeroBlock), stat)));
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(future.get(), ProducerIdManagerImpl.PID_BLOCK_SIZE);
+        verify(mockedMetadataStore, times(2)).get(anyString());
+    }
+
+    @Test
+    public void testAdaptiveBlockSize() throws Exception {
+        long maxBlockSize = 100 * ProducerIdManagerImpl.PID_BLOCK_SIZE;
+        LocalMemoryMetadataStore metadataStore =
+                new LocalMemoryMetadataStore("memory:localhost", MetadataStoreConfig.builder().build());
+        ProducerIdManagerImpl producerIdManager =
+                new ProducerIdManagerImpl(1, metadataStore, maxBlockSize, NullStatsLogger.INSTANCE);
+        producerIdManager.initialize().get();
+        // No producer id is allocated yet
+        Assert.assertEquals(producerIdManager.nextBlockSize(), ProducerIdManagerImpl.PID_BLOCK_SIZE.longValue());
+
+        // The whole block is allocated much faster than the target duration of a block, so the next block is larger
+        for (int i = 0; i <= ProducerIdManagerImpl.PID_BLOCK_SIZE; i++) {
+            Assert.assertEquals(producerIdManager.generateProducerId().get().intValue(), i);
+        }
+        ProducerIdManagerImpl.ProducerIdBlock block = ProducerIdManagerImpl.parseProducerIdBlockData(
+                metadataStore.get(ProducerIdManagerImpl.KOP_PID_BLOCK_ZNODE).get().orElseThrow().getValue());
+        Assert.assertEquals(block.getBlockStartId(), ProducerIdManagerImpl.PID_BLOCK_SIZE);
+        long blockSize = block.getBlockEndId() - block.getBlockStartId() + 1;
+        Assert.assertTrue(blockSize > ProducerIdManagerImpl.PID_BLOCK_SIZE && blockSize <= maxBlockSize,
+                "Unexpected block size " + blockSize);
+
+        // The block size is fixed by default
+        ProducerIdManagerImpl fixedProducerIdManager = new ProducerIdManagerImpl(2, metadataStore);
+        fixedProducerIdManager.initialize().get();
+        fixedProducerIdManager.generateProducerId().get();
+        Assert.assertEquals(fixedProducerIdManager.nextBlockSize(), ProducerIdManagerImpl.PID_BLOCK_SIZE.longValue());
+        metadataStore.close();
+    }
 }
@@ -0,0 +1,128 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerBuilder;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.Reader;
+import org.apache.pulsar.client.api.ReaderBuilder;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test the blocks claimed by {@link PulsarStorageProducerIdManagerImpl} from a mocked producer id topic.
+ */
+public class PulsarStorageProducerIdBlockTest {
+
+    private static final int MIN_BLOCK_SIZE = PulsarStorageProducerIdManagerImpl.BLOCK_SIZE;
+
+    // The values written to the producer id topic
+    private final List<Long> topic = new ArrayList<>();
+
+    @Test
+    public void testBlocksOfDifferentSizesDoNotOverlap() throws Exception {
+        final PulsarClient pulsarClient = mockPulsarClient();
+        final PulsarStorageProducerIdManagerImpl manager1 = new PulsarStorageProducerIdManagerImpl(
+                "producer-id", pulsarClient, 100_000L, NullStatsLogger.INSTANCE);
+        manager1.initialize().get();
+        final PulsarStorageProducerIdManagerImpl manager2 = new PulsarStorageProducerIdManagerImpl(
+                "producer-id", pulsarClient, 100_000L, NullStatsLogger.INSTANCE);
+        manager2.initialize().get();
+
+        final List<AbstractProducerIdManager.ProducerIdRange> ranges = new ArrayList<>();
+        ranges.add(manager1.fetchBlock(MIN_BLOCK_SIZE).get());
+        ranges.add(manager2.fetchBlock(5_000L).get());
+        ranges.add(legacyFetchBlock());
+        ranges.add(manager1.fetchBlock(2_500L).get());
+        ranges.add(legacyFetchBlock());
+        ranges.add(manager2.fetchBlock(MIN_BLOCK_SIZE).get());
+        ranges.add(manager1.fetchBlock(100_000L).get());
+        ranges.add(legacyFetchBlock());
+
+        Assert.assertEquals(ranges.get(0), new AbstractProducerIdManager.ProducerIdRange(
+                MIN_BLOCK_SIZE, 2L * MIN_BLOCK_SIZE - 1));
+        Assert.assertEquals(ranges.get(1).lastId() - ranges.get(1).firstId() + 1, 5_000L);
+        ranges.sort(Comparator.comparingLong(AbstractProducerIdManager.ProducerIdRange::firstId));
+        for (int i = 1; i < ranges.size(); i++) {
+            Assert.assertTrue(ranges.get(i - 1).lastId() < ranges.get(i).firstId(),
+                    ranges.get(i - 1) + " overlaps " + ranges.get(i));
+        }
+    }
+
+    /**
+     * Claim a block like the brokers before the adaptive block size, which always claim {@link #MIN_BLOCK_SIZE} ids
+     * after the written id.
+     */
+    private AbstractProducerIdManager.ProducerIdRange legacyFetchBlock() {
+        final long start = topic.isEmpty() ? 0L : topic.get(topic.size() - 1);
+        topic.add(start + MIN_BLOCK_SIZE);
+        return new AbstractProducerIdManager.ProducerIdRange(start + MIN_BLOCK_SIZE, start + 2L * MIN_BLOCK_SIZE - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PulsarClient mockPulsarClient() {
+        final PulsarClient pulsarClient = mock(PulsarClient.class);
+        // Each manager reads the topic with its own reader
+        when(pulsarClient.newReader()).thenAnswer(__ -> {
+            final ReaderBuilder<byte[]> readerBuilder = mock(ReaderBuilder.class, RETURNS_SELF);
+            final Reader<byte[]> reader = mock(Reader.class);
+            final AtomicInteger position = new AtomicInteger(0);
+            when(reader.hasMessageAvailableAsync()).thenAnswer(___ ->
+                    CompletableFuture.completedFuture(position.get() < topic.size()));
+            when(reader.readNextAsync()).thenAnswer(___ -> {
+                final Message<byte[]> message = mock(Message.class);
+                when(message.getValue()).thenReturn(Schema.INT64.encode(topic.get(position.getAndIncrement())));
+                return CompletableFuture.completedFuture(message);
+            });
+            when(readerBuilder.createAsync()).thenReturn(CompletableFuture.completedFuture(reader));
+            return readerBuilder;
+        });
+        when(pulsarClient.newProducer()).thenAnswer(__ -> {
+            final ProducerBuilder<byte[]> producerBuilder = mock(ProducerBuilder.class, RETURNS_SELF);
+            final Producer<byte[]> producer = mock(Producer.class);
+            when(producer.newMessage()).thenAnswer(___ -> {
+                final TypedMessageBuilder<byte[]> messageBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+                final List<byte[]> values = new ArrayList<>();
+                when(messageBuilder.value(any())).thenAnswer(invocation -> {
+                    values.add(invocation.getArgument(0));
+                    return messageBuilder;
+                });
+                when(messageBuilder.sendAsync()).thenAnswer(____ -> {
+                    topic.add(Schema.INT64.decode(values.get(0)));
+                    return CompletableFuture.completedFuture(null);
+                });
+                return messageBuilder;
+            });
+            when(producer.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+            when(producerBuilder.createAsync()).thenReturn(CompletableFuture.completedFuture(producer));
+            return producerBuilder;
+        });
+        return pulsarClient;
+    }
+}
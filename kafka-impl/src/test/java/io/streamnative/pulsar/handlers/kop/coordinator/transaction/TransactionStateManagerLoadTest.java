@@ -0,0 +1,309 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
+import io.streamnative.pulsar.handlers.kop.utils.MockTime;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerBuilder;
+import org.apache.pulsar.client.api.Reader;
+import org.apache.pulsar.client.api.ReaderBuilder;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link TransactionStateManager} with a mocked transaction log.
+ */
+public class TransactionStateManagerLoadTest {
+
+    private static final int TXN_TIMEOUT_MS = 60000;
+
+    private final Queue<Message<ByteBuffer>> messages = new ConcurrentLinkedQueue<>();
+    private long nextEntryId = 0L;
+
+    @BeforeMethod
+    public void setup() {
+        messages.clear();
+        nextEntryId = 0L;
+    }
+
+    @Test(timeOut = 30000)
+    public void testLoadInBatches() throws Exception {
+        addMessage("txn-0", newTransitMetadata(0L, TransactionState.ONGOING));
+        addMessage("txn-1", newTransitMetadata(1L, TransactionState.PREPARE_COMMIT));
+        // the placeholder written by the previous load
+        addMessage(null, null);
+        addMessage("txn-2", newTransitMetadata(2L, TransactionState.ONGOING));
+        addMessage("txn-2", null);
+        addMessage("txn-3", newTransitMetadata(3L, TransactionState.COMPLETE_ABORT));
+        final MessageId lastMessageId = addMessage(null, null);
+        // the messages after the placeholder are written after the load started
+        addMessage("txn-4", newTransitMetadata(4L, TransactionState.ONGOING));
+
+        final Reader<ByteBuffer> reader = mockReader();
+        final TransactionStateManager transactionStateManager = new TransactionStateManager(
+                TransactionConfig.builder().transactionLogLoadBatchSize(3).build(),
+                mockTxnTopicClient(lastMessageId, reader),
+                Executors.newSingleThreadScheduledExecutor(),
+                Time.SYSTEM);
+        final List<String> pendingTransactions = new ArrayList<>();
+        transactionStateManager.loadTransactionsForTxnTopicPartition(0,
+                (transactionResult, transactionMetadata, txnTransitMetadata) -> {
+                    assertEquals(transactionResult, TransactionResult.COMMIT);
+                    pendingTransactions.add(transactionMetadata.getTransactionalId());
+                }).get();
+
+        final Map<String, TransactionMetadata> loadedTransactions =
+                transactionStateManager.transactionMetadataCache.get(0);
+        assertEquals(loadedTransactions.keySet(), ImmutableSet.of("txn-0", "txn-1", "txn-3"));
+        assertEquals(loadedTransactions.get("txn-0").getState(), TransactionState.ONGOING);
+        assertEquals(loadedTransactions.get("txn-3").getState(), TransactionState.COMPLETE_ABORT);
+        assertEquals(pendingTransactions, List.of("txn-1"));
+        assertTrue(transactionStateManager.loadingPartitions.isEmpty());
+        // 7 messages are read in 3 batches and the message after the placeholder is not read
+        verify(reader, times(3)).readNextAsync();
+        assertEquals(messages.size(), 1);
+        transactionStateManager.shutdown();
+    }
+
+    @Test(timeOut = 30000)
+    public void testLoadCorruptedMessage() throws Exception {
+        addMessage("txn-0", newTransitMetadata(0L, TransactionState.ONGOING));
+        final Message<ByteBuffer> corruptedMessage = mockMessage(new byte[]{ 0 }, ByteBuffer.allocate(0));
+        messages.add(corruptedMessage);
+        final MessageId lastMessageId = addMessage(null, null);
+
+        final TransactionStateManager transactionStateManager = new TransactionStateManager(
+                TransactionConfig.builder().build(),
+                mockTxnTopicClient(lastMessageId, mockReader()),
+                Executors.newSingleThreadScheduledExecutor(),
+                Time.SYSTEM);
+        transactionStateManager.loadTransactionsForTxnTopicPartition(0,
+                (transactionResult, transactionMetadata, txnTransitMetadata) -> {}).get();
+        assertTrue(transactionStateManager.transactionMetadataCache.get(0).isEmpty());
+        assertFalse(transactionStateManager.loadingPartitions.contains(0));
+        transactionStateManager.shutdown();
+    }
+
+    @Test(timeOut = 30000)
+    public void testTimedOutTransactions() throws Exception {
+        final long startTimeMs = 100_000L;
+        addMessage("txn-0", newTransitMetadata(0L, TransactionState.ONGOING, startTimeMs));
+        addMessage("txn-1", newTransitMetadata(1L, TransactionState.COMPLETE_COMMIT, startTimeMs));
+        addMessage("txn-2", newTransitMetadata(2L, TransactionState.ONGOING, startTimeMs + 10_000L));
+        final MessageId lastMessageId = addMessage(null, null);
+
+        final MockTime time = new MockTime(0L, startTimeMs, 0L);
+        final TransactionStateManager transactionStateManager = new TransactionStateManager(
+                TransactionConfig.builder().transactionLogNumPartitions(1).build(),
+                mockTxnTopicClient(lastMessageId, mockReader()),
+                Executors.newSingleThreadScheduledExecutor(),
+                time);
+        transactionStateManager.loadTransactionsForTxnTopicPartition(0,
+                (transactionResult, transactionMetadata, txnTransitMetadata) -> {}).get();
+        assertTrue(transactionStateManager.timedOutTransactions().isEmpty());
+        assertEquals(transactionStateManager.ongoingTransactionCount(), 2L);
+
+        time.sleep(TXN_TIMEOUT_MS + 1);
+        assertEquals(timedOutTransactionalIds(transactionStateManager), List.of("txn-0"));
+        // the timed out transaction is found again until it's aborted
+        assertEquals(timedOutTransactionalIds(transactionStateManager), List.of("txn-0"));
+
+        // a transaction that is added after loading
+        transactionStateManager.putTransactionStateIfNotExists(TransactionMetadata.builder()
+                .transactionalId("txn-3")
+                .producerId(3L)
+                .producerEpoch((short) 0)
+                .txnTimeoutMs(TXN_TIMEOUT_MS)
+                .state(TransactionState.ONGOING)
+                .topicPartitions(new HashSet<>())
+                .txnStartTimestamp(startTimeMs)
+                .txnLastUpdateTimestamp(startTimeMs)
+                .build());
+        final TransactionMetadata txn0 = transactionStateManager.transactionMetadataCache.get(0).get("txn-0");
+        txn0.setState(TransactionState.PREPARE_ABORT);
+        assertEquals(timedOutTransactionalIds(transactionStateManager), List.of("txn-3"));
+        // the transaction being aborted is still counted as ongoing
+        assertEquals(transactionStateManager.ongoingTransactionCount(), 3L);
+
+        // the transaction with a pending transition is skipped
+        final TransactionMetadata txn3 = transactionStateManager.transactionMetadataCache.get(0).get("txn-3");
+        txn3.setPendingState(Optional.of(TransactionState.PREPARE_COMMIT));
+        time.sleep(10_000L);
+        assertEquals(timedOutTransactionalIds(transactionStateManager), List.of("txn-2"));
+        txn3.setPendingState(Optional.empty());
+        // the transactions are sorted by the deadline
+        assertEquals(timedOutTransactionalIds(transactionStateManager), List.of("txn-3", "txn-2"));
+
+        transactionStateManager.removeTransactionsForTxnTopicPartition(0);
+        assertTrue(transactionStateManager.timedOutTransactions().isEmpty());
+        transactionStateManager.shutdown();
+    }
+
+    @Test(timeOut = 30000)
+    public void testOngoingTransactionCount() throws Exception {
+        addMessage("txn-0", newTransitMetadata(0L, TransactionState.ONGOING));
+        addMessage("txn-1", newTransitMetadata(1L, TransactionState.COMPLETE_COMMIT));
+        final MessageId lastMessageId = addMessage(null, null);
+
+        final TransactionStateManager transactionStateManager = new TransactionStateManager(
+                TransactionConfig.builder().transactionLogNumPartitions(1).build(),
+                mockTxnTopicClient(lastMessageId, mockReader()),
+                Executors.newSingleThreadScheduledExecutor(),
+                Time.SYSTEM);
+        transactionStateManager.loadTransactionsForTxnTopicPartition(0,
+                (transactionResult, transactionMetadata, txnTransitMetadata) -> {}).get();
+        assertEquals(transactionStateManager.ongoingTransactionCount(), 1L);
+
+        final Map<String, TransactionMetadata> metadataMap = transactionStateManager.transactionMetadataCache.get(0);
+        final TransactionMetadata txn0 = metadataMap.get("txn-0");
+        final TransactionMetadata txn1 = metadataMap.get("txn-1");
+        appendTransactionToLog(transactionStateManager, "txn-1", txn1.prepareAddPartitions(
+                ImmutableSet.of(new TopicPartition("topic", 1)), System.currentTimeMillis()));
+        assertEquals(txn1.getState(), TransactionState.ONGOING);
+        assertEquals(transactionStateManager.ongoingTransactionCount(), 2L);
+
+        appendTransactionToLog(transactionStateManager, "txn-0",
+                txn0.prepareAbortOrCommit(TransactionState.PREPARE_COMMIT, System.currentTimeMillis()));
+        assertEquals(transactionStateManager.ongoingTransactionCount(), 2L);
+        appendTransactionToLog(transactionStateManager, "txn-0", txn0.prepareComplete(System.currentTimeMillis()));
+        assertEquals(txn0.getState(), TransactionState.COMPLETE_COMMIT);
+        assertEquals(transactionStateManager.ongoingTransactionCount(), 1L);
+        transactionStateManager.shutdown();
+    }
+
+    private static void appendTransactionToLog(TransactionStateManager transactionStateManager,
+                                               String transactionalId,
+                                               TransactionMetadata.TxnTransitMetadata newMetadata) throws Exception {
+        final CompletableFuture<Errors> future = new CompletableFuture<>();
+        transactionStateManager.appendTransactionToLog(transactionalId, -1, newMetadata,
+                new TransactionStateManager.ResponseCallback() {
+                    @Override
+                    public void complete() {
+                        future.complete(Errors.NONE);
+                    }
+
+                    @Override
+                    public void fail(Errors errors) {
+                        future.complete(errors);
+                    }
+                }, __ -> false);
+        assertEquals(future.get(), Errors.NONE);
+    }
+
+    private static List<String> timedOutTransactionalIds(TransactionStateManager transactionStateManager) {
+        final List<String> transactionalIds = new ArrayList<>();
+        transactionStateManager.timedOutTransactions().forEach(txnIdAndPidEpoch ->
+                transactionalIds.add(txnIdAndPidEpoch.getTransactionalId()));
+        return transactionalIds;
+    }
+
+    private static TransactionMetadata.TxnTransitMetadata newTransitMetadata(long producerId,
+                                                                             TransactionState state) {
+        return newTransitMetadata(producerId, state, System.currentTimeMillis());
+    }
+
+    private static TransactionMetadata.TxnTransitMetadata newTransitMetadata(long producerId,
+                                                                             TransactionState state,
+                                                                             long startTimeMs) {
+        return TransactionMetadata.TxnTransitMetadata.builder()
+                .producerId(producerId)
+                .producerEpoch((short) 0)
+                .txnTimeoutMs(TXN_TIMEOUT_MS)
+                .txnState(state)
+                .topicPartitions(ImmutableSet.of(new TopicPartition("topic", 0)))
+                .txnStartTimestamp(startTimeMs)
+                .txnLastUpdateTimestamp(startTimeMs)
+                .build();
+    }
+
+    private MessageId addMessage(String transactionalId, TransactionMetadata.TxnTransitMetadata transitMetadata) {
+        final Message<ByteBuffer> message = mockMessage(
+                (transactionalId == null) ? null : new TransactionLogKey(transactionalId).toBytes(),
+                (transitMetadata == null) ? null : new TransactionLogValue(transitMetadata).toByteBuffer());
+        messages.add(message);
+        return message.getMessageId();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<ByteBuffer> mockMessage(byte[] keyBytes, ByteBuffer value) {
+        final Message<ByteBuffer> message = mock(Message.class);
+        doReturn(new MessageIdImpl(0L, nextEntryId++, -1)).when(message).getMessageId();
+        doReturn(keyBytes != null).when(message).hasKey();
+        doReturn(keyBytes).when(message).getKeyBytes();
+        doReturn(value).when(message).getValue();
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Reader<ByteBuffer> mockReader() throws Exception {
+        final Reader<ByteBuffer> reader = mock(Reader.class);
+        doAnswer(__ -> CompletableFuture.completedFuture(messages.poll())).when(reader).readNextAsync();
+        doAnswer(__ -> messages.poll()).when(reader).readNext(anyInt(), any(TimeUnit.class));
+        doReturn(CompletableFuture.completedFuture(null)).when(reader).closeAsync();
+        return reader;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SystemTopicClient mockTxnTopicClient(MessageId lastMessageId, Reader<ByteBuffer> reader) {
+        final TypedMessageBuilder<ByteBuffer> messageBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+        doReturn(CompletableFuture.completedFuture(lastMessageId)).when(messageBuilder).sendAsync();
+        final Producer<ByteBuffer> producer = mock(Producer.class);
+        doReturn(messageBuilder).when(producer).newMessage();
+        doReturn(CompletableFuture.completedFuture(null)).when(producer).closeAsync();
+        final ProducerBuilder<ByteBuffer> producerBuilder = mock(ProducerBuilder.class, RETURNS_SELF);
+        doReturn(producerBuilder).when(producerBuilder).clone();
+        doReturn(CompletableFuture.completedFuture(producer)).when(producerBuilder).createAsync();
+        final ReaderBuilder<ByteBuffer> readerBuilder = mock(ReaderBuilder.class, RETURNS_SELF);
+        doReturn(readerBuilder).when(readerBuilder).clone();
+        doReturn(CompletableFuture.completedFuture(reader)).when(readerBuilder).createAsync();
+
+        final SystemTopicClient txnTopicClient = mock(SystemTopicClient.class);
+        doReturn(producerBuilder).when(txnTopicClient).newProducerBuilder();
+        doReturn(readerBuilder).when(txnTopicClient).newReaderBuilder();
+        return txnTopicClient;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.kafka.common.message.FetchResponseData;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link AbortedTxnIndex}.
+ */
+public class AbortedTxnIndexTest {
+
+    private AbortedTxnIndex index;
+
+    @BeforeMethod
+    public void setUp() {
+        index = new AbortedTxnIndex();
+        // producer 1 aborts [0, 2] without other ongoing transactions
+        index.add(new AbortedTxn(1L, 0L, 2L, 3L));
+        // producer 2 aborts [3, 10] while the transaction of producer 3 started from 5 is ongoing
+        index.add(new AbortedTxn(2L, 3L, 10L, 5L));
+        // producer 3 aborts [5, 12] without other ongoing transactions
+        index.add(new AbortedTxn(3L, 5L, 12L, 13L));
+        // producer 1 aborts [20, 22] without other ongoing transactions
+        index.add(new AbortedTxn(1L, 20L, 22L, 23L));
+    }
+
+    @Test
+    public void testCollectAbortedTxns() {
+        assertEquals(firstOffsets(index.collectAbortedTxns(Long.MIN_VALUE, Long.MAX_VALUE)),
+                Arrays.asList(0L, 3L, 5L, 20L));
+        assertEquals(firstOffsets(index.collectAbortedTxns(3L, Long.MAX_VALUE)), Arrays.asList(3L, 5L, 20L));
+        assertEquals(firstOffsets(index.collectAbortedTxns(0L, 4L)), Arrays.asList(0L, 3L));
+        assertEquals(firstOffsets(index.collectAbortedTxns(11L, 20L)), Arrays.asList(5L));
+        assertTrue(index.collectAbortedTxns(23L, Long.MAX_VALUE).isEmpty());
+
+        final FetchResponseData.AbortedTransaction abortedTransaction =
+                index.collectAbortedTxns(21L, Long.MAX_VALUE).get(0);
+        assertEquals(abortedTransaction.producerId(), 1L);
+        assertEquals(abortedTransaction.firstOffset(), 20L);
+    }
+
+    @Test
+    public void testPurge() {
+        assertEquals(index.purge(11L), 2L);
+        assertEquals(index.size(), 2);
+        assertEquals(index.purge(11L), 0L);
+        assertEquals(index.toList().stream().map(AbortedTxn::firstOffset).collect(Collectors.toList()),
+                Arrays.asList(5L, 20L));
+        assertEquals(index.purge(Long.MAX_VALUE), 2L);
+        assertTrue(index.isEmpty());
+        assertEquals(index.size(), 0);
+
+        index.add(new AbortedTxn(1L, 30L, 32L, 33L));
+        assertEquals(index.size(), 1);
+        index.clear();
+        assertEquals(index.size(), 0);
+    }
+
+    private static List<Long> firstOffsets(List<FetchResponseData.AbortedTransaction> abortedTransactions) {
+        return abortedTransactions.stream()
+                .map(FetchResponseData.AbortedTransaction::firstOffset)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.PARTITION_LSO_LAG;
+import static io.streamnative.pulsar.handlers.kop.KopServerStats.SERVER_SCOPE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.prometheus.client.CollectorRegistry;
+import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
+import io.streamnative.pulsar.handlers.kop.KafkaTopicLookupService;
+import io.streamnative.pulsar.handlers.kop.RequestStats;
+import io.streamnative.pulsar.handlers.kop.stats.PrometheusMetricsProvider;
+import io.streamnative.pulsar.handlers.kop.utils.KopTopic;
+import io.streamnative.pulsar.handlers.kop.utils.MockTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.kafka.common.TopicPartition;
+import org.testng.annotations.Test;
+
+/**
+ * Test for the eviction and the metrics of {@link PartitionLogManager}.
+ */
+public class PartitionLogManagerTest {
+
+    private static final long NOW_MS = 100_000L;
+
+    private final Map<String, PartitionLog> logMap = new ConcurrentHashMap<>();
+
+    private PartitionLogManager newPartitionLogManager(KafkaServiceConfiguration kafkaConfig) {
+        logMap.clear();
+        return new PartitionLogManager(kafkaConfig, RequestStats.NULL_INSTANCE, logMap,
+                new MockTime(0L, NOW_MS, 0L), Collections.emptyList(), null, __ -> null, null);
+    }
+
+    private PartitionLog addPartitionLog(String topicName, long lastAccessTimeMs, boolean initialised) {
+        final PartitionLog partitionLog = mock(PartitionLog.class);
+        doReturn(lastAccessTimeMs).when(partitionLog).getLastAccessTimeMs();
+        doReturn(initialised).when(partitionLog).isInitialised();
+        doReturn(CompletableFuture.completedFuture(null)).when(partitionLog).takeProducerSnapshot();
+        logMap.put(topicName, partitionLog);
+        return partitionLog;
+    }
+
+    @Test
+    public void testEvictIdleLogs() {
+        final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+        kafkaConfig.setKafkaTransactionCoordinatorEnabled(true);
+        kafkaConfig.setKafkaPartitionLogIdleTimeoutMs(10_000L);
+        final PartitionLogManager partitionLogManager = newPartitionLogManager(kafkaConfig);
+
+        final PartitionLog idleLog = addPartitionLog("idle", NOW_MS - 10_000L, true);
+        final PartitionLog activeLog = addPartitionLog("active", NOW_MS - 1_000L, true);
+        // a partition log that is still recovering is never released
+        final PartitionLog recoveringLog = addPartitionLog("recovering", 0L, false);
+
+        partitionLogManager.evictPartitionLogs().join();
+        assertEquals(logMap.keySet(), new HashSet<>(Arrays.asList("active", "recovering")));
+        verify(idleLog).takeProducerSnapshot();
+        verify(idleLog).markAsUnloaded();
+        verify(activeLog, never()).takeProducerSnapshot();
+        verify(recoveringLog, never()).takeProducerSnapshot();
+    }
+
+    @Test
+    public void testEvictLeastRecentlyAccessedLogs() {
+        final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+        kafkaConfig.setKafkaPartitionLogMaxCount(2);
+        final PartitionLogManager partitionLogManager = newPartitionLogManager(kafkaConfig);
+
+        for (int i = 0; i < 5; i++) {
+            addPartitionLog("topic-" + i, NOW_MS - 1_000L * i, true);
+        }
+        partitionLogManager.evictPartitionLogs().join();
+        assertEquals(logMap.keySet(), new HashSet<>(Arrays.asList("topic-0", "topic-1")));
+        assertEquals(partitionLogManager.size(), 2);
+
+        // the eviction is disabled by default
+        final PartitionLogManager defaultPartitionLogManager =
+                newPartitionLogManager(new KafkaServiceConfiguration());
+        addPartitionLog("topic", 0L, true);
+        defaultPartitionLogManager.evictPartitionLogs().join();
+        assertEquals(defaultPartitionLogManager.size(), 1);
+    }
+
+    @Test
+    public void testKeepLogAccessedDuringSnapshot() {
+        final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+        kafkaConfig.setKafkaTransactionCoordinatorEnabled(true);
+        kafkaConfig.setKafkaPartitionLogIdleTimeoutMs(10_000L);
+        final PartitionLogManager partitionLogManager = newPartitionLogManager(kafkaConfig);
+
+        final PartitionLog partitionLog = addPartitionLog("topic", 0L, true);
+        final CompletableFuture<Object> snapshotFuture = new CompletableFuture<>();
+        doReturn(snapshotFuture).when(partitionLog).takeProducerSnapshot();
+
+        final CompletableFuture<?> evictFuture = partitionLogManager.evictPartitionLogs();
+        // the partition log is accessed before the snapshot is taken
+        doReturn(NOW_MS).when(partitionLog).getLastAccessTimeMs();
+        snapshotFuture.complete(null);
+        evictFuture.join();
+        assertEquals(partitionLogManager.size(), 1);
+        verify(partitionLog, never()).markAsUnloaded();
+    }
+
+    @Test
+    public void testKeepLogReturnedDuringSnapshot() {
+        final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+        kafkaConfig.setKafkaTransactionCoordinatorEnabled(true);
+        kafkaConfig.setKafkaPartitionLogIdleTimeoutMs(10_000L);
+        final PartitionLogManager partitionLogManager = newPartitionLogManager(kafkaConfig);
+
+        final TopicPartition topicPartition = new TopicPartition("test", 0);
+        final String topicName = KopTopic.toString(topicPartition, "public/default");
+        // the access time of the mocked partition log is never changed, like an access in the same millisecond
+        final PartitionLog partitionLog = addPartitionLog(topicName, 0L, true);
+        final CompletableFuture<Object> snapshotFuture = new CompletableFuture<>();
+        doReturn(snapshotFuture).when(partitionLog).takeProducerSnapshot();
+
+        final CompletableFuture<?> evictFuture = partitionLogManager.evictPartitionLogs();
+        assertSame(partitionLogManager.getLog(topicPartition, "public/default"), partitionLog);
+        snapshotFuture.complete(null);
+        evictFuture.join();
+        assertSame(logMap.get(topicName), partitionLog);
+        verify(partitionLog, never()).markAsUnloaded();
+
+        // the partition log is released by the next eviction if it's not accessed again
+        doReturn(CompletableFuture.completedFuture(null)).when(partitionLog).takeProducerSnapshot();
+        partitionLogManager.evictPartitionLogs().join();
+        assertEquals(partitionLogManager.size(), 0);
+        verify(partitionLog).markAsUnloaded();
+    }
+
+    @Test
+    public void testAggregateProducerStates() {
+        final PartitionLogManager partitionLogManager = newPartitionLogManager(new KafkaServiceConfiguration());
+        mockProducerState(addPartitionLog("topic-0", NOW_MS, true), 3L, 1L, 5L);
+        mockProducerState(addPartitionLog("topic-1", NOW_MS, true), 7L, 0L, 2L);
+        // the producer state of a partition log that is still recovering is not counted
+        mockProducerState(addPartitionLog("topic-2", NOW_MS, false), 100L, 100L, 100L);
+
+        assertEquals(partitionLogManager.aggregateProducerStates(ProducerStateManager::numProducers, Long::sum), 10L);
+        assertEquals(partitionLogManager.aggregateProducerStates(ProducerStateManager::numProducers, Math::max), 7L);
+        assertEquals(partitionLogManager.aggregateProducerStates(ProducerStateManager::numOngoingTxns, Long::sum),
+                1L);
+        assertEquals(partitionLogManager.aggregateProducerStates(ProducerStateManager::numAbortedTxns, Long::sum),
+                7L);
+    }
+
+    @Test
+    public void testLsoLagGauge() {
+        final PrometheusMetricsProvider provider = new PrometheusMetricsProvider(new CollectorRegistry());
+        final KafkaTopicLookupService kafkaTopicLookupService = mock(KafkaTopicLookupService.class);
+        // the topic is never loaded, so the partition logs are kept until they are removed
+        doReturn(new CompletableFuture<>()).when(kafkaTopicLookupService).getTopic(anyString(), any());
+        final KafkaServiceConfiguration kafkaConfig = new KafkaServiceConfiguration();
+        kafkaConfig.setKafkaTxnLsoLagMetricsEnabled(true);
+        final PartitionLogManager partitionLogManager = new PartitionLogManager(kafkaConfig,
+                new RequestStats(provider.getStatsLogger(SERVER_SCOPE)), Collections.emptyList(),
+                new MockTime(0L, NOW_MS, 0L), kafkaTopicLookupService, __ -> null, mock(OrderedExecutor.class));
+
+        final TopicPartition topicPartition = new TopicPartition("test", 0);
+        partitionLogManager.getLog(topicPartition, "public/default");
+        partitionLogManager.getLog(topicPartition, "public/default");
+        assertEquals(partitionLogManager.numLsoLagGauges(), 1);
+        assertEquals(countLsoLagGauges(provider), 1L);
+
+        partitionLogManager.removeLog(KopTopic.toString(topicPartition, "public/default"));
+        assertEquals(partitionLogManager.numLsoLagGauges(), 0);
+        assertEquals(countLsoLagGauges(provider), 0L);
+
+        // the gauge is disabled by default
+        final PartitionLogManager defaultPartitionLogManager = new PartitionLogManager(new KafkaServiceConfiguration(),
+                new RequestStats(provider.getStatsLogger(SERVER_SCOPE)), Collections.emptyList(),
+                new MockTime(0L, NOW_MS, 0L), kafkaTopicLookupService, __ -> null, mock(OrderedExecutor.class));
+        defaultPartitionLogManager.getLog(topicPartition, "public/default");
+        assertEquals(defaultPartitionLogManager.numLsoLagGauges(), 0);
+        assertTrue(provider.gauges.keySet().stream().noneMatch(scope -> scope.getScope().endsWith(PARTITION_LSO_LAG)));
+    }
+
+    private static long countLsoLagGauges(PrometheusMetricsProvider provider) {
+        return provider.gauges.entrySet().stream()
+                .filter(entry -> entry.getKey().getScope().endsWith(PARTITION_LSO_LAG))
+                .peek(entry -> assertEquals(entry.getValue().getSample().longValue(), 0L))
+                .count();
+    }
+
+    private static void mockProducerState(PartitionLog partitionLog, long numProducers, long numOngoingTxns,
+                                          long numAbortedTxns) {
+        final ProducerStateManager producerStateManager = mock(ProducerStateManager.class);
+        doReturn(numProducers).when(producerStateManager).numProducers();
+        doReturn(numOngoingTxns).when(producerStateManager).numOngoingTxns();
+        doReturn(numAbortedTxns).when(producerStateManager).numAbortedTxns();
+        doReturn(producerStateManager).when(partitionLog).getProducerStateManager();
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link ProducerStateManagerSnapshotDelta}.
+ */
+public class ProducerStateManagerSnapshotDeltaTest {
+
+    private static final String TOPIC_PARTITION = "persistent://public/default/test-partition-0";
+
+    @Test
+    public void testDiffAndApply() {
+        final Map<Long, ProducerStateEntry> baseProducers = new HashMap<>();
+        baseProducers.put(0L, new ProducerStateEntry(0L, (short) 0, 0, 0L, Optional.empty()));
+        baseProducers.put(1L, new ProducerStateEntry(1L, (short) 0, 0, 0L, Optional.of(10L)));
+        baseProducers.put(2L, new ProducerStateEntry(2L, (short) 0, 0, 0L, Optional.empty()));
+        final TreeMap<Long, TxnMetadata> baseOngoingTxns = new TreeMap<>();
+        baseOngoingTxns.put(10L, new TxnMetadata(1L, 10L));
+        final ProducerStateManagerSnapshot base = new ProducerStateManagerSnapshot(TOPIC_PARTITION, "uuid", 20L,
+                baseProducers, baseOngoingTxns,
+                Arrays.asList(new AbortedTxn(0L, 0L, 2L, 3L), new AbortedTxn(2L, 4L, 6L, 7L)));
+
+        final Map<Long, ProducerStateEntry> producers = new HashMap<>();
+        // producer 0 is not changed
+        producers.put(0L, baseProducers.get(0L));
+        // producer 1 completed the transaction
+        producers.put(1L, new ProducerStateEntry(1L, (short) 0, 0, 25L, Optional.empty()));
+        // producer 2 is expired and producer 3 is added
+        producers.put(3L, new ProducerStateEntry(3L, (short) 1, 0, 0L, Optional.of(30L)));
+        final TreeMap<Long, TxnMetadata> ongoingTxns = new TreeMap<>();
+        ongoingTxns.put(30L, new TxnMetadata(3L, 30L));
+        // the first aborted transaction is purged and a new one is added
+        final ProducerStateManagerSnapshot snapshot = new ProducerStateManagerSnapshot(TOPIC_PARTITION, "uuid", 40L,
+                producers, ongoingTxns,
+                Arrays.asList(new AbortedTxn(2L, 4L, 6L, 7L), new AbortedTxn(1L, 10L, 25L, 26L)));
+
+        final ProducerStateManagerSnapshotDelta delta = ProducerStateManagerSnapshotDelta.diff(base, snapshot);
+        assertEquals(delta.getBaseOffset(), 20L);
+        assertEquals(delta.getProducers().keySet(), new HashSet<>(Arrays.asList(1L, 3L)));
+        assertEquals(delta.getRemovedProducerIds(), Collections.singletonList(2L));
+        assertEquals(delta.getAbortedTxnsStartOffset(), 6L);
+        assertEquals(delta.getAbortedIndexList(), Collections.singletonList(new AbortedTxn(1L, 10L, 25L, 26L)));
+
+        final ByteBuffer serialized = PulsarTopicProducerStateManagerSnapshotBuffer.serializeDelta(delta);
+        final ProducerStateManagerSnapshotDelta deserialized =
+                PulsarTopicProducerStateManagerSnapshotBuffer.deserializeDelta(serialized);
+        assertEquals(deserialized, delta);
+
+        assertEquals(deserialized.applyTo(base), snapshot);
+    }
+
+    @Test
+    public void testAllAbortedTxnsPurged() {
+        final ProducerStateManagerSnapshot base = new ProducerStateManagerSnapshot(TOPIC_PARTITION, null, 20L,
+                Collections.emptyMap(), new TreeMap<>(), Collections.singletonList(new AbortedTxn(0L, 0L, 2L, 3L)));
+        final ProducerStateManagerSnapshot snapshot = new ProducerStateManagerSnapshot(TOPIC_PARTITION, null, 40L,
+                Collections.emptyMap(), new TreeMap<>(), Collections.emptyList());
+
+        final ProducerStateManagerSnapshot restored =
+                ProducerStateManagerSnapshotDelta.diff(base, snapshot).applyTo(base);
+        assertTrue(restored.getAbortedIndexList().isEmpty());
+        assertEquals(restored.getOffset(), 40L);
+    }
+}
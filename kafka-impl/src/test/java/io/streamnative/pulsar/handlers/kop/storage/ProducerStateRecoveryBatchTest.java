@@ -0,0 +1,130 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
+import io.streamnative.pulsar.handlers.kop.KafkaTopicLookupService;
+import io.streamnative.pulsar.handlers.kop.format.EncodeRequest;
+import io.streamnative.pulsar.handlers.kop.format.EncodeResult;
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatter;
+import io.streamnative.pulsar.handlers.kop.format.EntryFormatterFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Time;
+import org.apache.pulsar.common.intercept.AppendIndexMetadataInterceptor;
+import org.apache.pulsar.common.protocol.Commands;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link ProducerStateRecoveryBatch}.
+ */
+public class ProducerStateRecoveryBatchTest {
+
+    private static final KafkaServiceConfiguration CONFIG = new KafkaServiceConfiguration();
+    private static final PartitionLog PARTITION_LOG = new PartitionLog(
+            CONFIG,
+            null,
+            Time.SYSTEM,
+            new TopicPartition("test", 0),
+            "test",
+            null,
+            mock(KafkaTopicLookupService.class),
+            new MemoryProducerStateManagerSnapshotBuffer(),
+            mock(OrderedExecutor.class));
+
+    @Test
+    public void testDecode() {
+        final AppendIndexMetadataInterceptor interceptor = new AppendIndexMetadataInterceptor();
+        interceptor.recoveryIndexGenerator(99L);
+        final List<Entry> entries = new ArrayList<>();
+        // a transactional entry in Kafka format at offsets [100, 102]
+        entries.add(newEntry("kafka", 0L, newRecords(1L, 3), interceptor));
+        // a non-transactional entry in Pulsar format at offsets [103, 104], which has no producer state
+        entries.add(newEntry("pulsar", 1L, newRecords(RecordBatch.NO_PRODUCER_ID, 2), interceptor));
+        // a transactional entry in Pulsar format at offsets [105, 106]
+        entries.add(newEntry("pulsar", 2L, newRecords(2L, 2), interceptor));
+
+        final ProducerStateRecoveryBatch batch = ProducerStateRecoveryBatch.decode(entries);
+        assertEquals(batch.numEntries(), 3);
+        final List<RecordBatch> batches = new ArrayList<>();
+        batch.batches().forEach(batches::add);
+        assertEquals(batches.size(), 2);
+
+        assertEquals(batches.get(0).producerId(), 1L);
+        assertTrue(batches.get(0).isTransactional());
+        assertEquals(batches.get(0).baseOffset(), 100L);
+        assertEquals(batches.get(0).lastOffset(), 102L);
+
+        assertEquals(batches.get(1).producerId(), 2L);
+        assertTrue(batches.get(1).isTransactional());
+        assertEquals(batches.get(1).baseOffset(), 105L);
+
+        final List<ByteBuf> buffers = new ArrayList<>();
+        entries.forEach(entry -> buffers.add(entry.getDataBuffer()));
+        batch.release();
+        buffers.forEach(buffer -> assertEquals(buffer.refCnt(), 0));
+        // release is idempotent
+        batch.release();
+    }
+
+    @Test
+    public void testDecodeEmpty() {
+        final ProducerStateRecoveryBatch batch = ProducerStateRecoveryBatch.decode(Collections.emptyList());
+        assertFalse(batch.batches().iterator().hasNext());
+        batch.release();
+    }
+
+    private static MemoryRecords newRecords(long producerId, int numRecords) {
+        final boolean transactional = producerId != RecordBatch.NO_PRODUCER_ID;
+        final MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024),
+                RecordBatch.CURRENT_MAGIC_VALUE, CompressionType.NONE, TimestampType.CREATE_TIME, 0L,
+                RecordBatch.NO_TIMESTAMP, producerId, transactional ? (short) 0 : RecordBatch.NO_PRODUCER_EPOCH,
+                transactional ? 0 : RecordBatch.NO_SEQUENCE, transactional, RecordBatch.NO_PARTITION_LEADER_EPOCH);
+        for (int i = 0; i < numRecords; i++) {
+            builder.append(new SimpleRecord(System.currentTimeMillis(), ("value-" + i).getBytes()));
+        }
+        return builder.build();
+    }
+
+    private static Entry newEntry(String entryFormat, long entryId, MemoryRecords records,
+                                  AppendIndexMetadataInterceptor interceptor) {
+        final EntryFormatter entryFormatter = EntryFormatterFactory.create(CONFIG, null, entryFormat);
+        final EncodeResult encodeResult = entryFormatter.encode(
+                EncodeRequest.get(records, PARTITION_LOG.analyzeAndValidateRecords(records)));
+        final ByteBuf byteBuf = Commands.addBrokerEntryMetadata(encodeResult.getEncodedByteBuf().retain(),
+                Collections.singleton(interceptor), encodeResult.getNumMessages());
+        final Entry entry = EntryImpl.create(0L, entryId, byteBuf);
+        byteBuf.release();
+        encodeResult.recycle();
+        return entry;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.storage;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+
+import io.streamnative.pulsar.handlers.kop.SystemTopicClient;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerBuilder;
+import org.apache.pulsar.client.api.Reader;
+import org.apache.pulsar.client.api.ReaderBuilder;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link PulsarTopicProducerStateManagerSnapshotBuffer} with a mocked snapshot topic.
+ */
+public class PulsarTopicProducerStateManagerSnapshotBufferTest {
+
+    private static final String TOPIC_PARTITION = "persistent://public/default/test-partition-0";
+    private static final int NUM_PRODUCERS = 100;
+
+    // The messages written to the snapshot topic
+    private final List<Message<ByteBuffer>> messages = new ArrayList<>();
+
+    @BeforeMethod
+    public void setup() {
+        messages.clear();
+    }
+
+    @Test(timeOut = 30000)
+    public void testBaseWrittenAfterMaxDeltas() throws Exception {
+        final PulsarTopicProducerStateManagerSnapshotBuffer buffer = new PulsarTopicProducerStateManagerSnapshotBuffer(
+                "snapshot-topic", mockSystemTopicClient(), Runnable::run, 3, NullStatsLogger.INSTANCE);
+        ProducerStateManagerSnapshot snapshot = null;
+        for (int i = 0; i < 6; i++) {
+            snapshot = newSnapshot(i);
+            buffer.write(snapshot).get();
+        }
+        // a delta changes a single producer, so it's much smaller than the base
+        assertEquals(keys(), List.of(
+                TOPIC_PARTITION,
+                TOPIC_PARTITION + PulsarTopicProducerStateManagerSnapshotBuffer.DELTA_KEY_SUFFIX,
+                TOPIC_PARTITION + PulsarTopicProducerStateManagerSnapshotBuffer.DELTA_KEY_SUFFIX,
+                TOPIC_PARTITION + PulsarTopicProducerStateManagerSnapshotBuffer.DELTA_KEY_SUFFIX,
+                TOPIC_PARTITION,
+                TOPIC_PARTITION + PulsarTopicProducerStateManagerSnapshotBuffer.DELTA_KEY_SUFFIX));
+        assertEquals(buffer.readLatestSnapshot(TOPIC_PARTITION).get(), snapshot);
+        buffer.shutdown();
+
+        // the snapshot is restored from the latest base and delta
+        final PulsarTopicProducerStateManagerSnapshotBuffer newBuffer =
+                new PulsarTopicProducerStateManagerSnapshotBuffer(
+                        "snapshot-topic", mockSystemTopicClient(), Runnable::run, 3, NullStatsLogger.INSTANCE);
+        assertEquals(newBuffer.readLatestSnapshot(TOPIC_PARTITION).get(), snapshot);
+        newBuffer.shutdown();
+    }
+
+    private List<String> keys() {
+        final List<String> keys = new ArrayList<>();
+        messages.forEach(message -> keys.add(message.getKey()));
+        return keys;
+    }
+
+    private static ProducerStateManagerSnapshot newSnapshot(int index) {
+        final Map<Long, ProducerStateEntry> producers = new HashMap<>();
+        for (long producerId = 0; producerId < NUM_PRODUCERS; producerId++) {
+            producers.put(producerId, new ProducerStateEntry(producerId, (short) 0, 0, 0L, Optional.empty()));
+        }
+        // each snapshot changes the last timestamp of a producer
+        producers.put(0L, new ProducerStateEntry(0L, (short) 0, 0, (long) index, Optional.empty()));
+        return new ProducerStateManagerSnapshot(TOPIC_PARTITION, "uuid", 10L * (index + 1), producers,
+                new TreeMap<>(), Collections.emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<ByteBuffer> mockMessage(String key, ByteBuffer value) {
+        final Message<ByteBuffer> message = mock(Message.class);
+        doReturn(true).when(message).hasKey();
+        doReturn(key).when(message).getKey();
+        doAnswer(__ -> value.duplicate()).when(message).getValue();
+        doReturn(value.remaining()).when(message).size();
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SystemTopicClient mockSystemTopicClient() {
+        final Producer<ByteBuffer> producer = mock(Producer.class);
+        doAnswer(__ -> {
+            final TypedMessageBuilder<ByteBuffer> messageBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+            final String[] key = new String[1];
+            final ByteBuffer[] value = new ByteBuffer[1];
+            doAnswer(invocation -> {
+                key[0] = invocation.getArgument(0);
+                return messageBuilder;
+            }).when(messageBuilder).key(anyString());
+            doAnswer(invocation -> {
+                value[0] = invocation.getArgument(0);
+                return messageBuilder;
+            }).when(messageBuilder).value(any());
+            doAnswer(___ -> {
+                messages.add(mockMessage(key[0], value[0]));
+                return CompletableFuture.completedFuture(MessageId.latest);
+            }).when(messageBuilder).sendAsync();
+            return messageBuilder;
+        }).when(producer).newMessage();
+        doReturn(CompletableFuture.completedFuture(null)).when(producer).closeAsync();
+        final ProducerBuilder<ByteBuffer> producerBuilder = mock(ProducerBuilder.class, RETURNS_SELF);
+        doReturn(CompletableFuture.completedFuture(producer)).when(producerBuilder).createAsync();
+
+        final Reader<ByteBuffer> reader = mock(Reader.class);
+        final AtomicInteger position = new AtomicInteger(0);
+        doAnswer(__ -> CompletableFuture.completedFuture(position.get() < messages.size()))
+                .when(reader).hasMessageAvailableAsync();
+        doAnswer(__ -> CompletableFuture.completedFuture(messages.get(position.getAndIncrement())))
+                .when(reader).readNextAsync();
+        doReturn(CompletableFuture.completedFuture(null)).when(reader).closeAsync();
+        final ReaderBuilder<ByteBuffer> readerBuilder = mock(ReaderBuilder.class, RETURNS_SELF);
+        doReturn(CompletableFuture.completedFuture(reader)).when(readerBuilder).createAsync();
+
+        final SystemTopicClient systemTopicClient = mock(SystemTopicClient.class);
+        doReturn(producerBuilder).when(systemTopicClient).newProducerBuilder();
+        doReturn(readerBuilder).when(systemTopicClient).newReaderBuilder();
+        return systemTopicClient;
+    }
+}
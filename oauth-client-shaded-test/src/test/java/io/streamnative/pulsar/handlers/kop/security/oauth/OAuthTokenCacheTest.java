@@ -0,0 +1,186 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.security.oauth;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test OAuthTokenCache with a stand-in token endpoint.
+ *
+ * @see OAuthTokenCache
+ */
+public class OAuthTokenCacheTest {
+
+    private static final String TOKEN_PATH = "/oauth2/token";
+
+    private WireMockServer mockOauthServer;
+    private OAuthTokenCache cache;
+
+    @BeforeMethod
+    public void setup() {
+        mockOauthServer = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        mockOauthServer.start();
+        mockOauthServer.stubFor(WireMock.get(urlPathEqualTo("/.well-known/openid-configuration"))
+                .willReturn(WireMock.ok("{\"token_endpoint\":\"" + mockOauthServer.url(TOKEN_PATH) + "\"}")));
+        cache = new OAuthTokenCache(0.5, 0.1);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() {
+        cache.close();
+        mockOauthServer.shutdown();
+    }
+
+    private void stubToken(String accessToken, int expiresInSeconds, int delayMs) {
+        mockOauthServer.stubFor(WireMock.post(urlPathEqualTo(TOKEN_PATH))
+                .willReturn(WireMock.ok("{\"access_token\":\"" + accessToken + "\",\"expires_in\":"
+                        + expiresInSeconds + "}").withFixedDelay(delayMs)));
+    }
+
+    private ClientConfig createClientConfig(String audience) {
+        return ClientConfigHelper.create(mockOauthServer.url("/"),
+                Objects.requireNonNull(getClass().getClassLoader().getResource("private_key.json")).toString(),
+                audience);
+    }
+
+    private int numTokenRequests() {
+        return mockOauthServer.countRequestsMatching(postRequestedFor(urlPathEqualTo(TOKEN_PATH)).build())
+                .getCount();
+    }
+
+    @Test(timeOut = 30000)
+    public void testTokenShared() throws Exception {
+        stubToken("token-1", 3600, 500);
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            final List<Future<OAuthBearerTokenImpl>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(executor.submit(() -> cache.getToken(createClientConfig("audience"))));
+            }
+            for (Future<OAuthBearerTokenImpl> future : futures) {
+                Assert.assertEquals(future.get().value(), "my-tenant" + OAuthBearerTokenImpl.DELIMITER + "token-1");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(cache.getToken(createClientConfig("audience")).value(),
+                "my-tenant" + OAuthBearerTokenImpl.DELIMITER + "token-1");
+        Assert.assertEquals(numTokenRequests(), 1);
+
+        // A different audience is a different key
+        cache.getToken(createClientConfig("another-audience"));
+        Assert.assertEquals(numTokenRequests(), 2);
+        Assert.assertEquals(cache.size(), 2);
+    }
+
+    @Test(timeOut = 30000)
+    public void testTokenNotSharedWithDifferentCredentials() throws Exception {
+        stubToken("token-1", 3600, 0);
+        cache.getToken(createClientConfig(null));
+        // The same client id with another secret
+        final String credentials = "{\"client_id\":\"my-id\",\"client_secret\":\"another-secret\","
+                + "\"tenant\":\"my-tenant\"}";
+        cache.getToken(ClientConfigHelper.create(mockOauthServer.url("/"), "data:application/json;base64,"
+                + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8))));
+        Assert.assertEquals(numTokenRequests(), 2);
+        // The same client id and secret from another credentials url
+        cache.getToken(ClientConfigHelper.create(mockOauthServer.url("/"), Objects.requireNonNull(
+                getClass().getClassLoader().getResource("private_key_with_group_id.json")).toString()));
+        Assert.assertEquals(numTokenRequests(), 3);
+        Assert.assertEquals(cache.size(), 3);
+    }
+
+    @Test(timeOut = 30000)
+    public void testSlowIssuerNotDelayRefreshes() throws Exception {
+        final WireMockServer slowOauthServer = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        slowOauthServer.start();
+        try {
+            slowOauthServer.stubFor(WireMock.get(urlPathEqualTo("/.well-known/openid-configuration"))
+                    .willReturn(WireMock.ok("{\"token_endpoint\":\"" + slowOauthServer.url(TOKEN_PATH) + "\"}")));
+            slowOauthServer.stubFor(WireMock.post(urlPathEqualTo(TOKEN_PATH))
+                    .willReturn(WireMock.ok("{\"access_token\":\"slow-token\",\"expires_in\":1}")));
+            final ClientConfig slowClientConfig = ClientConfigHelper.create(slowOauthServer.url("/"),
+                    Objects.requireNonNull(getClass().getClassLoader().getResource("private_key.json")).toString());
+            cache.getToken(slowClientConfig);
+            // The refresh of the slow issuer hangs until the test ends
+            slowOauthServer.stubFor(WireMock.post(urlPathEqualTo(TOKEN_PATH))
+                    .willReturn(WireMock.ok("{\"access_token\":\"slow-token\",\"expires_in\":1}")
+                            .withFixedDelay(30000)));
+
+            stubToken("token-1", 2, 0);
+            final ClientConfig clientConfig = createClientConfig(null);
+            final OAuthBearerTokenImpl token1 = cache.getToken(clientConfig);
+            stubToken("token-2", 2, 0);
+            OAuthBearerTokenImpl token = cache.getToken(clientConfig);
+            while (token == token1) {
+                Assert.assertTrue(System.currentTimeMillis() < token1.lifetimeMs());
+                Thread.sleep(50);
+                token = cache.getToken(clientConfig);
+            }
+            Assert.assertEquals(token.value(), "my-tenant" + OAuthBearerTokenImpl.DELIMITER + "token-2");
+        } finally {
+            slowOauthServer.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testRefreshBeforeExpiry() throws Exception {
+        stubToken("token-1", 2, 0);
+        final ClientConfig clientConfig = createClientConfig(null);
+        final OAuthBearerTokenImpl token1 = cache.getToken(clientConfig);
+        Assert.assertEquals(token1.value(), "my-tenant" + OAuthBearerTokenImpl.DELIMITER + "token-1");
+
+        // The refresh happens between 40% and 50% of the lifetime, the old token is served until then
+        stubToken("token-2", 2, 0);
+        OAuthBearerTokenImpl token = cache.getToken(clientConfig);
+        while (token == token1) {
+            Assert.assertTrue(System.currentTimeMillis() < token1.lifetimeMs());
+            Thread.sleep(50);
+            token = cache.getToken(clientConfig);
+        }
+        Assert.assertEquals(token.value(), "my-tenant" + OAuthBearerTokenImpl.DELIMITER + "token-2");
+        Assert.assertEquals(numTokenRequests(), 2);
+    }
+
+    @Test(timeOut = 30000)
+    public void testServeCachedTokenWhenRefreshFails() throws Exception {
+        stubToken("token-1", 2, 0);
+        final ClientConfig clientConfig = createClientConfig(null);
+        final OAuthBearerTokenImpl token1 = cache.getToken(clientConfig);
+
+        mockOauthServer.stubFor(WireMock.post(urlPathEqualTo(TOKEN_PATH)).willReturn(WireMock.serverError()));
+        while (numTokenRequests() < 2) {
+            Assert.assertSame(cache.getToken(clientConfig), token1);
+            Thread.sleep(50);
+        }
+        Assert.assertSame(cache.getToken(clientConfig), token1);
+    }
+}
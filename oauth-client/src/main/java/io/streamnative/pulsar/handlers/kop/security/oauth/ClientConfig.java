@@ -44,12 +44,14 @@ public class ClientConfig {
     public static final String OAUTH_CREDENTIALS_URL = "oauth.credentials.url";
     public static final String OAUTH_AUDIENCE = "oauth.audience";
     public static final String OAUTH_SCOPE = "oauth.scope";
+    public static final String OAUTH_TOKEN_CACHE_ENABLED = "oauth.token.cache.enabled";
 
     private final URL issuerUrl;
     private final io.streamnative.pulsar.handlers.kop.security.oauth.url.URL credentialsUrl;
     private final String audience;
     private final String scope;
     private final ClientInfo clientInfo;
+    private final boolean tokenCacheEnabled;
 
     public ClientConfig(Map<String, String> configs) {
         final String issuerUrlString = configs.get(OAUTH_ISSUER_URL);
@@ -81,6 +83,7 @@ public class ClientConfig {
         }
         this.audience = configs.getOrDefault(OAUTH_AUDIENCE, null);
         this.scope = configs.getOrDefault(OAUTH_SCOPE, null);
+        this.tokenCacheEnabled = Boolean.parseBoolean(configs.getOrDefault(OAUTH_TOKEN_CACHE_ENABLED, "true"));
     }
 
     private static ClientInfo loadClientInfo(String credentialsUrl) throws IOException {
@@ -0,0 +1,269 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.kop.security.oauth;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A JVM-wide cache of the access tokens fetched by {@link ClientCredentialsFlow}.
+ *
+ * <p>All the {@link OauthLoginCallbackHandler} instances that share the same issuer, credentials, tenant, audience
+ * and scope share the same token, so that the identity provider is hit once per token lifetime instead of once per
+ * connection. Before a token expires, it is refreshed in background at a jittered point of its lifetime, and the
+ * cached token is still served while the refresh is in flight. Entries that are not accessed during a whole token
+ * lifetime are dropped instead of being refreshed.
+ *
+ * <p>Each entry has at most one scheduled refresh. The requests to the token endpoint are sent from a separate pool,
+ * so that a slow identity provider doesn't delay the refreshes of the other entries.
+ */
+@Slf4j
+public class OAuthTokenCache {
+
+    private static final OAuthTokenCache INSTANCE = new OAuthTokenCache(0.8, 0.1);
+
+    private static final long MIN_RETRY_DELAY_MS = 1000L;
+    private static final long MAX_RETRY_DELAY_MS = 30000L;
+
+    private final Map<TokenKey, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService fetchExecutor;
+    // The ratio of the token lifetime after which the token is refreshed
+    private final double refreshRatio;
+    // The max ratio of the token lifetime that is subtracted randomly from the refresh point
+    private final double jitterRatio;
+
+    public static OAuthTokenCache getInstance() {
+        return INSTANCE;
+    }
+
+    OAuthTokenCache(double refreshRatio, double jitterRatio) {
+        if (refreshRatio <= 0 || refreshRatio > 1 || jitterRatio < 0 || jitterRatio >= refreshRatio) {
+            throw new IllegalArgumentException("Invalid refreshRatio " + refreshRatio
+                    + " or jitterRatio " + jitterRatio);
+        }
+        this.refreshRatio = refreshRatio;
+        this.jitterRatio = jitterRatio;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "oauth-token-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.fetchExecutor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "oauth-token-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the token associated with the client config.
+     *
+     * <p>It returns immediately if a non-expired token is cached, otherwise it waits for the token to be fetched.
+     * Concurrent callers with the same key share a single request to the token endpoint.
+     *
+     * @param clientConfig the client config
+     * @return the access token
+     * @throws IOException if the token could not be fetched
+     */
+    public OAuthBearerTokenImpl getToken(ClientConfig clientConfig) throws IOException {
+        final TokenKey key = new TokenKey(clientConfig);
+        final Entry entry = entries.computeIfAbsent(key, __ -> new Entry(key, clientConfig));
+        return entry.get();
+    }
+
+    /**
+     * Drop all cached tokens, the tokens will be fetched again by the next callers.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void close() {
+        entries.clear();
+        scheduler.shutdownNow();
+        fetchExecutor.shutdownNow();
+    }
+
+    private long computeRefreshDelayMs(OAuthBearerTokenImpl token, long nowMs) {
+        final long lifetime = Math.max(0L, token.lifetimeMs() - token.startTimeMs());
+        final long jitter = (long) (lifetime * jitterRatio * ThreadLocalRandom.current().nextDouble());
+        final long refreshTimeMs = token.startTimeMs() + (long) (lifetime * refreshRatio) - jitter;
+        return Math.max(0L, refreshTimeMs - nowMs);
+    }
+
+    @EqualsAndHashCode
+    @ToString
+    private static class TokenKey {
+
+        private final String issuerUrl;
+        private final String credentialsUrl;
+        private final String clientId;
+        @ToString.Exclude
+        private final String clientSecret;
+        // The token value is prefixed with the tenant, see ClientCredentialsFlow#authenticate
+        private final String tenant;
+        private final String audience;
+        private final String scope;
+
+        TokenKey(ClientConfig clientConfig) {
+            this.issuerUrl = clientConfig.getIssuerUrl().toExternalForm();
+            this.credentialsUrl = clientConfig.getCredentialsUrl().toString();
+            this.clientId = clientConfig.getClientInfo().getId();
+            this.clientSecret = clientConfig.getClientInfo().getSecret();
+            this.tenant = clientConfig.getClientInfo().getTenant();
+            this.audience = clientConfig.getAudience();
+            this.scope = clientConfig.getScope();
+        }
+    }
+
+    private class Entry {
+
+        private final TokenKey key;
+        private final ClientConfig clientConfig;
+        private volatile OAuthBearerTokenImpl token = null;
+        private volatile long lastAccessMs = System.currentTimeMillis();
+        // The in-flight request to the token endpoint, guarded by `this`
+        private CompletableFuture<OAuthBearerTokenImpl> pendingFetch = null;
+        // The only scheduled refresh of this entry, guarded by `this`
+        private ScheduledFuture<?> scheduledRefresh = null;
+
+        Entry(TokenKey key, ClientConfig clientConfig) {
+            this.key = key;
+            this.clientConfig = clientConfig;
+        }
+
+        OAuthBearerTokenImpl get() throws IOException {
+            final long nowMs = System.currentTimeMillis();
+            lastAccessMs = nowMs;
+            final OAuthBearerTokenImpl currentToken = token;
+            if (currentToken != null && nowMs < currentToken.lifetimeMs()) {
+                return currentToken;
+            }
+            try {
+                return fetch().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching the token for " + key, e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to fetch the token for " + key, cause);
+            }
+        }
+
+        private CompletableFuture<OAuthBearerTokenImpl> fetch() {
+            final CompletableFuture<OAuthBearerTokenImpl> future;
+            synchronized (this) {
+                if (pendingFetch != null) {
+                    return pendingFetch;
+                }
+                pendingFetch = new CompletableFuture<>();
+                future = pendingFetch;
+            }
+            try {
+                fetchExecutor.execute(() -> {
+                    try (ClientCredentialsFlow flow = new ClientCredentialsFlow(clientConfig)) {
+                        final OAuthBearerTokenImpl newToken = flow.authenticate();
+                        token = newToken;
+                        scheduleRefresh(computeRefreshDelayMs(newToken, System.currentTimeMillis()));
+                        completeFetch(future, newToken, null);
+                    } catch (Throwable e) {
+                        completeFetch(future, null, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                completeFetch(future, null, e);
+            }
+            return future;
+        }
+
+        private void completeFetch(CompletableFuture<OAuthBearerTokenImpl> future,
+                                   OAuthBearerTokenImpl newToken,
+                                   Throwable error) {
+            synchronized (this) {
+                pendingFetch = null;
+            }
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(newToken);
+            }
+        }
+
+        /**
+         * Schedule the refresh of this entry, the previously scheduled refresh is replaced.
+         */
+        private synchronized void scheduleRefresh(long delayMs) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+            if (scheduler.isShutdown()) {
+                return;
+            }
+            try {
+                scheduledRefresh = scheduler.schedule(this::refresh, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.warn("Failed to schedule the refresh of the token for {}: {}", key, e.getMessage());
+            }
+        }
+
+        private void refresh() {
+            if (entries.get(key) != this) {
+                return;
+            }
+            final OAuthBearerTokenImpl currentToken = token;
+            final long nowMs = System.currentTimeMillis();
+            if (currentToken != null
+                    && nowMs - lastAccessMs > currentToken.lifetimeMs() - currentToken.startTimeMs()) {
+                // Nobody used the token during a whole lifetime, let the next caller fetch a new one if necessary
+                entries.remove(key, this);
+                return;
+            }
+            fetch().whenComplete((newToken, e) -> {
+                if (e == null) {
+                    return;
+                }
+                if (currentToken == null || currentToken.lifetimeMs() <= System.currentTimeMillis()) {
+                    log.warn("Failed to refresh the token for {}, it will be fetched by the next caller", key, e);
+                    return;
+                }
+                final long retryDelayMs = Math.min(MAX_RETRY_DELAY_MS,
+                        Math.max(MIN_RETRY_DELAY_MS, (currentToken.lifetimeMs() - nowMs) / 2));
+                log.warn("Failed to refresh the token for {}, retry after {} ms", key, retryDelayMs, e);
+                scheduleRefresh(retryDelayMs);
+            });
+        }
+    }
+}
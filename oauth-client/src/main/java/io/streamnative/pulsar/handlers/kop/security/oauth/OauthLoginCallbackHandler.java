@@ -86,6 +86,10 @@ public class OauthLoginCallbackHandler implements AuthenticateCallbackHandler {
         if (callback.token() != null) {
             throw new IllegalArgumentException("Callback had a token already");
         }
+        if (clientConfig.isTokenCacheEnabled()) {
+            callback.token(OAuthTokenCache.getInstance().getToken(clientConfig));
+            return;
+        }
         try (final ClientCredentialsFlow flow = new ClientCredentialsFlow(clientConfig)) {
             callback.token(flow.authenticate());
         }
@@ -13,15 +13,31 @@
  */
 package io.streamnative.pulsar.handlers.kop.admin;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 import io.streamnative.pulsar.handlers.kop.KopBrokerLookupManager;
 import io.streamnative.pulsar.handlers.kop.KopProtocolHandlerTestBase;
 import io.streamnative.pulsar.handlers.kop.LookupClient;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.common.naming.NamespaceBundle;
+import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.TenantInfo;
+import org.awaitility.Awaitility;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -72,4 +88,46 @@ public class KopBrokerLookupManagerTest extends KopProtocolHandlerTestBase {
         assertTrue(kopBrokerLookupManager.isTopicExists(existsTopic).get());
     }
 
+    @Test(timeOut = 20 * 1000)
+    public void testConcurrentLookupsInSameBundle() throws Exception {
+        final String topic = "persistent://" + NAMESPACE + "/" + "batch-lookup-topic";
+        final int numPartitions = 10;
+        admin.topics().createPartitionedTopic(topic, numPartitions);
+        final Set<NamespaceBundle> bundles = new HashSet<>();
+        for (int i = 0; i < numPartitions; i++) {
+            bundles.add(pulsar.getNamespaceService().getBundle(TopicName.get(topic + "-partition-" + i)));
+        }
+
+        // The lookups are blocked until all partitions are looked up, so that the lookups are concurrent
+        final CompletableFuture<Void> lookupGate = new CompletableFuture<>();
+        final LookupClient countingLookupClient = mock(LookupClient.class);
+        when(countingLookupClient.getBrokerAddress(any())).thenAnswer(invocation -> lookupGate.thenCompose(__ ->
+                lookupClient.getBrokerAddress(invocation.getArgument(0))));
+        final KopBrokerLookupManager lookupManager = new KopBrokerLookupManager(conf, pulsar, countingLookupClient);
+        try {
+            final List<CompletableFuture<Optional<InetSocketAddress>>> futures = new ArrayList<>();
+            for (int i = 0; i < numPartitions; i++) {
+                futures.add(lookupManager.findBroker(topic + "-partition-" + i, null));
+            }
+            Awaitility.await().untilAsserted(() ->
+                    assertEquals(lookupManager.getPendingBundleLookups().keySet(), bundles));
+            lookupGate.complete(null);
+
+            final Optional<InetSocketAddress> address = futures.get(0).get();
+            assertTrue(address.isPresent());
+            for (CompletableFuture<Optional<InetSocketAddress>> future : futures) {
+                assertEquals(future.get(), address);
+            }
+            // The concurrent lookups are coalesced into one lookup per bundle
+            verify(countingLookupClient, times(bundles.size())).getBrokerAddress(any());
+            // There is only one broker, so all partitions are cached as local topics
+            for (int i = 0; i < numPartitions; i++) {
+                assertTrue(lookupManager.getLocalBrokerTopics().containsKey(topic + "-partition-" + i));
+            }
+            assertTrue(lookupManager.getPendingBundleLookups().isEmpty());
+        } finally {
+            lookupManager.close();
+        }
+    }
+
 }
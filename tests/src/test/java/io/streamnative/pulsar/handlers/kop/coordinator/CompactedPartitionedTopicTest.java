@@ -145,6 +145,36 @@ public class CompactedPartitionedTopicTest extends KopProtocolHandlerTestBase {
         Assert.assertEquals(numMessagesReceived.get(), numMessages - numMessages / 3);
     }
 
+    @Test(timeOut = 30000)
+    public void testBatchRead() throws Exception {
+        final var topic = "test-batch-read";
+        admin.topics().createPartitionedTopic(topic, 1);
+        final var offsetConfig = OffsetConfig.builder()
+                .offsetsTopicName(topic)
+                .offsetsTopicNumPartitions(1)
+                .offsetCommitTimeoutMs(conf.getOffsetCommitTimeoutMs())
+                .offsetsLoadBatchSize(7)
+                .build();
+        @Cleanup final var compactedTopic = new CompactedPartitionedTopic<>(pulsarClient, Schema.STRING,
+                1000, offsetConfig, executor, String::isEmpty);
+        final var numMessages = 100;
+        final var futures = new ArrayList<CompletableFuture<MessageId>>();
+        for (int i = 0; i < numMessages; i++) {
+            futures.add(compactedTopic.sendAsync(0, ("key-" + i).getBytes(), "msg-" + i, i));
+        }
+        CoreUtils.waitForAll(futures).get();
+
+        final var values = new ArrayList<String>();
+        final var threads = new HashSet<Thread>();
+        final var readResult = compactedTopic.readToLatest(0, msg -> {
+            threads.add(Thread.currentThread());
+            values.add(msg.getValue());
+        }).get();
+        Assert.assertEquals(readResult.numMessages(), numMessages);
+        Assert.assertEquals(values, IntStream.range(0, numMessages).mapToObj(i -> "msg-" + i).toList());
+        Assert.assertEquals(threads.size(), 1);
+    }
+
     @Test(timeOut = 30000)
     public void testClose() throws Exception {
         final var topic = "test-close-" + System.currentTimeMillis();
@@ -13,6 +13,9 @@
  */
 package io.streamnative.pulsar.handlers.kop.coordinator.group;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotEquals;
@@ -28,6 +31,7 @@ import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.Group
 import io.streamnative.pulsar.handlers.kop.coordinator.group.GroupMetadata.GroupSummary;
 import io.streamnative.pulsar.handlers.kop.coordinator.group.MemberMetadata.MemberSummary;
 import io.streamnative.pulsar.handlers.kop.offset.OffsetAndMetadata;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.delayed.DelayedOperationPurgatory;
 import io.streamnative.pulsar.handlers.kop.utils.timer.MockTimer;
 import java.util.ArrayList;
@@ -43,6 +47,8 @@ import java.util.stream.Collectors;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.internals.Topic;
+import org.apache.kafka.common.message.LeaveGroupRequestData.MemberIdentity;
+import org.apache.kafka.common.message.LeaveGroupResponseData.MemberResponse;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.requests.JoinGroupRequest;
 import org.apache.kafka.common.requests.OffsetCommitRequest;
@@ -441,6 +447,207 @@ public class GroupCoordinatorTest extends KopProtocolHandlerTestBase {
         assertEquals(Errors.NONE, heartbeatResult);
     }
 
+    @Test(timeOut = 30000)
+    public void testGroupRequestsOnOrderedExecutor() throws Exception {
+        final DelayedOperationPurgatory<DelayedHeartbeat> heartbeatPurgatory =
+                DelayedOperationPurgatory.<DelayedHeartbeat>builder()
+                        .purgatoryName("Heartbeat")
+                        .timeoutTimer(timer)
+                        .reaperEnabled(false)
+                        .build();
+        final DelayedOperationPurgatory<DelayedJoin> joinPurgatory =
+                DelayedOperationPurgatory.<DelayedJoin>builder()
+                        .purgatoryName("Rebalance")
+                        .timeoutTimer(timer)
+                        .reaperEnabled(false)
+                        .build();
+        final GroupCoordinator orderedGroupCoordinator = new GroupCoordinator(
+                new GroupConfig(ConsumerMinSessionTimeout, ConsumerMaxSessionTimeout, GroupInitialRebalanceDelay),
+                groupMetadataManager,
+                heartbeatPurgatory,
+                joinPurgatory,
+                timer.time(),
+                NullStatsLogger.INSTANCE,
+                OrderedGroupExecutor.create("test-group-coordinator-request", 2, NullStatsLogger.INSTANCE));
+        orderedGroupCoordinator.startup(false);
+        try {
+            final CompletableFuture<JoinGroupResult> joinFuture = orderedGroupCoordinator.handleJoinGroup(
+                    groupId, JoinGroupRequest.UNKNOWN_MEMBER_ID, "clientId", "clientHost",
+                    DefaultRebalanceTimeout, DefaultSessionTimeout, protocolType, protocols);
+            // The join is executed by the thread of the group, wait until it's delayed by the initial rebalance
+            while (joinPurgatory.delayed() == 0 && !joinFuture.isDone()) {
+                Thread.sleep(1);
+            }
+            timer.advanceClock(GroupInitialRebalanceDelay + 1);
+            final JoinGroupResult joinGroupResult = joinFuture.get();
+            assertEquals(Errors.NONE, joinGroupResult.getError());
+            final String assignedMemberId = joinGroupResult.getMemberId();
+            final int generationId = joinGroupResult.getGenerationId();
+
+            final KeyValue<Errors, byte[]> syncGroupResult = orderedGroupCoordinator.handleSyncGroup(
+                    groupId, generationId, assignedMemberId,
+                    ImmutableMap.<String, byte[]>builder()
+                            .put(assignedMemberId, new byte[0])
+                            .build()
+            ).get();
+            assertEquals(Errors.NONE, syncGroupResult.getKey());
+
+            assertEquals(Errors.NONE,
+                    orderedGroupCoordinator.handleHeartbeat(groupId, assignedMemberId, generationId).get());
+            assertEquals(Errors.UNKNOWN_MEMBER_ID,
+                    orderedGroupCoordinator.handleHeartbeat(groupId, "unknown-member", generationId).get());
+        } finally {
+            orderedGroupCoordinator.shutdown();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testGroupRequestsAfterExecutorShutdown() throws Exception {
+        final DelayedOperationPurgatory<DelayedHeartbeat> heartbeatPurgatory =
+                DelayedOperationPurgatory.<DelayedHeartbeat>builder()
+                        .purgatoryName("Heartbeat")
+                        .timeoutTimer(timer)
+                        .reaperEnabled(false)
+                        .build();
+        final DelayedOperationPurgatory<DelayedJoin> joinPurgatory =
+                DelayedOperationPurgatory.<DelayedJoin>builder()
+                        .purgatoryName("Rebalance")
+                        .timeoutTimer(timer)
+                        .reaperEnabled(false)
+                        .build();
+        final OrderedGroupExecutor groupExecutor =
+                OrderedGroupExecutor.create("test-group-coordinator-request", 1, NullStatsLogger.INSTANCE);
+        final GroupCoordinator orderedGroupCoordinator = new GroupCoordinator(
+                new GroupConfig(ConsumerMinSessionTimeout, ConsumerMaxSessionTimeout, GroupInitialRebalanceDelay),
+                groupMetadataManager,
+                heartbeatPurgatory,
+                joinPurgatory,
+                timer.time(),
+                NullStatsLogger.INSTANCE,
+                groupExecutor);
+        orderedGroupCoordinator.startup(false);
+        try {
+            groupExecutor.shutdown();
+            // the requests are rejected by the executor, the client should find the coordinator again
+            assertEquals(Errors.COORDINATOR_NOT_AVAILABLE, orderedGroupCoordinator.handleJoinGroup(
+                    groupId, JoinGroupRequest.UNKNOWN_MEMBER_ID, "clientId", "clientHost",
+                    DefaultRebalanceTimeout, DefaultSessionTimeout, protocolType, protocols).get().getError());
+            assertEquals(Errors.COORDINATOR_NOT_AVAILABLE, orderedGroupCoordinator.handleSyncGroup(
+                    groupId, 1, memberId, ImmutableMap.of(memberId, new byte[0])).get().getKey());
+            assertEquals(Errors.COORDINATOR_NOT_AVAILABLE,
+                    orderedGroupCoordinator.handleHeartbeat(groupId, memberId, 1).get());
+            final TopicPartition tp = new TopicPartition("topic", 0);
+            assertEquals(Errors.COORDINATOR_NOT_AVAILABLE, orderedGroupCoordinator.handleCommitOffsets(
+                    groupId, memberId, 1, ImmutableMap.of(tp, OffsetAndMetadata.apply(0))).get().get(tp));
+            assertEquals(Errors.COORDINATOR_NOT_AVAILABLE, orderedGroupCoordinator.handleLeaveGroup(groupId,
+                    Collections.singletonList(new MemberIdentity().setMemberId(memberId))).get().getKey());
+        } finally {
+            orderedGroupCoordinator.shutdown();
+        }
+    }
+
+    @Test
+    public void testStaticMemberRejoinWithoutRebalance() throws Exception {
+        final String groupInstanceId = "instance-0";
+        final JoinGroupResult joinGroupResult = staticJoinGroup(
+            JoinGroupRequest.UNKNOWN_MEMBER_ID, groupInstanceId, "clientId", DefaultSessionTimeout);
+        assertEquals(Errors.NONE, joinGroupResult.getError());
+        final String oldMemberId = joinGroupResult.getMemberId();
+        final int generationId = joinGroupResult.getGenerationId();
+        final byte[] assignment = new byte[]{ 1 };
+        assertEquals(Errors.NONE, groupCoordinator.handleSyncGroup(groupId, generationId, oldMemberId,
+            Optional.of(groupInstanceId), ImmutableMap.of(oldMemberId, assignment)).get().getKey());
+
+        // the restarted instance rejoins with a new client and a new session timeout
+        final int newSessionTimeout = DefaultSessionTimeout * 2;
+        final JoinGroupResult rejoinResult = staticJoinGroup(
+            JoinGroupRequest.UNKNOWN_MEMBER_ID, groupInstanceId, "newClientId", newSessionTimeout);
+        assertEquals(Errors.NONE, rejoinResult.getError());
+        final String newMemberId = rejoinResult.getMemberId();
+        assertNotEquals(oldMemberId, newMemberId);
+        assertEquals(generationId, rejoinResult.getGenerationId());
+        // the old leader id is returned so that the member doesn't compute a new assignment
+        assertEquals(oldMemberId, rejoinResult.getLeaderId());
+
+        final GroupMetadata group = groupMetadataManager.getGroup(groupId).get();
+        assertTrue(group.is(GroupState.Stable));
+        assertEquals(newMemberId, group.getStaticMemberId(groupInstanceId));
+        final MemberMetadata member = group.get(newMemberId);
+        assertEquals("newClientId", member.clientId());
+        assertEquals(newSessionTimeout, member.sessionTimeoutMs());
+        assertEquals(assignment, member.assignment());
+        assertEquals(Errors.NONE, groupCoordinator.handleHeartbeat(
+            groupId, newMemberId, Optional.of(groupInstanceId), generationId).get());
+    }
+
+    @Test
+    public void testStaticMemberRejoinRevertedOnStoreFailure() throws Exception {
+        final String groupInstanceId = "instance-0";
+        final JoinGroupResult joinGroupResult = staticJoinGroup(
+            JoinGroupRequest.UNKNOWN_MEMBER_ID, groupInstanceId, "clientId", DefaultSessionTimeout);
+        assertEquals(Errors.NONE, joinGroupResult.getError());
+        final String oldMemberId = joinGroupResult.getMemberId();
+        final int generationId = joinGroupResult.getGenerationId();
+        assertEquals(Errors.NONE, groupCoordinator.handleSyncGroup(groupId, generationId, oldMemberId,
+            Optional.of(groupInstanceId), ImmutableMap.of(oldMemberId, new byte[0])).get().getKey());
+
+        doReturn(CompletableFuture.completedFuture(Errors.NOT_COORDINATOR))
+            .when(groupMetadataManager).storeGroup(any(), any());
+        final JoinGroupResult rejoinResult = staticJoinGroup(
+            JoinGroupRequest.UNKNOWN_MEMBER_ID, groupInstanceId, "newClientId", DefaultSessionTimeout * 2);
+        assertEquals(Errors.NOT_COORDINATOR, rejoinResult.getError());
+        doCallRealMethod().when(groupMetadataManager).storeGroup(any(), any());
+
+        // the old member id is still the member of the group with its original client and session timeout
+        final GroupMetadata group = groupMetadataManager.getGroup(groupId).get();
+        assertTrue(group.is(GroupState.Stable));
+        assertEquals(1, group.allMembers().size());
+        assertEquals(oldMemberId, group.getStaticMemberId(groupInstanceId));
+        assertEquals(oldMemberId, group.leaderOrNull());
+        final MemberMetadata member = group.get(oldMemberId);
+        assertEquals("clientId", member.clientId());
+        assertEquals(DefaultSessionTimeout, member.sessionTimeoutMs());
+        assertEquals(Errors.NONE, groupCoordinator.handleHeartbeat(
+            groupId, oldMemberId, Optional.of(groupInstanceId), generationId).get());
+    }
+
+    @Test
+    public void testFencedStaticMember() throws Exception {
+        final String groupInstanceId = "instance-0";
+        final JoinGroupResult joinGroupResult = staticJoinGroup(
+            JoinGroupRequest.UNKNOWN_MEMBER_ID, groupInstanceId, "clientId", DefaultSessionTimeout);
+        assertEquals(Errors.NONE, joinGroupResult.getError());
+        final String oldMemberId = joinGroupResult.getMemberId();
+        final int generationId = joinGroupResult.getGenerationId();
+        assertEquals(Errors.NONE, groupCoordinator.handleSyncGroup(groupId, generationId, oldMemberId,
+            Optional.of(groupInstanceId), ImmutableMap.of(oldMemberId, new byte[0])).get().getKey());
+        final JoinGroupResult rejoinResult = staticJoinGroup(
+            JoinGroupRequest.UNKNOWN_MEMBER_ID, groupInstanceId, "clientId", DefaultSessionTimeout);
+        assertEquals(Errors.NONE, rejoinResult.getError());
+
+        // the requests with the replaced member id are fenced
+        assertEquals(Errors.FENCED_INSTANCE_ID,
+            staticJoinGroup(oldMemberId, groupInstanceId, "clientId", DefaultSessionTimeout).getError());
+        assertEquals(Errors.FENCED_INSTANCE_ID, groupCoordinator.handleSyncGroup(groupId, generationId, oldMemberId,
+            Optional.of(groupInstanceId), ImmutableMap.of(oldMemberId, new byte[0])).get().getKey());
+        assertEquals(Errors.FENCED_INSTANCE_ID, groupCoordinator.handleHeartbeat(
+            groupId, oldMemberId, Optional.of(groupInstanceId), generationId).get());
+        final TopicPartition tp = new TopicPartition("topic", 0);
+        assertEquals(Errors.FENCED_INSTANCE_ID, groupCoordinator.handleCommitOffsets(
+            groupId, oldMemberId, Optional.of(groupInstanceId), generationId,
+            ImmutableMap.of(tp, OffsetAndMetadata.apply(0))).get().get(tp));
+        final KeyValue<Errors, List<MemberResponse>> leaveGroupResult = groupCoordinator.handleLeaveGroup(groupId,
+            Collections.singletonList(new MemberIdentity()
+                .setMemberId(oldMemberId)
+                .setGroupInstanceId(groupInstanceId))).get();
+        assertEquals(Errors.NONE, leaveGroupResult.getKey());
+        assertEquals(Errors.FENCED_INSTANCE_ID.code(), leaveGroupResult.getValue().get(0).errorCode());
+
+        // the new member is not affected
+        assertEquals(Errors.NONE, groupCoordinator.handleHeartbeat(
+            groupId, rejoinResult.getMemberId(), Optional.of(groupInstanceId), generationId).get());
+    }
+
     @Test(enabled = false)
     // todo: https://github.com/streamnative/kop/issues/108
     public void testSessionTimeout() throws Exception {
@@ -506,6 +713,45 @@ public class GroupCoordinatorTest extends KopProtocolHandlerTestBase {
         assertEquals(Errors.NONE, heartbeatResult);
     }
 
+    @Test
+    public void testStableHeartbeatsMaintainSessionAcrossExpirations() throws Exception {
+        String memberId = JoinGroupRequest.UNKNOWN_MEMBER_ID;
+        int sessionTimeout = 1000;
+
+        JoinGroupResult joinGroupResult = joinGroup(
+            groupId, memberId, protocolType, protocols,
+            sessionTimeout, sessionTimeout
+        );
+        String assignedConsumerId = joinGroupResult.getMemberId();
+        int generationId = joinGroupResult.getGenerationId();
+        assertEquals(Errors.NONE, joinGroupResult.getError());
+
+        KeyValue<Errors, byte[]> syncGroupResult = groupCoordinator.handleSyncGroup(
+            groupId, generationId, assignedConsumerId,
+            ImmutableMap.<String, byte[]>builder()
+                .put(assignedConsumerId, new byte[0])
+                .build()
+        ).get();
+        assertEquals(Errors.NONE, syncGroupResult.getKey());
+
+        // the heartbeats of a stable group don't reschedule the session expiration, which is rescheduled when it
+        // expires after the member has sent heartbeats
+        for (int i = 0; i < 5; i++) {
+            timer.advanceClock(sessionTimeout / 2);
+            Errors heartbeatResult = groupCoordinator.handleHeartbeat(
+                groupId, assignedConsumerId, generationId
+            ).get();
+            assertEquals(Errors.NONE, heartbeatResult);
+        }
+
+        // the member is removed after it stops sending heartbeats
+        timer.advanceClock(sessionTimeout + 100);
+        Errors heartbeatResult = groupCoordinator.handleHeartbeat(
+            groupId, assignedConsumerId, generationId
+        ).get();
+        assertNotEquals(Errors.NONE, heartbeatResult);
+    }
+
     @Test
     public void testCommitMaintainsSession() throws Exception {
         String memberId = JoinGroupRequest.UNKNOWN_MEMBER_ID;
@@ -1965,6 +2211,24 @@ public class GroupCoordinatorTest extends KopProtocolHandlerTestBase {
         }
     }
 
+    private JoinGroupResult staticJoinGroup(
+        String memberId,
+        String groupInstanceId,
+        String clientId,
+        int sessionTimeout
+    ) throws Exception {
+        CompletableFuture<JoinGroupResult> responseFuture = groupCoordinator.handleJoinGroup(
+            groupId, memberId, Optional.of(groupInstanceId),
+            clientId, "clientHost",
+            DefaultRebalanceTimeout,
+            sessionTimeout,
+            protocolType,
+            protocols
+        );
+        timer.advanceClock(GroupInitialRebalanceDelay + 1);
+        return responseFuture.get();
+    }
+
     private JoinGroupResult joinGroup(
         String groupId,
         String memberId,
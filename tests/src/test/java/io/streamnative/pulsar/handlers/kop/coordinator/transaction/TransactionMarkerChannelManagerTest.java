@@ -14,24 +14,50 @@
 package io.streamnative.pulsar.handlers.kop.coordinator.transaction;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import io.streamnative.pulsar.handlers.kop.KafkaServiceConfiguration;
 import io.streamnative.pulsar.handlers.kop.KopBrokerLookupManager;
 import io.streamnative.pulsar.handlers.kop.scala.Either;
+import io.streamnative.pulsar.handlers.kop.stats.NullStatsLogger;
 import io.streamnative.pulsar.handlers.kop.utils.timer.MockTime;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.apache.bookkeeper.common.util.OrderedScheduler;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.requests.TransactionResult;
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry;
+import org.apache.kafka.common.requests.WriteTxnMarkersResponse;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
@@ -51,6 +77,9 @@ public class TransactionMarkerChannelManagerTest {
     private OrderedScheduler scheduler;
     private final MockTime time = new MockTime();
     private final Set<TopicPartition> partitions = Sets.newHashSet(new TopicPartition("topic1", 0));
+    private static final long PRODUCER_ID = 10L;
+    private static final short PRODUCER_EPOCH = 1;
+    private static final int TXN_TIMEOUT_MS = 1;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -132,4 +161,135 @@ public class TransactionMarkerChannelManagerTest {
         assertEquals(transactionMarkerChannelManager.getTransactionsWithPendingMarkers().isEmpty(), !isTopicExists);
     }
 
+    @Test
+    public void testWriteMarkersToLocalPartitions() throws Exception {
+        final List<List<TxnMarkerEntry>> localWrites = new CopyOnWriteArrayList<>();
+        final AtomicReference<Errors> localWriteError = new AtomicReference<>(Errors.NOT_LEADER_OR_FOLLOWER);
+        transactionMarkerChannelManager = spy(new TransactionMarkerChannelManager(
+                "public",
+                new KafkaServiceConfiguration(),
+                txnStateManager,
+                kopBrokerLookupManager,
+                false,
+                "public/default",
+                scheduler,
+                markers -> {
+                    localWrites.add(markers);
+                    final Map<Long, Map<TopicPartition, Errors>> errors = new HashMap<>();
+                    markers.forEach(marker -> errors.put(marker.producerId(), marker.partitions().stream()
+                            .collect(Collectors.toMap(Function.identity(), __ -> localWriteError.get()))));
+                    return CompletableFuture.completedFuture(new WriteTxnMarkersResponse(errors));
+                },
+                NullStatsLogger.INSTANCE));
+        doReturn(new CompletableFuture<>()).when(transactionMarkerChannelManager).getChannel(any());
+        // the markers are drained immediately after they are queued, and the retried markers are drained after
+        // the backoff task is run
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Runnable.class).run();
+            return null;
+        }).when(scheduler).execute(any());
+        final ArgumentCaptor<Runnable> backoffTask = ArgumentCaptor.forClass(Runnable.class);
+        when(scheduler.schedule(backoffTask.capture(), anyLong(), any())).thenAnswer(__ -> mock(ScheduledFuture.class));
+        when(kopBrokerLookupManager.isTopicExists(any())).thenReturn(CompletableFuture.completedFuture(true));
+        when(kopBrokerLookupManager.findBroker(any(), any())).thenReturn(
+                CompletableFuture.completedFuture(Optional.of(InetSocketAddress.createUnresolved("localhost", 9092))));
+        // the lookup cache of the partition is invalidated if the partition is not owned by this broker anymore
+        final AtomicBoolean isLocalBrokerTopic = new AtomicBoolean(true);
+        when(kopBrokerLookupManager.isLocalBrokerTopic(any())).thenAnswer(__ -> isLocalBrokerTopic.get());
+        doAnswer(__ -> {
+            isLocalBrokerTopic.set(false);
+            return null;
+        }).when(kopBrokerLookupManager).removeTopicManagerCache(any());
+
+        final String transactionalId = "local";
+        final TransactionMetadata txnMetadata = newTxnMetadata(transactionalId);
+        final int coordinatorEpoch = 0;
+        when(txnStateManager.getTransactionState(transactionalId)).thenReturn(Either.right(Optional.of(
+                new TransactionStateManager.CoordinatorEpochAndTxnMetadata(coordinatorEpoch, txnMetadata))));
+        transactionMarkerChannelManager.addTxnMarkersToSend(
+                coordinatorEpoch, TransactionResult.COMMIT, txnMetadata, newTransition(), "public/default");
+
+        // the partition has been moved to another broker after the lookup, so the markers are re-enqueued
+        assertEquals(localWrites.size(), 1);
+        assertEquals(localWrites.get(0).get(0).partitions(), new ArrayList<>(partitions));
+        verify(kopBrokerLookupManager).removeTopicManagerCache("persistent://public/default/topic1-partition-0");
+        verify(transactionMarkerChannelManager, never()).getChannel(any());
+        assertFalse(transactionMarkerChannelManager.getTransactionsWithPendingMarkers().isEmpty());
+
+        // then they are sent to the new owner
+        backoffTask.getValue().run();
+        assertEquals(localWrites.size(), 1);
+        verify(transactionMarkerChannelManager).getChannel(any());
+
+        // the partition is owned by this broker again, so the markers are written locally
+        isLocalBrokerTopic.set(true);
+        localWriteError.set(Errors.NONE);
+        transactionMarkerChannelManager.addTxnMarkersToBrokerQueue(transactionalId, txnMetadata.getProducerId(),
+                txnMetadata.getProducerEpoch(), TransactionResult.COMMIT, coordinatorEpoch, partitions,
+                "public/default");
+        backoffTask.getValue().run();
+        assertEquals(localWrites.size(), 2);
+        assertTrue(txnMetadata.getTopicPartitions().isEmpty());
+        assertTrue(transactionMarkerChannelManager.getTransactionsWithPendingMarkers().isEmpty());
+        verify(txnStateManager).appendTransactionToLog(eq(transactionalId), eq(coordinatorEpoch), any(), any(), any());
+    }
+
+    @Test
+    public void testDrainMarkersInBatch() {
+        final TransactionMarkerChannelHandler channelHandler = mock(TransactionMarkerChannelHandler.class);
+        doReturn(CompletableFuture.completedFuture(channelHandler))
+                .when(transactionMarkerChannelManager).getChannel(any());
+        when(kopBrokerLookupManager.isTopicExists(any())).thenReturn(CompletableFuture.completedFuture(true));
+        when(kopBrokerLookupManager.findBroker(any(), any())).thenReturn(
+                CompletableFuture.completedFuture(Optional.of(InetSocketAddress.createUnresolved("localhost", 9092))));
+
+        final int coordinatorEpoch = 0;
+        for (String transactionalId : Arrays.asList("txn-0", "txn-1")) {
+            final TransactionMetadata txnMetadata = newTxnMetadata(transactionalId);
+            when(txnStateManager.getTransactionState(transactionalId)).thenReturn(Either.right(Optional.of(
+                    new TransactionStateManager.CoordinatorEpochAndTxnMetadata(coordinatorEpoch, txnMetadata))));
+            transactionMarkerChannelManager.addTxnMarkersToSend(
+                    coordinatorEpoch, TransactionResult.COMMIT, txnMetadata, newTransition(), "public/default");
+        }
+
+        // the drain is scheduled once after the first markers are queued
+        final ArgumentCaptor<Runnable> drainTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).execute(drainTask.capture());
+        drainTask.getValue().run();
+
+        // the markers for the same broker are sent in one request
+        final ArgumentCaptor<List<TxnMarkerEntry>> sendEntries = ArgumentCaptor.forClass(List.class);
+        verify(channelHandler).enqueueWriteTxnMarkers(sendEntries.capture(), any());
+        assertEquals(sendEntries.getValue().size(), 2);
+    }
+
+    private TransactionMetadata newTxnMetadata(String transactionalId) {
+        return TransactionMetadata.builder()
+                .transactionalId(transactionalId)
+                .producerId(PRODUCER_ID)
+                .lastProducerId(PRODUCER_ID)
+                .producerEpoch(PRODUCER_EPOCH)
+                .lastProducerEpoch(RecordBatch.NO_PRODUCER_EPOCH)
+                .txnTimeoutMs(TXN_TIMEOUT_MS)
+                .state(TransactionState.PREPARE_COMMIT)
+                .topicPartitions(new HashSet<>(partitions))
+                .txnStartTimestamp(time.milliseconds())
+                .txnLastUpdateTimestamp(time.milliseconds())
+                .build();
+    }
+
+    private TransactionMetadata.TxnTransitMetadata newTransition() {
+        return TransactionMetadata.TxnTransitMetadata.builder()
+                .producerId(PRODUCER_ID)
+                .lastProducerId(PRODUCER_ID)
+                .producerEpoch(PRODUCER_EPOCH)
+                .lastProducerEpoch(RecordBatch.NO_PRODUCER_EPOCH)
+                .txnTimeoutMs(TXN_TIMEOUT_MS)
+                .txnState(TransactionState.COMPLETE_COMMIT)
+                .topicPartitions(ImmutableSet.copyOf(partitions))
+                .txnStartTimestamp(time.milliseconds())
+                .txnLastUpdateTimestamp(time.milliseconds())
+                .build();
+    }
+
 }
@@ -14,6 +14,7 @@
 package io.streamnative.pulsar.handlers.kop.storage;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -253,6 +254,30 @@ public class ProducerStateManagerTest extends KopProtocolHandlerTestBase {
         assertEquals(Optional.empty(), stateManager.lastEntry(producerId).get().currentTxnFirstOffset());
     }
 
+    @Test(timeOut = defaultTestTimeout)
+    public void testRemoveExpiredProducers() {
+        stateManager = new ProducerStateManager(partition.toString(), null,
+                producerStateManagerSnapshotBuffer,
+                conf.getKafkaTxnProducerStateTopicSnapshotIntervalSeconds(),
+                conf.getKafkaTxnPurgeAbortedTxnIntervalSeconds(),
+                1000L,
+                1000L);
+        short epoch = 0;
+        long idleProducerId = producerId + 1;
+        append(stateManager, producerId, epoch, 0L, time.milliseconds(), true);
+        append(stateManager, idleProducerId, epoch, 1L, time.milliseconds(), false);
+
+        long now = System.currentTimeMillis();
+        assertEquals(stateManager.removeExpiredProducers(now), 0);
+        assertTrue(stateManager.lastEntry(idleProducerId).isPresent());
+
+        // the producer with an ongoing transaction is retained
+        assertEquals(stateManager.removeExpiredProducers(now + 1000L), 1);
+        assertFalse(stateManager.lastEntry(idleProducerId).isPresent());
+        assertTrue(stateManager.lastEntry(producerId).isPresent());
+        assertEquals(stateManager.firstUndecidedOffset(), Optional.of(0L));
+    }
+
     private Optional<CompletedTxn> appendEndTxnMarker(ProducerStateManager mapping,
                                                                            Long producerId,
                                                                            Short producerEpoch,